@@ -31,12 +31,12 @@ dependencies {
     implementation("org.springframework.boot:spring-boot-starter-validation")
     implementation("org.springframework.boot:spring-boot-starter-integration")
     implementation("org.springframework.security:spring-security-core")
-    implementation("org.springframework.integration:spring-integration-ip")
     implementation("com.mysql:mysql-connector-j:8.3.0")
     implementation("commons-dbutils:commons-dbutils:1.8.1")
     implementation("com.fasterxml.jackson.core:jackson-core:2.16.1")
     implementation("org.bouncycastle:bcprov-jdk18on:1.77")
     implementation("today.tecktip.killbill.common:lib")
+    annotationProcessor("today.tecktip.killbill.common:lib")
     testImplementation("junit:junit:4.13.2")
 	testImplementation("org.springframework.boot:spring-boot-starter-test")
     testImplementation("io.rest-assured:rest-assured")
@@ -55,6 +55,10 @@ application {
 }
 
 tasks {
+    "compileJava"(JavaCompile::class) {
+        // Registers every @Command class in a loader generated at build time
+        options.compilerArgs.add("-Akillbill.commandLoader=today.tecktip.killbill.backend.gameserver.GeneratedCommandLoader")
+    }
     "run"(JavaExec::class) {
         environment("MYSQL_USER", project.properties["MYSQL_USER"])
         environment("MYSQL_HOST", project.properties["MYSQL_HOST"])
@@ -24,6 +24,7 @@ public class Application {
 	 * 	<li><code>MYSQL_PASS</code>: MySQL user password</li>
 	 * 	<li><code>MYSQL_DB</code>: MySQL database name</li>
 	 * 	<li><code>ADMIN_INIT_KEY</code>: Authorization key for <code>/admin</code> methods</li>
+	 * 	<li><code>UDP_READER_THREADS</code>: Number of threads reading game server packets (optional, defaults to 4)</li>
 	 * </ul>
 	 * @param args Commandline args. Ignored at this time.
 	 */
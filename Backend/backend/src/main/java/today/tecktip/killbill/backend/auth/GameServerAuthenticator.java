@@ -1,16 +1,16 @@
 package today.tecktip.killbill.backend.auth;
 
+import java.net.InetSocketAddress;
 import java.sql.SQLException;
 import java.util.Base64;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.JsonNodeType;
 
-import today.tecktip.killbill.backend.db.games.Game;
-import today.tecktip.killbill.backend.db.games.Games;
 import today.tecktip.killbill.backend.db.gameusers.GameUser;
 import today.tecktip.killbill.backend.db.gameusers.GameUsers;
 import today.tecktip.killbill.backend.db.users.User;
@@ -41,34 +41,29 @@ public class GameServerAuthenticator {
 
     /**
      * Requires authentication on an API request.
+     * <p>
+     * A user keeps the client it was last given while messages keep coming from the same address.
+     *  A client for a new address is only created once the key has been validated, and only taken
+     *  if the user isn't connected somewhere else.
      * @param key Incoming message 'key' field to authenticate
-     * @param client UDP client associated with the authenticated user
+     * @param from Address the message came from
+     * @param newClient Creates a UDP client for the sender's address. May throw {@link AuthenticationFailure}
+     *  if the sender isn't allowed one.
      * @return GameUserState body matching the authenticated user
      * @throws AuthenticationFailure Not authorized
      * @throws SQLException Unable to validate key with database
      */
-    public static GameUserState requireAuthentication(final String key, final UdpClient client) throws SQLException {
+    public static GameUserState requireAuthentication(final String key, final InetSocketAddress from, final Supplier<UdpClient> newClient) throws SQLException {
         if (key == null) {
             throw new AuthenticationFailure("Missing required field: 'key'");
         }
 
         GameAuthenticationBody body = decodeAuthenticationBody(key);
 
-        // Check that this game is in game memory
+        // Check that this game is in game memory. Games are loaded before their messages get here.
         GameState game = GameState.get(body.gameId());
-
-        // Check if the user's lying to us or if the game actually is missing
         if (game == null) {
-            try {
-                Game dbGame = Games.getGame(body.gameId());
-
-                // It really exists. We dun goofed.
-                // We'll create it now.
-                GameState.register(dbGame);
-                game = GameState.get(dbGame.id());
-            } catch (final NotFoundException e) {
-                throw new AuthenticationFailure("Invalid key.");
-            }
+            throw new AuthenticationFailure("Invalid key.");
         }
 
         // Now, get the user
@@ -78,12 +73,15 @@ public class GameServerAuthenticator {
         if (user == null) {
             try {
                 GameUser gameUser = GameUsers.getGameUser(body.gameId(), body.userId());
+                if (!gameUser.key().equals(body.key())) {
+                    throw new AuthenticationFailure("Invalid key.");
+                }
                 User dbUser = Users.getUser(body.userId());
 
                 // It really exists. We dun goofed.
                 // Add them now.
-                game.addUser(dbUser, gameUser, client);
-                user = game.getUser(body.userId());
+                game.addUser(dbUser, gameUser, newClient.get());
+                return game.getUser(body.userId());
             } catch (final NotFoundException e) {
                 throw new AuthenticationFailure("Invalid key.");
             }
@@ -95,10 +93,11 @@ public class GameServerAuthenticator {
         }
 
         // And make sure that this isn't a different client to what we have stored
-        if (!user.getClient().equals(client)) {
+        final UdpClient client = user.getClient();
+        if (client.port() != from.getPort() || !client.ip().equals(from.getAddress().getHostAddress())) {
             // If the client is currently disconnected: We can switch this without consequence
             if (!user.isConnected())
-                user.setClient(client);
+                user.setClient(newClient.get());
 
             else {
                 // They're already connected in another location. This is an error
@@ -109,6 +108,19 @@ public class GameServerAuthenticator {
         return user;
     }
 
+    /**
+     * Reads the game ID from a message key without validating it against the game's users.
+     * @param key Incoming message 'key' field
+     * @return Game ID the key claims to belong to
+     * @throws AuthenticationFailure Missing or malformed key
+     */
+    public static UUID gameIdFrom(final String key) {
+        if (key == null) {
+            throw new AuthenticationFailure("Missing required field: 'key'");
+        }
+        return decodeAuthenticationBody(key).gameId();
+    }
+
     /**
      * Decodes an <code>Authorization</code> header into an {@link GameAuthenticationBody}, if possible.
      * @param bearerToken Content of the <code>Authorization</code> header
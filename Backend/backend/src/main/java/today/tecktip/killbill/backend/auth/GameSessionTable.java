@@ -0,0 +1,428 @@
+package today.tecktip.killbill.backend.auth;
+
+import java.net.InetSocketAddress;
+import java.sql.SQLException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import today.tecktip.killbill.backend.db.gameusers.GameUsers;
+import today.tecktip.killbill.backend.exceptions.NotFoundException;
+import today.tecktip.killbill.backend.gameserver.games.GameState;
+import today.tecktip.killbill.backend.gameserver.games.GameUserState;
+import today.tecktip.killbill.common.gameserver.MessageHandler.UdpClient;
+
+/**
+ * Sessions for UDP clients that have sent <code>COMMAND_CONNECT</code>.
+ * <p>
+ * A session binds a client's address to the game and user it authenticated as. Later messages from
+ *  that address carrying the same key skip decoding the key and looking up the game and user, and
+ *  are authenticated with a single lookup by session ID instead.
+ * <p>
+ * Keys are revalidated against the database by {@link #revalidate}, which should be called
+ *  periodically from a background thread so the game executors never wait on the database.
+ * <p>
+ * Thread safe. Sessions are looked up from the UDP reader threads and bound from game executors.
+ *  Sessions are kept in an open-addressing table keyed by the session ID itself, so lookups don't
+ *  box it. Lookups take no lock; binding and removal are synchronized.
+ * @author cs
+ */
+public class GameSessionTable {
+    /**
+     * Logs go here
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(GameSessionTable.class);
+
+    /**
+     * Time between database checks of a session's key.
+     */
+    private static final long REVALIDATE_NANOS = TimeUnit.SECONDS.toNanos(GameUserState.KEY_REFRESH_SECONDS);
+
+    /**
+     * Initial number of slots. Always a power of two.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Marks a slot whose session was removed, so probes for sessions stored past it keep going
+     */
+    private static final Session REMOVED = new Session();
+
+    /**
+     * Sessions, each in the first free slot at or after its session ID's hash. Replaced whole when
+     *  resized, so readers holding the old array still see every session it had.
+     */
+    private volatile AtomicReferenceArray<Session> slots;
+
+    /**
+     * Number of sessions in {@link #slots}
+     */
+    private int size;
+
+    /**
+     * Number of {@link #REMOVED} slots in {@link #slots}
+     */
+    private int removed;
+
+    /**
+     * Constructs a new, empty session table.
+     */
+    public GameSessionTable() {
+        slots = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Gets the session ID for an address.
+     * <p>
+     * IPv4 addresses and the port are packed as is, so every IPv4 client has a unique ID. IPv6
+     *  addresses are hashed, so sessions are always checked against the full address as well.
+     * @param address Client address
+     * @return Session ID
+     */
+    public static long sessionIdOf(final InetSocketAddress address) {
+        // Inet4Address hashes to its own 32-bit address
+        return ((address.getAddress().hashCode() & 0xFFFFFFFFL) << 16) | address.getPort();
+    }
+
+    /**
+     * Binds a user's client to a new session, replacing any session the user already had.
+     *  Must be called from the user's game executor.
+     * @param user Authenticated user
+     * @param key Key the user authenticated with
+     * @return New session
+     */
+    public Session bind(final GameUserState user, final String key) {
+        final UdpClient client = user.getClient();
+        final InetSocketAddress address = new InetSocketAddress(client.ip(), client.port());
+        final GameState game = GameState.get(user.getGameUser().gameId());
+        final Session session = new Session(sessionIdOf(address), address, key, client, game, user);
+
+        synchronized (this) {
+            // Connecting from somewhere else ends the old session
+            final AtomicReferenceArray<Session> table = slots;
+            for (int i = 0; i < table.length(); i++) {
+                final Session other = table.get(i);
+                if (other != null && other != REMOVED && other.getUser() == user) {
+                    table.set(i, REMOVED);
+                    size--;
+                    removed++;
+                }
+            }
+            put(session);
+        }
+        return session;
+    }
+
+    /**
+     * Gets the session for the address a message came from.
+     * @param address Sender's address
+     * @return Session, or null if the address has none
+     */
+    public Session get(final InetSocketAddress address) {
+        final long id = sessionIdOf(address);
+        final AtomicReferenceArray<Session> table = slots;
+        final int mask = table.length() - 1;
+        for (int i = slotOf(id, mask); ; i = (i + 1) & mask) {
+            final Session session = table.get(i);
+            if (session == null) return null;
+            if (session != REMOVED && session.getId() == id) {
+                return session.getAddress().equals(address) ? session : null;
+            }
+        }
+    }
+
+    /**
+     * Removes a session, unless it has already been replaced.
+     * @param session Session to remove
+     */
+    public synchronized void unbind(final Session session) {
+        final AtomicReferenceArray<Session> table = slots;
+        final int mask = table.length() - 1;
+        for (int i = slotOf(session.getId(), mask); ; i = (i + 1) & mask) {
+            final Session other = table.get(i);
+            if (other == null) return;
+            if (other != REMOVED && other.getId() == session.getId()) {
+                if (other == session) {
+                    table.set(i, REMOVED);
+                    size--;
+                    removed++;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stores a session, replacing any with the same ID. Must hold this table's lock.
+     * @param session Session to store
+     */
+    private void put(final Session session) {
+        if ((size + removed + 1) * 4 > slots.length() * 3) resize();
+
+        final AtomicReferenceArray<Session> table = slots;
+        final int mask = table.length() - 1;
+        int free = -1;
+        for (int i = slotOf(session.getId(), mask); ; i = (i + 1) & mask) {
+            final Session other = table.get(i);
+            if (other == null) {
+                if (free == -1) free = i;
+                break;
+            }
+            if (other == REMOVED) {
+                if (free == -1) free = i;
+            } else if (other.getId() == session.getId()) {
+                table.set(i, session);
+                return;
+            }
+        }
+
+        if (table.get(free) == REMOVED) removed--;
+        table.set(free, session);
+        size++;
+    }
+
+    /**
+     * Moves every session into a new array, dropping removed slots and doubling the capacity if the
+     *  table is more than half full. Must hold this table's lock.
+     */
+    private void resize() {
+        final AtomicReferenceArray<Session> old = slots;
+        final int capacity = size * 2 > old.length() ? old.length() * 2 : old.length();
+        final AtomicReferenceArray<Session> table = new AtomicReferenceArray<>(capacity);
+        final int mask = capacity - 1;
+        for (int i = 0; i < old.length(); i++) {
+            final Session session = old.get(i);
+            if (session == null || session == REMOVED) continue;
+            int j = slotOf(session.getId(), mask);
+            while (table.get(j) != null) j = (j + 1) & mask;
+            table.set(j, session);
+        }
+        removed = 0;
+        slots = table;
+    }
+
+    /**
+     * Gets the slot a session ID's probe starts at.
+     * @param id Session ID
+     * @param mask Table length minus one
+     * @return Slot index
+     */
+    private static int slotOf(final long id, final int mask) {
+        // Addresses in the same subnet differ only in a few bits, so spread them across the table
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Checks if a session's user is still connected to its client. Must be called from the session's
+     *  game executor.
+     * @param session Session to check
+     * @return True if the session can still be used
+     */
+    public static boolean isLive(final Session session) {
+        final GameUserState user = session.getUser();
+        return GameState.get(session.getGame().getGame().id()) == session.getGame()
+            && session.getGame().getUsers().get(user.getUser().id()) == user
+            && user.getClient() == session.getClient()
+            && user.isConnected();
+    }
+
+    /**
+     * Checks the key of every session that hasn't been checked for {@link GameUserState#KEY_REFRESH_SECONDS}
+     *  against the database. Sessions with revoked keys are removed and their users must fully
+     *  authenticate again. Sessions that are no longer live are removed.
+     * <p>
+     * Blocks on the database, so it should not be called from a game executor.
+     */
+    public void revalidate() {
+        final long now = System.nanoTime();
+        final AtomicReferenceArray<Session> table = slots;
+        for (int i = 0; i < table.length(); i++) {
+            final Session session = table.get(i);
+            if (session == null || session == REMOVED) continue;
+            final GameState game = session.getGame();
+            if (GameState.get(game.getGame().id()) != game) {
+                unbind(session);
+                continue;
+            }
+            if (now - session.revalidateAt < 0) continue;
+
+            final GameUserState user = session.getUser();
+            boolean valid;
+            try {
+                valid = GameUsers.getGameUser(game.getGame().id(), session.getUserId()).key().equals(session.getUserKey());
+            } catch (final NotFoundException e) {
+                valid = false;
+            } catch (final SQLException e) {
+                LOGGER.warn("Unable to revalidate session for userId={}, will retry", session.getUserId(), e);
+                continue;
+            }
+            session.revalidateAt = now + REVALIDATE_NANOS;
+
+            if (!valid) {
+                LOGGER.info("Ending session for userId={}: key revoked", session.getUserId());
+                unbind(session);
+                game.execute(user::expireKey);
+                continue;
+            }
+
+            game.execute(() -> {
+                if (isLive(session)) user.resetExpiration();
+                else unbind(session);
+            });
+        }
+    }
+
+    /**
+     * A client bound to the user it authenticated as.
+     */
+    public static class Session {
+        /**
+         * Session ID
+         */
+        private final long id;
+
+        /**
+         * Client address
+         */
+        private final InetSocketAddress address;
+
+        /**
+         * Message key the client authenticated with
+         */
+        private final String key;
+
+        /**
+         * Client messages are sent back to
+         */
+        private final UdpClient client;
+
+        /**
+         * Game the user belongs to
+         */
+        private final GameState game;
+
+        /**
+         * Authenticated user
+         */
+        private final GameUserState user;
+
+        /**
+         * User's ID
+         */
+        private final UUID userId;
+
+        /**
+         * User's game key at the time the session was bound
+         */
+        private final UUID userKey;
+
+        /**
+         * Monotonic time ({@link System#nanoTime()}) after which the key is checked against the database again
+         */
+        private volatile long revalidateAt;
+
+        /**
+         * Constructs the placeholder for {@link GameSessionTable#REMOVED} slots.
+         */
+        private Session() {
+            id = 0;
+            address = null;
+            key = null;
+            client = null;
+            game = null;
+            user = null;
+            userId = null;
+            userKey = null;
+        }
+
+        /**
+         * Constructs a new session. Use {@link GameSessionTable#bind} instead.
+         * @param id Session ID
+         * @param address Client address
+         * @param key Message key the client authenticated with
+         * @param client Client messages are sent back to
+         * @param game Game the user belongs to
+         * @param user Authenticated user
+         */
+        private Session(final long id, final InetSocketAddress address, final String key, final UdpClient client, final GameState game, final GameUserState user) {
+            this.id = id;
+            this.address = address;
+            this.key = key;
+            this.client = client;
+            this.game = game;
+            this.user = user;
+            userId = user.getUser().id();
+            userKey = user.getGameUser().key();
+            revalidateAt = System.nanoTime() + REVALIDATE_NANOS;
+        }
+
+        /**
+         * Checks if a message key is the one this session authenticated with.
+         * @param messageKey Incoming message 'key' field
+         * @return True if it matches
+         */
+        public boolean matches(final String messageKey) {
+            return key.equals(messageKey);
+        }
+
+        /**
+         * Gets the session ID.
+         * @return Session ID
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Gets the client address.
+         * @return Client address
+         */
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+
+        /**
+         * Gets the client messages are sent back to.
+         * @return UDP client
+         */
+        public UdpClient getClient() {
+            return client;
+        }
+
+        /**
+         * Gets the game the user belongs to.
+         * @return Game state
+         */
+        public GameState getGame() {
+            return game;
+        }
+
+        /**
+         * Gets the authenticated user.
+         * @return User state
+         */
+        public GameUserState getUser() {
+            return user;
+        }
+
+        /**
+         * Gets the authenticated user's ID.
+         * @return User ID
+         */
+        public UUID getUserId() {
+            return userId;
+        }
+
+        /**
+         * Gets the user's game key at the time the session was bound.
+         * @return Game key
+         */
+        public UUID getUserKey() {
+            return userKey;
+        }
+    }
+}
@@ -2,52 +2,65 @@ package today.tecktip.killbill.backend.gameserver;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.charset.Charset;
 import java.sql.SQLException;
 import java.time.Instant;
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.context.annotation.Bean;
-import org.springframework.expression.spel.standard.SpelExpressionParser;
-import org.springframework.integration.annotation.MessageEndpoint;
-import org.springframework.integration.annotation.ServiceActivator;
-import org.springframework.integration.channel.DirectChannel;
-import org.springframework.integration.ip.IpHeaders;
-import org.springframework.integration.ip.udp.UnicastReceivingChannelAdapter;
-import org.springframework.integration.ip.udp.UnicastSendingMessageHandler;
-import org.springframework.integration.support.MessageBuilder;
-import org.springframework.messaging.Message;
-import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.MessageHandlingException;
-import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.GenericMessage;
 import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import today.tecktip.killbill.backend.auth.GameServerAuthenticator;
+import today.tecktip.killbill.backend.auth.GameSessionTable;
+import today.tecktip.killbill.backend.auth.GameSessionTable.Session;
 import today.tecktip.killbill.backend.exceptions.AuthenticationFailure;
+import today.tecktip.killbill.backend.exceptions.NotFoundException;
+import today.tecktip.killbill.backend.gameserver.games.GameExecutor;
+import today.tecktip.killbill.backend.gameserver.games.TickEngine;
 import today.tecktip.killbill.backend.gameserver.games.GameState;
 import today.tecktip.killbill.backend.gameserver.games.GameUserState;
+import today.tecktip.killbill.backend.gameserver.net.UdpIngress;
 import today.tecktip.killbill.common.gameserver.games.GameType;
+import today.tecktip.killbill.common.gameserver.codec.DatagramBundle;
+import today.tecktip.killbill.common.gameserver.codec.MessageCodec;
+import today.tecktip.killbill.common.gameserver.codec.WireFormat;
 import today.tecktip.killbill.common.gameserver.messages.IncomingMessage;
+import today.tecktip.killbill.common.gameserver.messages.MessageEnvelope;
 import today.tecktip.killbill.common.gameserver.messages.MessageDataType;
 import today.tecktip.killbill.common.gameserver.messages.OutgoingMessage;
+import today.tecktip.killbill.common.gameserver.messages.generic.EmptyData;
 import today.tecktip.killbill.common.gameserver.messages.exceptions.AuthenticationFailureData;
 import today.tecktip.killbill.common.gameserver.messages.exceptions.InternalServerErrorData;
 import today.tecktip.killbill.common.gameserver.messages.exceptions.InvalidArgumentExceptionData;
-import today.tecktip.killbill.common.gameserver.ClasspathCommandLoader;
+import today.tecktip.killbill.common.gameserver.ratelimit.RateLimiter;
+import today.tecktip.killbill.common.gameserver.ratelimit.RateLimiter.Budget;
+import today.tecktip.killbill.common.gameserver.ratelimit.TokenBucket;
+import today.tecktip.killbill.common.gameserver.ratelimit.TrafficClass;
+import today.tecktip.killbill.common.gameserver.reliability.RetransmitQueue;
+import today.tecktip.killbill.common.gameserver.reliability.SelectiveAck;
+import today.tecktip.killbill.common.gameserver.reliability.SequenceNumbers;
+import today.tecktip.killbill.common.gameserver.reliability.SequenceRing;
 import today.tecktip.killbill.common.gameserver.CommandLoader;
 import today.tecktip.killbill.common.gameserver.MessageHandler;
 
@@ -55,7 +68,6 @@ import today.tecktip.killbill.common.gameserver.MessageHandler;
  * Handles incoming and outgoing UDP messages.
  * @author cs
  */
-@MessageEndpoint
 @Component("messageHandler")
 public class SpringMessageHandler implements MessageHandler {
     /**
@@ -63,11 +75,6 @@ public class SpringMessageHandler implements MessageHandler {
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(SpringMessageHandler.class);
 
-    /**
-     * The charset the server will communicate with.
-     */
-    public static final Charset SERVER_CHARSET = Charset.forName("UTF-16");
-
     /**
      * Maximum number of times a failed outgoing message will be retried by the server
      */
@@ -79,24 +86,54 @@ public class SpringMessageHandler implements MessageHandler {
     private static final int RETRY_DELAY_INCREMENT_MS = 100;
 
     /**
-     * Time after which outgoing messages will be discarded from the retry queue.
+     * Delay before resending un-acked outgoing messages with a messageId, until the client's round trip time is measured.
+     *  The time they're kept for follows from it.
+     */
+    private static final int INITIAL_RETRANSMIT_TIMEOUT_MS = 250;
+
+    /**
+     * Budget for every datagram from one client, checked before anything is decoded. Roomy enough for a
+     *  client syncing its player and a crowd of entities every frame.
+     */
+    private static final Budget DATAGRAM_BUDGET = new Budget(1000, 1000);
+
+    /**
+     * Budget for every datagram from one address that hasn't connected yet. Enough to connect and retry,
+     *  and little else.
+     */
+    private static final Budget STRANGER_BUDGET = new Budget(10, 20);
+
+    /**
+     * Most addresses that haven't connected yet tracked at once. New ones share
+     *  {@link #OVERFLOW_STRANGER_BUDGET} while it's full.
      */
-    public static final int DEFAULT_OUTGOING_MESSAGE_VIABILITY = 4000;
+    private static final int MAX_STRANGERS = 16384;
 
     /**
-     * Time increment between re-asks for un-acked outgoing messages with a messageId.
+     * Budget shared by every new address while {@link #MAX_STRANGERS} are already tracked. A flood can use
+     *  it all, but real clients still get a share and connect on a retry instead of being locked out.
      */
-    private static final int UNACKED_RETRY_DELAY_INCREMENT_MS = 250;
+    private static final Budget OVERFLOW_STRANGER_BUDGET = new Budget(500, 500);
 
     /**
-     * Milliseconds between game ticks.
+     * Threads loading games from the database.
      */
-    private static final int GAME_TICK_MS = 1000 / 20;
-    
+    private static final int GAME_LOADER_THREADS = 4;
+
+    /**
+     * Most game loads waiting for a loader thread. Messages that need a load are dropped beyond this.
+     */
+    private static final int MAX_QUEUED_GAME_LOADS = 256;
+
     /**
-     * Object mapper for JSON serialization and deserialization
+     * Budgets for each class of message from one client. {@link TrafficClass#CONTROL} is only limited by
+     *  {@link #DATAGRAM_BUDGET}.
      */
-    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Map<TrafficClass, Budget> TRAFFIC_CLASS_BUDGETS = Map.of(
+        TrafficClass.MOVEMENT, new Budget(600, 600),
+        TrafficClass.CHAT, new Budget(2, 5),
+        TrafficClass.ACTION, new Budget(30, 60)
+    );
 
     /**
      * Static reference to the currently active instance.
@@ -104,14 +141,25 @@ public class SpringMessageHandler implements MessageHandler {
     private static SpringMessageHandler ACTIVE_INSTANCE = null;
 
     /**
-     * UDP out channel. Use {@link #send} instead.
+     * UDP channel and reader threads. Use {@link #send} instead.
      */
-    private UnicastSendingMessageHandler udpOut;
+    private UdpIngress udpIngress;
 
     /**
-     * Connected clients.
+     * Datagram budgets for addresses that haven't connected yet. Everything else about a client is only
+     *  created once it connects.
      */
-    private Map<String, UdpClient> clients;
+    private Map<InetSocketAddress, TokenBucket> strangers;
+
+    /**
+     * Datagram budget shared by new addresses once {@link #strangers} is full.
+     */
+    private final TokenBucket strangerOverflow;
+
+    /**
+     * Clients that have connected, by address.
+     */
+    private GameSessionTable sessions;
 
     /**
      * Games to be removed in the future.
@@ -124,9 +172,25 @@ public class SpringMessageHandler implements MessageHandler {
     private CommandLoader commandLoader;
 
     /**
-     * Time the last game tick was run.
+     * Datagrams dropped for exceeding {@link #DATAGRAM_BUDGET}
+     */
+    private final LongAdder shedDatagrams;
+
+    /**
+     * Messages dropped for exceeding their {@link #TRAFFIC_CLASS_BUDGETS}, by class
+     */
+    private final Map<TrafficClass, LongAdder> shedMessages;
+
+    /**
+     * Clock that queues game ticks.
      */
-    private Instant lastTick;
+    private TickEngine tickEngine;
+
+    /**
+     * Loads games from the database. Kept off {@link #taskScheduler}, which resends and runs timers, since
+     *  a load blocks on the database.
+     */
+    private ThreadPoolExecutor gameLoader;
 
     /**
      * Port to run UDP game server on.
@@ -142,6 +206,12 @@ public class SpringMessageHandler implements MessageHandler {
         UDP_PORT = Integer.valueOf(udpPort);
     }
 
+    /**
+     * Number of threads reading from the UDP channel.
+     */
+    @Value("${env_vars.udp_reader_threads}")
+    private int udpReaderThreads;
+
     /**
      * Secret key for the server to send to clients in the 'key' field.
      * <p>
@@ -159,58 +229,104 @@ public class SpringMessageHandler implements MessageHandler {
     private TaskScheduler taskScheduler;
 
     /**
-     * Retrieves the inbound MessageChannel.
-     * @return Inbound channel
+     * Binds the UDP channel, then starts the reader threads and the game tick clock.
+     * @throws IOException Unable to bind
+     */
+    @PostConstruct
+    public void startUdp() throws IOException {
+        final AtomicInteger loaderCount = new AtomicInteger(0);
+        gameLoader = new ThreadPoolExecutor(
+            GAME_LOADER_THREADS,
+            GAME_LOADER_THREADS,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_GAME_LOADS),
+            runnable -> {
+                final Thread thread = new Thread(runnable, "game-loader-" + loaderCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        );
+        udpIngress = new UdpIngress(UDP_PORT, udpReaderThreads, this::recv);
+        udpIngress.start();
+        tickEngine = new TickEngine();
+        tickEngine.start();
+    }
+
+    /**
+     * Stops the game tick clock, closes the UDP channel and abandons any game loads still waiting.
+     * @throws IOException Unable to close channel
+     * @throws InterruptedException Interrupted while waiting for threads to finish
      */
-    @Bean
-    public MessageChannel inboundChannel() {
-        return new DirectChannel();
+    @PreDestroy
+    public void stopUdp() throws IOException, InterruptedException {
+        tickEngine.stop();
+        udpIngress.stop();
+        gameLoader.shutdownNow();
     }
-    
+
     /**
-     * Configures the incoming UDP message channel.
-     * @return UDP channel adapter
+     * Receives incoming messages from the UDP channel. Called from every reader thread.
+     * @param from Sender's address
+     * @param ackHeader Selective ack header sent with the message
+     * @param payload Message payload (reused once this returns)
+     * @param length Payload length, or 0 if the datagram only carried acks
      */
-    @Bean
-    public UnicastReceivingChannelAdapter udpIn() {
-        UnicastReceivingChannelAdapter adapter = new UnicastReceivingChannelAdapter(UDP_PORT);
-        adapter.setOutputChannel(inboundChannel());        
-        adapter.setOutputChannelName("inboundChannel");
-        adapter.setLengthCheck(true);
-        adapter.setReceiveBufferSize(5000);
-        return adapter;
+    public void recv(final InetSocketAddress from, final long ackHeader, final byte[] payload, final int length) {
+        final Session session = sessions.get(from);
+        final UdpClient client = session != null ? session.getClient() : null;
+
+        // Floods are shed here, before anything is decoded
+        final long now = System.nanoTime();
+        if (client != null ? !client.limiter().tryAcceptDatagram(now) : !tryAcceptStranger(from, now)) {
+            shedDatagrams.increment();
+            return;
+        }
+
+        if (length > 0) runForClient(client, from, () -> doRecv(client, session, from, payload, length, now));
+
+        // Acks are only trusted from connected clients, and are applied after the message they came with
+        if (session != null && SelectiveAck.newest(ackHeader) != SequenceNumbers.NONE) {
+            session.getGame().execute(() -> {
+                if (GameSessionTable.isLive(session)) SelectiveAck.forEach(ackHeader, messageId -> client.cmdQueue().ack(messageId, TimeUnit.NANOSECONDS.toMillis(now)));
+            });
+        }
     }
 
     /**
-     * Configures the outgoing UDP message channel.
-     * @return UDP channel adapter
+     * Takes a datagram token from the budget of an address that hasn't connected yet.
+     *  Untracked addresses draw from the shared overflow budget while too many are tracked.
+     * @param from Sender's address
+     * @param nowNanos Current time, from {@link System#nanoTime()}
+     * @return True if the datagram should be accepted
      */
-    @Bean
-    public UnicastSendingMessageHandler udpOut() {
-        UnicastSendingMessageHandler adapter = new UnicastSendingMessageHandler("headers['ip_packetAddress']");
-        adapter.setSocketExpression(new SpelExpressionParser().parseExpression("@udpIn.socket"));
-        adapter.setLengthCheck(true);
-        this.udpOut = adapter;
-        return adapter;
+    private boolean tryAcceptStranger(final InetSocketAddress from, final long nowNanos) {
+        TokenBucket bucket = strangers.get(from);
+        if (bucket == null) {
+            if (strangers.size() >= MAX_STRANGERS) return strangerOverflow.tryTake(nowNanos);
+            bucket = strangers.computeIfAbsent(from, address -> STRANGER_BUDGET.bucket(nowNanos));
+        }
+        return bucket.tryTake(nowNanos);
     }
 
     /**
-     * Receives incoming messages from the UDP channel.
-     * @param message Message headers and payload
+     * Runs part of the receive process, replying to the sender with an error if it fails unexpectedly.
+     * @param client Client to send errors to, or null if the sender hasn't connected
+     * @param from Sender's address
+     * @param task Task to run
      */
-    @ServiceActivator(inputChannel = "inboundChannel")
-    public void recv(final Message<byte[]> message) {
-        final UdpClient client = getClient(message, this);
-        
+    private void runForClient(final UdpClient client, final InetSocketAddress from, final ReceiveTask task) {
         try {
-            doRecv(client, message);
+            task.run();
         } catch (final MessageHandlingException e) {
             // Nothing we can do here. The command has to have asked for no retries for this to occur.
             // Just fail silently -- the client will send a RESEND request if it's important.
         } catch (final Exception e) {
             LOGGER.error("Unexpected error during UDP processing: ", e);
             try {
-                client.send(
+                reply(
+                    client,
+                    from,
                     OutgoingMessage.newBuilder()
                         .setKey(this)
                         .failure()
@@ -227,29 +343,145 @@ public class SpringMessageHandler implements MessageHandler {
     /**
      * Receives a message. Wrapped for error handling purposes.
      * <p>
-     * This method executes commands based on the {@link GameType} the user is linked to.
+     * Decoding happens on the calling reader thread. Everything after that is queued on the
+     *  {@link GameExecutor} of the game the message's key belongs to.
      * 
-     * @param client Client to send responses to
-     * @param message Message headers and payloads
-     * @throws JsonProcessingException Unable to deserialize response
-     */
-    private void doRecv(final UdpClient client, final Message<byte[]> message) throws JsonProcessingException, MessageHandlingException {
-        // We're parsing the message on our own to improve validation here, which is why
-        // we ask for a String body.
-        // Parse JSON
-        final JsonNode node;
+     * @param client Client to send responses to, or null if the sender hasn't connected
+     * @param session Session bound to the client's address, or null if it has none
+     * @param from Sender's address
+     * @param payload Message payload
+     * @param length Payload length
+     * @param nowNanos Time the message was received, from {@link System#nanoTime()}
+     * @throws JsonProcessingException Unable to serialize response
+     */
+    private void doRecv(final UdpClient client, final Session session, final InetSocketAddress from, final byte[] payload, final int length, final long nowNanos) throws JsonProcessingException, MessageHandlingException {
+        // Decode the header only. The data payload can't be parsed until we know the game type.
+        // Clients may switch formats after connecting, so the format is detected per message.
+        // Over-budget messages are shed after only a look at their type, before they're decoded, they're
+        //  authenticated, or any game hears of them. Senders that haven't connected are already held to
+        //  the stranger budget.
+        final MessageCodec codec = WireFormat.detect(payload, 0, length).getCodec();
+        final MessageEnvelope envelope;
+        try {
+            if (client != null) {
+                final TrafficClass trafficClass = TrafficClass.ofTypeName(codec.peekType(payload, 0, length));
+                if (!client.limiter().tryAccept(trafficClass, nowNanos)) {
+                    shedMessages.get(trafficClass).increment();
+                    return;
+                }
+            }
+            envelope = codec.decode(payload, 0, length);
+        } catch (final IllegalArgumentException e) {
+            reply(
+                client,
+                from,
+                OutgoingMessage.newBuilder()
+                    .setKey(this)
+                    .failure()
+                    .data(new InvalidArgumentExceptionData(e.getMessage()))
+                    .build());
+            return;
+        }
+
+        // Connected clients skip decoding the key
+        if (session != null && session.matches(envelope.key())) {
+            session.getGame().execute(() -> runForClient(client, from, () -> process(client, session, from, envelope)));
+            return;
+        }
+
+        final UUID gameId;
+        try {
+            gameId = GameServerAuthenticator.gameIdFrom(envelope.key());
+        } catch (final AuthenticationFailure e) {
+            LOGGER.warn("Failed to authenticate user: ", e);
+            reply(
+                client,
+                from,
+                OutgoingMessage.newBuilder()
+                    .setKey(this)
+                    .failure()
+                    .data(new AuthenticationFailureData(e.getReason()))
+                    .build());
+            return;
+        }
+
+        final GameExecutor executor = GameExecutor.forGame(gameId);
+        if (executor != null) {
+            executor.execute(() -> runForClient(client, from, () -> process(client, null, from, envelope)));
+            return;
+        }
+
+        // Games are loaded lazily. The database lookup happens on a loader thread, and only a
+        //  game that really exists gets an executor.
         try {
-            node = MAPPER.readTree(new String(message.getPayload(), SERVER_CHARSET));
-        } catch (IOException e) {
-            throw new IllegalArgumentException("Unable to parse message payload as JSON.");
+            gameLoader.execute(() -> loadAndProcess(client, from, gameId, envelope));
+        } catch (final RejectedExecutionException e) {
+            // Loaders are backed up. The client will resend if it's important.
+            LOGGER.debug("Dropped message from {}: too many games waiting to load.", from);
         }
+    }
+
+    /**
+     * Loads a game from the database, then queues a message on its executor. Runs on a loader thread.
+     * @param client Client to reply to, or null if the sender hasn't connected
+     * @param from Sender's address
+     * @param gameId ID of the game the message's key belongs to
+     * @param envelope Decoded message
+     */
+    private void loadAndProcess(final UdpClient client, final InetSocketAddress from, final UUID gameId, final MessageEnvelope envelope) {
+        runForClient(client, from, () -> {
+            final GameState game;
+            try {
+                game = GameState.load(gameId);
+            } catch (final NotFoundException e) {
+                reply(
+                    client,
+                    from,
+                    OutgoingMessage.newBuilder()
+                        .setKey(this)
+                        .failure()
+                        .data(new AuthenticationFailureData("Invalid key."))
+                        .build());
+                return;
+            } catch (final SQLException e) {
+                reply(
+                    client,
+                    from,
+                    OutgoingMessage.newBuilder()
+                        .setKey(this)
+                        .failure()
+                        .data(new InternalServerErrorData("Unable to contact database."))
+                        .build());
+                return;
+            }
+            game.execute(() -> runForClient(client, from, () -> process(client, null, from, envelope)));
+        });
+    }
 
+    /**
+     * Authenticates and executes a decoded message. Must be called from the executor of the message's game.
+     * <p>
+     * This method executes commands based on the {@link GameType} the user is linked to.
+     * @param sender Client bound to the sender's address, or null if the sender hasn't connected
+     * @param session Session the message's key matched, or null to authenticate it in full
+     * @param from Sender's address
+     * @param envelope Decoded message
+     * @throws JsonProcessingException Unable to serialize response
+     */
+    private void process(final UdpClient sender, final Session session, final InetSocketAddress from, final MessageEnvelope envelope) throws JsonProcessingException, MessageHandlingException {
         GameUserState user;
         try {
-            user = GameServerAuthenticator.requireAuthentication(node.get("key").textValue(), client);
+            if (session != null && GameSessionTable.isLive(session)) {
+                user = session.getUser();
+            } else {
+                if (session != null) sessions.unbind(session);
+                user = GameServerAuthenticator.requireAuthentication(envelope.key(), from, () -> newClient(from, envelope));
+            }
         } catch (final AuthenticationFailure e) {
             LOGGER.warn("Failed to authenticate user: ", e);
-            client.send(
+            reply(
+                sender,
+                from,
                 OutgoingMessage.newBuilder()
                     .setKey(this)
                     .failure()
@@ -257,7 +489,9 @@ public class SpringMessageHandler implements MessageHandler {
                     .build());
             return;
         } catch (final SQLException e) {
-            client.send(
+            reply(
+                sender,
+                from,
                 OutgoingMessage.newBuilder()
                     .setKey(this)   
                     .failure()
@@ -265,6 +499,7 @@ public class SpringMessageHandler implements MessageHandler {
                     .build());
             return;
         }
+        final UdpClient client = user.getClient();
         
         // Reset heartbeat timer since we just got a message
         user.updateHeartbeat();
@@ -273,7 +508,7 @@ public class SpringMessageHandler implements MessageHandler {
         GameState gameState = GameState.get(user.getGameUser().gameId());
         final IncomingMessage msg;
         try {
-            msg = IncomingMessage.from(gameState.getGame().config().getGameType(), commandLoader, node);
+            msg = envelope.open(gameState.getGame().config().getGameType(), commandLoader);
         } catch (final IllegalArgumentException e) {
             client.send(
                 OutgoingMessage.newBuilder()
@@ -284,13 +519,31 @@ public class SpringMessageHandler implements MessageHandler {
             return;
         }
 
+        // A client starting a new connection from an old address numbers its messages from scratch
+        if (MessageDataType.COMMAND_CONNECT.equals(msg.data().getType()) && !user.isConnected()) {
+            client.connection().resetReceived();
+            client.respQueue().clear();
+            client.cmdQueue().clear();
+        }
+
         // Check if this is a duplicate message (meaning our response was dropped)
-        final OutgoingResponse qMsg = client.respQueue().get(msg.messageId());
-        if (qMsg != null) {
-            // Send that message again
-            client.send(
-                qMsg.message()
-            );
+        if (msg.messageId() != null && client.connection().getReceived().contains(msg.messageId())) {
+            // Send the response again, if it's still around. Bare acks go out with the next datagram's header.
+            final OutgoingResponse qMsg = client.respQueue().get(msg.messageId());
+            if (qMsg != null && !qMsg.ackDeadline().isBefore(Instant.now())) {
+                client.send(
+                    qMsg.message()
+                );
+            } else if (!client.connection().resendAck(msg.messageId())) {
+                // Too old for the header to carry
+                client.send(
+                    OutgoingMessage.newBuilder()
+                        .setKey(this)
+                        .success()
+                        .ackMessageId(msg.messageId())
+                        .data(new EmptyData())
+                        .build());
+            }
             return;
         }
 
@@ -307,21 +560,16 @@ public class SpringMessageHandler implements MessageHandler {
         MessageCommandMethod m;
         // Check if this is a command
         if (commandMethod != null && msg.messageId() != null) {
-            // Make sure the messageId is not taken (crazy edge case)
-            if (client.respQueue().containsKey(msg.messageId())) {
-                client.send(
-                    OutgoingMessage.newBuilder()
-                        .setKey(this)
-                        .failure()
-                        .data(new InvalidArgumentExceptionData("The specified 'messageId' is taken."))
-                        .build());
-                return;
-            }
+            // Any resends of this are duplicates from here on
+            client.connection().getReceived().mark(msg.messageId());
 
+            m = commandMethod;
+        } else if (commandMethod != null && msg.ackMessageId() == null) {
+            // Unreliable command, like a snapshot ack: run it once, with nothing to mark or ack
             m = commandMethod;
         } else if (respMethod != null && msg.ackMessageId() != null) {
             // Make sure any ackMessageIds correspond to a message
-            if (!client.cmdQueue().containsKey(msg.ackMessageId())) {
+            if (!client.cmdQueue().contains(msg.ackMessageId())) {
                 client.send(
                     OutgoingMessage.newBuilder()
                         .setKey(this)
@@ -373,80 +621,209 @@ public class SpringMessageHandler implements MessageHandler {
         send(client, message, MAX_RETRIES);
     }
 
+    /**
+     * Bare acks (see {@link OutgoingMessage#isBareAck()}) aren't sent on their own. They're carried by the
+     *  selective ack header of the client's next datagram, which goes out within one
+     *  {@link #resendUnackedMessages()} run, unless the client has no ack headers or they're too old for
+     *  the header. Must be called from the client's game executor.
+     */
     @Override
     public void send(final UdpClient client, final OutgoingMessage message, final int maxRetries) throws JsonProcessingException {
-        Message<byte[]> msg = MessageBuilder
-            .withPayload(MAPPER.writeValueAsString(message).getBytes(SERVER_CHARSET))
-            .setHeader(IpHeaders.PACKET_ADDRESS, new InetSocketAddress(client.ip(), client.port()))
-            .build();
-        
+        if (message.isBareAck() && client.connection().ack(message.ackMessageId())) return;
+
+        final OutgoingMessage numbered = numbered(client, message);
+        send(client, numbered, client.connection().getWireFormat().getCodec().encode(numbered), maxRetries);
+    }
+
+    /**
+     * Sends a message's data to every client, serializing it only once for each wire format in use.
+     * Each client still gets its own header.
+     */
+    @Override
+    public void broadcast(final Iterable<UdpClient> clients, final OutgoingMessage message) throws JsonProcessingException {
+        final Map<WireFormat, byte[]> data = new EnumMap<>(WireFormat.class);
+        for (final UdpClient client : clients) {
+            final MessageCodec codec = client.connection().getWireFormat().getCodec();
+            byte[] encoded = data.get(client.connection().getWireFormat());
+            if (encoded == null) {
+                encoded = codec.encodeData(message.data());
+                data.put(client.connection().getWireFormat(), encoded);
+            }
+
+            final OutgoingMessage copy = numbered(client, message);
+            send(client, copy, codec.encode(copy, encoded), MAX_RETRIES);
+        }
+    }
+
+    /**
+     * Gives a message the next message ID on a client's connection, if it needs one.
+     * @param client Client the message is going to
+     * @param message Message to send
+     * @return Message ready to encode
+     */
+    private static OutgoingMessage numbered(final UdpClient client, final OutgoingMessage message) {
+        return message.needsMessageId() ? message.withMessageId(client.connection().nextMessageId()) : message;
+    }
+
+    /**
+     * Queues an encoded message for a client and tracks it for acks.
+     * @param client Client to send to
+     * @param message Message being sent
+     * @param payload Message encoded with the client's wire format
+     * @param maxRetries Max times to retry if the datagram fails to send
+     */
+    private void send(final UdpClient client, final OutgoingMessage message, final byte[] payload, final int maxRetries) {
         // Store in queue if this is acking something
         if (message.ackMessageId() != null) {
             client.respQueue().put(
                 message.ackMessageId(),
-                new OutgoingResponse(client, message, Instant.now().plusMillis(DEFAULT_OUTGOING_MESSAGE_VIABILITY))
+                new OutgoingResponse(client, message, Instant.now().plusMillis(client.cmdQueue().getRtt().getViabilityMillis()))
             );
         }
 
         // And if this requires ack, store the ID in another queue so we can request resend
         if (message.messageId() != null && message.viability() != null) {
-            client.cmdQueue().put(
-                message.messageId(),
-                new OutgoingCommand(client, message, 1, Instant.now(), Instant.now().plusMillis(DEFAULT_OUTGOING_MESSAGE_VIABILITY))
-            );
+            client.cmdQueue().add(message, monotonicMillis());
+        }
+
+        LOGGER.debug("Sending: {}", message);
+        enqueue(client, payload, maxRetries);
+    }
+
+    /**
+     * Adds an encoded message to a client's outbound bundle.
+     * <p>
+     * Inside a game's executor, the bundle is flushed once the current task (a command or a tick) finishes,
+     *  so everything sent to a client during it shares as few datagrams as possible. Anywhere else, or if
+     *  the caller asked for no retries, it's flushed right away.
+     * @param client Client to send to
+     * @param payload Encoded message
+     * @param maxRetries Max times to retry if the datagram fails to send
+     */
+    private void enqueue(final UdpClient client, final byte[] payload, final int maxRetries) {
+        final DatagramBundle bundle = client.connection().getOutbound();
+        final boolean wasEmpty;
+        synchronized (bundle) {
+            if (DatagramBundle.frameSize(payload.length) > bundle.capacity()) {
+                // Too big to share. Send anything queued first so messages stay in order.
+                flush(client, maxRetries);
+                final byte[] datagram = client.connection().usesAckHeaders()
+                    ? DatagramBundle.single(client.connection().takeAckHeader(), payload)
+                    : DatagramBundle.single(payload);
+                sendDatagram(datagram, addressOf(client), maxRetries);
+                return;
+            }
+
+            if (!bundle.fits(payload.length)) flush(client, maxRetries);
+            wasEmpty = bundle.isEmpty();
+            bundle.add(payload);
+        }
+
+        final GameExecutor executor = GameExecutor.current();
+        if (executor == null || maxRetries == 0) flush(client, maxRetries);
+        else if (wasEmpty) executor.afterTask(() -> flush(client, MAX_RETRIES));
+    }
+
+    /**
+     * Sends everything in a client's outbound bundle, along with the latest selective ack header if the
+     *  client negotiated ack headers.
+     * @param client Client to flush
+     * @param maxRetries Max times to retry if the datagram fails to send
+     */
+    private void flush(final UdpClient client, final int maxRetries) {
+        final DatagramBundle bundle = client.connection().getOutbound();
+        synchronized (bundle) {
+            if (bundle.isEmpty()) return;
+            final byte[] datagram = client.connection().usesAckHeaders()
+                ? bundle.drain(client.connection().takeAckHeader())
+                : bundle.drain();
+            sendDatagram(datagram, addressOf(client), maxRetries);
         }
+    }
+
+    /**
+     * Sends a client any acks it hasn't been sent yet, with a datagram of their own if there are no
+     *  messages waiting to carry them.
+     * @param client Client to send acks to
+     */
+    private void flushAcks(final UdpClient client) {
+        final DatagramBundle bundle = client.connection().getOutbound();
+        synchronized (bundle) {
+            if (!client.connection().isAckPending()) return;
+            if (!bundle.isEmpty()) flush(client, MAX_RETRIES);
+            else sendDatagram(DatagramBundle.ackOnly(client.connection().takeAckHeader()), addressOf(client), MAX_RETRIES);
+        }
+    }
 
+    /**
+     * Sends a framed datagram, scheduling retries if it fails.
+     * @param datagram Datagram to send
+     * @param address Address to send to
+     * @param maxRetries Max times to retry
+     * @throws MessageHandlingException Send failed (only if maxRetries is 0)
+     */
+    private void sendDatagram(final byte[] datagram, final InetSocketAddress address, final int maxRetries) throws MessageHandlingException {
         try {
-            LOGGER.debug("Sending: " + new String(msg.getPayload(), SERVER_CHARSET));
-            udpOut.handleMessage(msg);
-        } catch (final MessageHandlingException e) {
-            // Message failed. Retry the send a few times.
+            udpIngress.send(datagram, address);
+        } catch (final IOException e) {
+            // Datagram failed. Retry the send a few times.
             LOGGER.error("Failure in UDP delivery. Will retry: ", e);
             if (maxRetries > 0)
                 taskScheduler.schedule(
                     () -> {
-                        retrySend(1, maxRetries, msg);
+                        retrySend(1, maxRetries, datagram, address);
                     },
                     Instant.now().plusMillis(RETRY_DELAY_INCREMENT_MS)
                 );
-            else throw e;
+            else throw new MessageHandlingException(new GenericMessage<>(datagram), "Failure in UDP delivery.", e);
         }
     }
 
     /**
-     * Retries a message send when a {@link MessagingException} occurred.
+     * Retries a datagram send when an {@link IOException} occurred.
      * @param i Number of retries so far
      * @param maxRetries Max times to retry
-     * @param message Message to try resend for
+     * @param datagram Framed datagram to try resend for
+     * @param address Address to send to
      */
-    private void retrySend(final int i, int maxRetries, final Message<byte[]> message) {
+    private void retrySend(final int i, int maxRetries, final byte[] datagram, final InetSocketAddress address) {
         // Try to send again
         try {
-            udpOut.handleMessage(message);
-        } catch (final MessageHandlingException e) {
+            udpIngress.send(datagram, address);
+        } catch (final IOException e) {
             // Check if we should resend again
             final int newI = i + 1;
             if (newI > maxRetries) {
-                LOGGER.warn("Failing retry for message: {} after {} attempts", message, i);
+                LOGGER.warn("Failing retry for datagram to {} after {} attempts", address, i);
                 return; // Too many retries
             }
 
             taskScheduler.schedule(
                 () -> {
-                    retrySend(newI, maxRetries, message);
+                    retrySend(newI, maxRetries, datagram, address);
                 },
                 Instant.now().plusMillis(RETRY_DELAY_INCREMENT_MS * newI)
             );
         }
     }
 
+    /**
+     * Gets the address to send a client's datagrams to.
+     * @param client Client
+     * @return Socket address
+     */
+    private static InetSocketAddress addressOf(final UdpClient client) {
+        return new InetSocketAddress(client.ip(), client.port());
+    }
+
     /**
      * Acknowledges (removes from the queue) a message that was sent only if it was addressed to the specified client.
+     *  The ack feeds the client's round trip time.
      * @param messageId Message ID
      * @param client UDP client requesting ack
      */
-    public void ackIfAuthorized(final UUID messageId, final UdpClient client) {
-        client.cmdQueue().remove(messageId);
+    public void ackIfAuthorized(final Integer messageId, final UdpClient client) {
+        if (messageId != null) client.cmdQueue().ack(messageId, monotonicMillis());
     }
 
     /**
@@ -456,10 +833,10 @@ public class SpringMessageHandler implements MessageHandler {
      * @throws JsonProcessingException Unable to serialize as JSON
      * @throws IllegalArgumentException Not found or not addressed to this client
      */
-    public void resendOutgoingResponseIfAuthorized(final UUID messageId, final UdpClient client) throws JsonProcessingException {
+    public void resendOutgoingResponseIfAuthorized(final int messageId, final UdpClient client) throws JsonProcessingException {
         OutgoingResponse msg = client.respQueue().get(messageId);
 
-        if (msg == null) throw new IllegalArgumentException("No such message.");
+        if (msg == null || msg.ackDeadline().isBefore(Instant.now())) throw new IllegalArgumentException("No such message.");
 
         // Clear from queue
         client.respQueue().remove(messageId);
@@ -475,135 +852,90 @@ public class SpringMessageHandler implements MessageHandler {
      * @throws JsonProcessingException Unable to serialize as JSON
      * @throws IllegalArgumentException Not found or not addressed to this client
      */
-    public void resendOutgoingCommandIfAuthorized(final UUID messageId, final UdpClient client) throws JsonProcessingException {
-        OutgoingCommand msg = client.cmdQueue().get(messageId);
+    public void resendOutgoingCommandIfAuthorized(final int messageId, final UdpClient client) throws JsonProcessingException {
+        // Clear from queue
+        final OutgoingMessage msg = client.cmdQueue().remove(messageId);
 
         if (msg == null) throw new IllegalArgumentException("No such message.");
 
-        // Clear from queue
-        client.cmdQueue().remove(messageId);
-
         // Resend
-        client.send(msg.message());
+        client.send(msg);
     }
 
     /**
-     * A scheduled task to purge any unacknowledged messages (messages that are past their ackDeadline).
-     * <p>
-     * Runs every 500ms.
-     */
-    @Scheduled(fixedRate = 500)
-	public void purgeUnackedMessages() {
-        final Instant now = Instant.now();
-
-        ArrayList<UUID> toPurge;
-        
-        for (final UdpClient client : clients.values()) {
-            toPurge = null;
-            for (final Map.Entry<UUID, OutgoingResponse> entry : client.respQueue().entrySet()) {
-                if (entry.getValue().ackDeadline().isBefore(now)) {
-                    if (toPurge == null) toPurge = new ArrayList<>();
-                    toPurge.add(entry.getKey());
-                }
-            }
-
-            if (toPurge != null) {
-                for (final UUID messageId : toPurge) {
-                    client.respQueue().remove(messageId);
-                }
-            }
-        }
-	}
-
-    /**
-     * A scheduled task to ask for any un-acked messages.
-     * Runs every 50ms.
+     * A scheduled task to ask for any un-acked messages, and to send acks that haven't had a message to ride along with.
+     * Runs every 50ms, on each game's executor. Only commands that are due are touched.
      */
     @Scheduled(fixedRate = 50)
 	public void resendUnackedMessages() {
-        final Instant now = Instant.now();
-        ArrayList<Map.Entry<UUID, OutgoingCommand>> toResend;
-        ArrayList<UUID> toPurge;
-        for (final UdpClient client : clients.values()) {
-            toPurge = null;
-            toResend = null;
-            for (final Map.Entry<UUID, OutgoingCommand> entry : client.cmdQueue().entrySet()) {
-                if (entry.getValue().viabilityDeadline().isBefore(now)) {
-                    if (toPurge == null) toPurge = new ArrayList<>();
-                    toPurge.add(entry.getKey());
-                    continue;
-                }
-
-                if (entry.getValue().lastSent().isBefore(now.plusMillis(entry.getValue().sendCount() * UNACKED_RETRY_DELAY_INCREMENT_MS))) {
-                    if (toResend == null) toResend = new ArrayList<>();
-                    toResend.add(entry);
-                }
-            }
-
-            if (toResend != null) {
-                for (final Map.Entry<UUID, OutgoingCommand> entry : toResend) {
-                    // Send out the request again
-                    try {
-                        entry.getValue().client().send(
-                            entry.getValue().message()
-                        );
-
-                        // Update last sent time
-                        client.cmdQueue().put(
-                            entry.getKey(),
-                            new OutgoingCommand(entry.getValue().client(), entry.getValue().message(), entry.getValue().sendCount() + 1, Instant.now(), entry.getValue().viabilityDeadline())
-                        );
-                    } catch (JsonProcessingException e) {
-                        LOGGER.warn("Skipping resend for unacked message {} due to JSON error: ", entry.getKey(), e);
-                        // Drop the message
-                        if (toPurge == null)  toPurge = new ArrayList<>();
-                        toPurge.add(entry.getKey());
+        GameState.forEach(
+            gameState -> {
+                gameState.execute(() -> {
+                    final long now = monotonicMillis();
+                    for (final GameUserState user : gameState.getUsers().values()) {
+                        resendUnackedMessages(user.getClient(), now);
                     }
-                }
+                });
             }
+        );
+	}
 
-            if (toPurge != null) {
-                for (final UUID messageId : toPurge) {
-                    client.cmdQueue().remove(messageId);
+    /**
+     * Resends any due un-acked messages for one client, then any acks still waiting to be sent.
+     * @param client Client to resend to
+     * @param now Current time, from {@link #monotonicMillis()}
+     */
+    private void resendUnackedMessages(final UdpClient client, final long now) {
+        client.cmdQueue().advance(
+            now,
+            message -> {
+                try {
+                    // Bypasses send() so the entry isn't replaced and its send count carries on
+                    enqueue(client, client.connection().getWireFormat().getCodec().encode(message), MAX_RETRIES);
+                } catch (final JsonProcessingException e) {
+                    LOGGER.warn("Skipping resend for unacked message {} due to JSON error: ", message.messageId(), e);
+                    // Drop the message
+                    return false;
                 }
+                return true;
             }
-        }
-	}
+        );
+        flushAcks(client);
+    }
 
     /**
      * A scheduled task to disconnect any 'dead' clients.
      * <p>
-     * Runs every second.
+     * Runs every second, on each game's executor.
      */
     @Scheduled(fixedRate = 1000)
 	public void disconnectDeadClients() {
         GameState.forEach(
             gameState -> {
-                gameState.disconnectTimedOutClients();
+                gameState.execute(gameState::disconnectTimedOutClients);
             }
         );
 	}
 
-    @Scheduled(fixedRate = GAME_TICK_MS)
-    public void runGameTick() {
-        final float delta;
-        if (lastTick == null) {
-            delta = 0;
-        } else {
-            delta = (Instant.now().toEpochMilli() - lastTick.toEpochMilli()) / 1000f;
-        }
-        lastTick = Instant.now();
+    /**
+     * A scheduled task to forget the budgets of addresses that haven't sent anything for a while.
+     * <p>
+     * Runs every 5 seconds. A bucket that has refilled is the same as a new one, so nothing is lost.
+     */
+    @Scheduled(fixedRate = 5000)
+    public void evictIdleStrangers() {
+        final long now = System.nanoTime();
+        strangers.values().removeIf(bucket -> bucket.isFull(now));
+    }
 
-        try {
-            GameState.forEach(
-                gameState -> {
-                    gameState.runGameTick(delta);
-                }
-            );
-        } catch (final Throwable t) {
-            System.err.println(t);
-            t.printStackTrace();
-        }
+    /**
+     * A scheduled task to check session keys against the database and forget sessions that have ended.
+     * <p>
+     * Runs every second, on the scheduler so game executors never wait on the database.
+     */
+    @Scheduled(fixedRate = 1000)
+    public void revalidateSessions() {
+        sessions.revalidate();
     }
 
     @Scheduled(fixedRate = 5000)
@@ -630,6 +962,26 @@ public class SpringMessageHandler implements MessageHandler {
         return taskScheduler;
     }
 
+    /**
+     * Gets the sessions of connected clients.
+     * @return Session table
+     */
+    public GameSessionTable getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Gets the traffic shed by the per-client rate limits since the server started.
+     * @return Shed counts
+     */
+    public ShedCounts getShedCounts() {
+        final Map<TrafficClass, Long> messages = new EnumMap<>(TrafficClass.class);
+        for (final Map.Entry<TrafficClass, LongAdder> kv : shedMessages.entrySet()) {
+            messages.put(kv.getKey(), kv.getValue().sum());
+        }
+        return new ShedCounts(shedDatagrams.sum(), messages);
+    }
+
     /**
      * Schedules a game to be deleted after the specified point in time.
      * @param game Game to delete
@@ -640,30 +992,53 @@ public class SpringMessageHandler implements MessageHandler {
     }
 
     /**
-     * Gets a {@link UdpClient} from a message's headers, creating a memory instance as necessary.
-     * @param message Message to parse
-     * @param handler Message handler attach client to 
+     * Creates a {@link UdpClient} for a sender that's connecting. Called once the sender's key has been
+     *  validated, so reliability and connection state only exist for clients that have connected.
+     * @param address Sender's address
+     * @param envelope Message the sender authenticated with
      * @return Client where responses can be sent
+     * @throws AuthenticationFailure The message isn't a <code>COMMAND_CONNECT</code>
      */
-    public UdpClient getClient(final Message<?> message, final MessageHandler handler) {
-        final int port = (Integer) message.getHeaders().get(IpHeaders.PORT);
-        final String clientName = message.getHeaders().get(IpHeaders.IP_ADDRESS) + ":" + port;
-
-        UdpClient client = clients.get(clientName);
-        if (client != null) return client;
+    private UdpClient newClient(final InetSocketAddress address, final MessageEnvelope envelope) {
+        if (envelope.data() == null || !MessageDataType.COMMAND_CONNECT.name().equals(envelope.data().type())) {
+            throw new AuthenticationFailure("Not connected. Send COMMAND_CONNECT first.");
+        }
 
-        // Doesn't exist, create a new Client 
-        client = new UdpClient(
-            (String) message.getHeaders().get(IpHeaders.IP_ADDRESS), 
-            port, 
-            handler,
-            new HashMap<>(),
-            new HashMap<>()
+        return new UdpClient(
+            address.getAddress().getHostAddress(),
+            address.getPort(),
+            this,
+            new SequenceRing<>(SEQUENCE_WINDOW),
+            new RetransmitQueue(INITIAL_RETRANSMIT_TIMEOUT_MS, monotonicMillis()),
+            new ConnectionState(),
+            new RateLimiter(DATAGRAM_BUDGET, TRAFFIC_CLASS_BUDGETS, System.nanoTime())
         );
+    }
 
-        clients.put(clientName, client);
+    /**
+     * Replies to a sender, whether or not it has connected.
+     * <p>
+     * Senders that haven't connected have no reliability state, so the reply goes out in a datagram of
+     *  its own as JSON, with no message ID or ack header, and isn't retried.
+     * @param client Client bound to the sender's address, or null if it hasn't connected
+     * @param from Sender's address
+     * @param message Message to send
+     * @throws JsonProcessingException Unable to serialize message
+     */
+    private void reply(final UdpClient client, final InetSocketAddress from, final OutgoingMessage message) throws JsonProcessingException {
+        if (client != null) {
+            client.send(message);
+            return;
+        }
+        sendDatagram(DatagramBundle.single(WireFormat.JSON.getCodec().encode(message)), from, 0);
+    }
 
-        return client;
+    /**
+     * Gets the current time in milliseconds from a monotonic clock, for retransmit deadlines.
+     * @return Monotonic milliseconds
+     */
+    private static long monotonicMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
     }
 
     @Override
@@ -680,14 +1055,15 @@ public class SpringMessageHandler implements MessageHandler {
      * This class should not be manually instantiated.
      */
     public SpringMessageHandler() {
-        clients = new HashMap<>();
-        deadGames = new HashMap<>();
-        commandLoader = new ClasspathCommandLoader();
-        try {
-            ((ClasspathCommandLoader) commandLoader).load(SpringMessageHandler.class.getPackageName());
-        } catch (final Throwable t) {
-            throw new RuntimeException("Exception while scanning classpath for gameserver commands:", t);
-        }
+        strangers = new ConcurrentHashMap<>();
+        strangerOverflow = OVERFLOW_STRANGER_BUDGET.bucket(System.nanoTime());
+        sessions = new GameSessionTable();
+        deadGames = new ConcurrentHashMap<>();
+        shedDatagrams = new LongAdder();
+        shedMessages = new EnumMap<>(TrafficClass.class);
+        for (final TrafficClass trafficClass : TrafficClass.values()) shedMessages.put(trafficClass, new LongAdder());
+        // Generated at build time by the Common lib's annotation processor
+        commandLoader = new GeneratedCommandLoader();
         ACTIVE_INSTANCE = this;
     }
 
@@ -722,6 +1098,25 @@ public class SpringMessageHandler implements MessageHandler {
         return ACTIVE_INSTANCE;
     }
 
+    /**
+     * A step of the receive process which may fail.
+     */
+    @FunctionalInterface
+    private interface ReceiveTask {
+        /**
+         * Runs the step.
+         * @throws Exception Any failure. Reported back to the client.
+         */
+        public void run() throws Exception;
+    }
+
+    /**
+     * Traffic shed by the per-client rate limits.
+     * @param datagrams Datagrams dropped before decoding for exceeding the datagram budget
+     * @param messages Messages dropped before parsing for exceeding their class budget, by class
+     */
+    public record ShedCounts(long datagrams, Map<TrafficClass, Long> messages) { }
+
     /**
      * Command context for commands initiated by the server. Includes game and user states.
      */
@@ -2,8 +2,10 @@ package today.tecktip.killbill.backend.gameserver.commands;
 
 import org.springframework.messaging.MessageHandlingException;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
 import today.tecktip.killbill.backend.gameserver.SpringMessageHandler;
 import today.tecktip.killbill.backend.gameserver.games.GameUserState;
@@ -12,6 +14,7 @@ import today.tecktip.killbill.common.gameserver.MessageHandler.CommandContext;
 import today.tecktip.killbill.common.gameserver.annotations.Command;
 import today.tecktip.killbill.common.gameserver.annotations.CommandMethod;
 import today.tecktip.killbill.common.gameserver.annotations.ParseMethod;
+import today.tecktip.killbill.common.gameserver.codec.WireFormat;
 import today.tecktip.killbill.common.gameserver.messages.IncomingMessage;
 import today.tecktip.killbill.common.gameserver.messages.MessageData;
 import today.tecktip.killbill.common.gameserver.messages.MessageDataType;
@@ -27,20 +30,62 @@ public class ConnectCommand {
      * Incoming connect command data.
      */
     public static class ConnectCommandIncomingData extends MessageData {
+        /**
+         * Wire format the client would like to use
+         */
+        private final WireFormat wireFormat;
+
+        /**
+         * True if the client can read and send selective ack headers
+         */
+        private final boolean ackHeaders;
+
         /**
          * Constructs a new incoming connect command message.
+         * @param wireFormat Wire format the client would like to use
+         * @param ackHeaders True if the client can read and send selective ack headers
          */
-        public ConnectCommandIncomingData() {
+        public ConnectCommandIncomingData(final WireFormat wireFormat, final boolean ackHeaders) {
             super(MessageDataType.COMMAND_CONNECT);
+            this.wireFormat = wireFormat;
+            this.ackHeaders = ackHeaders;
         }
 
         /**
-         * Parses a JSON node into connect command data.
-         * @param node JSON node
+         * Gets the wire format the client would like to use.
+         * @return Requested wire format
+         */
+        public WireFormat getWireFormat() {
+            return wireFormat;
+        }
+
+        /**
+         * Checks if the client can read and send selective ack headers.
+         * @return True if it asked for them
+         */
+        public boolean usesAckHeaders() {
+            return ackHeaders;
+        }
+
+        /**
+         * Parses JSON data into connect command data. Clients which don't ask for ack headers don't get them.
+         * @param parser Parser on the JSON data
          * @return Parsed data
          */
-        public static ConnectCommandIncomingData parse(final JsonNode node) {
-            return new ConnectCommandIncomingData();
+        public static ConnectCommandIncomingData parse(final JsonParser parser) {
+            final String[] wireFormat = { null };
+            final boolean[] ackHeaders = { false };
+            MessageData.readFields(parser, (name, value) -> {
+                switch (name) {
+                    case "wireFormat":
+                        wireFormat[0] = value.currentToken() == JsonToken.VALUE_STRING ? value.getText() : null;
+                        break;
+                    case "ackHeaders":
+                        ackHeaders[0] = value.currentToken() == JsonToken.VALUE_TRUE;
+                        break;
+                }
+            });
+            return new ConnectCommandIncomingData(WireFormat.fromName(wireFormat[0]), ackHeaders[0]);
         }
     }
 
@@ -48,22 +93,54 @@ public class ConnectCommand {
      * Outgoing connect command data.
      */
     public static class ConnectCommandOutgoingData extends MessageData {
+        /**
+         * Wire format the server accepted
+         */
+        private final WireFormat wireFormat;
+
+        /**
+         * True if the server accepted selective ack headers
+         */
+        private final boolean ackHeaders;
+
         /**
          * Constructs a new incoming connect command message.
+         * @param wireFormat Wire format the server accepted
+         * @param ackHeaders True if the server accepted selective ack headers
          */
-        public ConnectCommandOutgoingData() {
+        public ConnectCommandOutgoingData(final WireFormat wireFormat, final boolean ackHeaders) {
             super(MessageDataType.RESP_CONNECT);
+            this.wireFormat = wireFormat;
+            this.ackHeaders = ackHeaders;
+        }
+
+        /**
+         * Gets the wire format the server accepted.
+         * @return Accepted wire format
+         */
+        @JsonProperty("wireFormat")
+        public WireFormat getWireFormat() {
+            return wireFormat;
+        }
+
+        /**
+         * Checks if the server accepted selective ack headers.
+         * @return True if accepted
+         */
+        @JsonProperty("ackHeaders")
+        public boolean usesAckHeaders() {
+            return ackHeaders;
         }
     }
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.COMMAND_CONNECT)
-    public ConnectCommandIncomingData parse(final JsonNode node) {
-        return ConnectCommandIncomingData.parse(node);
+    public ConnectCommandIncomingData parse(final JsonParser parser) {
+        return ConnectCommandIncomingData.parse(parser);
     }
 
     /**
@@ -78,15 +155,23 @@ public class ConnectCommand {
     @CommandMethod(type = MessageDataType.COMMAND_CONNECT)
     public void run(final MessageHandler handler, final IncomingMessage message, final CommandContext context) throws JsonProcessingException, MessageHandlingException {
         final GameUserState user = SpringMessageHandler.userStateFrom(context);
+        final ConnectCommandIncomingData data = (ConnectCommandIncomingData) message.data();
+        final WireFormat wireFormat = data.getWireFormat();
 
         user.connect();
+        SpringMessageHandler.get().getSessions().bind(user, message.key());
         user.getClient().send(
             OutgoingMessage.newBuilder()
                 .setKey(handler)
                 .success()
                 .ackMessageId(message.messageId())
-                .data(new ConnectCommandOutgoingData())
+                .data(new ConnectCommandOutgoingData(wireFormat, data.usesAckHeaders()))
                 .build());
+
+        // Switch after confirming so the response is readable in the format the client sent with.
+        //  Datagram framing is detected per datagram, so the response can go out with either.
+        user.getClient().connection().setWireFormat(wireFormat);
+        user.getClient().connection().setAckHeaders(data.usesAckHeaders());
     }
 
     /**
@@ -3,7 +3,7 @@ package today.tecktip.killbill.backend.gameserver.commands;
 import org.springframework.messaging.MessageHandlingException;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.backend.gameserver.SpringMessageHandler;
 import today.tecktip.killbill.backend.gameserver.games.GameUserState;
@@ -36,23 +36,23 @@ public class DisconnectCommand {
         }
 
         /**
-         * Parses a JSON node into disconnect command data.
-         * @param node JSON node
+         * Parses JSON data into disconnect command data.
+         * @param parser Parser on the JSON data
          * @return Parsed data
          */
-        public static DisconnectCommandIncomingData parse(final JsonNode node) {
+        public static DisconnectCommandIncomingData parse(final JsonParser parser) {
             return new DisconnectCommandIncomingData();
         }
     }
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.COMMAND_DISCONNECT)
-    public DisconnectCommandIncomingData parse(final JsonNode node) {
-        return DisconnectCommandIncomingData.parse(node);
+    public DisconnectCommandIncomingData parse(final JsonParser parser) {
+        return DisconnectCommandIncomingData.parse(parser);
     }
 
     /**
@@ -1,10 +1,10 @@
 package today.tecktip.killbill.backend.gameserver.commands;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.common.gameserver.annotations.Command;
 import today.tecktip.killbill.common.gameserver.annotations.ParseMethod;
+import today.tecktip.killbill.common.gameserver.messages.MessageData;
 import today.tecktip.killbill.common.gameserver.messages.MessageDataType;
 import today.tecktip.killbill.common.gameserver.messages.exceptions.AuthenticationFailureData;
 import today.tecktip.killbill.common.gameserver.messages.exceptions.IllegalStateExceptionData;
@@ -18,30 +18,28 @@ import today.tecktip.killbill.common.gameserver.messages.generic.EmptyData;
  */
 @Command
 public class General {
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     @ParseMethod(type = MessageDataType.AUTHENTICATION_FAILURE)
-    public AuthenticationFailureData parseAuthenticationFailure(final JsonNode node) {
-        return MAPPER.convertValue(node, AuthenticationFailureData.class);
+    public AuthenticationFailureData parseAuthenticationFailure(final JsonParser parser) {
+        return MessageData.read(parser, AuthenticationFailureData.class);
     }
 
     @ParseMethod(type = MessageDataType.ILLEGAL_STATE_EXCEPTION)
-    public IllegalStateExceptionData parseIllegalStateException(final JsonNode node) {
-        return MAPPER.convertValue(node, IllegalStateExceptionData.class);
+    public IllegalStateExceptionData parseIllegalStateException(final JsonParser parser) {
+        return MessageData.read(parser, IllegalStateExceptionData.class);
     }
 
     @ParseMethod(type = MessageDataType.INTERNAL_SERVER_ERROR)
-    public InternalServerErrorData parseInternalServerError(final JsonNode node) {
-        return MAPPER.convertValue(node, InternalServerErrorData.class);
+    public InternalServerErrorData parseInternalServerError(final JsonParser parser) {
+        return MessageData.read(parser, InternalServerErrorData.class);
     }
 
     @ParseMethod(type = MessageDataType.INVALID_ARGUMENT_EXCEPTION)
-    public InvalidArgumentExceptionData parseInvalidArgumentException(final JsonNode node) {
-        return MAPPER.convertValue(node, InvalidArgumentExceptionData.class);
+    public InvalidArgumentExceptionData parseInvalidArgumentException(final JsonParser parser) {
+        return MessageData.read(parser, InvalidArgumentExceptionData.class);
     }
 
     @ParseMethod(type = MessageDataType.EMPTY)
-    public EmptyData parseEmpty(final JsonNode node) {
+    public EmptyData parseEmpty(final JsonParser parser) {
         return new EmptyData();
     }
 }
@@ -3,7 +3,7 @@ package today.tecktip.killbill.backend.gameserver.commands;
 import org.springframework.messaging.MessageHandlingException;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.backend.gameserver.SpringMessageHandler;
 import today.tecktip.killbill.backend.gameserver.games.GameUserState;
@@ -38,23 +38,23 @@ public class HeartbeatCommand {
         }
 
         /**
-         * Parses a JSON node into heartbeat command data.
-         * @param node JSON node
+         * Parses JSON data into heartbeat command data.
+         * @param parser Parser on the JSON data
          * @return Parsed data
          */
-        public static HeartbeatCommandIncomingData parse(final JsonNode node) {
+        public static HeartbeatCommandIncomingData parse(final JsonParser parser) {
             return new HeartbeatCommandIncomingData();
         }
     }
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.COMMAND_HEARTBEAT)
-    public HeartbeatCommandIncomingData parse(final JsonNode node) {
-        return HeartbeatCommandIncomingData.parse(node);
+    public HeartbeatCommandIncomingData parse(final JsonParser parser) {
+        return HeartbeatCommandIncomingData.parse(parser);
     }
 
     /**
@@ -4,7 +4,7 @@ import org.springframework.messaging.MessageHandlingException;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.backend.gameserver.SpringMessageHandler;
 import today.tecktip.killbill.backend.gameserver.games.GameUserState;
@@ -36,23 +36,23 @@ public class PingCommand {
         }
 
         /**
-         * Parses a JSON node into ping command data.
-         * @param node JSON node
+         * Parses JSON data into ping command data.
+         * @param parser Parser on the JSON data
          * @return Parsed data
          */
-        public static PingCommandIncomingData parse(final JsonNode node) {
+        public static PingCommandIncomingData parse(final JsonParser parser) {
             return new PingCommandIncomingData();
         }
     }
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.COMMAND_PING)
-    public PingCommandIncomingData parse(final JsonNode node) {
-        return PingCommandIncomingData.parse(node);
+    public PingCommandIncomingData parse(final JsonParser parser) {
+        return PingCommandIncomingData.parse(parser);
     }
 
     /**
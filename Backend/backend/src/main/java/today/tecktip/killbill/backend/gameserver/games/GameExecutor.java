@@ -0,0 +1,261 @@
+package today.tecktip.killbill.backend.gameserver.games;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A serial executor (mailbox) owned by a single game.
+ * <p>
+ * Every task that reads or writes a game's state (incoming commands, game ticks, timers) is queued here.
+ *  Tasks for one game run one at a time in submission order, so game state needs no locking, while
+ *  different games are drained in parallel by a shared pool of worker threads.
+ * @author cs
+ */
+public class GameExecutor implements Executor {
+    /**
+     * Logs go here
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(GameExecutor.class);
+
+    /**
+     * Maximum tasks run per drain before yielding the worker to other games.
+     */
+    private static final int MAX_TASKS_PER_DRAIN = 64;
+
+    /**
+     * Worker threads shared by every game.
+     */
+    private static final ExecutorService WORKERS = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(),
+        new WorkerThreadFactory()
+    );
+
+    /**
+     * Executors for every game, keyed by game ID.
+     */
+    private static final Map<UUID, GameExecutor> executors = new ConcurrentHashMap<>();
+
+    /**
+     * The executor currently draining on this thread, if any.
+     */
+    private static final ThreadLocal<GameExecutor> current = new ThreadLocal<>();
+
+    /**
+     * ID of the game this executor belongs to
+     */
+    private final UUID gameId;
+
+    /**
+     * Queued tasks
+     */
+    private final ConcurrentLinkedQueue<Runnable> mailbox;
+
+    /**
+     * Number of queued tasks
+     */
+    private final AtomicInteger backlog;
+
+    /**
+     * True while a drain is queued or running on a worker
+     */
+    private final AtomicBoolean scheduled;
+
+    /**
+     * Actions to run once the current task finishes. Only touched by the draining worker.
+     */
+    private final List<Runnable> afterTask;
+
+    /**
+     * Set once the game is destroyed. New tasks are dropped afterwards.
+     */
+    private volatile boolean shutdown;
+
+    /**
+     * Constructs a new game executor. Use {@link #create(UUID)} instead.
+     * @param gameId ID of the game this executor belongs to
+     */
+    private GameExecutor(final UUID gameId) {
+        this.gameId = gameId;
+        mailbox = new ConcurrentLinkedQueue<>();
+        backlog = new AtomicInteger(0);
+        scheduled = new AtomicBoolean(false);
+        afterTask = new ArrayList<>();
+        shutdown = false;
+    }
+
+    /**
+     * Creates the executor for a game as it's loaded into memory. It isn't found by {@link #forGame}
+     *  until it's published.
+     * @param gameId Game ID
+     * @return Game executor
+     */
+    static GameExecutor create(final UUID gameId) {
+        return new GameExecutor(gameId);
+    }
+
+    /**
+     * Makes this executor the one {@link #forGame} finds for its game, replacing any left over from an
+     *  earlier load.
+     */
+    void publish() {
+        final GameExecutor old = executors.put(gameId, this);
+        if (old != null && old != this) old.shutdown();
+    }
+
+    /**
+     * Gets the executor for a game. Only games loaded into memory have one, so game IDs taken from
+     *  unauthenticated messages can't create executors.
+     * @param gameId Game ID
+     * @return Game executor, or null if the game isn't loaded
+     */
+    public static GameExecutor forGame(final UUID gameId) {
+        return executors.get(gameId);
+    }
+
+    /**
+     * Shuts down and forgets the executor for a game.
+     * @param gameId Game ID
+     */
+    public static void remove(final UUID gameId) {
+        final GameExecutor executor = executors.remove(gameId);
+        if (executor != null) executor.shutdown();
+    }
+
+    /**
+     * Queues a task to run on this game's logical thread.
+     * @param task Task to run
+     */
+    @Override
+    public void execute(final Runnable task) {
+        if (shutdown) {
+            LOGGER.debug("Dropping task for destroyed game {}", gameId);
+            return;
+        }
+        mailbox.offer(task);
+        backlog.incrementAndGet();
+        trySchedule();
+    }
+
+    /**
+     * Checks if the calling thread is currently running a task for this game.
+     * @return True if on this game's logical thread
+     */
+    public boolean inExecutor() {
+        return current.get() == this;
+    }
+
+    /**
+     * Gets the executor running a task on the calling thread.
+     * @return Game executor, or null if not on a game's logical thread
+     */
+    public static GameExecutor current() {
+        return current.get();
+    }
+
+    /**
+     * Runs an action once the current task finishes, such as flushing messages it queued up.
+     * Must be called from this executor.
+     * @param action Action to run
+     */
+    public void afterTask(final Runnable action) {
+        afterTask.add(action);
+    }
+
+    /**
+     * Gets the number of tasks waiting to run.
+     * @return Queued task count
+     */
+    public int getBacklog() {
+        return backlog.get();
+    }
+
+    /**
+     * Drops any queued tasks and rejects new ones.
+     */
+    public void shutdown() {
+        shutdown = true;
+        mailbox.clear();
+        backlog.set(0);
+    }
+
+    /**
+     * Submits a drain to the worker pool unless one is already pending.
+     */
+    private void trySchedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            WORKERS.execute(this::drain);
+        }
+    }
+
+    /**
+     * Runs queued tasks on a worker thread.
+     */
+    private void drain() {
+        current.set(this);
+        try {
+            for (int i = 0; i < MAX_TASKS_PER_DRAIN; i++) {
+                final Runnable task = mailbox.poll();
+                if (task == null) break;
+                backlog.decrementAndGet();
+
+                try {
+                    task.run();
+                } catch (final Throwable t) {
+                    LOGGER.error("Uncaught exception in task for game {}: ", gameId, t);
+                }
+                runAfterTask();
+            }
+        } finally {
+            current.remove();
+            scheduled.set(false);
+        }
+
+        // Anything left (or added while we were finishing up) needs another pass
+        if (!mailbox.isEmpty()) trySchedule();
+    }
+
+    /**
+     * Runs and clears the actions queued by the task that just finished.
+     */
+    private void runAfterTask() {
+        // Actions may queue more actions, so don't use an iterator
+        for (int i = 0; i < afterTask.size(); i++) {
+            try {
+                afterTask.get(i).run();
+            } catch (final Throwable t) {
+                LOGGER.error("Uncaught exception after task for game {}: ", gameId, t);
+            }
+        }
+        afterTask.clear();
+    }
+
+    /**
+     * Names worker threads and marks them as daemons.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+        /**
+         * Next worker number
+         */
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "game-worker-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -1,25 +1,34 @@
 package today.tecktip.killbill.backend.gameserver.games;
 
 import java.sql.SQLException;
+import java.time.Instant;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import today.tecktip.killbill.backend.db.games.Game;
+import today.tecktip.killbill.backend.db.games.Games;
 import today.tecktip.killbill.backend.db.gameusers.GameUser;
 import today.tecktip.killbill.backend.db.gameusers.GameUsers;
 import today.tecktip.killbill.backend.db.users.User;
 import today.tecktip.killbill.backend.exceptions.NotFoundException;
+import today.tecktip.killbill.backend.gameserver.SpringMessageHandler;
 import today.tecktip.killbill.backend.gameserver.games.basic.BasicGameState;
 import today.tecktip.killbill.common.gameserver.MessageHandler.UdpClient;
 
 /**
  * Represents the state of a game in memory.
+ * <p>
+ * Game state is only safe to touch from the game's {@link GameExecutor}. Use {@link #execute} and
+ *  {@link #schedule} to get there from other threads.
  * @author cs
  */
 public abstract class GameState {
@@ -31,7 +40,7 @@ public abstract class GameState {
     /**
      * All games stored in memory right now.
      */
-    private static final HashMap<UUID, GameState> games = new HashMap<>();
+    private static final Map<UUID, GameState> games = new ConcurrentHashMap<>();
 
     /**
      * The database game this game state is representing.
@@ -43,13 +52,88 @@ public abstract class GameState {
      */
     protected final HashMap<UUID, GameUserState> users = new HashMap<>();
 
+    /**
+     * Serial executor that all work on this game runs on. Set by {@link #register} once the game is
+     *  fully constructed, before it's published.
+     */
+    protected GameExecutor executor;
+
+    /**
+     * True while a game tick is queued or running, so slow games don't pile up ticks.
+     */
+    private final AtomicBoolean tickPending = new AtomicBoolean(false);
+
+    /**
+     * Fixed timestep and overrun tracking for this game's ticks.
+     */
+    private final TickAccumulator ticks;
+
     /**
      * Constructs a new GameState.
      * @param game Database game this state is tied to
      */
     public GameState(final Game game) {
-        games.put(game.id(), this);
         this.game = game;
+        ticks = new TickAccumulator(this);
+    }
+
+    /**
+     * Queues a task on this game's executor.
+     * @param task Task to run
+     */
+    public void execute(final Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Queues a task on this game's executor at a point in the future.
+     * @param task Task to run
+     * @param runAt Time to queue the task at
+     */
+    public void schedule(final Runnable task, final Instant runAt) {
+        SpringMessageHandler.get().getTaskScheduler().schedule(() -> executor.execute(task), runAt);
+    }
+
+    /**
+     * Gets the executor this game runs on.
+     * @return Game executor
+     */
+    public GameExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Gets this game's tick timing stats.
+     * @return Tick accumulator
+     */
+    public TickAccumulator getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Queues the game ticks due up to a point in time, unless the previous batch hasn't finished yet.
+     *  Skipped time is caught up on the next call.
+     * @param now Monotonic time ({@link System#nanoTime()}) to simulate up to
+     * @return True if queued, false if skipped
+     * @throws RejectedExecutionException Executor wouldn't take the tick
+     */
+    public boolean queueGameTick(final long now) {
+        if (!tickPending.compareAndSet(false, true)) return false;
+
+        try {
+            executor.execute(() -> {
+                try {
+                    ticks.advance(now);
+                } finally {
+                    tickPending.set(false);
+                }
+            });
+        } catch (final RuntimeException e) {
+            // Never queued, so nothing will clear the flag for us
+            tickPending.set(false);
+            throw e;
+        }
+        return true;
     }
 
     /**
@@ -118,13 +202,17 @@ public abstract class GameState {
     public abstract void addUser(final User user, final GameUser gameUser, final UdpClient client);
 
     /**
-     * Runs a game tick (every {@link SpringMessageHandler#GAME_TICK_MS} ms)
-     * @param delta Time since last game tick
+     * Runs a game tick (every {@link TickEngine#TICK_NANOS} ns, on the game's executor)
+     * @param delta Time since last game tick (always {@link TickEngine#TICK_SECONDS})
      */
     public abstract void runGameTick(final float delta);
 
     /**
      * Registers a new game to memory, generating its state.
+     * <p>
+     * The tick clock and the UDP reader threads find games through {@link #forEach}, {@link #get} and
+     *  {@link GameExecutor#forGame}, so the game is only published to them once it's fully built,
+     *  and its executor only after the game.
      * @param game Database game
      */
     public static void register(final Game game) {
@@ -136,7 +224,9 @@ public abstract class GameState {
             default:
                 throw new IllegalArgumentException("Invalid game type: " + game.config().getGameType());
         }
+        gameState.executor = GameExecutor.create(game.id());
         games.put(game.id(), gameState);
+        gameState.executor.publish();
     }
 
     /**
@@ -148,6 +238,23 @@ public abstract class GameState {
         return games.get(gameId);
     }
 
+    /**
+     * Gets a game's state, loading it from the database if it isn't in memory yet.
+     * <p>
+     * Blocks on the database, so it should not be called from a game executor.
+     * @param gameId Game ID
+     * @return Game state
+     * @throws NotFoundException No such game exists
+     * @throws SQLException Unable to contact database
+     */
+    public static synchronized GameState load(final UUID gameId) throws SQLException, NotFoundException {
+        final GameState loaded = games.get(gameId);
+        if (loaded != null) return loaded;
+
+        register(Games.getGame(gameId));
+        return games.get(gameId);
+    }
+
     /**
      * Runs an operator once for each game registered.
      * @param method Method to call on each game
@@ -164,6 +271,7 @@ public abstract class GameState {
      */
     public static void destroy(final GameState game) {
         games.remove(game.getGame().id());
+        GameExecutor.remove(game.getGame().id());
     }
 
     /**
@@ -14,7 +14,7 @@ public abstract class GameUserState {
     /**
      * Seconds after which the key is expected to be refreshed with the database.
      */
-    private static final int KEY_REFRESH_SECONDS = 10;
+    public static final int KEY_REFRESH_SECONDS = 10;
 
     /**
      * Seconds after no heartbeats at which the user is presumed to have timed out.
@@ -99,6 +99,13 @@ public abstract class GameUserState {
         keyExpiresAt = Instant.now().plusSeconds(KEY_REFRESH_SECONDS);
     }
 
+    /**
+     * Expires the key now, so it's checked with the database the next time the user authenticates.
+     */
+    public void expireKey() {
+        keyExpiresAt = Instant.EPOCH;
+    }
+
     /**
      * Gets the database game user associated with this user state.
      * @return Database game user
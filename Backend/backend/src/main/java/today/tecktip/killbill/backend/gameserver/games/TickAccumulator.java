@@ -0,0 +1,165 @@
+package today.tecktip.killbill.backend.gameserver.games;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks how far a game has been simulated and how long its ticks take.
+ * <p>
+ * Games always step by {@link TickEngine#TICK_SECONDS}. If a game falls behind, it runs up to
+ *  {@link TickEngine#MAX_CATCH_UP_TICKS} steps at once, then drops the rest of the missed time.
+ *  Ticks that take longer than their budget are counted and reported periodically.
+ * <p>
+ * Only {@link #advance} has to be called from the game's executor. Stats can be read from anywhere.
+ * @author cs
+ */
+public class TickAccumulator {
+    /**
+     * Logs go here
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(TickAccumulator.class);
+
+    /**
+     * Minimum time between overrun reports for one game.
+     */
+    private static final long OVERRUN_REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * Game this accumulator belongs to
+     */
+    private final GameState game;
+
+    /**
+     * Monotonic time the game has been simulated up to
+     */
+    private long simulatedUntil;
+
+    /**
+     * True once the first tick has run
+     */
+    private boolean started;
+
+    /**
+     * Overrun ticks since the last report
+     */
+    private int unreportedOverruns;
+
+    /**
+     * Longest tick since the last report
+     */
+    private long worstTickNanos;
+
+    /**
+     * Monotonic time of the last overrun report
+     */
+    private long lastReport;
+
+    /**
+     * Total ticks that went over their budget
+     */
+    private volatile long overruns;
+
+    /**
+     * Total ticks dropped because the game fell too far behind
+     */
+    private volatile long droppedTicks;
+
+    /**
+     * Duration of the most recent tick
+     */
+    private volatile long lastTickNanos;
+
+    /**
+     * Constructs a new tick accumulator.
+     * @param game Game this accumulator belongs to
+     */
+    public TickAccumulator(final GameState game) {
+        this.game = game;
+        started = false;
+    }
+
+    /**
+     * Runs as many fixed steps as are due to bring the game up to a point in time.
+     * Must be called from the game's executor.
+     * @param now Monotonic time ({@link System#nanoTime()}) to simulate up to
+     */
+    public void advance(final long now) {
+        if (!started) {
+            // The first tick runs a single step
+            simulatedUntil = now - TickEngine.TICK_NANOS;
+            lastReport = now;
+            started = true;
+        }
+
+        int steps = 0;
+        while (now - simulatedUntil >= TickEngine.TICK_NANOS) {
+            if (steps == TickEngine.MAX_CATCH_UP_TICKS) {
+                final long behind = (now - simulatedUntil) / TickEngine.TICK_NANOS;
+                droppedTicks += behind;
+                simulatedUntil += behind * TickEngine.TICK_NANOS;
+                LOGGER.warn("Game {} fell {} ticks behind. Dropping them.", game.getGame().id(), behind);
+                break;
+            }
+
+            final long start = System.nanoTime();
+            game.runGameTick(TickEngine.TICK_SECONDS);
+            record(System.nanoTime() - start);
+
+            simulatedUntil += TickEngine.TICK_NANOS;
+            steps++;
+        }
+
+        if (unreportedOverruns > 0 && now - lastReport >= OVERRUN_REPORT_INTERVAL_NANOS) {
+            LOGGER.warn(
+                "Game {} overran its {} ms tick budget {} times in the last {} s (worst: {} ms).",
+                game.getGame().id(),
+                TimeUnit.NANOSECONDS.toMillis(TickEngine.TICK_NANOS),
+                unreportedOverruns,
+                TimeUnit.NANOSECONDS.toSeconds(now - lastReport),
+                TimeUnit.NANOSECONDS.toMillis(worstTickNanos)
+            );
+            unreportedOverruns = 0;
+            worstTickNanos = 0;
+            lastReport = now;
+        }
+    }
+
+    /**
+     * Records the duration of one tick.
+     * @param duration Tick duration in nanoseconds
+     */
+    private void record(final long duration) {
+        lastTickNanos = duration;
+        if (duration > worstTickNanos) worstTickNanos = duration;
+        if (duration > TickEngine.TICK_NANOS) {
+            overruns++;
+            unreportedOverruns++;
+        }
+    }
+
+    /**
+     * Gets the number of ticks that took longer than {@link TickEngine#TICK_NANOS}.
+     * @return Total overrun ticks
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * Gets the number of ticks dropped because the game fell too far behind.
+     * @return Total dropped ticks
+     */
+    public long getDroppedTicks() {
+        return droppedTicks;
+    }
+
+    /**
+     * Gets the duration of the most recent tick.
+     * @return Tick duration in nanoseconds
+     */
+    public long getLastTickNanos() {
+        return lastTickNanos;
+    }
+}
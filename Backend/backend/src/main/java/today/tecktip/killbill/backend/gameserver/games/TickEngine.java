@@ -0,0 +1,122 @@
+package today.tecktip.killbill.backend.gameserver.games;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives game ticks at a fixed rate from a dedicated clock thread.
+ * <p>
+ * The clock only queues ticks; each game runs them on its own {@link GameExecutor}, so games tick in
+ *  parallel across the worker pool and a slow game can't delay the others. Deadlines are absolute
+ *  ({@link System#nanoTime()} based), so oversleeping on one tick doesn't push back the next.
+ * @author cs
+ */
+public class TickEngine {
+    /**
+     * Logs go here
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(TickEngine.class);
+
+    /**
+     * Game ticks per second.
+     */
+    public static final int TICK_RATE = 20;
+
+    /**
+     * Nanoseconds between game ticks.
+     */
+    public static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(1) / TICK_RATE;
+
+    /**
+     * Delta passed to every game tick, in seconds.
+     */
+    public static final float TICK_SECONDS = 1f / TICK_RATE;
+
+    /**
+     * Most ticks a game will run back to back to catch up before it gives up on the missed time.
+     */
+    public static final int MAX_CATCH_UP_TICKS = 5;
+
+    /**
+     * Clock thread, or null if not started
+     */
+    private Thread clock;
+
+    /**
+     * Whether the clock should keep running
+     */
+    private volatile boolean running;
+
+    /**
+     * Constructs a new tick engine. Call {@link #start()} to begin ticking.
+     */
+    public TickEngine() {
+        running = false;
+    }
+
+    /**
+     * Starts the clock thread.
+     * @throws IllegalStateException Already started
+     */
+    public synchronized void start() {
+        if (running) throw new IllegalStateException("Already started.");
+
+        running = true;
+        clock = new Thread(this::run, "game-tick-clock");
+        clock.setDaemon(true);
+        clock.start();
+    }
+
+    /**
+     * Stops the clock thread and waits for it to finish. Ticks already queued will still run.
+     * @throws InterruptedException Interrupted while joining clock
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (!running) return;
+        running = false;
+
+        LockSupport.unpark(clock);
+        clock.join();
+        clock = null;
+    }
+
+    /**
+     * Clock thread loop.
+     */
+    private void run() {
+        long nextTick = System.nanoTime() + TICK_NANOS;
+        while (running) {
+            final long wait = nextTick - System.nanoTime();
+            if (wait > 0) {
+                // May wake early; the loop rechecks the deadline
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+
+            final long now = System.nanoTime();
+            if (now - nextTick > TICK_NANOS * MAX_CATCH_UP_TICKS) {
+                // Way behind (suspended, GC pause, ...). Games can't catch up anyway, so start fresh.
+                LOGGER.warn("Tick clock is {} ms behind. Skipping ahead.", TimeUnit.NANOSECONDS.toMillis(now - nextTick));
+                nextTick = now;
+            }
+            nextTick += TICK_NANOS;
+
+            GameState.forEach(
+                gameState -> {
+                    // One broken game mustn't take the clock (and every other game) down with it
+                    try {
+                        // A skipped game keeps its time and catches up on its next tick
+                        if (!gameState.queueGameTick(now)) {
+                            LOGGER.debug("Game {} is still running its last tick.", gameState.getGame().id());
+                        }
+                    } catch (final Throwable t) {
+                        LOGGER.error("Failed to queue tick for game {}.", gameState.getGame().id(), t);
+                    }
+                }
+            );
+        }
+    }
+}
@@ -1,27 +1,12 @@
 package today.tecktip.killbill.backend.gameserver.games.basic;
 
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.List;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import today.tecktip.killbill.backend.gameserver.SpringMessageHandler;
-import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicRecvEntityStateCommand.RecvEntityStateInvokeContext;
-import today.tecktip.killbill.common.exceptions.MessageFailure;
 import today.tecktip.killbill.common.gameserver.data.Coordinates;
-import today.tecktip.killbill.common.gameserver.games.GameType;
-import today.tecktip.killbill.common.gameserver.messages.MessageDataType;
 import today.tecktip.killbill.common.maploader.directives.EntityDirective.EntityType;
 import today.tecktip.killbill.common.misc.TimestampedValue;
 
 public abstract class BasicEntityState {
-    /**
-     * Logs go here
-     */
-    private static final Logger LOGGER = LoggerFactory.getLogger(BasicEntityState.class);
-
     protected final BasicGameState parent;
 
     private TimestampedValue<Coordinates> coords;
@@ -38,8 +23,6 @@ public abstract class BasicEntityState {
 
     private final EntityType type;
 
-    protected List<EntityStateFieldFilter> filter;
-
     protected final int id;
 
     /**
@@ -55,7 +38,6 @@ public abstract class BasicEntityState {
         this.rotation = new TimestampedValue<>(rotation);
         heldItemTexture = new TimestampedValue<>("none");
         state = new TimestampedValue<>(0);
-        filter = new ArrayList<>(EntityStateFieldFilter.values().length);
 	}
 
     /**
@@ -79,7 +61,6 @@ public abstract class BasicEntityState {
      */
     public void setCoordinates(final Coordinates coords) {
         if (coords.x() == this.coords.get().x() && coords.y() == this.coords.get().y()) return;
-        filter.add(EntityStateFieldFilter.COORDINATES);
         this.coords.set(coords);
     }
 
@@ -106,7 +87,6 @@ public abstract class BasicEntityState {
      */
     public void setRotation(final int rotation) {
         if (rotation == this.rotation.get()) return;
-        filter.add(EntityStateFieldFilter.ROTATION);
         this.rotation.set(rotation);
     }
 
@@ -141,7 +121,6 @@ public abstract class BasicEntityState {
      */
     public void setHealth(final int health) {
         if (health == this.health.get()) return;
-        filter.add(EntityStateFieldFilter.HEALTH);
         this.health.set(health);
     }
 
@@ -168,7 +147,6 @@ public abstract class BasicEntityState {
      */
     public void setState(final int state) {
         if (state == this.state.get()) return;
-        filter.add(EntityStateFieldFilter.STATE);
         this.state.set(state);
     }
 
@@ -195,7 +173,6 @@ public abstract class BasicEntityState {
      */
     public void setHeldItemTexture(final String heldItemTexture) {
         if (heldItemTexture.equals(this.heldItemTexture.get())) return;
-        filter.add(EntityStateFieldFilter.HELD_ITEM_TEXTURE);
         this.heldItemTexture.set(heldItemTexture);
     }
 
@@ -224,29 +201,6 @@ public abstract class BasicEntityState {
         return id;
     }
 
-    /**
-     * Syncs any fields changed by the backend to all clients.
-     */
-    public void sync() {
-        if (filter.size() == 0) return;
-
-        // Run the entity state updater
-        try {
-            SpringMessageHandler.get().getCommandLoader().invokeMethodFor(
-                GameType.BASIC, 
-                MessageDataType.COMMAND_RECV_ENTITY_STATE
-            ).run(
-                SpringMessageHandler.get(),
-                new RecvEntityStateInvokeContext(parent, this, filter)
-            );
-        } catch (final MessageFailure e) {
-            LOGGER.error("Failed to send updated entity state to clients.", e);
-            return;
-        }
-
-        filter.clear();
-    }
-
     public static enum EntityStateFieldFilter {
         COORDINATES,
         ROTATION,
@@ -24,11 +24,13 @@ import today.tecktip.killbill.backend.gameserver.games.GameUserState;
 import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicInteractCommand.BasicInteractCommandData;
 import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicRecvEntityStateCommand.EntityRemovalType;
 import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicRecvEntityStateCommand.RecvRemoveEntityStateInvokeContext;
+import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicRecvEntityStateCommand.RecvSnapshotInvokeContext;
 import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicRecvGameStateCommand.GameStateFieldFilter;
 import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicRecvGameStateCommand.RecvGameStateInvokeContext;
 import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicSendChatCommand.RecvSystemMessageInvokeContext;
 import today.tecktip.killbill.backend.gameserver.games.basic.entities.ClaymoreRoomba;
 import today.tecktip.killbill.backend.gameserver.games.basic.entities.Employee;
+import today.tecktip.killbill.backend.gameserver.map.InterestGrid;
 import today.tecktip.killbill.backend.gameserver.map.PathfindingGrid;
 import today.tecktip.killbill.common.exceptions.MessageFailure;
 import today.tecktip.killbill.common.gameserver.MessageHandler.UdpClient;
@@ -71,6 +73,11 @@ public class BasicGameState extends GameState {
      */
     private PathfindingGrid grid;
 
+    /**
+     * Empty interest grid over this map, used to measure how far events are from players.
+     */
+    private InterestGrid<Void> interest;
+
     /**
      * Dropped items.
      */
@@ -102,6 +109,7 @@ public class BasicGameState extends GameState {
         interactions = new ArrayList<>();
         map = MapLoader.load(List.of(new ByteArrayInputStream(game.map().getBytes())));
         grid = new PathfindingGrid(map);
+        interest = new InterestGrid<>(grid, BasicWorldState.INTEREST_CELL_SIZE);
         ending = false;
         winningTeam = null;
     }
@@ -161,14 +169,23 @@ public class BasicGameState extends GameState {
                     toRemove = new ArrayList<>();
                 }
                 toRemove.add(kv.getKey());
-            } else {
-                entityState.sync();
             }
         }
 
         if (toRemove != null) {
             for (final Integer id : toRemove) entities.remove(id);
         }
+
+        // Send everything that changed this tick
+        try {
+            SpringMessageHandler.get().getCommandLoader().invokeMethodFor(GameType.BASIC, MessageDataType.COMMAND_RECV_SNAPSHOT)
+                .run(
+                    SpringMessageHandler.get(),
+                    new RecvSnapshotInvokeContext(this)
+                );
+        } catch (final MessageFailure e) {
+            LOGGER.error("Failed to send world snapshot to clients.", e);
+        }
     }
 
     public void onStateChange(final BasicGameRunState oldState) {
@@ -248,6 +265,18 @@ public class BasicGameState extends GameState {
         return grid;
     }
 
+    /**
+     * Checks if something happening at a point is close enough to a player to send to them.
+     * @param user Player to check
+     * @param point Where it happened
+     * @return True if the player should be told about it
+     */
+    public boolean isInterested(final GameUserState user, final Coordinates point) {
+        final Coordinates viewer = ((BasicGameUserState) user).getCoordinates();
+        if (viewer == null || point == null) return true;
+        return interest.isNear(viewer, point, BasicWorldState.INTEREST_LEAVE_RADIUS);
+    }
+
     public void end() {
         // Should be only one team remaining besides spectators.
         int playerCount = 0;
@@ -339,7 +368,7 @@ public class BasicGameState extends GameState {
                 LOGGER.error("Failed to send chat message for game end.", e);
             }
 
-            SpringMessageHandler.get().getTaskScheduler().schedule(
+            schedule(
                 this::end,
                 Instant.now().plusSeconds(5)
             );
@@ -63,6 +63,11 @@ public class BasicGameUserState extends GameUserState {
 
     private boolean initialized;
 
+    /**
+     * World snapshots sent to this user's client.
+     */
+    private final BasicSnapshotHistory snapshots;
+
     private BasicPlayerConfig playerConfig; 
 
     /**
@@ -79,6 +84,7 @@ public class BasicGameUserState extends GameUserState {
 
         this.parent = parent;
         initialized = false;
+        snapshots = new BasicSnapshotHistory(user.id());
         playerType = new TimestampedValue<>(null);
         coords = new TimestampedValue<>(null);
         texturePrefix = new TimestampedValue<>(null);
@@ -104,6 +110,9 @@ public class BasicGameUserState extends GameUserState {
 
         super.connect();
 
+        // A new client has no baselines to decode against
+        snapshots.reset();
+
         // Notify users
         final List<UUID> userFilter = new ArrayList<UUID>();
         for (final UUID sId : parent.getConnectedUsers().keySet()) {
@@ -362,6 +371,14 @@ public class BasicGameUserState extends GameUserState {
         return texturePrefix.get();
     }
 
+    /**
+     * Gets the world snapshots sent to this user's client.
+     * @return Snapshot history
+     */
+    public BasicSnapshotHistory getSnapshots() {
+        return snapshots;
+    }
+
     /**
      * Sets the user's texture prefix.
      * @param texturePrefix Texture asset prefix
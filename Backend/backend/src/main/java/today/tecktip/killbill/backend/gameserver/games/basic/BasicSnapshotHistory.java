@@ -0,0 +1,561 @@
+package today.tecktip.killbill.backend.gameserver.games.basic;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+import today.tecktip.killbill.backend.gameserver.games.basic.BasicWorldState.EntityRecord;
+import today.tecktip.killbill.backend.gameserver.games.basic.BasicWorldState.ItemRecord;
+import today.tecktip.killbill.backend.gameserver.games.basic.BasicWorldState.PlayerRecord;
+import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicDroppedItemCommand.BasicCreateDroppedItemCommandData;
+import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicRecvEntityStateCommand.BasicRecvEntityStateCommandData;
+import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicRecvEntityStateCommand.BasicRecvSnapshotCommandData;
+import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicRecvPlayerStateCommand.BasicRecvPlayerStateData;
+import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicRecvPlayerStateCommand.PlayerStateFieldFilter;
+import today.tecktip.killbill.common.gameserver.MessageHandler;
+import today.tecktip.killbill.common.gameserver.data.Coordinates;
+import today.tecktip.killbill.common.gameserver.messages.MessageDataType;
+import today.tecktip.killbill.common.gameserver.reliability.SequenceRing;
+
+/**
+ * Tracks which world state one client has acknowledged, and encodes each new {@link BasicWorldState}
+ *  as a delta against it.
+ * <p>
+ * Every snapshot sent gets a sequence number and is remembered for {@link MessageHandler#SNAPSHOT_BASELINES}
+ *  snapshots. When the client acks one, each object in it becomes that object's new baseline. An object
+ *  is sent (as only the fields that differ from its baseline) until the client has acked a snapshot holding
+ *  its current state, so a lost snapshot is corrected by the next one rather than by a resend.
+ * <p>
+ * Only entities and players near the client's player are sent. Entities that move out of range are
+ *  removed from the client and players are hidden; both are sent in full once they come back.
+ * <p>
+ * Only used from the game's executor.
+ * @author cs
+ */
+public class BasicSnapshotHistory {
+    /**
+     * Most entities, players and dropped items sent in one snapshot message.
+     */
+    private static final int MAX_SNAPSHOT_RECORDS = 32;
+
+    /**
+     * Sequence number for objects that have no acknowledged state.
+     */
+    private static final int NONE = -1;
+
+    /**
+     * User this history is for
+     */
+    private final UUID userId;
+
+    /**
+     * Objects included in each recently sent snapshot
+     */
+    private final SequenceRing<SentSnapshot> sent;
+
+    /**
+     * Entity states sent to and acked by this client
+     */
+    private final Map<Integer, Tracked<EntityRecord>> entities;
+
+    /**
+     * Player states sent to and acked by this client
+     */
+    private final Map<UUID, Tracked<PlayerRecord>> players;
+
+    /**
+     * Dropped items sent to and acked by this client
+     */
+    private final Map<String, Tracked<ItemRecord>> items;
+
+    /**
+     * Sequence number of the next snapshot
+     */
+    private int nextSequence;
+
+    /**
+     * Constructs a new, empty history.
+     * @param userId User this history is for
+     */
+    public BasicSnapshotHistory(final UUID userId) {
+        this.userId = userId;
+        sent = new SequenceRing<>(MessageHandler.SNAPSHOT_BASELINES);
+        entities = new HashMap<>();
+        players = new HashMap<>();
+        items = new HashMap<>();
+        nextSequence = 0;
+    }
+
+    /**
+     * Forgets everything the client has acked. Used when the client (re)connects without any baselines.
+     */
+    public void reset() {
+        sent.clear();
+        entities.clear();
+        players.clear();
+        items.clear();
+    }
+
+    /**
+     * Encodes the parts of a world state this client doesn't have yet.
+     * @param world Current world state
+     * @return Snapshot messages to send, in order. Empty if the client is up to date.
+     */
+    public List<BasicRecvSnapshotCommandData> encode(final BasicWorldState world) {
+        final Encoder encoder = new Encoder();
+        final PlayerRecord self = world.getPlayers().get(userId);
+        final Coordinates viewer = self == null ? null : self.coordinates();
+
+        // Entities
+        final Map<Integer, EntityRecord> visibleEntities = visibleEntities(world, viewer);
+        for (final EntityRecord entity : visibleEntities.values()) {
+            final Tracked<EntityRecord> tracked = entities.computeIfAbsent(entity.id(), k -> new Tracked<>());
+            if (tracked.isSettled(entity)) continue;
+
+            final Integer baseline = baselineFor(tracked, encoder.sequence());
+            encoder.entity(tracked, entity, delta(entity, baseline == null ? null : tracked.acked, baseline));
+        }
+        for (final Map.Entry<Integer, Tracked<EntityRecord>> kv : entities.entrySet()) {
+            if (visibleEntities.containsKey(kv.getKey()) || kv.getValue().isSettled(null)) continue;
+            encoder.removeEntity(kv.getValue(), kv.getKey());
+        }
+
+        // Players
+        final Map<UUID, PlayerRecord> visiblePlayers = visiblePlayers(world, viewer);
+        for (final PlayerRecord player : visiblePlayers.values()) {
+            final Tracked<PlayerRecord> tracked = players.computeIfAbsent(player.userId(), k -> new Tracked<>());
+            if (tracked.isSettled(player)) continue;
+
+            final Integer baseline = baselineFor(tracked, encoder.sequence());
+            encoder.player(tracked, player, delta(player, baseline == null ? null : tracked.acked, baseline));
+        }
+        // Players aren't removed from clients when they disconnect, so just stop tracking them
+        players.keySet().retainAll(world.getPlayers().keySet());
+        for (final Map.Entry<UUID, Tracked<PlayerRecord>> kv : players.entrySet()) {
+            if (visiblePlayers.containsKey(kv.getKey()) || kv.getValue().isSettled(null)) continue;
+            encoder.hidePlayer(kv.getValue(), kv.getKey());
+        }
+
+        // Dropped items
+        for (final ItemRecord item : world.getItems().values()) {
+            final Tracked<ItemRecord> tracked = items.computeIfAbsent(item.id(), k -> new Tracked<>());
+            if (tracked.isSettled(item)) continue;
+
+            encoder.item(tracked, item);
+        }
+        for (final Map.Entry<String, Tracked<ItemRecord>> kv : items.entrySet()) {
+            if (world.getItems().containsKey(kv.getKey()) || kv.getValue().isSettled(null)) continue;
+            encoder.removeItem(kv.getValue(), kv.getKey());
+        }
+
+        return encoder.finish();
+    }
+
+    /**
+     * Records that the client received a snapshot.
+     * @param sequence Snapshot sequence number
+     */
+    public void ack(final int sequence) {
+        final SentSnapshot snapshot = sent.get(sequence);
+        if (snapshot == null) return;
+
+        ack(entities, snapshot.entities, sequence);
+        ack(players, snapshot.players, sequence);
+        ack(items, snapshot.items, sequence);
+    }
+
+    /**
+     * Records fields of this client's own player that it set itself, so they aren't echoed back to it.
+     * @param player Player's current state
+     * @param fields Fields the client set
+     */
+    public void acceptOwnState(final PlayerRecord player, final Collection<PlayerStateFieldFilter> fields) {
+        if (!player.userId().equals(userId)) return;
+
+        final Tracked<PlayerRecord> tracked = players.get(userId);
+        if (tracked == null) return;
+
+        if (tracked.acked != null) tracked.acked = tracked.acked.with(player, fields);
+        if (tracked.sent != null) tracked.sent = tracked.sent.with(player, fields);
+    }
+
+    /**
+     * Finds the entities this client should have.
+     * @param world Current world state
+     * @param viewer Client's player coordinates, or null if they haven't spawned
+     * @return Entities by ID
+     */
+    private Map<Integer, EntityRecord> visibleEntities(final BasicWorldState world, final Coordinates viewer) {
+        if (viewer == null) return world.getEntities();
+
+        final Map<Integer, EntityRecord> visible = new HashMap<>();
+        world.forEachEntityNear(viewer, BasicWorldState.INTEREST_RADIUS, entity -> visible.put(entity.id(), entity));
+
+        // Ones the client already has get a bit of slack before they're removed
+        for (final Map.Entry<Integer, Tracked<EntityRecord>> kv : entities.entrySet()) {
+            if (kv.getValue().sent == null || visible.containsKey(kv.getKey())) continue;
+
+            final EntityRecord entity = world.getEntities().get(kv.getKey());
+            if (entity != null && world.isNear(viewer, entity.coordinates(), BasicWorldState.INTEREST_LEAVE_RADIUS)) {
+                visible.put(entity.id(), entity);
+            }
+        }
+        return visible;
+    }
+
+    /**
+     * Finds the players this client should see. There are only ever a few players, so they're
+     *  checked one by one rather than through the interest grid.
+     * @param world Current world state
+     * @param viewer Client's player coordinates, or null if they haven't spawned
+     * @return Players by user ID
+     */
+    private Map<UUID, PlayerRecord> visiblePlayers(final BasicWorldState world, final Coordinates viewer) {
+        if (viewer == null) return world.getPlayers();
+
+        final Map<UUID, PlayerRecord> visible = new HashMap<>();
+        for (final PlayerRecord player : world.getPlayers().values()) {
+            final Tracked<PlayerRecord> tracked = players.get(player.userId());
+            final int radius = tracked != null && tracked.sent != null ? BasicWorldState.INTEREST_LEAVE_RADIUS : BasicWorldState.INTEREST_RADIUS;
+
+            if (player.userId().equals(userId)
+                || player.coordinates() == null
+                || world.isNear(viewer, player.coordinates(), radius)) {
+                visible.put(player.userId(), player);
+            }
+        }
+        return visible;
+    }
+
+    /**
+     * Gets the baseline an object can be encoded against.
+     * @param tracked Tracked object
+     * @param sequence Sequence number of the snapshot being built
+     * @return Baseline sequence number, or null to send the full state
+     */
+    private static Integer baselineFor(final Tracked<?> tracked, final int sequence) {
+        if (tracked.acked == null) return null;
+        // The client only keeps so many baselines
+        if (sequence - tracked.ackedSequence >= MessageHandler.SNAPSHOT_BASELINES) return null;
+        return tracked.ackedSequence;
+    }
+
+    /**
+     * Applies an acked snapshot to one type of object.
+     * @param <K> Object key type
+     * @param <R> Record type
+     * @param tracked Tracked objects
+     * @param snapshot Records in the acked snapshot (null for removals)
+     * @param sequence Snapshot sequence number
+     */
+    private static <K, R> void ack(final Map<K, Tracked<R>> tracked, final Map<K, R> snapshot, final int sequence) {
+        for (final Map.Entry<K, R> kv : snapshot.entrySet()) {
+            final Tracked<R> object = tracked.get(kv.getKey());
+            // Acks can arrive out of order; never go back to an older baseline
+            if (object == null || object.ackedSequence >= sequence) continue;
+
+            object.acked = kv.getValue();
+            object.ackedSequence = sequence;
+            if (object.acked == null && object.isSettled(null)) tracked.remove(kv.getKey());
+        }
+    }
+
+    /**
+     * Encodes an entity's changed fields.
+     * @param entity Current state
+     * @param base Baseline state, or null to send every field
+     * @param baseline Baseline sequence number, or null
+     * @return Entity delta
+     */
+    private static BasicRecvEntityStateCommandData delta(final EntityRecord entity, final EntityRecord base, final Integer baseline) {
+        final BasicRecvEntityStateCommandData data = new BasicRecvEntityStateCommandData(
+            entity.id(),
+            base == null || BasicWorldState.changed(entity.coordinates(), base.coordinates()) ? entity.coordinates() : null,
+            base == null || entity.rotation() != base.rotation() ? entity.rotation() : null,
+            base == null || entity.type() != base.type() ? entity.type() : null,
+            base == null || entity.health() != base.health() ? entity.health() : null,
+            base == null || entity.state() != base.state() ? entity.state() : null,
+            base == null || BasicWorldState.changed(entity.heldItemTexture(), base.heldItemTexture()) ? entity.heldItemTexture() : null,
+            base == null || BasicWorldState.changed(entity.texturePrefix(), base.texturePrefix()) ? entity.texturePrefix() : null
+        );
+        data.setBaseline(baseline);
+        return data;
+    }
+
+    /**
+     * Encodes a player's changed fields.
+     * @param player Current state
+     * @param base Baseline state, or null to send every field
+     * @param baseline Baseline sequence number, or null
+     * @return Player delta
+     */
+    private static BasicRecvPlayerStateData delta(final PlayerRecord player, final PlayerRecord base, final Integer baseline) {
+        final BasicRecvPlayerStateData data = new BasicRecvPlayerStateData(
+            player.userId(),
+            base == null || BasicWorldState.changed(player.coordinates(), base.coordinates()) ? player.coordinates() : null,
+            base == null || player.rotation() != base.rotation() ? player.rotation() : null,
+            base == null || player.playerType() != base.playerType() ? player.playerType() : null,
+            base == null || player.health() != base.health() ? player.health() : null,
+            base == null || player.maxHealth() != base.maxHealth() ? player.maxHealth() : null,
+            base == null || BasicWorldState.changed(player.heldItemTexture(), base.heldItemTexture()) ? player.heldItemTexture() : null,
+            base == null || BasicWorldState.changed(player.texturePrefix(), base.texturePrefix()) ? player.texturePrefix() : null
+        );
+        data.setBaseline(baseline);
+        return data;
+    }
+
+    /**
+     * What this client knows about one object.
+     * @param <R> Record type
+     */
+    private static class Tracked<R> {
+        /**
+         * State in the newest acked snapshot holding this object, or null if the client doesn't have it
+         */
+        private R acked;
+
+        /**
+         * Sequence number {@link #acked} came from
+         */
+        private int ackedSequence;
+
+        /**
+         * State in the newest sent snapshot holding this object, or null if that was a removal
+         */
+        private R sent;
+
+        /**
+         * Sequence number {@link #sent} was first sent in. Every snapshot since then holding this
+         *  object had the same state.
+         */
+        private int sentSinceSequence;
+
+        /**
+         * Constructs a new object the client hasn't been sent.
+         */
+        private Tracked() {
+            ackedSequence = NONE;
+            sentSinceSequence = NONE;
+        }
+
+        /**
+         * Checks if the client is known to have an object's current state: it acked that state, and
+         *  nothing different was sent after it.
+         * @param current Current state, or null if the object is gone
+         * @return True if nothing needs to be sent
+         */
+        private boolean isSettled(final R current) {
+            return Objects.equals(current, acked) && ackedSequence >= sentSinceSequence;
+        }
+    }
+
+    /**
+     * The objects included in one sent snapshot.
+     */
+    private static class SentSnapshot {
+        /**
+         * Entity states, or null for removals
+         */
+        private final Map<Integer, EntityRecord> entities = new HashMap<>();
+
+        /**
+         * Player states, or null for hidden players
+         */
+        private final Map<UUID, PlayerRecord> players = new HashMap<>();
+
+        /**
+         * Dropped items, or null for removals
+         */
+        private final Map<String, ItemRecord> items = new HashMap<>();
+    }
+
+    /**
+     * Splits one tick's changes into snapshot messages and remembers what went into each.
+     */
+    private class Encoder {
+        /**
+         * Finished messages
+         */
+        private final List<BasicRecvSnapshotCommandData> messages = new ArrayList<>();
+
+        /**
+         * Objects in the message being built
+         */
+        private SentSnapshot snapshot;
+
+        /**
+         * Entity deltas in the message being built
+         */
+        private List<BasicRecvEntityStateCommandData> entityData;
+
+        /**
+         * Removed entity IDs in the message being built
+         */
+        private List<Integer> removedEntities;
+
+        /**
+         * Player deltas in the message being built
+         */
+        private List<BasicRecvPlayerStateData> playerData;
+
+        /**
+         * Hidden player IDs in the message being built
+         */
+        private List<UUID> hiddenPlayers;
+
+        /**
+         * New dropped items in the message being built
+         */
+        private List<BasicCreateDroppedItemCommandData> newItems;
+
+        /**
+         * Removed dropped item IDs in the message being built
+         */
+        private List<String> removedItems;
+
+        /**
+         * Records in the message being built
+         */
+        private int records;
+
+        /**
+         * Constructs a new encoder.
+         */
+        private Encoder() {
+            start();
+        }
+
+        /**
+         * Gets the sequence number of the message being built.
+         * @return Sequence number
+         */
+        private int sequence() {
+            return nextSequence;
+        }
+
+        /**
+         * Adds an entity delta.
+         * @param tracked Tracked entity
+         * @param entity Current state
+         * @param data Encoded delta
+         */
+        private void entity(final Tracked<EntityRecord> tracked, final EntityRecord entity, final BasicRecvEntityStateCommandData data) {
+            entityData.add(data);
+            snapshot.entities.put(entity.id(), entity);
+            sent(tracked, entity);
+        }
+
+        /**
+         * Adds an entity removal.
+         * @param tracked Tracked entity
+         * @param entityId Entity ID
+         */
+        private void removeEntity(final Tracked<EntityRecord> tracked, final int entityId) {
+            removedEntities.add(entityId);
+            snapshot.entities.put(entityId, null);
+            sent(tracked, null);
+        }
+
+        /**
+         * Adds a player delta.
+         * @param tracked Tracked player
+         * @param player Current state
+         * @param data Encoded delta
+         */
+        private void player(final Tracked<PlayerRecord> tracked, final PlayerRecord player, final BasicRecvPlayerStateData data) {
+            playerData.add(data);
+            snapshot.players.put(player.userId(), player);
+            sent(tracked, player);
+        }
+
+        /**
+         * Hides a player that moved out of range.
+         * @param tracked Tracked player
+         * @param userId Player's user ID
+         */
+        private void hidePlayer(final Tracked<PlayerRecord> tracked, final UUID userId) {
+            hiddenPlayers.add(userId);
+            snapshot.players.put(userId, null);
+            sent(tracked, null);
+        }
+
+        /**
+         * Adds a new dropped item.
+         * @param tracked Tracked item
+         * @param item Item
+         */
+        private void item(final Tracked<ItemRecord> tracked, final ItemRecord item) {
+            newItems.add(new BasicCreateDroppedItemCommandData(
+                MessageDataType.COMMAND_RECV_NEW_DROPPED_ITEM,
+                item.location(),
+                item.itemType(),
+                item.quantity(),
+                item.id()
+            ));
+            snapshot.items.put(item.id(), item);
+            sent(tracked, item);
+        }
+
+        /**
+         * Adds a dropped item removal.
+         * @param tracked Tracked item
+         * @param itemId Item ID
+         */
+        private void removeItem(final Tracked<ItemRecord> tracked, final String itemId) {
+            removedItems.add(itemId);
+            snapshot.items.put(itemId, null);
+            sent(tracked, null);
+        }
+
+        /**
+         * Marks an object as included in the message being built, starting a new message if it's full.
+         * @param <R> Record type
+         * @param tracked Tracked object
+         * @param record Sent state, or null for a removal
+         */
+        private <R> void sent(final Tracked<R> tracked, final R record) {
+            if (!Objects.equals(tracked.sent, record)) tracked.sentSinceSequence = nextSequence;
+            tracked.sent = record;
+            if (++records == MAX_SNAPSHOT_RECORDS) {
+                flush();
+                start();
+            }
+        }
+
+        /**
+         * Starts a new message.
+         */
+        private void start() {
+            snapshot = new SentSnapshot();
+            entityData = new ArrayList<>();
+            removedEntities = new ArrayList<>();
+            playerData = new ArrayList<>();
+            hiddenPlayers = new ArrayList<>();
+            newItems = new ArrayList<>();
+            removedItems = new ArrayList<>();
+            records = 0;
+        }
+
+        /**
+         * Finishes the message being built.
+         */
+        private void flush() {
+            sent.put(nextSequence, snapshot);
+            messages.add(new BasicRecvSnapshotCommandData(nextSequence, entityData, removedEntities, playerData, hiddenPlayers, newItems, removedItems));
+            nextSequence++;
+        }
+
+        /**
+         * Finishes the last message.
+         * @return Every message built
+         */
+        private List<BasicRecvSnapshotCommandData> finish() {
+            if (records > 0) flush();
+            return messages;
+        }
+    }
+}
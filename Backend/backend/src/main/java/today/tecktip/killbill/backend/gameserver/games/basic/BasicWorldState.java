@@ -0,0 +1,308 @@
+package today.tecktip.killbill.backend.gameserver.games.basic;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import today.tecktip.killbill.backend.gameserver.games.GameUserState;
+import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicRecvPlayerStateCommand.PlayerStateFieldFilter;
+import today.tecktip.killbill.backend.gameserver.map.InterestGrid;
+import today.tecktip.killbill.common.gameserver.data.Coordinates;
+import today.tecktip.killbill.common.gameserver.games.BasicGameConfig.BasicPlayerType;
+import today.tecktip.killbill.common.maploader.ItemType;
+import today.tecktip.killbill.common.maploader.directives.EntityDirective.EntityType;
+
+/**
+ * An immutable copy of every entity, connected player and dropped item in a game at the end of a tick.
+ * <p>
+ * Captured once per tick and shared by every client's {@link BasicSnapshotHistory}, which encodes the
+ *  part of it near that client's player against what the client has already acknowledged.
+ * @author cs
+ */
+public class BasicWorldState {
+    /**
+     * Width and height of each interest grid cell in tiles.
+     */
+    public static final int INTEREST_CELL_SIZE = 8;
+
+    /**
+     * Objects within this many cells of a player are sent to them. Covers at least
+     *  {@code INTEREST_CELL_SIZE * INTEREST_RADIUS} tiles, which is further than a client can see.
+     */
+    public static final int INTEREST_RADIUS = 2;
+
+    /**
+     * Objects a client already has are kept until they're this many cells away, so things on the
+     *  edge of the interest area don't flicker in and out.
+     */
+    public static final int INTEREST_LEAVE_RADIUS = 3;
+
+    /**
+     * Entities by ID
+     */
+    private final Map<Integer, EntityRecord> entities;
+
+    /**
+     * Connected players by user ID
+     */
+    private final Map<UUID, PlayerRecord> players;
+
+    /**
+     * Dropped items by item ID
+     */
+    private final Map<String, ItemRecord> items;
+
+    /**
+     * Entities by location
+     */
+    private final InterestGrid<EntityRecord> entityGrid;
+
+    /**
+     * Constructs a new world state.
+     * @param entities Entities by ID
+     * @param players Connected players by user ID
+     * @param items Dropped items by item ID
+     * @param entityGrid Entities by location
+     */
+    private BasicWorldState(
+        final Map<Integer, EntityRecord> entities,
+        final Map<UUID, PlayerRecord> players,
+        final Map<String, ItemRecord> items,
+        final InterestGrid<EntityRecord> entityGrid
+    ) {
+        this.entities = entities;
+        this.players = players;
+        this.items = items;
+        this.entityGrid = entityGrid;
+    }
+
+    /**
+     * Constructs a world state from records, with no entity locations indexed. Only for clients whose
+     *  player hasn't spawned, which are sent every entity.
+     * @param entities Entities by ID
+     * @param players Connected players by user ID
+     * @param items Dropped items by item ID
+     * @return World state
+     */
+    static BasicWorldState of(final Map<Integer, EntityRecord> entities, final Map<UUID, PlayerRecord> players, final Map<String, ItemRecord> items) {
+        return new BasicWorldState(entities, players, items, null);
+    }
+
+    /**
+     * Copies the current state of a game.
+     * @param game Game to capture
+     * @return World state
+     */
+    public static BasicWorldState capture(final BasicGameState game) {
+        final Map<Integer, EntityRecord> entities = new LinkedHashMap<>();
+        final InterestGrid<EntityRecord> entityGrid = new InterestGrid<>(game.getPathfindingGrid(), INTEREST_CELL_SIZE);
+        for (final BasicEntityState entity : game.getEntities().values()) {
+            final EntityRecord record = EntityRecord.of(entity);
+            entities.put(entity.getId(), record);
+            entityGrid.add(record, record.coordinates());
+        }
+
+        final Map<UUID, PlayerRecord> players = new LinkedHashMap<>();
+        for (final GameUserState user : game.getConnectedUsers().values()) {
+            players.put(user.getUser().id(), PlayerRecord.of((BasicGameUserState) user));
+        }
+
+        final Map<String, ItemRecord> items = new LinkedHashMap<>();
+        for (final BasicDroppedItemState item : game.getDroppedItems().values()) {
+            items.put(item.getId(), ItemRecord.of(item));
+        }
+
+        return new BasicWorldState(entities, players, items, entityGrid);
+    }
+
+    /**
+     * Gets every entity.
+     * @return Entities by ID
+     */
+    public Map<Integer, EntityRecord> getEntities() {
+        return entities;
+    }
+
+    /**
+     * Gets every connected player.
+     * @return Players by user ID
+     */
+    public Map<UUID, PlayerRecord> getPlayers() {
+        return players;
+    }
+
+    /**
+     * Gets every dropped item.
+     * @return Dropped items by item ID
+     */
+    public Map<String, ItemRecord> getItems() {
+        return items;
+    }
+
+    /**
+     * Runs an action on every entity within some number of interest cells of a point.
+     * @param center Point to search around
+     * @param radius Radius in cells
+     * @param action Action to run on each entity
+     */
+    public void forEachEntityNear(final Coordinates center, final int radius, final Consumer<EntityRecord> action) {
+        entityGrid.forEachNear(center, radius, action);
+    }
+
+    /**
+     * Checks if a point is within some number of interest cells of another.
+     * @param center Point to measure from
+     * @param point Point to check
+     * @param radius Radius in cells
+     * @return True if the point is close enough
+     */
+    public boolean isNear(final Coordinates center, final Coordinates point, final int radius) {
+        return entityGrid.isNear(center, point, radius);
+    }
+
+    /**
+     * An entity's state at the end of a tick.
+     * @param id Entity ID
+     * @param coordinates Coordinates
+     * @param rotation Rotation in degrees
+     * @param type Entity type
+     * @param health Health
+     * @param state State ID
+     * @param heldItemTexture Held item texture
+     * @param texturePrefix Texture asset prefix
+     */
+    public static record EntityRecord(
+        int id,
+        Coordinates coordinates,
+        int rotation,
+        EntityType type,
+        int health,
+        int state,
+        String heldItemTexture,
+        String texturePrefix
+    ) {
+        /**
+         * Copies an entity's current state.
+         * @param entity Entity to copy
+         * @return Entity record
+         */
+        public static EntityRecord of(final BasicEntityState entity) {
+            return new EntityRecord(
+                entity.getId(),
+                entity.getCoordinates(),
+                entity.getRotation(),
+                entity.getType(),
+                entity.getHealth(),
+                entity.getState(),
+                entity.getHeldItemTexture(),
+                entity.getTexturePrefix()
+            );
+        }
+    }
+
+    /**
+     * A player's state at the end of a tick.
+     * @param userId User ID
+     * @param coordinates Coordinates, or null if not spawned yet
+     * @param rotation Rotation in degrees
+     * @param playerType Player type, or null if not assigned yet
+     * @param health Health
+     * @param maxHealth Maximum health
+     * @param heldItemTexture Held item texture
+     * @param texturePrefix Texture asset prefix
+     */
+    public static record PlayerRecord(
+        UUID userId,
+        Coordinates coordinates,
+        int rotation,
+        BasicPlayerType playerType,
+        int health,
+        int maxHealth,
+        String heldItemTexture,
+        String texturePrefix
+    ) {
+        /**
+         * Copies a player's current state.
+         * @param user Player to copy
+         * @return Player record
+         */
+        public static PlayerRecord of(final BasicGameUserState user) {
+            return new PlayerRecord(
+                user.getUser().id(),
+                user.getCoordinates(),
+                user.getRotation(),
+                user.getPlayerType(),
+                user.getHealth(),
+                user.getMaxHealth(),
+                user.getHeldItemTexture(),
+                user.getTexturePrefix()
+            );
+        }
+
+        /**
+         * Copies some fields from another record of the same player.
+         * @param other Record to copy from
+         * @param fields Fields to copy
+         * @return Merged record
+         */
+        public PlayerRecord with(final PlayerRecord other, final Iterable<PlayerStateFieldFilter> fields) {
+            Coordinates coordinates = this.coordinates;
+            int rotation = this.rotation;
+            BasicPlayerType playerType = this.playerType;
+            int health = this.health;
+            int maxHealth = this.maxHealth;
+            String heldItemTexture = this.heldItemTexture;
+            String texturePrefix = this.texturePrefix;
+
+            for (final PlayerStateFieldFilter field : fields) {
+                switch (field) {
+                    case COORDINATES -> coordinates = other.coordinates;
+                    case ROTATION -> rotation = other.rotation;
+                    case PLAYER_TYPE -> playerType = other.playerType;
+                    case HEALTH -> health = other.health;
+                    case MAX_HEALTH -> maxHealth = other.maxHealth;
+                    case HELD_ITEM_TEXTURE -> heldItemTexture = other.heldItemTexture;
+                    case TEXTURE_PREFIX -> texturePrefix = other.texturePrefix;
+                }
+            }
+
+            final PlayerRecord merged = new PlayerRecord(userId, coordinates, rotation, playerType, health, maxHealth, heldItemTexture, texturePrefix);
+            return merged.equals(this) ? this : merged;
+        }
+    }
+
+    /**
+     * A dropped item. Items never change once dropped.
+     * @param id Item ID
+     * @param location Location
+     * @param itemType Item type
+     * @param quantity Stack size
+     */
+    public static record ItemRecord(
+        String id,
+        Coordinates location,
+        ItemType itemType,
+        int quantity
+    ) {
+        /**
+         * Copies a dropped item.
+         * @param item Item to copy
+         * @return Item record
+         */
+        public static ItemRecord of(final BasicDroppedItemState item) {
+            return new ItemRecord(item.getId(), item.getLocation(), item.getType(), item.getQuantity());
+        }
+    }
+
+    /**
+     * Compares two possibly null field values.
+     * @param a First value
+     * @param b Second value
+     * @return True if they differ
+     */
+    static boolean changed(final Object a, final Object b) {
+        return !Objects.equals(a, b);
+    }
+}
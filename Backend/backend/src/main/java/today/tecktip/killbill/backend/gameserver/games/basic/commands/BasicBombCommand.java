@@ -1,5 +1,6 @@
 package today.tecktip.killbill.backend.gameserver.games.basic.commands;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -9,8 +10,7 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.backend.gameserver.SpringMessageHandler;
 import today.tecktip.killbill.backend.gameserver.games.GameState;
@@ -21,6 +21,7 @@ import today.tecktip.killbill.common.exceptions.MessageFailure;
 import today.tecktip.killbill.common.gameserver.MessageHandler;
 import today.tecktip.killbill.common.gameserver.MessageHandler.CommandContext;
 import today.tecktip.killbill.common.gameserver.MessageHandler.InvokeContext;
+import today.tecktip.killbill.common.gameserver.MessageHandler.UdpClient;
 import today.tecktip.killbill.common.gameserver.annotations.Command;
 import today.tecktip.killbill.common.gameserver.annotations.CommandMethod;
 import today.tecktip.killbill.common.gameserver.annotations.InvokeMethod;
@@ -46,11 +47,6 @@ public class BasicBombCommand {
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(BasicInteractCommand.class);
     
-    /**
-     * Jackson thingy
-     */
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     /**
      * Incoming bomb command data.
      */
@@ -134,12 +130,12 @@ public class BasicBombCommand {
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.COMMAND_CREATE_BOMB)
-    public BasicBombCommandData parse(final JsonNode node) {
-        return MAPPER.convertValue(node, BasicBombCommandData.class);
+    public BasicBombCommandData parse(final JsonParser parser) {
+        return MessageData.read(parser, BasicBombCommandData.class);
     }
 
     /**
@@ -212,21 +208,22 @@ public class BasicBombCommand {
             data.getOrigin(),
             sender != null ? sender : data.getLaunchedBy()
         );
+        final List<UdpClient> recipients = new ArrayList<>();
         for (GameUserState userState : gameState.getConnectedUsers().values()) {
             if (sender != null && userState.getUser().id().equals(sender)) continue;
+            if (!gameState.isInterested(userState, data.getOrigin())) continue;
 
-            try {
-                userState.getClient().send(
-                    OutgoingMessage.newBuilder()
-                        .setKey(handler)
-                        .success()
-                        .randomMessageId()
-                        .data(newData)
-                        .build());
-            } catch (final Throwable t) {
-                LOGGER.error("Failure in game state send to userId={}, continuing anyway", userState.getUser().id(), t);
-            }
+            recipients.add(userState.getClient());
         }
+
+        handler.broadcast(
+            recipients,
+            OutgoingMessage.newBuilder()
+                .setKey(handler)
+                .success()
+                .reliable()
+                .data(newData)
+                .build());
     }
 
     /**
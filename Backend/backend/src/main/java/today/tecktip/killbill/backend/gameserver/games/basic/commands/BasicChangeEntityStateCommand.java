@@ -6,8 +6,7 @@ import java.util.List;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.backend.gameserver.SpringMessageHandler;
 import today.tecktip.killbill.backend.gameserver.games.basic.BasicEntityState;
@@ -45,11 +44,6 @@ import today.tecktip.killbill.common.maploader.directives.EntityDirective.Entity
  */
 @Command(gameTypes = {GameType.BASIC})
 public class BasicChangeEntityStateCommand {
-    /**
-     * JSON deserializer
-     */
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     @JsonIgnoreProperties(ignoreUnknown = true)
     public static class BasicChangeEntityStateCommandData extends MessageData {
         /**
@@ -97,12 +91,12 @@ public class BasicChangeEntityStateCommand {
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.COMMAND_CHANGE_ENTITY_STATE)
-    public BasicChangeEntityStateCommandData parse(final JsonNode node) {
-        return MAPPER.convertValue(node, BasicChangeEntityStateCommandData.class);
+    public BasicChangeEntityStateCommandData parse(final JsonParser parser) {
+        return MessageData.read(parser, BasicChangeEntityStateCommandData.class);
     }
 
     @JsonIgnoreProperties(ignoreUnknown = true)
@@ -148,12 +142,12 @@ public class BasicChangeEntityStateCommand {
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.COMMAND_SUMMON_ENTITY)
-    public BasicSummonEntityCommandData parseSummon(final JsonNode node) {
-        return MAPPER.convertValue(node, BasicSummonEntityCommandData.class);
+    public BasicSummonEntityCommandData parseSummon(final JsonParser parser) {
+        return MessageData.read(parser, BasicSummonEntityCommandData.class);
     }
 
     /**
@@ -5,8 +5,7 @@ import java.util.List;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.backend.gameserver.SpringMessageHandler;
 import today.tecktip.killbill.backend.gameserver.games.basic.BasicGameState;
@@ -36,11 +35,6 @@ import today.tecktip.killbill.common.gameserver.messages.generic.EmptyData;
  */
 @Command(gameTypes = {GameType.BASIC})
 public class BasicChangeGameStateCommand {
-    /**
-     * Jackson thingy
-     */
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     /**
      * Incoming change game command data.
      */
@@ -69,12 +63,12 @@ public class BasicChangeGameStateCommand {
         }
 
         /**
-         * Parses a JSON node into resend command data.
-         * @param node JSON node
+         * Parses JSON data into resend command data.
+         * @param parser Parser on the JSON data
          * @return Parsed data
          */
-        public static BasicChangeGameStateCommandData parse(final JsonNode node) throws IllegalArgumentException {
-            return MAPPER.convertValue(node, BasicChangeGameStateCommandData.class);
+        public static BasicChangeGameStateCommandData parse(final JsonParser parser) throws IllegalArgumentException {
+            return MessageData.read(parser, BasicChangeGameStateCommandData.class);
         }
     }
 
@@ -93,12 +87,12 @@ public class BasicChangeGameStateCommand {
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.COMMAND_CHANGE_GAME_STATE)
-    public BasicChangeGameStateCommandData parse(final JsonNode node) {
-        return BasicChangeGameStateCommandData.parse(node);
+    public BasicChangeGameStateCommandData parse(final JsonParser parser) {
+        return BasicChangeGameStateCommandData.parse(parser);
     }
 
     /**
@@ -8,8 +8,7 @@ import java.util.UUID;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.backend.gameserver.SpringMessageHandler;
 import today.tecktip.killbill.backend.gameserver.games.GameUserState;
@@ -42,11 +41,6 @@ import today.tecktip.killbill.common.gameserver.messages.generic.EmptyData;
  */
 @Command(gameTypes = {GameType.BASIC})
 public class BasicChangeOtherPlayerStateCommand {
-    /**
-     * JSON deserializer
-     */
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     @JsonIgnoreProperties(ignoreUnknown = true)
     public static class BasicChangeOtherPlayerStateCommandData extends MessageData {
         /**
@@ -94,12 +88,12 @@ public class BasicChangeOtherPlayerStateCommand {
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.COMMAND_CHANGE_OTHER_PLAYER_STATE)
-    public BasicChangeOtherPlayerStateCommandData parse(final JsonNode node) {
-        return MAPPER.convertValue(node, BasicChangeOtherPlayerStateCommandData.class);
+    public BasicChangeOtherPlayerStateCommandData parse(final JsonParser parser) {
+        return MessageData.read(parser, BasicChangeOtherPlayerStateCommandData.class);
     }
 
     /**
@@ -7,8 +7,7 @@ import java.util.UUID;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.backend.gameserver.SpringMessageHandler;
 import today.tecktip.killbill.backend.gameserver.games.basic.BasicGameState;
@@ -40,11 +39,6 @@ import today.tecktip.killbill.common.gameserver.messages.generic.EmptyData;
  */
 @Command(gameTypes = {GameType.BASIC})
 public class BasicChangePlayerStateCommand {
-    /**
-     * JSON deserializer
-     */
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     /**
      * Incoming change location command data.
      */
@@ -130,12 +124,12 @@ public class BasicChangePlayerStateCommand {
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.COMMAND_CHANGE_PLAYER_STATE)
-    public BasicChangePlayerStateCommandData parse(final JsonNode node) {
-        return MAPPER.convertValue(node, BasicChangePlayerStateCommandData.class);
+    public BasicChangePlayerStateCommandData parse(final JsonParser parser) {
+        return MessageData.read(parser, BasicChangePlayerStateCommandData.class);
     }
 
     /**
@@ -1,5 +1,6 @@
 package today.tecktip.killbill.backend.gameserver.games.basic.commands;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -9,8 +10,7 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.backend.gameserver.SpringMessageHandler;
 import today.tecktip.killbill.backend.gameserver.games.GameState;
@@ -22,6 +22,7 @@ import today.tecktip.killbill.common.exceptions.MessageFailure;
 import today.tecktip.killbill.common.gameserver.MessageHandler;
 import today.tecktip.killbill.common.gameserver.MessageHandler.CommandContext;
 import today.tecktip.killbill.common.gameserver.MessageHandler.InvokeContext;
+import today.tecktip.killbill.common.gameserver.MessageHandler.UdpClient;
 import today.tecktip.killbill.common.gameserver.annotations.Command;
 import today.tecktip.killbill.common.gameserver.annotations.CommandMethod;
 import today.tecktip.killbill.common.gameserver.annotations.InvokeMethod;
@@ -49,11 +50,6 @@ public class BasicDroppedItemCommand {
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(BasicInteractCommand.class);
 
-    /**
-     * Jackson thingy
-     */
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     /**
      * Incoming create dropped item command data.
      */
@@ -188,22 +184,22 @@ public class BasicDroppedItemCommand {
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.COMMAND_CREATE_DROPPED_ITEM)
-    public BasicCreateDroppedItemCommandData parse(final JsonNode node) {
-        return MAPPER.convertValue(node, BasicCreateDroppedItemCommandData.class);
+    public BasicCreateDroppedItemCommandData parse(final JsonParser parser) {
+        return MessageData.read(parser, BasicCreateDroppedItemCommandData.class);
     }
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.COMMAND_REMOVE_DROPPED_ITEM)
-    public BasicRemoveDroppedItemCommandData parseRemove(final JsonNode node) {
-        return MAPPER.convertValue(node, BasicRemoveDroppedItemCommandData.class);
+    public BasicRemoveDroppedItemCommandData parseRemove(final JsonParser parser) {
+        return MessageData.read(parser, BasicRemoveDroppedItemCommandData.class);
     }
 
     /**
@@ -306,23 +302,8 @@ public class BasicDroppedItemCommand {
                     .data(new InvalidArgumentExceptionData("No such item."))
                     .build());
             return;
-        }      
-        // Send this out to clients
-        try {
-            handler.getCommandLoader().invokeMethodFor(GameType.BASIC, MessageDataType.COMMAND_RECV_REMOVE_DROPPED_ITEM).run(
-                handler,
-                new RecvRemoveDroppedItemContext(game, data, user.getUser().id())
-            );
-        } catch (final MessageFailure e) {
-            user.getClient().send(
-                OutgoingMessage.newBuilder()
-                    .setKey(handler)
-                    .failure()
-                    .ackMessageId(message.messageId())
-                    .data(new InternalServerErrorData("Failed to message other clients."))
-                    .build());
-            return;
         }
+        // Other clients pick this up from the next world snapshot
 
         user.getClient().send(
             OutgoingMessage.newBuilder()
@@ -344,6 +325,9 @@ public class BasicDroppedItemCommand {
         UUID sender = ((RecvCreateDroppedItemContext) context).getSender();
         List<UUID> sendTo = ((RecvCreateDroppedItemContext) context).getSendTo();
 
+        // Broadcasts are picked up by the end-of-tick snapshot
+        if (sendTo == null) return;
+
         // Generate a message body for each connected user and send it out
         final BasicCreateDroppedItemCommandData newData = new BasicCreateDroppedItemCommandData(
             MessageDataType.COMMAND_RECV_NEW_DROPPED_ITEM,
@@ -352,54 +336,23 @@ public class BasicDroppedItemCommand {
             data.getQuantity(),
             data.getId()
         );
+
+        final List<UdpClient> recipients = new ArrayList<>();
         for (GameUserState userState : gameState.getConnectedUsers().values()) {
             if (sender != null && userState.getUser().id().equals(sender)) continue;
             if (sendTo != null && !sendTo.contains(userState.getUser().id())) continue;
 
-            try {
-                userState.getClient().send(
-                    OutgoingMessage.newBuilder()
-                        .setKey(handler)
-                        .success()
-                        .randomMessageId()
-                        .data(newData)
-                        .build());
-            } catch (final Throwable t) {
-                LOGGER.error("Failure in game state send to userId={}, continuing anyway", userState.getUser().id(), t);
-            }
+            recipients.add(userState.getClient());
         }
-    }
 
-    /**
-     * Runs the Receive Remove Dropped Item command.
-     * @throws JsonProcessingException Unable to serialize response as JSON
-     */
-    @InvokeMethod(type = MessageDataType.COMMAND_RECV_REMOVE_DROPPED_ITEM)
-    public void sendRemove(final MessageHandler handler, final InvokeContext context) throws JsonProcessingException {
-        BasicGameState gameState = (BasicGameState) ((RecvRemoveDroppedItemContext) context).getGameState();
-        BasicRemoveDroppedItemCommandData data = ((RecvRemoveDroppedItemContext) context).getData();
-        UUID sender = ((RecvRemoveDroppedItemContext) context).getSender();
-
-        // Generate a message body for each connected user and send it out
-        final BasicRemoveDroppedItemCommandData newData = new BasicRemoveDroppedItemCommandData(
-            MessageDataType.COMMAND_RECV_REMOVE_DROPPED_ITEM,
-            data.getId()
-        );
-        for (GameUserState userState : gameState.getConnectedUsers().values()) {
-            if (userState.getUser().id().equals(sender)) continue;
-
-            try {
-                userState.getClient().send(
-                    OutgoingMessage.newBuilder()
-                        .setKey(handler)
-                        .success()
-                        .randomMessageId()
-                        .data(newData)
-                        .build());
-            } catch (final Throwable t) {
-                LOGGER.error("Failure in game state send to userId={}, continuing anyway", userState.getUser().id(), t);
-            }
-        }
+        handler.broadcast(
+            recipients,
+            OutgoingMessage.newBuilder()
+                .setKey(handler)
+                .success()
+                .reliable()
+                .data(newData)
+                .build());
     }
 
     /**
@@ -480,59 +433,6 @@ public class BasicDroppedItemCommand {
         }
     }
 
-    /**
-     * Context for the receive game state command invocation.
-     */
-    public static class RecvRemoveDroppedItemContext extends InvokeContext {
-        /**
-         * Game state for this invocation
-         */
-        private GameState gameState;
-        private final BasicRemoveDroppedItemCommandData data;
-        private final UUID sender;
-
-
-        /**
-         * Constructs context data for the receive interaction command.
-         * @param gameState Game state to send state for
-         */
-        public RecvRemoveDroppedItemContext(
-            final GameState gameState,
-            final BasicRemoveDroppedItemCommandData data,
-            final UUID sender
-        ) {
-            super();
-
-            this.gameState = gameState;
-            this.data = data;
-            this.sender = sender;
-        }
-
-        /**
-         * Gets the game state for this invocation.
-         * @return Game state to send state for
-         */
-        public GameState getGameState() {
-            return gameState;
-        }
-
-        /**
-         * Gets the data.
-         * @return Data
-         */
-        public BasicRemoveDroppedItemCommandData getData() {
-            return data;
-        }
-
-        /**
-         * Gets the sender, if applicable.
-         * @return Sender or null
-         */
-        public UUID getSender() {
-            return sender;
-        }
-    }
-
     /**
      * This class should not be manually instantiated.
      */
@@ -1,12 +1,15 @@
 package today.tecktip.killbill.backend.gameserver.games.basic.commands;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.backend.gameserver.SpringMessageHandler;
 import today.tecktip.killbill.backend.gameserver.games.GameState;
@@ -14,10 +17,14 @@ import today.tecktip.killbill.backend.gameserver.games.GameUserState;
 import today.tecktip.killbill.backend.gameserver.games.basic.BasicEntityState;
 import today.tecktip.killbill.backend.gameserver.games.basic.BasicGameState;
 import today.tecktip.killbill.backend.gameserver.games.basic.BasicGameUserState;
+import today.tecktip.killbill.backend.gameserver.games.basic.BasicWorldState;
+import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicDroppedItemCommand.BasicCreateDroppedItemCommandData;
+import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicRecvPlayerStateCommand.BasicRecvPlayerStateData;
 import today.tecktip.killbill.backend.gameserver.games.basic.BasicEntityState.EntityStateFieldFilter;
 import today.tecktip.killbill.common.gameserver.MessageHandler;
 import today.tecktip.killbill.common.gameserver.MessageHandler.CommandContext;
 import today.tecktip.killbill.common.gameserver.MessageHandler.InvokeContext;
+import today.tecktip.killbill.common.gameserver.MessageHandler.UdpClient;
 import today.tecktip.killbill.common.gameserver.annotations.Command;
 import today.tecktip.killbill.common.gameserver.annotations.CommandMethod;
 import today.tecktip.killbill.common.gameserver.annotations.InvokeMethod;
@@ -38,11 +45,6 @@ import today.tecktip.killbill.common.maploader.directives.EntityDirective.Entity
  */
 @Command(gameTypes = {GameType.BASIC})
 public class BasicRecvEntityStateCommand {
-    /**
-     * JSON deserializer
-     */
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     /**
      * Data attached to refresh entity state commands or get entity state responses.
      */
@@ -87,6 +89,11 @@ public class BasicRecvEntityStateCommand {
          */
         private final String texturePrefix;
 
+        /**
+         * Snapshot this state is a delta against, if it's part of a snapshot.
+         */
+        private Integer baseline;
+
         /**
          * Constructs a new basic refresh entity state client command response.
          */
@@ -210,6 +217,24 @@ public class BasicRecvEntityStateCommand {
         public String getTexturePrefix() {
             return texturePrefix;
         }
+
+        /**
+         * Gets the snapshot this state is a delta against.
+         * @return Baseline sequence number, or null if this is a full state
+         */
+        @JsonProperty("baseline")
+        @JsonInclude(Include.NON_NULL)
+        public Integer getBaseline() {
+            return baseline;
+        }
+
+        /**
+         * Marks this state as a delta against an earlier snapshot.
+         * @param baseline Baseline sequence number, or null if this is a full state
+         */
+        public void setBaseline(final Integer baseline) {
+            this.baseline = baseline;
+        }
     }
 
     /**
@@ -242,8 +267,8 @@ public class BasicRecvEntityStateCommand {
     }
 
     @ParseMethod(type = MessageDataType.COMMAND_GET_ENTITY_STATE)
-    public BasicGetEntityStateCommandData parse(final JsonNode node) {
-        return MAPPER.convertValue(node, BasicGetEntityStateCommandData.class);
+    public BasicGetEntityStateCommandData parse(final JsonParser parser) {
+        return MessageData.read(parser, BasicGetEntityStateCommandData.class);
     }
 
     /**
@@ -297,6 +322,173 @@ public class BasicRecvEntityStateCommand {
         }
     }
 
+    /**
+     * Data attached to snapshot commands: one tick's changes, encoded against snapshots the client has acked.
+     */
+    public static class BasicRecvSnapshotCommandData extends MessageData {
+        /**
+         * Sequence number of this snapshot.
+         */
+        private final int sequence;
+
+        /**
+         * Changed entities.
+         */
+        private final List<BasicRecvEntityStateCommandData> entities;
+
+        /**
+         * IDs of removed entities.
+         */
+        private final List<Integer> removedEntities;
+
+        /**
+         * Changed players.
+         */
+        private final List<BasicRecvPlayerStateData> players;
+
+        /**
+         * IDs of players that moved out of range.
+         */
+        private final List<UUID> hiddenPlayers;
+
+        /**
+         * New dropped items.
+         */
+        private final List<BasicCreateDroppedItemCommandData> newDroppedItems;
+
+        /**
+         * IDs of removed dropped items.
+         */
+        private final List<String> removedDroppedItems;
+
+        /**
+         * Constructs new snapshot data.
+         * @param sequence Sequence number of this snapshot
+         * @param entities Changed entities
+         * @param removedEntities IDs of removed entities
+         * @param players Changed players
+         * @param hiddenPlayers IDs of players that moved out of range
+         * @param newDroppedItems New dropped items
+         * @param removedDroppedItems IDs of removed dropped items
+         */
+        public BasicRecvSnapshotCommandData(
+            final int sequence,
+            final List<BasicRecvEntityStateCommandData> entities,
+            final List<Integer> removedEntities,
+            final List<BasicRecvPlayerStateData> players,
+            final List<UUID> hiddenPlayers,
+            final List<BasicCreateDroppedItemCommandData> newDroppedItems,
+            final List<String> removedDroppedItems
+        ) {
+            super(MessageDataType.COMMAND_RECV_SNAPSHOT);
+            this.sequence = sequence;
+            this.entities = entities;
+            this.removedEntities = removedEntities;
+            this.players = players;
+            this.hiddenPlayers = hiddenPlayers;
+            this.newDroppedItems = newDroppedItems;
+            this.removedDroppedItems = removedDroppedItems;
+        }
+
+        /**
+         * Gets the sequence number of this snapshot.
+         * @return Sequence number
+         */
+        @JsonProperty("sequence")
+        public int getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Gets the changed entities.
+         * @return Entity deltas
+         */
+        @JsonProperty("entities")
+        public List<BasicRecvEntityStateCommandData> getEntities() {
+            return entities;
+        }
+
+        /**
+         * Gets the IDs of removed entities.
+         * @return Entity IDs
+         */
+        @JsonProperty("removedEntities")
+        public List<Integer> getRemovedEntities() {
+            return removedEntities;
+        }
+
+        /**
+         * Gets the changed players.
+         * @return Player deltas
+         */
+        @JsonProperty("players")
+        public List<BasicRecvPlayerStateData> getPlayers() {
+            return players;
+        }
+
+        /**
+         * Gets the IDs of players that moved out of range.
+         * @return User IDs
+         */
+        @JsonProperty("hiddenPlayers")
+        public List<UUID> getHiddenPlayers() {
+            return hiddenPlayers;
+        }
+
+        /**
+         * Gets the new dropped items.
+         * @return Dropped items
+         */
+        @JsonProperty("newDroppedItems")
+        public List<BasicCreateDroppedItemCommandData> getNewDroppedItems() {
+            return newDroppedItems;
+        }
+
+        /**
+         * Gets the IDs of removed dropped items.
+         * @return Dropped item IDs
+         */
+        @JsonProperty("removedDroppedItems")
+        public List<String> getRemovedDroppedItems() {
+            return removedDroppedItems;
+        }
+    }
+
+    /**
+     * Incoming snapshot acknowledgement data.
+     */
+    public static class BasicAckSnapshotCommandData extends MessageData {
+        /**
+         * Sequence number of the received snapshot.
+         */
+        private final int sequence;
+
+        /**
+         * Constructs snapshot acknowledgement data.
+         * @param sequence Sequence number of the received snapshot
+         */
+        @JsonCreator
+        public BasicAckSnapshotCommandData(
+            @JsonProperty(value = "sequence", required = true) final int sequence
+        ) {
+            super(MessageDataType.COMMAND_ACK_SNAPSHOT);
+            this.sequence = sequence;
+        }
+
+        /**
+         * Gets the sequence number of the received snapshot.
+         * @return Sequence number
+         */
+        public int getSequence() {
+            return sequence;
+        }
+    }
+
+    @ParseMethod(type = MessageDataType.COMMAND_ACK_SNAPSHOT)
+    public BasicAckSnapshotCommandData parseAck(final JsonParser parser) {
+        return MessageData.read(parser, BasicAckSnapshotCommandData.class);
+    }
+
     /**
      * Runs the Get Entity State command.
      * @param handler Message handler which received the command
@@ -346,7 +538,8 @@ public class BasicRecvEntityStateCommand {
     }
 
     /**
-     * Runs the Refresh Entity State client command.
+     * Runs the Refresh Entity State client command for the users in the context's filter. Untargeted
+     *  changes aren't sent here; they go out with the end-of-tick snapshot.
      * @param gameState Game state to refresh locations for
      * @throws JsonProcessingException Unable to serialize response as JSON
      */
@@ -358,9 +551,12 @@ public class BasicRecvEntityStateCommand {
         UUID skipSendFor = ((RecvEntityStateInvokeContext) context).getSkipSendFor();
         List<UUID> userFilter = ((RecvEntityStateInvokeContext) context).getFilter();
 
+        // Untargeted changes are picked up by the end-of-tick snapshot
+        if (userFilter == null) return;
+
         boolean onlyLocation;
 
-        // Generate a message body for each connected user and send it out
+        // Generate one message body and send it to each targeted user
         final BasicRecvEntityStateCommandData data;
         if (fieldFilter == null) {
             data = new BasicRecvEntityStateCommandData(MessageDataType.COMMAND_RECV_ENTITY_STATE, entityState);
@@ -396,18 +592,9 @@ public class BasicRecvEntityStateCommand {
                 continue;
             }
 
-            if (userFilter != null) {
-                // Check if this user is in the filter
-                boolean send = false;
-                for (final UUID targetId : userFilter) {
-                    if (targetId.equals(userState.getUser().id())) {
-                        send = true;
-                        break;
-                    }
-                }
-                if (!send) {
-                    continue;
-                }
+            // Only the targeted users get this
+            if (!userFilter.contains(userState.getUser().id())) {
+                continue;
             }
 
             if (onlyLocation)
@@ -422,7 +609,7 @@ public class BasicRecvEntityStateCommand {
                     OutgoingMessage.newBuilder()
                         .setKey(handler)
                         .success()
-                        .randomMessageId()
+                        .reliable()
                         .data(data)
                         .build());
         }
@@ -442,6 +629,7 @@ public class BasicRecvEntityStateCommand {
 
         // Generate a message body for each connected user and send it out
         final BasicRecvRemoveEntityStateCommandData data = new BasicRecvRemoveEntityStateCommandData(entityState.getId(), removalType);
+        final List<UdpClient> recipients = new ArrayList<>();
         for (GameUserState userState : gameState.getConnectedUsers().values()) {
             // Assumes they changed the state, so they don't need to get it again
             if (skipSendFor != null && userState.getUser().id().equals(skipSendFor)) {
@@ -462,13 +650,86 @@ public class BasicRecvEntityStateCommand {
                 }
             }
 
-            userState.getClient().send(
-                OutgoingMessage.newBuilder()
-                    .setKey(handler)
-                    .success()
-                    .randomMessageId()
-                    .data(data)
-                    .build());
+            // Clients this far away were never sent the entity
+            if (!((BasicGameState) gameState).isInterested(userState, entityState.getCoordinates())) {
+                continue;
+            }
+
+            recipients.add(userState.getClient());
+        }
+
+        handler.broadcast(
+            recipients,
+            OutgoingMessage.newBuilder()
+                .setKey(handler)
+                .success()
+                .reliable()
+                .data(data)
+                .build());
+    }
+
+    /**
+     * Runs the Receive Snapshot client command, sending each connected client whatever it hasn't acked yet.
+     * <p>
+     * Snapshots are never resent. If one is lost, the next one is encoded against an older baseline instead.
+     * @throws JsonProcessingException Unable to serialize response as JSON
+     */
+    @InvokeMethod(type = MessageDataType.COMMAND_RECV_SNAPSHOT)
+    public void sendSnapshot(final MessageHandler handler, final InvokeContext context) throws JsonProcessingException {
+        final BasicGameState gameState = ((RecvSnapshotInvokeContext) context).getGameState();
+        if (gameState.getConnectedUsers().isEmpty()) return;
+
+        final BasicWorldState world = BasicWorldState.capture(gameState);
+        for (final GameUserState userState : gameState.getConnectedUsers().values()) {
+            for (final BasicRecvSnapshotCommandData data : ((BasicGameUserState) userState).getSnapshots().encode(world)) {
+                userState.getClient().send(
+                    OutgoingMessage.newBuilder()
+                        .setKey(handler)
+                        .success()
+                        .data(data)
+                        .build());
+            }
+        }
+    }
+
+    /**
+     * Runs the Ack Snapshot command, marking a snapshot as a baseline for later ones.
+     * @param handler Message handler which received the command
+     * @param message Message data
+     * @param context Command context
+     */
+    @CommandMethod(type = MessageDataType.COMMAND_ACK_SNAPSHOT)
+    public void runAck(final MessageHandler handler, final IncomingMessage message, final CommandContext context) {
+        final BasicGameUserState user = (BasicGameUserState) SpringMessageHandler.userStateFrom(context);
+
+        // Unreliable, so there's nothing to reply to
+        if (!user.isConnected()) return;
+        user.getSnapshots().ack(((BasicAckSnapshotCommandData) message.data()).getSequence());
+    }
+
+    /**
+     * Context for the receive snapshot command invocation.
+     */
+    public static class RecvSnapshotInvokeContext extends InvokeContext {
+        /**
+         * Game state for this invocation
+         */
+        private final BasicGameState gameState;
+
+        /**
+         * Constructs context data for the receive snapshot command.
+         * @param gameState Game state to send the snapshot of
+         */
+        public RecvSnapshotInvokeContext(final BasicGameState gameState) {
+            this.gameState = gameState;
+        }
+
+        /**
+         * Gets the game state for this invocation.
+         * @return Game state to send the snapshot of
+         */
+        public BasicGameState getGameState() {
+            return gameState;
         }
     }
 
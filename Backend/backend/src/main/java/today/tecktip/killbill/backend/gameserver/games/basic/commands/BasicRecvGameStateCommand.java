@@ -1,5 +1,6 @@
 package today.tecktip.killbill.backend.gameserver.games.basic.commands;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -8,7 +9,7 @@ import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.backend.gameserver.SpringMessageHandler;
 import today.tecktip.killbill.backend.gameserver.games.GameState;
@@ -21,6 +22,7 @@ import today.tecktip.killbill.common.gameserver.games.GameType;
 import today.tecktip.killbill.common.gameserver.MessageHandler;
 import today.tecktip.killbill.common.gameserver.MessageHandler.CommandContext;
 import today.tecktip.killbill.common.gameserver.MessageHandler.InvokeContext;
+import today.tecktip.killbill.common.gameserver.MessageHandler.UdpClient;
 import today.tecktip.killbill.common.gameserver.annotations.Command;
 import today.tecktip.killbill.common.gameserver.annotations.CommandMethod;
 import today.tecktip.killbill.common.gameserver.annotations.InvokeMethod;
@@ -134,7 +136,7 @@ public class BasicRecvGameStateCommand {
     }
 
     @ParseMethod(type = MessageDataType.COMMAND_GET_GAME_STATE)
-    public BasicGetGameStateCommandData parse(final JsonNode node) {
+    public BasicGetGameStateCommandData parse(final JsonParser parser) {
         return new BasicGetGameStateCommandData();
     }
 
@@ -189,6 +191,7 @@ public class BasicRecvGameStateCommand {
             fieldFilter.contains(GameStateFieldFilter.USERS) ? gameState.getConnectedUsers().entrySet().stream().map(kv -> { return kv.getValue().getUser().id(); }).toList() : null,
             fieldFilter.contains(GameStateFieldFilter.WINNING_TEAM) ? gameState.getWinningTeam() : null
         );
+        final List<UdpClient> recipients = new ArrayList<>();
         for (GameUserState userState : gameState.getConnectedUsers().values()) {
             if (userFilter != null) {
                 // Check if this user is in the filter
@@ -204,18 +207,17 @@ public class BasicRecvGameStateCommand {
                 }
             }
 
-            try {
-                userState.getClient().send(
-                    OutgoingMessage.newBuilder()
-                        .setKey(handler)
-                        .success()
-                        .randomMessageId()
-                        .data(data)
-                        .build());
-            } catch (final Throwable t) {
-                LOGGER.error("Failure in game state send to userId={}, continuing anyway", userState.getUser().id(), t);
-            }
+            recipients.add(userState.getClient());
         }
+
+        handler.broadcast(
+            recipients,
+            OutgoingMessage.newBuilder()
+                .setKey(handler)
+                .success()
+                .reliable()
+                .data(data)
+                .build());
     }
 
     /**
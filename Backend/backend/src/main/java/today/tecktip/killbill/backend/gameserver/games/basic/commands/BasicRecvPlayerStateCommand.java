@@ -1,21 +1,25 @@
 package today.tecktip.killbill.backend.gameserver.games.basic.commands;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.backend.gameserver.SpringMessageHandler;
 import today.tecktip.killbill.backend.gameserver.games.GameState;
 import today.tecktip.killbill.backend.gameserver.games.GameUserState;
 import today.tecktip.killbill.backend.gameserver.games.basic.BasicGameState;
 import today.tecktip.killbill.backend.gameserver.games.basic.BasicGameUserState;
+import today.tecktip.killbill.backend.gameserver.games.basic.BasicWorldState.PlayerRecord;
 import today.tecktip.killbill.common.gameserver.MessageHandler;
 import today.tecktip.killbill.common.gameserver.MessageHandler.CommandContext;
 import today.tecktip.killbill.common.gameserver.MessageHandler.InvokeContext;
+import today.tecktip.killbill.common.gameserver.MessageHandler.UdpClient;
 import today.tecktip.killbill.common.gameserver.annotations.Command;
 import today.tecktip.killbill.common.gameserver.annotations.CommandMethod;
 import today.tecktip.killbill.common.gameserver.annotations.InvokeMethod;
@@ -36,11 +40,6 @@ import today.tecktip.killbill.common.gameserver.messages.exceptions.InvalidArgum
  */
 @Command(gameTypes = {GameType.BASIC})
 public class BasicRecvPlayerStateCommand {
-    /**
-     * JSON deserializer
-     */
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     /**
      * Data attached to refresh player state commands or get player state responses.
      */
@@ -85,6 +84,11 @@ public class BasicRecvPlayerStateCommand {
          */
         private final String texturePrefix;
 
+        /**
+         * Snapshot this state is a delta against, if it's part of a snapshot.
+         */
+        private Integer baseline;
+
         /**
          * Constructs a new basic refresh user state client command response.
          * @param userId User ID with changed coordinates
@@ -202,6 +206,24 @@ public class BasicRecvPlayerStateCommand {
         public String getTexturePrefix() {
             return texturePrefix;
         }
+
+        /**
+         * Gets the snapshot this state is a delta against.
+         * @return Baseline sequence number, or null if this is a full state
+         */
+        @JsonProperty("baseline")
+        @JsonInclude(Include.NON_NULL)
+        public Integer getBaseline() {
+            return baseline;
+        }
+
+        /**
+         * Marks this state as a delta against an earlier snapshot.
+         * @param baseline Baseline sequence number, or null if this is a full state
+         */
+        public void setBaseline(final Integer baseline) {
+            this.baseline = baseline;
+        }
     }
 
     /**
@@ -234,8 +256,8 @@ public class BasicRecvPlayerStateCommand {
     }
 
     @ParseMethod(type = MessageDataType.COMMAND_GET_PLAYER_STATE)
-    public BasicGetPlayerStateCommandData parse(final JsonNode node) {
-        return MAPPER.convertValue(node, BasicGetPlayerStateCommandData.class);
+    public BasicGetPlayerStateCommandData parse(final JsonParser parser) {
+        return MessageData.read(parser, BasicGetPlayerStateCommandData.class);
     }
 
     /**
@@ -286,7 +308,8 @@ public class BasicRecvPlayerStateCommand {
     }
 
     /**
-     * Runs the Refresh Player State client command.
+     * Runs the Refresh Player State client command for the users in the context's filter. Untargeted
+     *  changes aren't sent here; they go out with the end-of-tick snapshot.
      * @param gameState Game state to refresh locations for
      * @throws JsonProcessingException Unable to serialize response as JSON
      */
@@ -298,7 +321,16 @@ public class BasicRecvPlayerStateCommand {
         List<PlayerStateFieldFilter> fieldFilter = ((RecvPlayerStateInvokeContext) context).getFieldFilter();
         UUID skipSendFor = ((RecvPlayerStateInvokeContext) context).getSkipSendFor();
 
-        // Generate a message body for each connected user and send it out
+        // Untargeted changes are picked up by the end-of-tick snapshot. Fields the player set themselves don't
+        //  need to be sent back to them.
+        if (userFilter == null) {
+            if (thisUser.getUser().id().equals(skipSendFor)) {
+                thisUser.getSnapshots().acceptOwnState(PlayerRecord.of(thisUser), fieldFilter);
+            }
+            return;
+        }
+
+        // Generate one message body and send it to each targeted user
         final BasicRecvPlayerStateData data = new BasicRecvPlayerStateData(
             thisUser.getUser().id(),
             fieldFilter.contains(PlayerStateFieldFilter.COORDINATES) ? thisUser.getCoordinates() : null,
@@ -324,44 +356,40 @@ public class BasicRecvPlayerStateCommand {
             onlyLocation = false;
         }
 
+        final List<UdpClient> recipients = new ArrayList<>();
         for (GameUserState userState : gameState.getConnectedUsers().values()) {
             // Don't send their own state back
             if (skipSendFor != null && userState.getUser().id().equals(skipSendFor)) {
                 continue;
             }
 
-            if (userFilter != null) {
-                // Check if this user is in the filter
-                boolean send = false;
-                for (final UUID targetId : userFilter) {
-                    if (targetId.equals(userState.getUser().id())) {
-                        send = true;
-                        break;
-                    }
-                }
-                if (!send) {
-                    continue;
-                }
+            // Only the targeted users get this
+            if (!userFilter.contains(userState.getUser().id())) {
+                continue;
             }
 
-            if (onlyLocation)
-                userState.getClient().send(
-                    OutgoingMessage.newBuilder()
-                        .setKey(handler)
-                        .success()
-                        .data(data)
-                        .build());
-            else
-                userState.getClient().send(
-                    OutgoingMessage.newBuilder()
-                        .setKey(handler)
-                        .success()
-                        .randomMessageId()
-                        .data(data)
-                        .build());
-            if (fieldFilter.contains(PlayerStateFieldFilter.HEALTH)) {
-                System.err.println("Sending new health!");
-            }
+            recipients.add(userState.getClient());
+        }
+
+        if (onlyLocation)
+            handler.broadcast(
+                recipients,
+                OutgoingMessage.newBuilder()
+                    .setKey(handler)
+                    .success()
+                    .data(data)
+                    .build());
+        else
+            handler.broadcast(
+                recipients,
+                OutgoingMessage.newBuilder()
+                    .setKey(handler)
+                    .success()
+                    .reliable()
+                    .data(data)
+                    .build());
+        if (fieldFilter.contains(PlayerStateFieldFilter.HEALTH)) {
+            System.err.println("Sending new health!");
         }
     }
 
@@ -1,10 +1,12 @@
 package today.tecktip.killbill.backend.gameserver.games.basic.commands;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.backend.gameserver.SpringMessageHandler;
 import today.tecktip.killbill.backend.gameserver.games.GameState;
@@ -15,6 +17,7 @@ import today.tecktip.killbill.common.exceptions.MessageFailure;
 import today.tecktip.killbill.common.gameserver.MessageHandler;
 import today.tecktip.killbill.common.gameserver.MessageHandler.CommandContext;
 import today.tecktip.killbill.common.gameserver.MessageHandler.InvokeContext;
+import today.tecktip.killbill.common.gameserver.MessageHandler.UdpClient;
 import today.tecktip.killbill.common.gameserver.annotations.Command;
 import today.tecktip.killbill.common.gameserver.annotations.CommandMethod;
 import today.tecktip.killbill.common.gameserver.annotations.InvokeMethod;
@@ -59,12 +62,14 @@ public class BasicSendChatCommand {
         }
 
         /**
-         * Parses a JSON node into chat command data.
-         * @param node JSON node
+         * Parses JSON data into chat command data.
+         * @param parser Parser on the JSON data
          * @return Parsed data
          */
-        public static BasicSendChatCommandData parse(final JsonNode node) throws IllegalArgumentException {
-            return new BasicSendChatCommandData(node.get("message").textValue());
+        public static BasicSendChatCommandData parse(final JsonParser parser) throws IllegalArgumentException {
+            final String message = MessageData.readText(parser, "message");
+            if (message == null) throw new IllegalArgumentException("'message' must be supplied as a string.");
+            return new BasicSendChatCommandData(message);
         }
     }
     /**
@@ -141,12 +146,12 @@ public class BasicSendChatCommand {
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.COMMAND_SEND_CHAT)
-    public BasicSendChatCommandData parse(final JsonNode node) {
-        return BasicSendChatCommandData.parse(node);
+    public BasicSendChatCommandData parse(final JsonParser parser) {
+        return BasicSendChatCommandData.parse(parser);
     }
 
     /**
@@ -204,16 +209,20 @@ public class BasicSendChatCommand {
         BasicGameUserState user = ((RecvChatInvokeContext) context).getSender();
         String message = ((RecvChatInvokeContext) context).getMessage();
 
+        final List<UdpClient> recipients = new ArrayList<>();
         for (GameUserState userState : game.getConnectedUsers().values()) {
             if (userState != user)
-                userState.getClient().send(
-                    OutgoingMessage.newBuilder()
-                    .setKey(handler)
-                    .success()
-                    .randomMessageId()
-                    .data(new BasicRecvChatCommandData(message, user.getUser().id()))
-                    .build());
+                recipients.add(userState.getClient());
         }
+
+        handler.broadcast(
+            recipients,
+            OutgoingMessage.newBuilder()
+            .setKey(handler)
+            .success()
+            .reliable()
+            .data(new BasicRecvChatCommandData(message, user.getUser().id()))
+            .build());
     }
 
     /**
@@ -227,15 +236,19 @@ public class BasicSendChatCommand {
         GameState game = ((RecvSystemMessageInvokeContext) context).getGameState();
         String message = ((RecvSystemMessageInvokeContext) context).getMessage();
 
+        final List<UdpClient> recipients = new ArrayList<>();
         for (GameUserState userState : game.getConnectedUsers().values()) {
-            userState.getClient().send(
-                OutgoingMessage.newBuilder()
-                .setKey(handler)
-                .success()
-                .randomMessageId()
-                .data(new BasicRecvSystemMessageCommandData(message))
-                .build());
+            recipients.add(userState.getClient());
         }
+
+        handler.broadcast(
+            recipients,
+            OutgoingMessage.newBuilder()
+            .setKey(handler)
+            .success()
+            .reliable()
+            .data(new BasicRecvSystemMessageCommandData(message))
+            .build());
     }
 
     /**
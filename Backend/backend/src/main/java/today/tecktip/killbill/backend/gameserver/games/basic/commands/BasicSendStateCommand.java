@@ -7,8 +7,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 import today.tecktip.killbill.backend.gameserver.SpringMessageHandler;
@@ -49,11 +48,6 @@ public class BasicSendStateCommand {
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(BasicSendStateCommand.class);
 
-    /**
-     * JSON deserializer
-     */
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     @JsonSerialize
     public static class BasicSendStateCommandData extends MessageData {
         /**
@@ -66,12 +60,12 @@ public class BasicSendStateCommand {
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.COMMAND_SEND_STATE)
-    public BasicSendStateCommandData parse(final JsonNode node) {
-        return MAPPER.convertValue(node, BasicSendStateCommandData.class);
+    public BasicSendStateCommandData parse(final JsonParser parser) {
+        return MessageData.read(parser, BasicSendStateCommandData.class);
     }
 
     /**
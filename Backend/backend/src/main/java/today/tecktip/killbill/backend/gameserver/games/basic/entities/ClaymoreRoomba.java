@@ -1,7 +1,5 @@
 package today.tecktip.killbill.backend.gameserver.games.basic.entities;
 
-import java.util.List;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,6 +11,7 @@ import today.tecktip.killbill.backend.gameserver.games.basic.BasicGameUserState;
 import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicBombCommand.BasicBombCommandData;
 import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicBombCommand.BombType;
 import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicBombCommand.RecvBombContext;
+import today.tecktip.killbill.backend.gameserver.map.PathCache;
 import today.tecktip.killbill.common.exceptions.MessageFailure;
 import today.tecktip.killbill.common.gameserver.data.Coordinates;
 import today.tecktip.killbill.common.gameserver.data.TileCoordinates;
@@ -37,11 +36,24 @@ public class ClaymoreRoomba extends BasicEntityState {
 
     private TileCoordinates pathfindingTo;
 
+    /**
+     * Route to the player being chased
+     */
+    private final PathCache pathCache = new PathCache();
+
     public ClaymoreRoomba(int id, int rotation, BasicGameState parent, Coordinates spawnPoint) {
         super(id, parent, EntityType.CLAYMORE_ROOMBA, spawnPoint, rotation, 2, null);
         pathfindingTo = null;
     }
 
+    /**
+     * Gets the cached route to the player being chased, for its hit and miss counts.
+     * @return Path cache
+     */
+    public PathCache getPathCache() {
+        return pathCache;
+    }
+
     @Override
     public boolean onTick(float delta) {
         // If we're already heading somewhere, keep doing that
@@ -123,16 +135,17 @@ public class ClaymoreRoomba extends BasicEntityState {
             }
 
             if (closestPlayer != null) {
-                // Find a path
-                List<TileCoordinates> path = parent.getPathfindingGrid().bestPath(
+                // Keep following the route to them, unless they've moved off the tile it leads to
+                final TileCoordinates next = pathCache.nextTile(
+                    parent.getPathfindingGrid(),
                     (int) (getCoordinates().x()), 
                     (int) (getCoordinates().y()),
                     (int) (closestPlayer.getCoordinates().x()),
                     (int) (closestPlayer.getCoordinates().y())
-                ); 
+                );
 
-                if (path != null && path.size() != 0) {
-                    pathfindingTo = parent.getPathfindingGrid().nextTile(new TileCoordinates((int) (getCoordinates().x()), (int) (getCoordinates().y())), path);
+                if (next != null) {
+                    pathfindingTo = next;
                 } 
             } else {
                 if (getState() != 0) {
@@ -142,7 +155,6 @@ public class ClaymoreRoomba extends BasicEntityState {
             }
         }
 
-        sync();
         return false;
     }
 }
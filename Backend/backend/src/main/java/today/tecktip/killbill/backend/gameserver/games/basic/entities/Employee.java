@@ -14,6 +14,7 @@ import today.tecktip.killbill.backend.gameserver.games.basic.BasicGameUserState;
 import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicRecvPlayerStateCommand.PlayerStateFieldFilter;
 import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicRecvPlayerStateCommand.RecvPlayerStateInvokeContext;
 import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicSendChatCommand.RecvSystemMessageInvokeContext;
+import today.tecktip.killbill.backend.gameserver.map.PathCache;
 import today.tecktip.killbill.common.exceptions.MessageFailure;
 import today.tecktip.killbill.common.gameserver.data.Coordinates;
 import today.tecktip.killbill.common.gameserver.data.TileCoordinates;
@@ -43,6 +44,11 @@ public class Employee extends BasicEntityState {
     public static float ATTACK_COOLDOWN_SECONDS = 1.5f;
 
     private TileCoordinates pathfindingTo;
+
+    /**
+     * Route to the player being chased
+     */
+    private final PathCache pathCache = new PathCache();
     private float attackCooldown;
 
     public Employee(int id, int rotation, BasicGameState parent, Coordinates spawnPoint) {
@@ -53,6 +59,14 @@ public class Employee extends BasicEntityState {
         attackCooldown = -1;
     }
 
+    /**
+     * Gets the cached route to the player being chased, for its hit and miss counts.
+     * @return Path cache
+     */
+    public PathCache getPathCache() {
+        return pathCache;
+    }
+
     @Override
     public boolean onTick(float delta) {
         if (attackCooldown > 0) {
@@ -162,16 +176,17 @@ public class Employee extends BasicEntityState {
             }
 
             if (closestPlayer != null) {
-                // Find a path
-                List<TileCoordinates> path = parent.getPathfindingGrid().bestPath(
+                // Keep following the route to them, unless they've moved off the tile it leads to
+                final TileCoordinates next = pathCache.nextTile(
+                    parent.getPathfindingGrid(),
                     (int) (getCoordinates().x()), 
                     (int) (getCoordinates().y()),
                     (int) (closestPlayer.getCoordinates().x()),
                     (int) (closestPlayer.getCoordinates().y())
-                ); 
+                );
 
-                if (path != null && path.size() != 0) {
-                    pathfindingTo = parent.getPathfindingGrid().nextTile(new TileCoordinates((int) (getCoordinates().x()), (int) (getCoordinates().y())), path);
+                if (next != null) {
+                    pathfindingTo = next;
                 } 
             } else {
                 if (getState() != 0) {
@@ -181,7 +196,6 @@ public class Employee extends BasicEntityState {
             }
         }
 
-        sync();
         return false;
     }
 }
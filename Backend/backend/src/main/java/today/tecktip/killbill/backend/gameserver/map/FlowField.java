@@ -0,0 +1,185 @@
+package today.tecktip.killbill.backend.gameserver.map;
+
+import java.util.Arrays;
+
+/**
+ * Distance from every tile on a {@link PathfindingGrid} to one target tile, found with a
+ *  breadth-first search out from the target.
+ * <p>
+ * Once built, anything chasing the target steers by stepping to whichever neighbour is closer,
+ *  so one search serves every entity heading the same way. Get fields from
+ *  {@link PathfindingGrid#flowField(int, int)}, which keeps them until their target moves.
+ * <p>
+ * Not thread safe.
+ * @author cs
+ */
+public class FlowField {
+    /**
+     * Distance of tiles the target can't be reached from
+     */
+    public static final int UNREACHABLE = -1;
+
+    /**
+     * Solid tiles, shared with the grid
+     */
+    private final boolean[][] grid;
+
+    /**
+     * Lowest X tile on the grid
+     */
+    private final int xOffset;
+
+    /**
+     * Lowest Y tile on the grid
+     */
+    private final int yOffset;
+
+    /**
+     * Steps from each node to the target, or {@link #UNREACHABLE}
+     */
+    private final int[] distances;
+
+    /**
+     * Target node
+     */
+    private int target;
+
+    /**
+     * Grid use count when this field was last asked for, for evicting the least recently used
+     */
+    long lastUsed;
+
+    /**
+     * Constructs a new field with no target. Call {@link #retarget(int, int[])} before using it.
+     * @param grid Solid tiles of the grid
+     * @param xOffset Lowest X tile on the grid
+     * @param yOffset Lowest Y tile on the grid
+     */
+    FlowField(final boolean[][] grid, final int xOffset, final int yOffset) {
+        this.grid = grid;
+        this.xOffset = xOffset;
+        this.yOffset = yOffset;
+        distances = new int[grid.length * grid[0].length];
+        target = -1;
+    }
+
+    /**
+     * Rebuilds the field for a new target.
+     * @param target Target node. Must be open.
+     * @param queue Scratch queue with room for every node
+     */
+    void retarget(final int target, final int[] queue) {
+        this.target = target;
+        Arrays.fill(distances, UNREACHABLE);
+
+        final int width = grid.length;
+        final int height = grid[0].length;
+        int head = 0;
+        int tail = 0;
+        distances[target] = 0;
+        queue[tail++] = target;
+
+        while (head < tail) {
+            final int current = queue[head++];
+            final int x = current / height;
+            final int y = current % height;
+            final int next = distances[current] + 1;
+
+            if (y + 1 < height && !grid[x][y + 1] && distances[current + 1] == UNREACHABLE) {
+                distances[current + 1] = next;
+                queue[tail++] = current + 1;
+            }
+            if (y > 0 && !grid[x][y - 1] && distances[current - 1] == UNREACHABLE) {
+                distances[current - 1] = next;
+                queue[tail++] = current - 1;
+            }
+            if (x + 1 < width && !grid[x + 1][y] && distances[current + height] == UNREACHABLE) {
+                distances[current + height] = next;
+                queue[tail++] = current + height;
+            }
+            if (x > 0 && !grid[x - 1][y] && distances[current - height] == UNREACHABLE) {
+                distances[current - height] = next;
+                queue[tail++] = current - height;
+            }
+        }
+    }
+
+    /**
+     * Gets the target node.
+     * @return Node index
+     */
+    int getTarget() {
+        return target;
+    }
+
+    /**
+     * Gets the target tile's X coordinate.
+     * @return Tile X
+     */
+    public int getTargetX() {
+        return target / grid[0].length + xOffset;
+    }
+
+    /**
+     * Gets the target tile's Y coordinate.
+     * @return Tile Y
+     */
+    public int getTargetY() {
+        return target % grid[0].length + yOffset;
+    }
+
+    /**
+     * Gets the number of steps from a tile to the target.
+     * @param x Tile X
+     * @param y Tile Y
+     * @return Steps, or {@link #UNREACHABLE} if the target can't be reached from there
+     */
+    public int distanceFrom(final int x, final int y) {
+        final int gridX = x - xOffset;
+        final int gridY = y - yOffset;
+        if (gridX < 0 || gridY < 0 || gridX >= grid.length || gridY >= grid[0].length) return UNREACHABLE;
+        return distances[gridX * grid[0].length + gridY];
+    }
+
+    /**
+     * Follows the field downhill from a tile. The steps are a shortest path to the target.
+     * @param x Starting tile X
+     * @param y Starting tile Y
+     * @param maxSteps Most steps to write
+     * @param out Filled with up to {@code maxSteps} tiles, leaving out the start. Empty if already
+     *  at the target, or if the target can't be reached.
+     * @return True if the target can be reached
+     */
+    public boolean pathFrom(final int x, final int y, final int maxSteps, final PathBuffer out) {
+        out.clear();
+        final int distance = distanceFrom(x, y);
+        if (distance == UNREACHABLE) return false;
+
+        final int height = grid[0].length;
+        final int steps = Math.min(distance, maxSteps);
+        out.resize(steps);
+
+        int node = (x - xOffset) * height + (y - yOffset);
+        for (int i = 0; i < steps; i++) {
+            node = downhill(node, height);
+            out.set(i, node / height + xOffset, node % height + yOffset);
+        }
+        return true;
+    }
+
+    /**
+     * Finds a neighbour one step closer to the target, trying them in the same order A* does.
+     * @param node Node that isn't the target
+     * @param height Grid height
+     * @return Neighbour node
+     */
+    private int downhill(final int node, final int height) {
+        final int want = distances[node] - 1;
+        final int y = node % height;
+        if (y + 1 < height && distances[node + 1] == want) return node + 1;
+        if (y > 0 && distances[node - 1] == want) return node - 1;
+        if (node + height < distances.length && distances[node + height] == want) return node + height;
+        // Every reachable node but the target has a neighbour one closer
+        return node - height;
+    }
+}
@@ -0,0 +1,128 @@
+package today.tecktip.killbill.backend.gameserver.map;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import today.tecktip.killbill.common.gameserver.data.Coordinates;
+
+/**
+ * Buckets objects into square cells over a map's bounds so the ones near a point can be found
+ *  without checking every object.
+ * <p>
+ * Distances are measured in cells: two points are within a radius of 1 if their cells touch, including
+ *  diagonally. Points off the edge of the map are clamped into the outermost cells.
+ * @param <T> Object type
+ * @author cs
+ */
+public class InterestGrid<T> {
+    /**
+     * Width and height of each cell in tiles
+     */
+    private final int cellSize;
+
+    /**
+     * Lowest X tile covered by the grid
+     */
+    private final int minX;
+
+    /**
+     * Lowest Y tile covered by the grid
+     */
+    private final int minY;
+
+    /**
+     * Number of cells along the X axis
+     */
+    private final int width;
+
+    /**
+     * Number of cells along the Y axis
+     */
+    private final int height;
+
+    /**
+     * Objects in each cell, by {@code x * height + y}. Cells are only allocated once something is added.
+     */
+    private final List<List<T>> cells;
+
+    /**
+     * Constructs a new, empty grid covering the same tiles as a pathfinding grid.
+     * @param bounds Pathfinding grid for the map
+     * @param cellSize Width and height of each cell in tiles
+     */
+    public InterestGrid(final PathfindingGrid bounds, final int cellSize) {
+        this.cellSize = cellSize;
+        minX = bounds.getMinX();
+        minY = bounds.getMinY();
+        width = Math.max(1, Math.ceilDiv(bounds.getWidth(), cellSize));
+        height = Math.max(1, Math.ceilDiv(bounds.getHeight(), cellSize));
+
+        cells = new ArrayList<>(width * height);
+        for (int i = 0; i < width * height; i++) cells.add(null);
+    }
+
+    /**
+     * Adds an object to the grid.
+     * @param value Object to add
+     * @param coordinates Object's coordinates
+     */
+    public void add(final T value, final Coordinates coordinates) {
+        final int index = cellX(coordinates.x()) * height + cellY(coordinates.y());
+        List<T> cell = cells.get(index);
+        if (cell == null) {
+            cell = new ArrayList<>();
+            cells.set(index, cell);
+        }
+        cell.add(value);
+    }
+
+    /**
+     * Runs an action on every object within some number of cells of a point.
+     * @param center Point to search around
+     * @param radius Radius in cells
+     * @param action Action to run on each object
+     */
+    public void forEachNear(final Coordinates center, final int radius, final Consumer<T> action) {
+        final int cx = cellX(center.x());
+        final int cy = cellY(center.y());
+
+        for (int x = Math.max(0, cx - radius); x <= Math.min(width - 1, cx + radius); x++) {
+            for (int y = Math.max(0, cy - radius); y <= Math.min(height - 1, cy + radius); y++) {
+                final List<T> cell = cells.get(x * height + y);
+                if (cell == null) continue;
+                for (final T value : cell) action.accept(value);
+            }
+        }
+    }
+
+    /**
+     * Checks if a point is within some number of cells of another.
+     * @param center Point to measure from
+     * @param point Point to check
+     * @param radius Radius in cells
+     * @return True if the point is close enough
+     */
+    public boolean isNear(final Coordinates center, final Coordinates point, final int radius) {
+        return Math.abs(cellX(center.x()) - cellX(point.x())) <= radius
+            && Math.abs(cellY(center.y()) - cellY(point.y())) <= radius;
+    }
+
+    /**
+     * Gets the cell column holding an X coordinate.
+     * @param x X coordinate
+     * @return Cell column
+     */
+    private int cellX(final double x) {
+        return Math.clamp(Math.floorDiv((int) Math.floor(x) - minX, cellSize), 0, width - 1);
+    }
+
+    /**
+     * Gets the cell row holding a Y coordinate.
+     * @param y Y coordinate
+     * @return Cell row
+     */
+    private int cellY(final double y) {
+        return Math.clamp(Math.floorDiv((int) Math.floor(y) - minY, cellSize), 0, height - 1);
+    }
+}
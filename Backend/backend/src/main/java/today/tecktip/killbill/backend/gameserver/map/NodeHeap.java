@@ -0,0 +1,110 @@
+package today.tecktip.killbill.backend.gameserver.map;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of grid nodes keyed by priority, stored in a flat {@code long[]}.
+ * <p>
+ * Each entry packs its priority into the high 32 bits and its node index into the low 32 bits,
+ *  so comparing entries compares priorities, then node indices. There's no decrease-key: push
+ *  the node again and skip stale entries when they're popped.
+ * <p>
+ * The backing array only grows, so a heap reused across searches stops allocating once it has
+ *  seen its largest search. Not thread safe.
+ * @author cs
+ */
+public class NodeHeap {
+    /**
+     * Heap-ordered entries
+     */
+    private long[] entries;
+
+    /**
+     * Number of entries in use
+     */
+    private int size;
+
+    /**
+     * Constructs a new, empty heap.
+     * @param initialCapacity Entries to make room for up front
+     */
+    public NodeHeap(final int initialCapacity) {
+        entries = new long[Math.max(initialCapacity, 16)];
+        size = 0;
+    }
+
+    /**
+     * Adds a node.
+     * @param priority Priority. Must not be negative. Lower is popped first.
+     * @param node Node index. Must not be negative.
+     */
+    public void push(final int priority, final int node) {
+        if (size == entries.length) entries = Arrays.copyOf(entries, size * 2);
+
+        final long entry = ((long) priority << 32) | node;
+        int i = size++;
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (entries[parent] <= entry) break;
+            entries[i] = entries[parent];
+            i = parent;
+        }
+        entries[i] = entry;
+    }
+
+    /**
+     * Removes the entry with the lowest priority.
+     * @return Packed entry. Read it with {@link #priorityOf(long)} and {@link #nodeOf(long)}.
+     * @throws IllegalStateException The heap is empty
+     */
+    public long pop() {
+        if (size == 0) throw new IllegalStateException("Heap is empty.");
+
+        final long top = entries[0];
+        final long last = entries[--size];
+        int i = 0;
+        final int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && entries[child + 1] < entries[child]) child++;
+            if (last <= entries[child]) break;
+            entries[i] = entries[child];
+            i = child;
+        }
+        entries[i] = last;
+        return top;
+    }
+
+    /**
+     * Checks if there are no entries left.
+     * @return True if empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes every entry, keeping the backing array.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Gets the priority of a popped entry.
+     * @param entry Entry from {@link #pop()}
+     * @return Priority
+     */
+    public static int priorityOf(final long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    /**
+     * Gets the node index of a popped entry.
+     * @param entry Entry from {@link #pop()}
+     * @return Node index
+     */
+    public static int nodeOf(final long entry) {
+        return (int) entry;
+    }
+}
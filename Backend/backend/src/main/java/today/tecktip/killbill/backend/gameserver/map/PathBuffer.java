@@ -0,0 +1,126 @@
+package today.tecktip.killbill.backend.gameserver.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import today.tecktip.killbill.common.gameserver.data.TileCoordinates;
+
+/**
+ * A reusable path of tiles, stored as flat coordinate arrays.
+ * <p>
+ * Paths are written by {@link PathfindingGrid#bestPath(int, int, int, int, PathBuffer)}. They
+ *  leave out the starting tile and end on the target. The arrays only grow, so a buffer kept by
+ *  its caller stops allocating once it has held its longest path.
+ * @author cs
+ */
+public class PathBuffer {
+    /**
+     * X coordinate of each step
+     */
+    private int[] xs;
+
+    /**
+     * Y coordinate of each step
+     */
+    private int[] ys;
+
+    /**
+     * Number of steps in the path
+     */
+    private int size;
+
+    /**
+     * Constructs a new, empty path buffer.
+     */
+    public PathBuffer() {
+        xs = new int[32];
+        ys = new int[32];
+        size = 0;
+    }
+
+    /**
+     * Gets the number of steps in the path.
+     * @return Step count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks if the path has no steps.
+     * @return True if empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets the X coordinate of a step.
+     * @param i Step index
+     * @return Tile X
+     */
+    public int getX(final int i) {
+        return xs[Objects.checkIndex(i, size)];
+    }
+
+    /**
+     * Gets the Y coordinate of a step.
+     * @param i Step index
+     * @return Tile Y
+     */
+    public int getY(final int i) {
+        return ys[Objects.checkIndex(i, size)];
+    }
+
+    /**
+     * Gets a step as tile coordinates.
+     * @param i Step index
+     * @return Tile
+     */
+    public TileCoordinates get(final int i) {
+        return new TileCoordinates(getX(i), getY(i));
+    }
+
+    /**
+     * Copies the path into a new list.
+     * @return List of steps
+     */
+    public List<TileCoordinates> toList() {
+        final List<TileCoordinates> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) list.add(new TileCoordinates(xs[i], ys[i]));
+        return list;
+    }
+
+    /**
+     * Empties the path.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Resizes the path, so steps can be written in any order with {@link #set(int, int, int)}.
+     * @param newSize Number of steps
+     */
+    void resize(final int newSize) {
+        if (newSize > xs.length) {
+            final int capacity = Math.max(newSize, xs.length * 2);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+        }
+        size = newSize;
+    }
+
+    /**
+     * Sets a step.
+     * @param i Step index. Must be under the size.
+     * @param x Tile X
+     * @param y Tile Y
+     */
+    void set(final int i, final int x, final int y) {
+        xs[i] = x;
+        ys[i] = y;
+    }
+}
@@ -0,0 +1,148 @@
+package today.tecktip.killbill.backend.gameserver.map;
+
+import today.tecktip.killbill.common.gameserver.data.TileCoordinates;
+
+/**
+ * Keeps one entity's whole route to its target between steps.
+ * <p>
+ * Entities walk a tile or two at a time. Rather than planning again every time they reach a tile,
+ *  they keep following the cached route until it stops being good: the target leaves the tile it
+ *  was planned to, the entity ends up somewhere off the route, or the next tile on it is blocked.
+ * <p>
+ * Not thread safe.
+ * @author cs
+ */
+public class PathCache {
+    /**
+     * Cached route, leaving out the tile it was planned from
+     */
+    private final PathBuffer path;
+
+    /**
+     * Index of the next step along the route
+     */
+    private int next;
+
+    /**
+     * True if the route can be followed
+     */
+    private boolean valid;
+
+    /**
+     * Target tile X the route leads to
+     */
+    private int targetX;
+
+    /**
+     * Target tile Y the route leads to
+     */
+    private int targetY;
+
+    /**
+     * Tile X the entity should be on when it next asks
+     */
+    private int atX;
+
+    /**
+     * Tile Y the entity should be on when it next asks
+     */
+    private int atY;
+
+    /**
+     * Steps served from the cached route
+     */
+    private long hits;
+
+    /**
+     * Steps that needed a new route
+     */
+    private long misses;
+
+    /**
+     * Constructs a new, empty path cache.
+     */
+    public PathCache() {
+        path = new PathBuffer();
+        valid = false;
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * Gets the next tile to walk to toward a target, planning a new route only if the cached one is stale.
+     * @param grid Grid to plan on
+     * @param fromX Current tile X
+     * @param fromY Current tile Y
+     * @param toX Target tile X
+     * @param toY Target tile Y
+     * @return Tile to head to, or null if already there or there's no way there
+     */
+    public TileCoordinates nextTile(final PathfindingGrid grid, final int fromX, final int fromY, final int toX, final int toY) {
+        if (isCurrent(grid, fromX, fromY, toX, toY)) {
+            hits++;
+        } else {
+            misses++;
+            if (!plan(grid, fromX, fromY, toX, toY)) return null;
+        }
+
+        // Already at the target
+        final int steps = grid.stepsToTake(fromX, fromY, path, next);
+        if (steps == 0) return null;
+
+        next += steps;
+        atX = path.getX(next - 1);
+        atY = path.getY(next - 1);
+        return new TileCoordinates(atX, atY);
+    }
+
+    /**
+     * Gets the number of steps served from a cached route.
+     * @return Cache hits
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of steps that needed a new route.
+     * @return Cache misses
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Checks if the cached route still leads from where the entity is to where the target is.
+     * @param grid Grid the route was planned on
+     * @param fromX Current tile X
+     * @param fromY Current tile Y
+     * @param toX Target tile X
+     * @param toY Target tile Y
+     * @return True if the route can be followed
+     */
+    private boolean isCurrent(final PathfindingGrid grid, final int fromX, final int fromY, final int toX, final int toY) {
+        return valid
+            && toX == targetX && toY == targetY
+            && fromX == atX && fromY == atY
+            && (next == path.size() || grid.isOpen(path.getX(next), path.getY(next)));
+    }
+
+    /**
+     * Plans a new route with {@link PathfindingGrid#route}.
+     * @param grid Grid to plan on
+     * @param fromX Current tile X
+     * @param fromY Current tile Y
+     * @param toX Target tile X
+     * @param toY Target tile Y
+     * @return True if the target can be reached
+     */
+    private boolean plan(final PathfindingGrid grid, final int fromX, final int fromY, final int toX, final int toY) {
+        valid = grid.route(fromX, fromY, toX, toY, path);
+        next = 0;
+        targetX = toX;
+        targetY = toY;
+        atX = fromX;
+        atY = fromY;
+        return valid;
+    }
+}
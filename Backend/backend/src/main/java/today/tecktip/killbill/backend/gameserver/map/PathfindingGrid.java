@@ -1,12 +1,8 @@
 package today.tecktip.killbill.backend.gameserver.map;
 
-import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
 
 import today.tecktip.killbill.common.gameserver.data.Coordinates;
 import today.tecktip.killbill.common.gameserver.data.TileCoordinates;
@@ -20,22 +16,144 @@ import today.tecktip.killbill.common.maploader.directives.TileDirective;
 
 /**
  * Runs the A* pathfinding algorithm on a loaded map.
- * 
- * I strongly suggest you don't read this one.
+ * <p>
+ * Searches run over flat node indices ({@code x * height + y}) rather than coordinate objects.
+ *  Costs and parents live in arrays that are reused across searches: each search bumps a generation
+ *  number, and a node's entries only count if its stamp matches. Once warmed up, a search into a
+ *  {@link PathBuffer} allocates nothing.
+ * <p>
+ * Searches run jump point search, which expands fewer nodes and runs faster than A* once compiled on
+ *  the shipped maps. Plain A* can still be set with {@link #setSearchStrategy(SearchStrategy)}.
+ * <p>
+ * Long searches between rooms go through a {@link RoomGraph} built when the map loads: a search
+ *  across the room-to-room portal graph, then short searches between the portals it picks.
+ * <p>
+ * Entities chasing players plan with {@link #route}, which shares {@link FlowField}s between chasers:
+ *  one search out from each target tile, kept until the target moves, which every chaser reads its
+ *  next step from. A lone chaser far from its target searches on its own instead.
+ * <p>
+ * Not thread safe. Each game only pathfinds from its own tick.
  * @author cs
  */
 public class PathfindingGrid {
-    private static final TileCoordinates[] NEIGHBORS = new TileCoordinates[] {new TileCoordinates(0, 1), new TileCoordinates(0, -1), new TileCoordinates(1, 0), new TileCoordinates(-1, 0)}; 
-    private static final CostComparator COST_COMPARATOR = new CostComparator();
+    /**
+     * X steps to each neighbour, in the order they're tried
+     */
+    private static final int[] NEIGHBOR_DX = new int[] {0, 0, 1, -1};
+
+    /**
+     * Y steps to each neighbour, in the order they're tried
+     */
+    private static final int[] NEIGHBOR_DY = new int[] {1, -1, 0, 0};
+
+    /**
+     * Flow fields kept at once. Comfortably more than the players in a game, so fields are only
+     *  rebuilt when their target moves.
+     */
+    private static final int FLOW_FIELD_CACHE_SIZE = 8;
+
+    /**
+     * Shortest distance, in steps ignoring walls, for a search between rooms to use the {@link RoomGraph}.
+     *  Anything closer is quicker to search directly.
+     */
+    private static final int ROOM_GRAPH_MIN_DISTANCE = 32;
+
+    /**
+     * Targets remembered as already searched toward without a flow field
+     */
+    private static final int SEARCHED_TARGETS = 8;
+
     private boolean[][] grid;
     private int xOffset;
     private int yOffset;
 
+    /**
+     * Generation each node's search state was last written in
+     */
+    private int[] stamps;
+
+    /**
+     * Cost from the start to each node, valid when its stamp is current
+     */
+    private int[] costs;
+
+    /**
+     * Node each node was reached from, valid when its stamp is current
+     */
+    private int[] parents;
+
+    /**
+     * Current search generation
+     */
+    private int generation;
+
+    /**
+     * Open set of the current search
+     */
+    private NodeHeap open;
+
+    /**
+     * Path written by the list-returning {@link #bestPath(int, int, int, int)}
+     */
+    private PathBuffer listPath;
+
+    /**
+     * Recently used flow fields. Slots are filled as needed, then reused for new targets.
+     */
+    private FlowField[] flowFields;
+
+    /**
+     * Breadth-first search queue for building flow fields
+     */
+    private int[] flowQueue;
+
+    /**
+     * Number of times a flow field has been asked for
+     */
+    private long flowFieldUses;
+
+    /**
+     * Number of times a flow field had to be built
+     */
+    private long flowFieldBuilds;
+
+    /**
+     * Targets recently searched toward without a flow field, or -1. Replaced oldest first.
+     */
+    private int[] searchedTargets;
+
+    /**
+     * Slot in {@link #searchedTargets} replaced next
+     */
+    private int searchedNext;
+
+    /**
+     * Number of routes searched on their own rather than read from a flow field
+     */
+    private long routeSearches;
+
+    /**
+     * Portal graph between rooms, for long searches
+     */
+    private RoomGraph roomGraph;
+
+    /**
+     * Nodes expanded by the last call to {@link #bestPath(int, int, int, int, PathBuffer)}
+     */
+    private int lastExpansions;
+
+    /**
+     * How searches are run
+     */
+    private SearchStrategy strategy;
+
     public PathfindingGrid(final KillBillMap map) {
         final List<TileCoordinates> objects = new ArrayList<TileCoordinates>();
+        final List<RoomDirective> rooms = new ArrayList<RoomDirective>();
         for (final MapDirective d : map.getDirectives()) {
             if (d instanceof RoomDirective) {
                 RoomDirective r = (RoomDirective) d;
+                rooms.add(r);
 
                 // Walls surrounding it, except for exclusions.
                 // y = 1
@@ -48,7 +166,7 @@ public class PathfindingGrid {
                         objects.add(new TileCoordinates(x, r.getLocation().y()));
                     }
                     if (!isExcluded(x, r.getLocation().y() + r.getSize().y() - 1, r)) {
-                        objects.add(new TileCoordinates(x, r.getLocation().y() - 1));
+                        objects.add(new TileCoordinates(x, r.getLocation().y() + r.getSize().y() - 1));
                     }
                 }
 
@@ -112,67 +230,536 @@ public class PathfindingGrid {
         for (final TileCoordinates c : objects) {
             grid[c.x() - xOffset][c.y() - yOffset] = true;
         }
+
+        final int nodes = grid.length * grid[0].length;
+        stamps = new int[nodes];
+        costs = new int[nodes];
+        parents = new int[nodes];
+        generation = 0;
+        open = new NodeHeap(Math.min(nodes, 1024));
+        listPath = new PathBuffer();
+        flowFields = new FlowField[FLOW_FIELD_CACHE_SIZE];
+        flowQueue = new int[nodes];
+        searchedTargets = new int[SEARCHED_TARGETS];
+        Arrays.fill(searchedTargets, -1);
+        roomGraph = new RoomGraph(grid, xOffset, yOffset, rooms);
+        strategy = SearchStrategy.JUMP_POINT;
     }
 
+    /**
+     * Finds a path between two tiles, as {@link #bestPath(int, int, int, int, PathBuffer)} does.
+     * @param fromX Starting tile X
+     * @param fromY Starting tile Y
+     * @param toX Target tile X
+     * @param toY Target tile Y
+     * @return Tiles to walk through, leaving out the start and ending on the target. Empty if already there, or null if there's no path.
+     */
     public List<TileCoordinates> bestPath(final int fromX, final int fromY, final int toX, final int toY) {
-        final Map<TileCoordinates, TileCoordinates> path = new HashMap<>();
-        final Map<TileCoordinates, Integer> cost = new HashMap<>();
+        if (!bestPath(fromX, fromY, toX, toY, listPath)) return null;
+        return listPath.toList();
+    }
 
-        final PriorityQueue<SimpleEntry<TileCoordinates, Integer>> frontier = new PriorityQueue<>(10, COST_COMPARATOR);
-        
-        final TileCoordinates start = new TileCoordinates(fromX - xOffset, fromY - yOffset);
-        final TileCoordinates end = new TileCoordinates(toX - xOffset, toY - yOffset);
+    /**
+     * Finds a path between two tiles without allocating. It's the shortest path unless the tiles are
+     *  far apart in different rooms, where it can be a few steps longer.
+     * @param fromX Starting tile X
+     * @param fromY Starting tile Y
+     * @param toX Target tile X
+     * @param toY Target tile Y
+     * @param out Filled with the tiles to walk through, leaving out the start and ending on the target.
+     *  Empty if already there, or if there's no path.
+     * @return True if a path was found
+     */
+    public boolean bestPath(final int fromX, final int fromY, final int toX, final int toY, final PathBuffer out) {
+        out.clear();
+        final int startX = fromX - xOffset;
+        final int startY = fromY - yOffset;
+        final int endX = toX - xOffset;
+        final int endY = toY - yOffset;
+
+        // Off the map, or into a wall, which would otherwise search every reachable tile first
+        if (!inBounds(startX, startY) || !inBounds(endX, endY) || grid[endX][endY]) return false;
+
+        final int height = grid[0].length;
+        final int start = startX * height + startY;
+        final int end = endX * height + endY;
+        lastExpansions = 0;
+
+        // Far apart and in different rooms: plan across the portal graph, then fill in between portals
+        if (isLongSearch(startX, startY, endX, endY)) {
+            final int waypoints = roomGraph.route(start, end);
+            lastExpansions += roomGraph.getExpansions();
+            if (waypoints == 0) return false;
+
+            for (int i = 1; i < waypoints; i++) {
+                // Waypoints are always connected, but fall back to a direct search rather than trust it
+                if (!search(roomGraph.getWaypoint(i - 1), roomGraph.getWaypoint(i), out)) break;
+                if (i == waypoints - 1) return true;
+            }
+            out.clear();
+        }
 
-        frontier.add(new SimpleEntry<>(start, 0));
+        return search(start, end, out);
+    }
 
-        path.put(start, start);
-        cost.put(start, 0);
+    /**
+     * Checks if a search between two tiles goes through the {@link RoomGraph}: they're far apart, in
+     *  different rooms, and the start is open.
+     * @param startX Start grid X, in bounds
+     * @param startY Start grid Y, in bounds
+     * @param endX End grid X, in bounds and open
+     * @param endY End grid Y, in bounds and open
+     * @return True if it's a long search
+     */
+    private boolean isLongSearch(final int startX, final int startY, final int endX, final int endY) {
+        final int height = grid[0].length;
+        return Math.abs(endX - startX) + Math.abs(endY - startY) >= ROOM_GRAPH_MIN_DISTANCE
+            && !grid[startX][startY]
+            && !roomGraph.sameCluster(startX * height + startY, endX * height + endY);
+    }
 
-        while (!frontier.isEmpty()) {
-            TileCoordinates current = frontier.poll().getKey();
+    /**
+     * Plans a chaser's route to a target.
+     * <p>
+     * Building a flow field costs about as much as one long search, so one only pays off once a
+     *  target has more than one chaser. The first long route to a target with no field is searched on
+     *  its own with {@link #bestPath(int, int, int, int, PathBuffer)}. Asking again for the same target
+     *  tile, and every shorter route, reads a shared flow field instead.
+     * @param fromX Starting tile X
+     * @param fromY Starting tile Y
+     * @param toX Target tile X
+     * @param toY Target tile Y
+     * @param out Filled with the tiles to walk through, leaving out the start and ending on the target.
+     *  Empty if already there, or if there's no path.
+     * @return True if the target can be reached
+     */
+    public boolean route(final int fromX, final int fromY, final int toX, final int toY, final PathBuffer out) {
+        out.clear();
+        final int startX = fromX - xOffset;
+        final int startY = fromY - yOffset;
+        final int endX = toX - xOffset;
+        final int endY = toY - yOffset;
+        if (!inBounds(startX, startY) || !inBounds(endX, endY) || grid[endX][endY]) return false;
+
+        final int target = endX * grid[0].length + endY;
+        if (!hasFlowField(target) && isLongSearch(startX, startY, endX, endY) && !searchedBefore(target)) {
+            routeSearches++;
+            return bestPath(fromX, fromY, toX, toY, out);
+        }
 
-            if (current.x() == end.x() && current.y() == end.y()) {
-                // Found a path. Reconstruct it and return
-                final List<TileCoordinates> followedPath = new ArrayList<>();
-                TileCoordinates c = end;
-                while (!c.equals(start)) {
-                    followedPath.add(new TileCoordinates(c.x() + xOffset, c.y() + yOffset));
-                    c = path.get(c);
-                }
-                return followedPath.reversed();
-            }
+        final FlowField field = flowField(toX, toY);
+        return field != null && field.pathFrom(fromX, fromY, Integer.MAX_VALUE, out);
+    }
 
-            for (TileCoordinates c : NEIGHBORS) {
-                int newX = current.x() + c.x();
-                int newY = current.y() + c.y();
+    /**
+     * Checks if a flow field toward a node is kept, without counting it as used.
+     * @param target Target node
+     * @return True if there's a field for it
+     */
+    private boolean hasFlowField(final int target) {
+        for (final FlowField field : flowFields) {
+            if (field != null && field.getTarget() == target) return true;
+        }
+        return false;
+    }
 
-                // Invalid spot
-                if (newX >= grid.length || newY >= grid[0].length) continue;
+    /**
+     * Remembers a target searched toward without a flow field.
+     * @param target Target node
+     * @return True if it was already remembered
+     */
+    private boolean searchedBefore(final int target) {
+        for (final int searched : searchedTargets) {
+            if (searched == target) return true;
+        }
+        searchedTargets[searchedNext] = target;
+        searchedNext = (searchedNext + 1) % searchedTargets.length;
+        return false;
+    }
+
+    /**
+     * Gets the number of routes searched on their own rather than read from a flow field.
+     * @return Searches since the grid was made
+     */
+    public long getRouteSearches() {
+        return routeSearches;
+    }
+
+    /**
+     * Searches between two open nodes with the current strategy and appends the path to a buffer.
+     * @param start Start node
+     * @param end End node
+     * @param out Path to append to, leaving out the start and ending on the end
+     * @return True if a path was found
+     */
+    private boolean search(final int start, final int end, final PathBuffer out) {
+        if (strategy == SearchStrategy.JUMP_POINT) return jumpPointSearch(start, end, out);
+        return aStar(start, end, out);
+    }
 
-                if (grid[newX][newY]) continue;
+    /**
+     * Runs A* between two open nodes and appends the path to a buffer.
+     * @param start Start node
+     * @param end End node
+     * @param out Path to append to, leaving out the start and ending on the end
+     * @return True if a path was found
+     */
+    private boolean aStar(final int start, final int end, final PathBuffer out) {
+        final int height = grid[0].length;
+        final int endX = end / height;
+        final int endY = end % height;
+
+        nextGeneration();
+        open.clear();
+        stamps[start] = generation;
+        costs[start] = 0;
+        parents[start] = start;
+        open.push(Math.abs(endX - start / height) + Math.abs(endY - start % height), start);
+
+        while (!open.isEmpty()) {
+            final long entry = open.pop();
+            final int current = NodeHeap.nodeOf(entry);
+
+            if (current == end) {
+                writePath(start, end, out);
+                return true;
+            }
+
+            final int currentX = current / height;
+            final int currentY = current % height;
+            final int cost = costs[current];
+
+            // Pushed again since with a lower cost
+            if (NodeHeap.priorityOf(entry) > cost + Math.abs(endX - currentX) + Math.abs(endY - currentY)) continue;
+            lastExpansions++;
 
-                final TileCoordinates next = new TileCoordinates(newX, newY);
+            for (int i = 0; i < NEIGHBOR_DX.length; i++) {
+                final int newX = currentX + NEIGHBOR_DX[i];
+                final int newY = currentY + NEIGHBOR_DY[i];
 
-                int newCost = cost.get(current) + 1;
-                if (!cost.containsKey(next) || newCost < cost.get(next)) {
-                    cost.put(next, newCost);
-                    int priority = newCost + Math.abs(end.x() - next.x()) + Math.abs(end.y() - next.y());
-                    frontier.add(new SimpleEntry<>(next, priority));
-                    path.put(next, current);
+                // Invalid spot
+                if (!inBounds(newX, newY) || grid[newX][newY]) continue;
+
+                final int next = newX * height + newY;
+                final int newCost = cost + 1;
+                if (stamps[next] != generation || newCost < costs[next]) {
+                    stamps[next] = generation;
+                    costs[next] = newCost;
+                    parents[next] = current;
+                    open.push(newCost + Math.abs(endX - newX) + Math.abs(endY - newY), next);
                 }
             }
         }
 
         // No path :(
         // (this should not be possible unless we have a really badly designed map...)
-        return null;
+        return false;
     }
 
-    private static class CostComparator implements Comparator<SimpleEntry<TileCoordinates, Integer>> {
-        @Override
-        public int compare(SimpleEntry<TileCoordinates, Integer> x, SimpleEntry<TileCoordinates, Integer> y) {
-            return x.getValue() - y.getValue();
+    /**
+     * Runs jump point search between two open nodes and appends the path to a buffer.
+     * <p>
+     * Paths are kept to one canonical shape: a horizontal run may turn up or down anywhere, but a
+     *  vertical run only turns sideways where a wall behind it blocked the horizontal-first way
+     *  round. Vertical runs scan until they hit such a turn, and horizontal runs scan until a
+     *  vertical run from one of their tiles would. Only those jump points are expanded.
+     * @param start Start node
+     * @param end End node
+     * @param out Path to append to, leaving out the start and ending on the end
+     * @return True if a path was found
+     */
+    private boolean jumpPointSearch(final int start, final int end, final PathBuffer out) {
+        final int height = grid[0].length;
+        final int endX = end / height;
+        final int endY = end % height;
+
+        nextGeneration();
+        open.clear();
+        stamps[start] = generation;
+        costs[start] = 0;
+        parents[start] = start;
+        open.push(Math.abs(endX - start / height) + Math.abs(endY - start % height), start);
+
+        while (!open.isEmpty()) {
+            final long entry = open.pop();
+            final int current = NodeHeap.nodeOf(entry);
+
+            if (current == end) {
+                writePath(start, end, out);
+                return true;
+            }
+
+            final int currentX = current / height;
+            final int currentY = current % height;
+
+            // Pushed again since with a lower cost
+            if (NodeHeap.priorityOf(entry) > costs[current] + Math.abs(endX - currentX) + Math.abs(endY - currentY)) continue;
+            lastExpansions++;
+
+            // The start can go anywhere. Other jump points carry on the way they were reached.
+            final int parent = parents[current];
+            final int dx = Integer.signum(currentX - parent / height);
+            final int dy = Integer.signum(currentY - parent % height);
+            if (current == start || dx != 0) {
+                if (current == start) {
+                    jump(current, 1, 0, end);
+                    jump(current, -1, 0, end);
+                } else {
+                    jump(current, dx, 0, end);
+                }
+                jump(current, 0, 1, end);
+                jump(current, 0, -1, end);
+            } else {
+                jump(current, 0, dy, end);
+                if (turnsAt(currentX, currentY, 1, dy)) jump(current, 1, 0, end);
+                if (turnsAt(currentX, currentY, -1, dy)) jump(current, -1, 0, end);
+            }
         }
+
+        // No path
+        return false;
+    }
+
+    /**
+     * Scans from a jump point in one direction and queues the next jump point it finds.
+     * @param from Jump point node
+     * @param dx X direction, or 0
+     * @param dy Y direction, or 0
+     * @param end End node
+     */
+    private void jump(final int from, final int dx, final int dy, final int end) {
+        final int height = grid[0].length;
+        final int fromX = from / height;
+        final int fromY = from % height;
+        final int next = dx != 0 ? jumpHorizontal(fromX, fromY, dx, end) : jumpVertical(fromX, fromY, dy, end);
+        if (next == -1) return;
+
+        final int nextX = next / height;
+        final int nextY = next % height;
+        // Jumps are straight, so the distance is the cost
+        final int newCost = costs[from] + Math.abs(nextX - fromX) + Math.abs(nextY - fromY);
+        if (stamps[next] != generation || newCost < costs[next]) {
+            stamps[next] = generation;
+            costs[next] = newCost;
+            parents[next] = from;
+            open.push(newCost + Math.abs(end / height - nextX) + Math.abs(end % height - nextY), next);
+        }
+    }
+
+    /**
+     * Scans along a row for the next jump point: the end, or a tile a vertical scan finds one from.
+     * @param x Grid X to scan from
+     * @param y Grid Y of the row
+     * @param dx X direction
+     * @param end End node
+     * @return Jump point node, or -1 if the scan hit a wall first
+     */
+    private int jumpHorizontal(final int x, final int y, final int dx, final int end) {
+        final int height = grid[0].length;
+        for (int currentX = x + dx; inBounds(currentX, y) && !grid[currentX][y]; currentX += dx) {
+            final int node = currentX * height + y;
+            if (node == end) return node;
+            if (jumpVertical(currentX, y, 1, end) != -1 || jumpVertical(currentX, y, -1, end) != -1) return node;
+        }
+        return -1;
+    }
+
+    /**
+     * Scans along a column for the next jump point: the end, or a tile a path has to turn sideways at.
+     * @param x Grid X of the column
+     * @param y Grid Y to scan from
+     * @param dy Y direction
+     * @param end End node
+     * @return Jump point node, or -1 if the scan hit a wall first
+     */
+    private int jumpVertical(final int x, final int y, final int dy, final int end) {
+        final int height = grid[0].length;
+        for (int currentY = y + dy; inBounds(x, currentY) && !grid[x][currentY]; currentY += dy) {
+            final int node = x * height + currentY;
+            if (node == end) return node;
+            if (turnsAt(x, currentY, 1, dy) || turnsAt(x, currentY, -1, dy)) return node;
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if a vertical run has to turn sideways at a tile: the side tile is open, but the one
+     *  beside the run's previous tile isn't, so no horizontal-first path reaches it.
+     * @param x Grid X
+     * @param y Grid Y
+     * @param side X direction to turn
+     * @param dy Y direction of the run
+     * @return True if the turn is forced
+     */
+    private boolean turnsAt(final int x, final int y, final int side, final int dy) {
+        return inBounds(x + side, y) && !grid[x + side][y] && grid[x + side][y - dy];
+    }
+
+    /**
+     * Sets how searches are run. Paths are the same length either way.
+     * @param strategy Search strategy
+     */
+    public void setSearchStrategy(final SearchStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * Gets how searches are run.
+     * @return Search strategy
+     */
+    public SearchStrategy getSearchStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Gets the number of nodes the last search into a {@link PathBuffer} expanded, across every
+     *  search it took.
+     * @return Expansions
+     */
+    public int getLastExpansions() {
+        return lastExpansions;
+    }
+
+    /**
+     * Gets the portal graph used for long searches between rooms.
+     * @return Room graph
+     */
+    public RoomGraph getRoomGraph() {
+        return roomGraph;
+    }
+
+    /**
+     * Gets the flow field toward a tile, building it only if the tile isn't one of the recently used targets.
+     * @param toX Target tile X
+     * @param toY Target tile Y
+     * @return Flow field, or null if the target is solid or off the grid. Use it right away: it's rebuilt once enough other targets are asked for.
+     */
+    public FlowField flowField(final int toX, final int toY) {
+        final int endX = toX - xOffset;
+        final int endY = toY - yOffset;
+        if (!inBounds(endX, endY) || grid[endX][endY]) return null;
+
+        final int target = endX * grid[0].length + endY;
+        flowFieldUses++;
+
+        // Reuse a field for the same target, or else replace the least recently used one
+        int slot = 0;
+        for (int i = 0; i < flowFields.length; i++) {
+            final FlowField field = flowFields[i];
+            if (field == null) {
+                slot = i;
+                break;
+            }
+            if (field.getTarget() == target) {
+                field.lastUsed = flowFieldUses;
+                return field;
+            }
+            if (field.lastUsed < flowFields[slot].lastUsed) slot = i;
+        }
+
+        if (flowFields[slot] == null) flowFields[slot] = new FlowField(grid, xOffset, yOffset);
+        final FlowField field = flowFields[slot];
+        field.retarget(target, flowQueue);
+        field.lastUsed = flowFieldUses;
+        flowFieldBuilds++;
+        return field;
+    }
+
+    /**
+     * Gets the number of flow fields that had to be built, as opposed to reused.
+     * @return Builds since the grid was made
+     */
+    public long getFlowFieldBuilds() {
+        return flowFieldBuilds;
+    }
+
+    /**
+     * Starts a new search generation, which invalidates every node's search state at once.
+     */
+    private void nextGeneration() {
+        generation++;
+        if (generation == 0) {
+            // Wrapped around. Old stamps could match again, so clear them.
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * Walks parents back from the end of a finished search and appends the path in world tiles.
+     *  Parents can be any distance away along a row or column, as jump points are, and every tile
+     *  between is written.
+     * @param start Start node
+     * @param end End node
+     * @param out Path to append to
+     */
+    private void writePath(final int start, final int end, final PathBuffer out) {
+        final int height = grid[0].length;
+        // Every step costs 1, so the cost is the path length
+        final int offset = out.size();
+        out.resize(offset + costs[end]);
+        int node = end;
+        int i = offset + costs[end] - 1;
+        while (node != start) {
+            final int parent = parents[node];
+            final int step = node / height == parent / height ? Integer.signum(node - parent) : Integer.signum(node - parent) * height;
+            for (int tile = node; tile != parent; tile -= step) {
+                out.set(i--, tile / height + xOffset, tile % height + yOffset);
+            }
+            node = parent;
+        }
+    }
+
+    /**
+     * Checks if a tile can be walked through.
+     * @param x Tile X
+     * @param y Tile Y
+     * @return True if the tile is on the grid and not solid
+     */
+    public boolean isOpen(final int x, final int y) {
+        return inBounds(x - xOffset, y - yOffset) && !grid[x - xOffset][y - yOffset];
+    }
+
+    /**
+     * Checks if grid coordinates (not world tiles) are on the grid.
+     * @param x Grid X
+     * @param y Grid Y
+     * @return True if in bounds
+     */
+    private boolean inBounds(final int x, final int y) {
+        return x >= 0 && y >= 0 && x < grid.length && y < grid[0].length;
+    }
+
+    /**
+     * Gets the lowest X tile covered by this grid.
+     * @return Minimum X
+     */
+    public int getMinX() {
+        return xOffset;
+    }
+
+    /**
+     * Gets the lowest Y tile covered by this grid.
+     * @return Minimum Y
+     */
+    public int getMinY() {
+        return yOffset;
+    }
+
+    /**
+     * Gets the number of tiles this grid covers along the X axis.
+     * @return Width in tiles
+     */
+    public int getWidth() {
+        return grid.length;
+    }
+
+    /**
+     * Gets the number of tiles this grid covers along the Y axis.
+     * @return Height in tiles
+     */
+    public int getHeight() {
+        return grid[0].length;
     }
 
     private void addFilled(final List<TileCoordinates> coordinates, final TileCoordinates size, final List<TileCoordinates> objects) {
@@ -207,21 +794,53 @@ public class PathfindingGrid {
     public TileCoordinates nextTile(final TileCoordinates start, final List<TileCoordinates> path) {
         if (path.size() == 0) return null;
         if (path.size() == 1) return path.get(0);
-        // Check if the next two jumps would be a diagonal
-        int dx = path.get(1).x() - start.x();
-        int dy = path.get(1).y() - start.y();
-
-        if (Math.abs(dx) == 1 && Math.abs(dy) == 1) {
-            // Diagonal. See if we can form a square between both of the diffs
-            TileCoordinates left = start.offsetX(dx);
-            TileCoordinates right = start.offsetY(dy);
-            TileCoordinates end = path.get(1);
-
-            // If all 3 are open, we can move diagonally straight to end.
-            if (!grid[left.x() - xOffset][left.y() - yOffset] && !grid[right.x() - xOffset][right.y() - yOffset]) {
-                return end;
-            }
-        }
+        if (canCutCorner(start.x(), start.y(), path.get(1).x(), path.get(1).y())) return path.get(1);
         return path.get(0);
     }
+
+    /**
+     * Picks the next tile to walk to along a path, cutting the corner to the second step if it's diagonal and clear.
+     * @param startX Current tile X
+     * @param startY Current tile Y
+     * @param path Path from {@link #bestPath(int, int, int, int, PathBuffer)}
+     * @return Tile to head to, or null if the path is empty
+     */
+    public TileCoordinates nextTile(final int startX, final int startY, final PathBuffer path) {
+        final int steps = stepsToTake(startX, startY, path, 0);
+        if (steps == 0) return null;
+        return path.get(steps - 1);
+    }
+
+    /**
+     * Counts how many steps of a path to take at once: two if they cut a diagonal corner that's clear, otherwise one.
+     * @param startX Current tile X
+     * @param startY Current tile Y
+     * @param path Path being followed
+     * @param from Index of the next step in the path
+     * @return Steps to take, or 0 if the path has none left
+     */
+    public int stepsToTake(final int startX, final int startY, final PathBuffer path, final int from) {
+        final int left = path.size() - from;
+        if (left <= 0) return 0;
+        if (left > 1 && canCutCorner(startX, startY, path.getX(from + 1), path.getY(from + 1))) return 2;
+        return 1;
+    }
+
+    /**
+     * Checks if a diagonal move can skip the step between. Both tiles it passes between have to be open.
+     * @param startX Current tile X
+     * @param startY Current tile Y
+     * @param endX Tile two steps along the path X
+     * @param endY Tile two steps along the path Y
+     * @return True if the move is diagonal and clear
+     */
+    private boolean canCutCorner(final int startX, final int startY, final int endX, final int endY) {
+        // Check if the next two jumps would be a diagonal
+        final int dx = endX - startX;
+        final int dy = endY - startY;
+        if (Math.abs(dx) != 1 || Math.abs(dy) != 1) return false;
+
+        // Diagonal. See if we can form a square between both of the diffs
+        return !grid[startX + dx - xOffset][startY - yOffset] && !grid[startX - xOffset][startY + dy - yOffset];
+    }
 }
@@ -0,0 +1,551 @@
+package today.tecktip.killbill.backend.gameserver.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import today.tecktip.killbill.common.maploader.directives.RoomDirective;
+
+/**
+ * An abstraction of a {@link PathfindingGrid} for long searches, in the style of HPA*.
+ * <p>
+ * The grid is split into clusters: each room from the map's {@link RoomDirective}s, cut into blocks
+ *  so big rooms and corridors stay cheap to search. Wherever two clusters touch, a doorway in a
+ *  room's wall or the seam between blocks, a few portal tiles on each side stand in for the
+ *  whole opening. Portals in the same cluster are joined by their distance inside it, found once
+ *  when the map loads.
+ * <p>
+ * A long search then only has to find its way out of the start's cluster, across the small portal
+ *  graph, and into the target's cluster. The route it gives is a list of waypoints a short search
+ *  apart. Routes can be a few steps longer than the shortest path, since openings are crossed at
+ *  their portals.
+ * <p>
+ * Not thread safe.
+ * @author cs
+ */
+public class RoomGraph {
+    /**
+     * Width and height of the blocks clusters are cut into
+     */
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * Openings narrower than this get one portal in the middle. Wider ones get one at each end and
+     *  more between, at most this far apart.
+     */
+    private static final int PORTAL_SPACING = 6;
+
+    /**
+     * Solid tiles
+     */
+    private final boolean[][] grid;
+
+    /**
+     * Grid height, for turning node indices into coordinates
+     */
+    private final int height;
+
+    /**
+     * Cluster of each node, or -1 for solid nodes
+     */
+    private final int[] clusters;
+
+    /**
+     * Portal ID of each node, or -1 if it isn't a portal
+     */
+    private final int[] portalIds;
+
+    /**
+     * Node of each portal
+     */
+    private final int[] portals;
+
+    /**
+     * Index into {@link #edgeTargets} where each portal's edges start. One longer than the portal count.
+     */
+    private final int[] edgeStarts;
+
+    /**
+     * Portal each edge leads to
+     */
+    private final int[] edgeTargets;
+
+    /**
+     * Steps along each edge
+     */
+    private final int[] edgeCosts;
+
+    /**
+     * Scratch: search generation each node was last reached in by a cluster search
+     */
+    private final int[] nodeStamps;
+
+    /**
+     * Scratch: steps from the cluster search's origin to each node
+     */
+    private final int[] nodeDistances;
+
+    /**
+     * Scratch: queue for cluster searches
+     */
+    private final int[] queue;
+
+    /**
+     * Current cluster search generation
+     */
+    private int nodeGeneration;
+
+    /**
+     * Scratch: steps from the start of a route to each portal in its cluster, or -1
+     */
+    private final int[] fromStart;
+
+    /**
+     * Scratch: steps from each portal in the target's cluster to the target, or -1
+     */
+    private final int[] toGoal;
+
+    /**
+     * Scratch: search generation each abstract node was last reached in
+     */
+    private final int[] stamps;
+
+    /**
+     * Scratch: cost from the start of a route to each abstract node
+     */
+    private final int[] costs;
+
+    /**
+     * Scratch: abstract node each abstract node was reached from
+     */
+    private final int[] parents;
+
+    /**
+     * Current route search generation
+     */
+    private int generation;
+
+    /**
+     * Open set of route searches
+     */
+    private final NodeHeap open;
+
+    /**
+     * Nodes of the last route, start to target
+     */
+    private int[] waypoints;
+
+    /**
+     * Nodes expanded by the last route search, including both cluster searches
+     */
+    private int expansions;
+
+    /**
+     * Builds the abstraction of a grid.
+     * @param grid Solid tiles
+     * @param xOffset Lowest X tile on the grid
+     * @param yOffset Lowest Y tile on the grid
+     * @param rooms Rooms on the map
+     */
+    public RoomGraph(final boolean[][] grid, final int xOffset, final int yOffset, final List<RoomDirective> rooms) {
+        this.grid = grid;
+        height = grid[0].length;
+        final int width = grid.length;
+        final int nodes = width * height;
+
+        nodeStamps = new int[nodes];
+        nodeDistances = new int[nodes];
+        queue = new int[nodes];
+        nodeGeneration = 0;
+
+        // Which room each tile is in. Smaller rooms win, so rooms nested in others keep their own tiles.
+        final int[] roomOf = new int[nodes];
+        Arrays.fill(roomOf, -1);
+        final List<RoomDirective> bySize = new ArrayList<>(rooms);
+        bySize.sort(Comparator.comparingLong((RoomDirective r) -> (long) r.getSize().x() * r.getSize().y()).reversed());
+        for (int i = 0; i < bySize.size(); i++) {
+            final RoomDirective r = bySize.get(i);
+            for (int x = Math.max(0, r.getLocation().x() - xOffset); x < Math.min(width, r.getLocation().x() + r.getSize().x() - xOffset); x++) {
+                for (int y = Math.max(0, r.getLocation().y() - yOffset); y < Math.min(height, r.getLocation().y() + r.getSize().y() - yOffset); y++) {
+                    roomOf[x * height + y] = i;
+                }
+            }
+        }
+
+        // Clusters are (room, block) pairs, numbered densely
+        clusters = new int[nodes];
+        final Map<Long, Integer> clusterIds = new HashMap<>();
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                final int node = x * height + y;
+                if (grid[x][y]) {
+                    clusters[node] = -1;
+                    continue;
+                }
+                final long key = ((long) roomOf[node] << 32) | ((x / BLOCK_SIZE) << 16) | (y / BLOCK_SIZE);
+                clusters[node] = clusterIds.computeIfAbsent(key, k -> clusterIds.size());
+            }
+        }
+
+        // Find the openings between clusters and place portals on them
+        portalIds = new int[nodes];
+        Arrays.fill(portalIds, -1);
+        final List<Integer> portalNodes = new ArrayList<>();
+        final List<int[]> crossings = new ArrayList<>();
+        findOpenings(width, height, 1, 0, portalNodes, crossings);
+        findOpenings(width, height, 0, 1, portalNodes, crossings);
+
+        portals = new int[portalNodes.size()];
+        for (int i = 0; i < portals.length; i++) portals[i] = portalNodes.get(i);
+
+        // Join portals within each cluster by their distance inside it
+        final List<List<Integer>> clusterPortals = new ArrayList<>();
+        for (int i = 0; i < clusterIds.size(); i++) clusterPortals.add(new ArrayList<>());
+        for (int p = 0; p < portals.length; p++) clusterPortals.get(clusters[portals[p]]).add(p);
+
+        final List<List<int[]>> edges = new ArrayList<>();
+        for (int p = 0; p < portals.length; p++) edges.add(new ArrayList<>());
+        for (final int[] crossing : crossings) {
+            edges.get(crossing[0]).add(new int[] {crossing[1], 1});
+            edges.get(crossing[1]).add(new int[] {crossing[0], 1});
+        }
+        for (final List<Integer> inCluster : clusterPortals) {
+            for (final int p : inCluster) {
+                searchCluster(portals[p]);
+                for (final int q : inCluster) {
+                    if (p != q && nodeStamps[portals[q]] == nodeGeneration) {
+                        edges.get(p).add(new int[] {q, nodeDistances[portals[q]]});
+                    }
+                }
+            }
+        }
+
+        edgeStarts = new int[portals.length + 1];
+        int edgeCount = 0;
+        for (int p = 0; p < portals.length; p++) {
+            edgeStarts[p] = edgeCount;
+            edgeCount += edges.get(p).size();
+        }
+        edgeStarts[portals.length] = edgeCount;
+        edgeTargets = new int[edgeCount];
+        edgeCosts = new int[edgeCount];
+        for (int p = 0; p < portals.length; p++) {
+            int i = edgeStarts[p];
+            for (final int[] edge : edges.get(p)) {
+                edgeTargets[i] = edge[0];
+                edgeCosts[i] = edge[1];
+                i++;
+            }
+        }
+
+        // Two extra abstract nodes for the start and target of a route
+        fromStart = new int[portals.length];
+        toGoal = new int[portals.length];
+        stamps = new int[portals.length + 2];
+        costs = new int[portals.length + 2];
+        parents = new int[portals.length + 2];
+        generation = 0;
+        open = new NodeHeap(Math.max(16, portals.length));
+        waypoints = new int[16];
+    }
+
+    /**
+     * Finds openings between clusters along one axis and places portals on them.
+     * @param width Grid width
+     * @param height Grid height
+     * @param dx X step across the openings
+     * @param dy Y step across the openings
+     * @param portalNodes Filled with the node of each new portal
+     * @param crossings Filled with {portal, portal} pairs joined across openings
+     */
+    private void findOpenings(final int width, final int height, final int dx, final int dy, final List<Integer> portalNodes, final List<int[]> crossings) {
+        final int lines = dx == 1 ? width - 1 : height - 1;
+        final int length = dx == 1 ? height : width;
+
+        for (int line = 0; line < lines; line++) {
+            int runStart = -1;
+            for (int i = 0; i <= length; i++) {
+                final boolean crossing = i < length && crossesAt(line, i, dx, dy);
+                // Continue the opening only while it joins the same two clusters
+                if (crossing && runStart != -1 && sameClusters(line, runStart, i, dx, dy)) continue;
+
+                if (runStart != -1) {
+                    final int runLength = i - runStart;
+                    if (runLength >= PORTAL_SPACING) {
+                        for (int j = runStart; j < i - 1; j += PORTAL_SPACING) addCrossing(line, j, dx, dy, portalNodes, crossings);
+                        addCrossing(line, i - 1, dx, dy, portalNodes, crossings);
+                    } else {
+                        addCrossing(line, runStart + runLength / 2, dx, dy, portalNodes, crossings);
+                    }
+                }
+                runStart = crossing ? i : -1;
+            }
+        }
+    }
+
+    /**
+     * Gets the node on the near side of an opening position.
+     * @param line Line between tiles along the crossing axis
+     * @param i Position along the line
+     * @param dx X step across
+     * @param dy Y step across
+     * @return Node index
+     */
+    private int nearNode(final int line, final int i, final int dx, final int dy) {
+        return dx == 1 ? line * height + i : i * height + line;
+    }
+
+    /**
+     * Checks if two open tiles in different clusters meet at a position.
+     * @param line Line between tiles along the crossing axis
+     * @param i Position along the line
+     * @param dx X step across
+     * @param dy Y step across
+     * @return True if it's part of an opening
+     */
+    private boolean crossesAt(final int line, final int i, final int dx, final int dy) {
+        final int near = nearNode(line, i, dx, dy);
+        final int far = near + dx * height + dy;
+        return clusters[near] != -1 && clusters[far] != -1 && clusters[near] != clusters[far];
+    }
+
+    /**
+     * Checks if two positions along a line join the same pair of clusters.
+     * @param line Line between tiles along the crossing axis
+     * @param i First position
+     * @param j Second position
+     * @param dx X step across
+     * @param dy Y step across
+     * @return True if the same
+     */
+    private boolean sameClusters(final int line, final int i, final int j, final int dx, final int dy) {
+        final int a = nearNode(line, i, dx, dy);
+        final int b = nearNode(line, j, dx, dy);
+        final int step = dx * height + dy;
+        return clusters[a] == clusters[b] && clusters[a + step] == clusters[b + step];
+    }
+
+    /**
+     * Places portals on both sides of an opening position and joins them.
+     * @param line Line between tiles along the crossing axis
+     * @param i Position along the line
+     * @param dx X step across
+     * @param dy Y step across
+     * @param portalNodes Filled with the node of each new portal
+     * @param crossings Filled with the joined pair
+     */
+    private void addCrossing(final int line, final int i, final int dx, final int dy, final List<Integer> portalNodes, final List<int[]> crossings) {
+        final int near = nearNode(line, i, dx, dy);
+        final int far = near + dx * height + dy;
+        crossings.add(new int[] {portalAt(near, portalNodes), portalAt(far, portalNodes)});
+    }
+
+    /**
+     * Gets the portal on a node, making one if needed.
+     * @param node Node index
+     * @param portalNodes Filled with the node of a new portal
+     * @return Portal ID
+     */
+    private int portalAt(final int node, final List<Integer> portalNodes) {
+        if (portalIds[node] == -1) {
+            portalIds[node] = portalNodes.size();
+            portalNodes.add(node);
+        }
+        return portalIds[node];
+    }
+
+    /**
+     * Runs a breadth-first search from a node without leaving its cluster. Reached nodes have the
+     *  current {@link #nodeGeneration} stamp and their distance in {@link #nodeDistances}.
+     * @param origin Node to search from
+     */
+    private void searchCluster(final int origin) {
+        nodeGeneration++;
+        if (nodeGeneration == 0) {
+            Arrays.fill(nodeStamps, 0);
+            nodeGeneration = 1;
+        }
+
+        final int cluster = clusters[origin];
+        int head = 0;
+        int tail = 0;
+        nodeStamps[origin] = nodeGeneration;
+        nodeDistances[origin] = 0;
+        queue[tail++] = origin;
+
+        while (head < tail) {
+            final int current = queue[head++];
+            final int y = current % height;
+            final int next = nodeDistances[current] + 1;
+            expansions++;
+
+            if (y + 1 < height) tail = visit(current + 1, cluster, next, tail);
+            if (y > 0) tail = visit(current - 1, cluster, next, tail);
+            if (current + height < clusters.length) tail = visit(current + height, cluster, next, tail);
+            if (current - height >= 0) tail = visit(current - height, cluster, next, tail);
+        }
+    }
+
+    /**
+     * Queues a node in a cluster search if it's in the cluster and new.
+     * @param node Neighbour node
+     * @param cluster Cluster being searched
+     * @param distance Distance to the neighbour
+     * @param tail Queue tail
+     * @return New queue tail
+     */
+    private int visit(final int node, final int cluster, final int distance, final int tail) {
+        if (clusters[node] != cluster || nodeStamps[node] == nodeGeneration) return tail;
+        nodeStamps[node] = nodeGeneration;
+        nodeDistances[node] = distance;
+        queue[tail] = node;
+        return tail + 1;
+    }
+
+    /**
+     * Checks if two open nodes are in the same cluster.
+     * @param a Node
+     * @param b Node
+     * @return True if a search between them doesn't need the portal graph
+     */
+    public boolean sameCluster(final int a, final int b) {
+        return clusters[a] == clusters[b];
+    }
+
+    /**
+     * Gets the number of portals.
+     * @return Portal count
+     */
+    public int getPortalCount() {
+        return portals.length;
+    }
+
+    /**
+     * Finds a route between two open nodes across the portal graph. Read it with {@link #getWaypoint(int)}.
+     * @param start Start node
+     * @param goal Target node
+     * @return Number of waypoints, including the start and target, or 0 if there's no route
+     */
+    public int route(final int start, final int goal) {
+        expansions = 0;
+        final int startId = portals.length;
+        final int goalId = portals.length + 1;
+
+        // Ways out of the start's cluster, and into the target's
+        searchCluster(start);
+        final boolean direct = nodeStamps[goal] == nodeGeneration;
+        final int directCost = nodeDistances[goal];
+        for (int p = 0; p < portals.length; p++) {
+            fromStart[p] = nodeStamps[portals[p]] == nodeGeneration ? nodeDistances[portals[p]] : -1;
+        }
+        searchCluster(goal);
+        for (int p = 0; p < portals.length; p++) {
+            toGoal[p] = nodeStamps[portals[p]] == nodeGeneration ? nodeDistances[portals[p]] : -1;
+        }
+
+        generation++;
+        if (generation == 0) {
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
+        open.clear();
+        stamps[startId] = generation;
+        costs[startId] = 0;
+        parents[startId] = startId;
+        open.push(estimate(start, goal), startId);
+
+        while (!open.isEmpty()) {
+            final long entry = open.pop();
+            final int current = NodeHeap.nodeOf(entry);
+            if (current == goalId) return writeRoute(start, goal);
+
+            final int cost = costs[current];
+            final int node = current == startId ? start : portals[current];
+            if (NodeHeap.priorityOf(entry) > cost + estimate(node, goal)) continue;
+            expansions++;
+
+            if (current == startId) {
+                if (direct) relax(current, goalId, goal, directCost, goal);
+                for (int p = 0; p < portals.length; p++) {
+                    if (fromStart[p] != -1) relax(current, p, portals[p], fromStart[p], goal);
+                }
+                continue;
+            }
+
+            if (toGoal[current] != -1) relax(current, goalId, goal, toGoal[current], goal);
+            for (int i = edgeStarts[current]; i < edgeStarts[current + 1]; i++) {
+                relax(current, edgeTargets[i], portals[edgeTargets[i]], edgeCosts[i], goal);
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Offers a cheaper way to an abstract node.
+     * @param from Abstract node being expanded
+     * @param to Abstract node reached
+     * @param toNode Grid node of the node reached
+     * @param edgeCost Steps between them
+     * @param goal Target grid node
+     */
+    private void relax(final int from, final int to, final int toNode, final int edgeCost, final int goal) {
+        final int newCost = costs[from] + edgeCost;
+        if (stamps[to] != generation || newCost < costs[to]) {
+            stamps[to] = generation;
+            costs[to] = newCost;
+            parents[to] = from;
+            open.push(newCost + estimate(toNode, goal), to);
+        }
+    }
+
+    /**
+     * Estimates the steps between two nodes.
+     * @param a Node
+     * @param b Node
+     * @return Manhattan distance
+     */
+    private int estimate(final int a, final int b) {
+        return Math.abs(a / height - b / height) + Math.abs(a % height - b % height);
+    }
+
+    /**
+     * Walks parents back from the target of a finished route search and stores the waypoints.
+     * @param start Start node
+     * @param goal Target node
+     * @return Number of waypoints
+     */
+    private int writeRoute(final int start, final int goal) {
+        final int startId = portals.length;
+        int count = 1;
+        for (int id = portals.length + 1; id != startId; id = parents[id]) count++;
+        if (waypoints.length < count) waypoints = new int[Math.max(count, waypoints.length * 2)];
+
+        int id = portals.length + 1;
+        for (int i = count - 1; i >= 0; i--) {
+            waypoints[i] = id == startId ? start : id == portals.length + 1 ? goal : portals[id];
+            id = parents[id];
+        }
+        return count;
+    }
+
+    /**
+     * Gets a waypoint of the last route.
+     * @param i Waypoint index
+     * @return Node index
+     */
+    public int getWaypoint(final int i) {
+        return waypoints[i];
+    }
+
+    /**
+     * Gets the number of nodes the last route search expanded, including both cluster searches.
+     * @return Expansions
+     */
+    public int getExpansions() {
+        return expansions;
+    }
+}
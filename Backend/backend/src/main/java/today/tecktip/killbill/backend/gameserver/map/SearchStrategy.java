@@ -0,0 +1,18 @@
+package today.tecktip.killbill.backend.gameserver.map;
+
+/**
+ * Ways a {@link PathfindingGrid} can search between two tiles. Both find a shortest path.
+ * @author cs
+ */
+public enum SearchStrategy {
+    /**
+     * Plain A*, expanding every neighbour of every tile it reaches.
+     */
+    A_STAR,
+
+    /**
+     * Jump point search. Scans along rows and columns and only expands the tiles where a path
+     *  has to turn, skipping the many equal-length paths A* would expand.
+     */
+    JUMP_POINT
+}
@@ -0,0 +1,240 @@
+package today.tecktip.killbill.backend.gameserver.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import today.tecktip.killbill.common.gameserver.codec.BufferPool;
+import today.tecktip.killbill.common.gameserver.codec.DatagramBundle;
+import today.tecktip.killbill.common.gameserver.reliability.SelectiveAck;
+
+/**
+ * Receives and sends UDP datagrams on a single {@link DatagramChannel} with several reader threads.
+ * <p>
+ * Every incoming datagram holds one message framed with a 4-byte big-endian length header. Clients that
+ *  negotiated ack headers start it with a selective ack header, and may send the header alone. Datagrams
+ *  whose length header does not match the received size are dropped, the same as Spring Integration's
+ *  length check.
+ * <p>
+ * Outgoing datagrams are framed by the caller, and may hold several messages. See {@link DatagramBundle}.
+ * @author cs
+ */
+public class UdpIngress {
+    /**
+     * Logs go here
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(UdpIngress.class);
+
+    /**
+     * Largest datagram (including the length header) that will be read or written.
+     */
+    public static final int MAX_PACKET_SIZE = 10240;
+
+    /**
+     * Size of the length header preceding each payload.
+     */
+    private static final int LENGTH_HEADER_SIZE = DatagramBundle.LENGTH_HEADER_SIZE;
+
+    /**
+     * Size of the selective ack header starting each datagram.
+     */
+    private static final int ACK_HEADER_SIZE = DatagramBundle.ACK_HEADER_SIZE;
+
+    /**
+     * Port to listen on
+     */
+    private final int port;
+
+    /**
+     * Number of reader threads to start
+     */
+    private final int readerCount;
+
+    /**
+     * Called for each valid incoming payload
+     */
+    private final PacketHandler handler;
+
+    /**
+     * Direct buffers used for reads and writes
+     */
+    private final BufferPool bufferPool;
+
+    /**
+     * Running reader threads
+     */
+    private final List<Thread> readers;
+
+    /**
+     * Bound channel, or null if not started
+     */
+    private DatagramChannel channel;
+
+    /**
+     * Whether the readers should keep running
+     */
+    private volatile boolean running;
+
+    /**
+     * Constructs a new UDP ingress. Call {@link #start()} to bind it.
+     * @param port Port to listen on
+     * @param readerCount Number of reader threads to start
+     * @param handler Called for each valid incoming datagram
+     */
+    public UdpIngress(final int port, final int readerCount, final PacketHandler handler) {
+        if (readerCount < 1) throw new IllegalArgumentException("At least one reader thread is required.");
+        this.port = port;
+        this.readerCount = readerCount;
+        this.handler = handler;
+        // Readers hold one buffer each; the rest are shared by senders
+        bufferPool = new BufferPool(MAX_PACKET_SIZE, readerCount * 4);
+        readers = new ArrayList<>();
+    }
+
+    /**
+     * Binds the channel and starts the reader threads.
+     * @throws IOException Unable to bind
+     * @throws IllegalStateException Already started
+     */
+    public synchronized void start() throws IOException {
+        if (running) throw new IllegalStateException("Already started.");
+
+        channel = DatagramChannel.open();
+        channel.configureBlocking(true);
+        channel.bind(new InetSocketAddress(port));
+        running = true;
+
+        for (int i = 0; i < readerCount; i++) {
+            final Thread reader = new Thread(this::read, "udp-reader-" + i);
+            reader.setDaemon(true);
+            reader.start();
+            readers.add(reader);
+        }
+        LOGGER.info("Listening for UDP on port {} with {} reader threads.", port, readerCount);
+    }
+
+    /**
+     * Closes the channel and waits for the reader threads to finish.
+     * @throws IOException Unable to close channel
+     * @throws InterruptedException Interrupted while joining readers
+     */
+    public synchronized void stop() throws IOException, InterruptedException {
+        if (!running) return;
+        running = false;
+
+        // Closing the channel wakes up any blocked receive calls
+        channel.close();
+        for (final Thread reader : readers) {
+            reader.join();
+        }
+        readers.clear();
+    }
+
+    /**
+     * Sends a datagram that has already been framed.
+     * @param datagram One or more framed messages
+     * @param address Destination address
+     * @throws IOException Unable to send
+     */
+    public void send(final byte[] datagram, final InetSocketAddress address) throws IOException {
+        if (channel == null) throw new IOException("UDP channel is not open.");
+
+        final int size = datagram.length;
+        if (size > MAX_PACKET_SIZE) {
+            throw new IOException("Datagram of " + size + " bytes exceeds the maximum packet size.");
+        }
+
+        final ByteBuffer buffer = bufferPool.acquire();
+        try {
+            buffer.put(datagram);
+            buffer.flip();
+            if (channel.send(buffer, address) != size) {
+                throw new IOException("Datagram to " + address + " was not fully sent.");
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Reader thread loop.
+     */
+    private void read() {
+        final ByteBuffer buffer = bufferPool.acquire();
+        // Decoders take arrays, so each reader copies into its own reusable one
+        final byte[] payload = new byte[MAX_PACKET_SIZE];
+        try {
+            while (running) {
+                buffer.clear();
+                final SocketAddress from;
+                try {
+                    from = channel.receive(buffer);
+                } catch (final ClosedChannelException e) {
+                    break;
+                } catch (final IOException e) {
+                    LOGGER.error("Failed to receive UDP datagram: ", e);
+                    continue;
+                }
+                if (from == null) continue;
+
+                buffer.flip();
+                long ackHeader = SelectiveAck.NONE;
+                if (buffer.hasRemaining() && buffer.get(buffer.position()) == DatagramBundle.ACK_HEADER_MARKER) {
+                    if (buffer.remaining() < ACK_HEADER_SIZE) {
+                        LOGGER.debug("Dropping datagram from {}: too short for an ack header", from);
+                        continue;
+                    }
+                    buffer.get();
+                    ackHeader = buffer.getLong();
+                }
+
+                // Nothing but acks
+                int length = 0;
+                if (buffer.hasRemaining()) {
+                    if (buffer.remaining() < LENGTH_HEADER_SIZE) {
+                        LOGGER.debug("Dropping datagram from {}: too short for a length header", from);
+                        continue;
+                    }
+                    length = buffer.getInt();
+                    if (length != buffer.remaining()) {
+                        LOGGER.warn("Dropping datagram from {}: length header {} does not match payload size {}", from, length, buffer.remaining());
+                        continue;
+                    }
+                    buffer.get(payload, 0, length);
+                }
+
+                try {
+                    handler.handle((InetSocketAddress) from, ackHeader, payload, length);
+                } catch (final Throwable t) {
+                    LOGGER.error("Unexpected error during UDP processing: ", t);
+                }
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Handles a datagram received by a reader thread.
+     */
+    public interface PacketHandler {
+        /**
+         * Handles an incoming datagram. Called concurrently from every reader thread.
+         * <p>
+         * The payload array is reused once this returns, so it must not be kept.
+         * @param from Sender's address
+         * @param ackHeader Selective ack header the datagram started with
+         * @param payload Buffer containing the payload (without the length header), starting at 0
+         * @param length Length of the payload, or 0 if the datagram only carried acks
+         */
+        public void handle(final InetSocketAddress from, final long ackHeader, final byte[] payload, final int length);
+    }
+}
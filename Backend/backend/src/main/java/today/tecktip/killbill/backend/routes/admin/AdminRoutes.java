@@ -22,6 +22,7 @@ import today.tecktip.killbill.backend.exceptions.InvalidArgumentException;
 import today.tecktip.killbill.backend.exceptions.NotFoundException;
 import today.tecktip.killbill.backend.exceptions.ServerError;
 import today.tecktip.killbill.backend.exceptions.TransientServerError;
+import today.tecktip.killbill.backend.gameserver.SpringMessageHandler;
 import today.tecktip.killbill.backend.routes.MessageBody;
 import com.fasterxml.jackson.core.JsonProcessingException;
 
@@ -174,6 +175,26 @@ public class AdminRoutes {
             throw new ServerError("Failed to serialize key as JSON.", e);
         }
     }
+
+    /**
+     * Gets the UDP traffic shed by the game server's per-client rate limits since it started.
+     * <p>
+     * Admin-only method.
+     * 
+     * @param authToken Authorization header
+     * @return Shed datagram and message counts
+     * @throws AuthenticationFailure Invalid token or permissions
+     */
+    @GetMapping("/udp_shed")
+    public MessageBody getUdpShed(
+            @RequestHeader(value = "Authorization", required = true) String authToken
+        ) throws AuthenticationFailure {
+        Key key = Authenticator.requireAuthentication(authToken);
+        User authenticatedUser = Authenticator.getAuthenticatedUser(key);
+        Authenticator.requireRole(authenticatedUser, UserRole.ADMIN);
+
+        return MessageBody.ofSuccess(SpringMessageHandler.get().getShedCounts());
+    }
     
     /**
 	 * This class should not be instantiated manually.
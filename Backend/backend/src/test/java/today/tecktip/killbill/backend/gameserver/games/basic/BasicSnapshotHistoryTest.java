@@ -0,0 +1,83 @@
+package today.tecktip.killbill.backend.gameserver.games.basic;
+
+import static org.junit.Assert.*;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import today.tecktip.killbill.backend.gameserver.GeneratedCommandLoader;
+import today.tecktip.killbill.backend.gameserver.games.basic.BasicWorldState.EntityRecord;
+import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicRecvEntityStateCommand.BasicAckSnapshotCommandData;
+import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicRecvEntityStateCommand.BasicRecvEntityStateCommandData;
+import today.tecktip.killbill.backend.gameserver.games.basic.commands.BasicRecvEntityStateCommand.BasicRecvSnapshotCommandData;
+import today.tecktip.killbill.common.gameserver.CommandLoader;
+import today.tecktip.killbill.common.gameserver.codec.WireFormat;
+import today.tecktip.killbill.common.gameserver.data.Coordinates;
+import today.tecktip.killbill.common.gameserver.games.GameType;
+import today.tecktip.killbill.common.gameserver.messages.IncomingMessage;
+import today.tecktip.killbill.common.gameserver.messages.OutgoingMessage;
+import today.tecktip.killbill.common.maploader.directives.EntityDirective.EntityType;
+
+/**
+ * Checks that snapshot acks make it back to the server and become baselines for later snapshots.
+ * @author cs
+ */
+public class BasicSnapshotHistoryTest {
+    @Test
+    public void testAckedSnapshotBecomesBaseline() throws Exception {
+        final CommandLoader loader = new GeneratedCommandLoader();
+        for (final WireFormat format : WireFormat.values()) {
+            final BasicSnapshotHistory history = new BasicSnapshotHistory(UUID.randomUUID());
+            final EntityRecord entity = new EntityRecord(1, new Coordinates(4, 5), 0, EntityType.EMPLOYEE, 100, 0, null, "employee");
+
+            // Nothing acked yet: sent in full
+            final List<BasicRecvSnapshotCommandData> first = history.encode(world(entity));
+            assertEquals(1, first.size());
+            final BasicRecvEntityStateCommandData full = first.get(0).getEntities().get(0);
+            assertNull(full.getBaseline());
+            assertNotNull(full.getCoordinates());
+
+            // Acked the way the client does: unreliable, with no message IDs
+            final OutgoingMessage ack = OutgoingMessage.newBuilder()
+                .setKey("some-key")
+                .success()
+                .data(new BasicAckSnapshotCommandData(first.get(0).getSequence()))
+                .build();
+            assertTrue(ack.isUnreliable());
+            final byte[] payload = format.getCodec().encode(ack);
+            final IncomingMessage received = format.getCodec().decode(payload, 0, payload.length).open(GameType.BASIC, loader);
+            assertNull(received.messageId());
+            assertNull(received.ackMessageId());
+            history.ack(((BasicAckSnapshotCommandData) received.data()).getSequence());
+
+            // Only the changed field goes out, against the acked snapshot
+            final EntityRecord hurt = new EntityRecord(1, new Coordinates(4, 5), 0, EntityType.EMPLOYEE, 80, 0, null, "employee");
+            final List<BasicRecvSnapshotCommandData> second = history.encode(world(hurt));
+            assertEquals(1, second.size());
+            final BasicRecvEntityStateCommandData delta = second.get(0).getEntities().get(0);
+            assertEquals(Integer.valueOf(first.get(0).getSequence()), delta.getBaseline());
+            assertEquals(Integer.valueOf(80), delta.getHealth());
+            assertNull(delta.getCoordinates());
+            assertNull(delta.getEntityType());
+
+            // Once that's acked too, there's nothing left to send
+            history.ack(second.get(0).getSequence());
+            assertTrue(history.encode(world(hurt)).isEmpty());
+        }
+    }
+
+    /**
+     * Builds a world holding one entity and no players.
+     * @param entity Entity
+     * @return World state
+     */
+    private static BasicWorldState world(final EntityRecord entity) {
+        final Map<Integer, EntityRecord> entities = new LinkedHashMap<>();
+        entities.put(entity.id(), entity);
+        return BasicWorldState.of(entities, Map.of(), Map.of());
+    }
+}
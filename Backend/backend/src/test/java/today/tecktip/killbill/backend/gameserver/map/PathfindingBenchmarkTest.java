@@ -0,0 +1,492 @@
+package today.tecktip.killbill.backend.gameserver.map;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import today.tecktip.killbill.common.gameserver.data.TileCoordinates;
+import today.tecktip.killbill.common.maploader.MapLoader;
+
+/**
+ * Benchmarks pathfinding on the maps shipped with the frontend, against the original
+ *  {@code HashMap}-based A* it replaced. Everything has to agree with it on every path length.
+ * <p>
+ * Allocation is counted per thread by the JVM, so the test is skipped on JVMs that can't.
+ * @author cs
+ */
+public class PathfindingBenchmarkTest {
+    /**
+     * Where the shipped maps live, relative to the backend project
+     */
+    private static final File MAPS = new File("../../Frontend/assets/maps");
+
+    /**
+     * Random start and target pairs searched on each map
+     */
+    private static final int QUERIES = 300;
+
+    /**
+     * Passes over the queries before measuring, so everything is compiled. Jump point search's nested
+     *  scans take longer than A* to be fully compiled, and fewer passes measured it several times slower.
+     */
+    private static final int WARMUP_ROUNDS = 20;
+
+    /**
+     * Passes over the queries measured
+     */
+    private static final int ROUNDS = 5;
+
+    /**
+     * Ticks run in the flow field benchmark
+     */
+    private static final int TICKS = 50;
+
+    /**
+     * Entities chasing players in the flow field benchmark
+     */
+    private static final int CHASERS = 30;
+
+    /**
+     * Players being chased in the flow field benchmark
+     */
+    private static final int PLAYERS = 4;
+
+    /**
+     * Thread allocation counter
+     */
+    private com.sun.management.ThreadMXBean threads;
+
+    @Before
+    public void setUp() {
+        assumeTrue("Maps aren't available.", MAPS.isDirectory());
+        assumeTrue("Allocation can't be measured on this JVM.", ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue("Allocation can't be measured on this JVM.", threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void testShippedMaps() throws IOException {
+        for (final File dir : MAPS.listFiles(File::isDirectory)) {
+            final PathfindingGrid grid = load(dir);
+            final int[][] queries = queries(grid, new Random(dir.getName().hashCode()));
+            final PathBuffer path = new PathBuffer();
+
+            // Same answers first. Long searches between rooms can take a few extra steps.
+            long optimalSteps = 0;
+            long extraSteps = 0;
+            long expansions = 0;
+            for (final int[] q : queries) {
+                final List<TileCoordinates> expected = referencePath(grid, q[0], q[1], q[2], q[3]);
+                final boolean found = grid.bestPath(q[0], q[1], q[2], q[3], path);
+                assertEquals(dir.getName() + " " + q[0] + "," + q[1] + " -> " + q[2] + "," + q[3], expected != null, found);
+                expansions += grid.getLastExpansions();
+                if (found) {
+                    assertTrue(path.size() >= expected.size());
+                    assertTrue(path.size() <= expected.size() * 5 / 4 + 4);
+                    optimalSteps += expected.size();
+                    extraSteps += path.size() - expected.size();
+                    assertWalkable(grid, q[0], q[1], path);
+                    if (path.isEmpty()) continue;
+                    assertEquals(q[2], path.getX(path.size() - 1));
+                    assertEquals(q[3], path.getY(path.size() - 1));
+                }
+            }
+
+            final Measurement reference = measure(queries, q -> referencePath(grid, q[0], q[1], q[2], q[3]));
+            final Measurement flat = measure(queries, q -> grid.bestPath(q[0], q[1], q[2], q[3], path));
+
+            System.out.printf(
+                "%s (%dx%d, %d portals): reference %.1f us, %.0f B per search; flat %.1f us, %.1f B, %d expansions per search, %.2f%% extra steps%n",
+                dir.getName(), grid.getWidth(), grid.getHeight(), grid.getRoomGraph().getPortalCount(),
+                reference.micros(), reference.bytes(), flat.micros(), flat.bytes(),
+                expansions / queries.length, 100.0 * extraSteps / Math.max(1, optimalSteps)
+            );
+            // Allow for the odd allocation made by the JVM itself while measuring
+            assertTrue(dir.getName() + " allocated " + flat.bytes() + " bytes per search.", flat.bytes() < 1);
+        }
+    }
+
+    @Test
+    public void testFlowFields() throws IOException {
+        for (final File dir : MAPS.listFiles(File::isDirectory)) {
+            final PathfindingGrid grid = load(dir);
+            final Random random = new Random(dir.getName().hashCode());
+            final PathBuffer path = new PathBuffer();
+
+            // Followed downhill all the way, a field gives the same length as A*
+            for (final int[] q : queries(grid, random)) {
+                final List<TileCoordinates> expected = referencePath(grid, q[0], q[1], q[2], q[3]);
+                final FlowField field = grid.flowField(q[2], q[3]);
+                assertEquals(expected != null, field.pathFrom(q[0], q[1], Integer.MAX_VALUE, path));
+                if (expected == null) continue;
+                assertEquals(expected.size(), path.size());
+                assertEquals(expected.size(), field.distanceFrom(q[0], q[1]));
+                if (path.isEmpty()) continue;
+                assertEquals(q[2], path.getX(path.size() - 1));
+                assertEquals(q[3], path.getY(path.size() - 1));
+            }
+
+            // A tick of employees chasing players, each after a player picked at random
+            final int[][] chasers = new int[CHASERS][];
+            for (int i = 0; i < CHASERS; i++) chasers[i] = openTile(grid, random);
+            final int[][] players = new int[PLAYERS][];
+            for (int i = 0; i < PLAYERS; i++) players[i] = openTile(grid, random);
+            final int[][] ticks = new int[TICKS][];
+            for (int i = 0; i < TICKS; i++) ticks[i] = new int[] {i};
+
+            final Measurement perEntity = measure(ticks, tick -> {
+                for (int i = 0; i < CHASERS; i++) {
+                    final int[] player = players[i % PLAYERS];
+                    grid.bestPath(chasers[i][0], chasers[i][1], player[0], player[1], path);
+                }
+            });
+            final Measurement shared = measure(ticks, tick -> {
+                for (int i = 0; i < CHASERS; i++) {
+                    final int[] player = players[i % PLAYERS];
+                    grid.flowField(player[0], player[1]).pathFrom(chasers[i][0], chasers[i][1], 2, path);
+                }
+            });
+
+            // Worst case: every player changes tile every tick, so every field is rebuilt
+            final int[][][] moves = new int[TICKS][PLAYERS][];
+            for (int i = 0; i < TICKS; i++) {
+                for (int j = 0; j < PLAYERS; j++) moves[i][j] = openTile(grid, random);
+            }
+            final Measurement moving = measure(ticks, tick -> {
+                final int[][] moved = moves[tick[0]];
+                for (int i = 0; i < CHASERS; i++) {
+                    final int[] player = moved[i % PLAYERS];
+                    grid.flowField(player[0], player[1]).pathFrom(chasers[i][0], chasers[i][1], 2, path);
+                }
+            });
+
+            // The same, planned the way chasers do
+            final Measurement routed = measure(ticks, tick -> {
+                final int[][] moved = moves[tick[0]];
+                for (int i = 0; i < CHASERS; i++) {
+                    final int[] player = moved[i % PLAYERS];
+                    grid.route(chasers[i][0], chasers[i][1], player[0], player[1], path);
+                }
+            });
+
+            System.out.printf(
+                "%s, %d chasing %d: A* %.1f us per tick; flow fields %.1f us cached, %.1f us rebuilt, %.1f us routed, %.1f B per tick%n",
+                dir.getName(), CHASERS, PLAYERS, perEntity.micros(), shared.micros(), moving.micros(), routed.micros(), moving.bytes()
+            );
+            assertTrue(dir.getName() + " allocated " + moving.bytes() + " bytes per tick.", moving.bytes() < 1);
+            assertTrue(dir.getName() + " allocated " + routed.bytes() + " bytes per tick.", routed.bytes() < 1);
+        }
+    }
+
+    @Test
+    public void testPathCache() throws IOException {
+        for (final File dir : MAPS.listFiles(File::isDirectory)) {
+            final PathfindingGrid grid = load(dir);
+            for (final int[] q : queries(grid, new Random(dir.getName().hashCode()))) {
+                final int distance = grid.flowField(q[2], q[3]).distanceFrom(q[0], q[1]);
+                if (distance <= 0) continue;
+
+                // Walk the whole way to a target that stays put: one plan, then hits
+                final PathCache cache = new PathCache();
+                int x = q[0];
+                int y = q[1];
+                int moves = 0;
+                TileCoordinates next;
+                while ((next = cache.nextTile(grid, x, y, q[2], q[3])) != null) {
+                    assertTrue(Math.abs(next.x() - x) <= 1 && Math.abs(next.y() - y) <= 1);
+                    assertTrue(grid.isOpen(next.x(), next.y()));
+                    x = next.x();
+                    y = next.y();
+                    moves++;
+                }
+                assertEquals(q[2], x);
+                assertEquals(q[3], y);
+                assertTrue(moves <= distance);
+                assertEquals(1, cache.getMisses());
+                assertEquals(moves, cache.getHits());
+
+                // The entity being knocked off the route, or the target moving, plans again
+                assertNotNull(cache.nextTile(grid, q[0], q[1], q[2], q[3]));
+                assertEquals(2, cache.getMisses());
+                assertNull(cache.nextTile(grid, q[0], q[1], q[0], q[1]));
+                assertEquals(3, cache.getMisses());
+            }
+
+            // A lone chaser far from its target searches on its own; a second one builds a shared field
+            final PathfindingGrid fresh = load(dir);
+            int searched = 0;
+            for (final int[] q : queries(fresh, new Random(dir.getName().hashCode()))) {
+                final long searches = fresh.getRouteSearches();
+                final long builds = fresh.getFlowFieldBuilds();
+                final PathCache first = new PathCache();
+                TileCoordinates next = first.nextTile(fresh, q[0], q[1], q[2], q[3]);
+                if (fresh.getRouteSearches() == searches) continue;
+                searched++;
+                assertEquals(builds, fresh.getFlowFieldBuilds());
+
+                new PathCache().nextTile(fresh, q[0], q[1], q[2], q[3]);
+                assertEquals(searches + 1, fresh.getRouteSearches());
+                assertEquals(builds + 1, fresh.getFlowFieldBuilds());
+                if (next == null) {
+                    // Walled off, as the field agrees
+                    assertEquals(FlowField.UNREACHABLE, fresh.flowField(q[2], q[3]).distanceFrom(q[0], q[1]));
+                    continue;
+                }
+
+                int x = q[0];
+                int y = q[1];
+                while (next != null) {
+                    assertTrue(Math.abs(next.x() - x) <= 1 && Math.abs(next.y() - y) <= 1);
+                    x = next.x();
+                    y = next.y();
+                    next = first.nextTile(fresh, x, y, q[2], q[3]);
+                }
+                assertEquals(q[2], x);
+                assertEquals(q[3], y);
+            }
+            assertTrue(dir.getName() + " had no long routes.", searched > 0);
+        }
+    }
+
+    @Test
+    public void testJumpPointSearch() throws IOException {
+        for (final File dir : MAPS.listFiles(File::isDirectory)) {
+            final PathfindingGrid grid = load(dir);
+            final int[][] queries = queries(grid, new Random(dir.getName().hashCode()));
+            final PathBuffer path = new PathBuffer();
+            final PathBuffer jumpPath = new PathBuffer();
+            // Live routing searches with jump points
+            assertEquals(SearchStrategy.JUMP_POINT, grid.getSearchStrategy());
+
+            // Same lengths as A*, and walkable a tile or a clear diagonal at a time
+            long expansions = 0;
+            long jumpExpansions = 0;
+            long moves = 0;
+            long jumpMoves = 0;
+            for (final int[] q : queries) {
+                grid.setSearchStrategy(SearchStrategy.A_STAR);
+                final boolean found = grid.bestPath(q[0], q[1], q[2], q[3], path);
+                expansions += grid.getLastExpansions();
+                grid.setSearchStrategy(SearchStrategy.JUMP_POINT);
+                assertEquals(found, grid.bestPath(q[0], q[1], q[2], q[3], jumpPath));
+                jumpExpansions += grid.getLastExpansions();
+                if (!found) continue;
+
+                assertEquals(dir.getName() + " " + q[0] + "," + q[1] + " -> " + q[2] + "," + q[3], path.size(), jumpPath.size());
+                assertWalkable(grid, q[0], q[1], jumpPath);
+                moves += walk(grid, q, path);
+                jumpMoves += walk(grid, q, jumpPath);
+            }
+
+            grid.setSearchStrategy(SearchStrategy.A_STAR);
+            final Measurement aStar = measure(queries, q -> grid.bestPath(q[0], q[1], q[2], q[3], path));
+            grid.setSearchStrategy(SearchStrategy.JUMP_POINT);
+            final Measurement jumpPoint = measure(queries, q -> grid.bestPath(q[0], q[1], q[2], q[3], path));
+
+            System.out.printf(
+                "%s: A* %.1f us, %d expansions, %d moves per search; jump point %.1f us, %d expansions, %d moves, %.1f B per search%n",
+                dir.getName(),
+                aStar.micros(), expansions / queries.length, moves / queries.length,
+                jumpPoint.micros(), jumpExpansions / queries.length, jumpMoves / queries.length, jumpPoint.bytes()
+            );
+            assertTrue(dir.getName() + " allocated " + jumpPoint.bytes() + " bytes per search.", jumpPoint.bytes() < 1);
+        }
+    }
+
+    /**
+     * Follows a path the way entities do, cutting clear diagonal corners.
+     * @param grid Grid the path is on
+     * @param query Query the path was found for, as {fromX, fromY, toX, toY}
+     * @param path Path leaving out the start
+     * @return Moves taken to reach the target
+     */
+    private static int walk(final PathfindingGrid grid, final int[] query, final PathBuffer path) {
+        int x = query[0];
+        int y = query[1];
+        int next = 0;
+        int moves = 0;
+        int steps;
+        while ((steps = grid.stepsToTake(x, y, path, next)) != 0) {
+            next += steps;
+            assertTrue(Math.abs(path.getX(next - 1) - x) <= 1 && Math.abs(path.getY(next - 1) - y) <= 1);
+            x = path.getX(next - 1);
+            y = path.getY(next - 1);
+            moves++;
+        }
+        assertEquals(query[2], x);
+        assertEquals(query[3], y);
+        return moves;
+    }
+
+    /**
+     * Loads every map file in a shipped map's directory.
+     * @param dir Map directory
+     * @return Pathfinding grid for the map
+     * @throws IOException Unable to read the map
+     */
+    private static PathfindingGrid load(final File dir) throws IOException {
+        final List<InputStream> files = new ArrayList<>();
+        try {
+            for (final File file : dir.listFiles((d, name) -> name.endsWith(".kbmap"))) {
+                files.add(new FileInputStream(file));
+            }
+            return new PathfindingGrid(MapLoader.load(files));
+        } finally {
+            for (final InputStream in : files) in.close();
+        }
+    }
+
+    /**
+     * Picks random pairs of open tiles.
+     * @param grid Grid to pick on
+     * @param random Random source
+     * @return Queries as {fromX, fromY, toX, toY}
+     */
+    private static int[][] queries(final PathfindingGrid grid, final Random random) {
+        final int[][] queries = new int[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            final int[] from = openTile(grid, random);
+            final int[] to = openTile(grid, random);
+            queries[i] = new int[] {from[0], from[1], to[0], to[1]};
+        }
+        return queries;
+    }
+
+    /**
+     * Picks a random open tile.
+     * @param grid Grid to pick on
+     * @param random Random source
+     * @return Tile as {x, y}
+     */
+    private static int[] openTile(final PathfindingGrid grid, final Random random) {
+        while (true) {
+            final int x = grid.getMinX() + random.nextInt(grid.getWidth());
+            final int y = grid.getMinY() + random.nextInt(grid.getHeight());
+            if (grid.isOpen(x, y)) return new int[] {x, y};
+        }
+    }
+
+    /**
+     * Runs every query repeatedly and measures time and allocation once warmed up.
+     * @param queries Queries to run
+     * @param search Search to run each query through
+     * @return Averages per search
+     */
+    private Measurement measure(final int[][] queries, final Search search) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (final int[] q : queries) search.run(q);
+        }
+
+        final long bytesBefore = threads.getCurrentThreadAllocatedBytes();
+        final long nanosBefore = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (final int[] q : queries) search.run(q);
+        }
+        final long nanos = System.nanoTime() - nanosBefore;
+        final long bytes = threads.getCurrentThreadAllocatedBytes() - bytesBefore;
+
+        final int searches = ROUNDS * queries.length;
+        return new Measurement(nanos / 1000.0 / searches, (double) bytes / searches);
+    }
+
+    /**
+     * Checks that a path moves one open tile at a time.
+     * @param grid Grid the path is on
+     * @param fromX Starting tile X
+     * @param fromY Starting tile Y
+     * @param path Path leaving out the start
+     */
+    private static void assertWalkable(final PathfindingGrid grid, final int fromX, final int fromY, final PathBuffer path) {
+        int x = fromX;
+        int y = fromY;
+        for (int i = 0; i < path.size(); i++) {
+            assertEquals(1, Math.abs(path.getX(i) - x) + Math.abs(path.getY(i) - y));
+            assertTrue(grid.isOpen(path.getX(i), path.getY(i)));
+            x = path.getX(i);
+            y = path.getY(i);
+        }
+    }
+
+    /**
+     * The A* this grid used before it searched over flat arrays: coordinate records in hash maps,
+     *  and boxed costs in a priority queue.
+     * @param grid Grid to search
+     * @param fromX Starting tile X
+     * @param fromY Starting tile Y
+     * @param toX Target tile X
+     * @param toY Target tile Y
+     * @return Path leaving out the start, or null if there's none
+     */
+    private static List<TileCoordinates> referencePath(final PathfindingGrid grid, final int fromX, final int fromY, final int toX, final int toY) {
+        final TileCoordinates[] neighbors = new TileCoordinates[] {new TileCoordinates(0, 1), new TileCoordinates(0, -1), new TileCoordinates(1, 0), new TileCoordinates(-1, 0)};
+        final Map<TileCoordinates, TileCoordinates> path = new HashMap<>();
+        final Map<TileCoordinates, Integer> cost = new HashMap<>();
+        final PriorityQueue<SimpleEntry<TileCoordinates, Integer>> frontier = new PriorityQueue<>(10, (x, y) -> x.getValue() - y.getValue());
+
+        final TileCoordinates start = new TileCoordinates(fromX, fromY);
+        final TileCoordinates end = new TileCoordinates(toX, toY);
+        frontier.add(new SimpleEntry<>(start, 0));
+        path.put(start, start);
+        cost.put(start, 0);
+
+        while (!frontier.isEmpty()) {
+            final TileCoordinates current = frontier.poll().getKey();
+            if (current.equals(end)) {
+                final List<TileCoordinates> followedPath = new ArrayList<>();
+                TileCoordinates c = end;
+                while (!c.equals(start)) {
+                    followedPath.add(c);
+                    c = path.get(c);
+                }
+                return followedPath.reversed();
+            }
+
+            for (final TileCoordinates c : neighbors) {
+                final TileCoordinates next = new TileCoordinates(current.x() + c.x(), current.y() + c.y());
+                if (!grid.isOpen(next.x(), next.y())) continue;
+
+                final int newCost = cost.get(current) + 1;
+                if (!cost.containsKey(next) || newCost < cost.get(next)) {
+                    cost.put(next, newCost);
+                    frontier.add(new SimpleEntry<>(next, newCost + Math.abs(end.x() - next.x()) + Math.abs(end.y() - next.y())));
+                    path.put(next, current);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A search to measure.
+     */
+    private static interface Search {
+        /**
+         * Runs one query.
+         * @param query Query, usually {fromX, fromY, toX, toY}
+         */
+        public void run(final int[] query);
+    }
+
+    /**
+     * Averages from a measurement.
+     * @param micros Microseconds per search
+     * @param bytes Bytes allocated per search
+     */
+    private static record Measurement(double micros, double bytes) {}
+}
@@ -27,6 +27,7 @@ dependencies {
     implementation("com.fasterxml.jackson.core:jackson-core:2.11.4")
     implementation("com.fasterxml.jackson.core:jackson-databind:2.11.4")
     implementation("com.fasterxml.jackson.core:jackson-annotations:2.11.4")
+    implementation("com.fasterxml.jackson.dataformat:jackson-dataformat-smile:2.11.4")
     implementation("org.slf4j:slf4j-api:2.0.12")
     implementation("io.github.classgraph:classgraph:4.8.168")
 }
@@ -0,0 +1,175 @@
+package today.tecktip.killbill.common.gameserver;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import today.tecktip.killbill.common.gameserver.MessageHandler.InvokeCommandMethod;
+import today.tecktip.killbill.common.gameserver.MessageHandler.MessageCommandMethod;
+import today.tecktip.killbill.common.gameserver.annotations.Command;
+import today.tecktip.killbill.common.gameserver.annotations.CommandMethod;
+import today.tecktip.killbill.common.gameserver.annotations.InvokeMethod;
+import today.tecktip.killbill.common.gameserver.annotations.ParseMethod;
+import today.tecktip.killbill.common.gameserver.annotations.ResponseMethod;
+import today.tecktip.killbill.common.gameserver.games.GameType;
+import today.tecktip.killbill.common.gameserver.messages.MessageDataType;
+import today.tecktip.killbill.common.gameserver.messages.MessageData.MessageDataParseMethod;
+
+/**
+ * Stores the methods registered by a command loader, by game type and data type.
+ * <p>
+ * Subclasses decide where the methods come from: {@link ClasspathCommandLoader} scans for them at runtime,
+ *  and the loaders generated by {@link today.tecktip.killbill.common.gameserver.processor.CommandLoaderProcessor}
+ *  register them at build time.
+ * <p>
+ * The register methods are final, so loaders that register from their constructor never call into a subclass.
+ *
+ * @author cs
+ */
+public abstract class AbstractCommandLoader implements CommandLoader {
+    /**
+     * Registered methods annotated with {@link ParseMethod}.
+     */
+    private final Map<GameType, Map<MessageDataType, MessageDataParseMethod>> parseMethods;
+
+    /**
+     * Registered methods annotated with {@link CommandMethod}.
+     */
+    private final Map<GameType, Map<MessageDataType, MessageCommandMethod>> commandMethods;
+
+    /**
+     * Registered methods annotated with {@link ResponseMethod}.
+     */
+    private final Map<GameType, Map<MessageDataType, MessageCommandMethod>> responseMethods;
+
+    /**
+     * Registered methods annotated with {@link InvokeMethod}.
+     */
+    private final Map<GameType, Map<MessageDataType, InvokeCommandMethod>> invokeMethods;
+
+    /**
+     * Constructs a loader with no methods registered.
+     */
+    protected AbstractCommandLoader() {
+        parseMethods = new EnumMap<>(GameType.class);
+        commandMethods = new EnumMap<>(GameType.class);
+        responseMethods = new EnumMap<>(GameType.class);
+        invokeMethods = new EnumMap<>(GameType.class);
+
+        for (GameType type : GameType.values()) {
+            parseMethods.put(type, new EnumMap<>(MessageDataType.class));
+            commandMethods.put(type, new EnumMap<>(MessageDataType.class));
+            responseMethods.put(type, new EnumMap<>(MessageDataType.class));
+            invokeMethods.put(type, new EnumMap<>(MessageDataType.class));
+        }
+    }
+
+    /**
+     * Registers a parse method.
+     * @param gameType Game type to register for
+     * @param dataType Data type to register for
+     * @param method Parse method
+     * @throws RuntimeException A parse method is already registered for these types
+     */
+    protected final void registerParseMethod(final GameType gameType, final MessageDataType dataType, final MessageDataParseMethod method) {
+        register(parseMethods, "parse", gameType, dataType, method);
+    }
+
+    /**
+     * Registers a command method.
+     * @param gameType Game type to register for
+     * @param dataType Data type to register for
+     * @param method Command method
+     * @throws RuntimeException A command method is already registered for these types
+     */
+    protected final void registerCommandMethod(final GameType gameType, final MessageDataType dataType, final MessageCommandMethod method) {
+        register(commandMethods, "command", gameType, dataType, method);
+    }
+
+    /**
+     * Registers a response method.
+     * @param gameType Game type to register for
+     * @param dataType Data type to register for
+     * @param method Response method
+     * @throws RuntimeException A response method is already registered for these types
+     */
+    protected final void registerResponseMethod(final GameType gameType, final MessageDataType dataType, final MessageCommandMethod method) {
+        register(responseMethods, "response", gameType, dataType, method);
+    }
+
+    /**
+     * Registers an invoke method.
+     * @param gameType Game type to register for
+     * @param dataType Data type to register for
+     * @param method Invoke method
+     * @throws RuntimeException An invoke method is already registered for these types
+     */
+    protected final void registerInvokeMethod(final GameType gameType, final MessageDataType dataType, final InvokeCommandMethod method) {
+        register(invokeMethods, "invoke", gameType, dataType, method);
+    }
+
+    /**
+     * Registers a method, refusing duplicates.
+     * @param <T> Method type
+     * @param methods Registered methods of this kind
+     * @param kind Kind of method, for errors
+     * @param gameType Game type to register for
+     * @param dataType Data type to register for
+     * @param method Method to register
+     */
+    private static <T> void register(final Map<GameType, Map<MessageDataType, T>> methods, final String kind, final GameType gameType, final MessageDataType dataType, final T method) {
+        if (methods.get(gameType).putIfAbsent(dataType, method) != null) {
+            throw new RuntimeException("Duplicate " + kind + " method: game=" + gameType + ", type=" + dataType);
+        }
+    }
+
+    /**
+     * Rethrows any exception unchanged, checked or not. Lets registered lambdas wrap methods that declare
+     *  more checked exceptions than their functional interface, without wrapping what they throw.
+     * @param t Exception to rethrow
+     * @return Never returns. Declared so callers can write <code>throw rethrow(e);</code>
+     */
+    protected static RuntimeException rethrow(final Throwable t) {
+        throw AbstractCommandLoader.<RuntimeException>uncheckedThrow(t);
+    }
+
+    /**
+     * Throws an exception as if it were of another type, which hides checked exceptions from the compiler.
+     * @param <T> Exception type the compiler sees
+     * @param t Exception to throw
+     * @return Never returns
+     * @throws T Always
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> T uncheckedThrow(final Throwable t) throws T {
+        throw (T) t;
+    }
+
+    @Override
+    public MessageDataParseMethod parseMethodFor(final GameType gameType, final MessageDataType dataType) throws IllegalArgumentException {
+        return parseMethods.get(gameType).get(dataType);
+    }
+
+    @Override
+    public MessageCommandMethod commandMethodFor(final GameType gameType, final MessageDataType dataType) throws IllegalArgumentException {
+        return commandMethods.get(gameType).get(dataType);
+    }
+
+    @Override
+    public MessageCommandMethod responseMethodFor(final GameType gameType, final MessageDataType dataType) throws IllegalArgumentException {
+        return responseMethods.get(gameType).get(dataType);
+    }
+
+    @Override
+    public InvokeCommandMethod invokeMethodFor(final GameType gameType, final MessageDataType dataType) throws IllegalArgumentException {
+        return invokeMethods.get(gameType).get(dataType);
+    }
+
+    @Override
+    public void forGameType(final Command commandAnnotation, final GameTypeIteratorMethod action) {
+        if (commandAnnotation.gameTypes().length == 0) {
+            for (GameType gameType : GameType.values()) action.run(gameType);
+        } else {
+            for (GameType gameType : commandAnnotation.gameTypes()) action.run(gameType);
+        }
+    }
+}
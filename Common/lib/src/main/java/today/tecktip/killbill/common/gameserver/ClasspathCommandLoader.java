@@ -1,30 +1,36 @@
 package today.tecktip.killbill.common.gameserver;
 
 import java.io.IOException;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonParser;
+
 import io.github.classgraph.ClassGraph;
 import io.github.classgraph.ClassInfo;
 import io.github.classgraph.MethodInfo;
 import io.github.classgraph.ScanResult;
+import today.tecktip.killbill.common.gameserver.MessageHandler.CommandContext;
 import today.tecktip.killbill.common.gameserver.MessageHandler.InvokeCommandMethod;
+import today.tecktip.killbill.common.gameserver.MessageHandler.InvokeContext;
 import today.tecktip.killbill.common.gameserver.MessageHandler.MessageCommandMethod;
 import today.tecktip.killbill.common.gameserver.annotations.Command;
 import today.tecktip.killbill.common.gameserver.annotations.CommandMethod;
 import today.tecktip.killbill.common.gameserver.annotations.InvokeMethod;
 import today.tecktip.killbill.common.gameserver.annotations.ParseMethod;
 import today.tecktip.killbill.common.gameserver.annotations.ResponseMethod;
-import today.tecktip.killbill.common.gameserver.games.GameType;
+import today.tecktip.killbill.common.gameserver.messages.IncomingMessage;
 import today.tecktip.killbill.common.gameserver.messages.MessageData;
-import today.tecktip.killbill.common.gameserver.messages.MessageDataType;
 import today.tecktip.killbill.common.gameserver.messages.MessageData.MessageDataParseMethod;
 
 /**
@@ -33,31 +39,26 @@ import today.tecktip.killbill.common.gameserver.messages.MessageData.MessageData
  * 
  * @author cs
  */
-public class ClasspathCommandLoader implements CommandLoader {
+public class ClasspathCommandLoader extends AbstractCommandLoader {
     /**
      * Logger
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(ClasspathCommandLoader.class);
 
     /**
-     * Registered methods annotated with {@link ParseMethod}.
+     * Signature of {@link MessageDataParseMethod#parse}.
      */
-    private Map<GameType, Map<MessageDataType, MessageDataParseMethod>> parseMethods;
+    private static final MethodType PARSE_METHOD_TYPE = MethodType.methodType(MessageData.class, JsonParser.class);
 
     /**
-     * Registered methods annotated with {@link CommandMethod}.
+     * Signature of {@link MessageCommandMethod#run}.
      */
-    private Map<GameType, Map<MessageDataType, MessageCommandMethod>> commandMethods;
+    private static final MethodType COMMAND_METHOD_TYPE = MethodType.methodType(void.class, MessageHandler.class, IncomingMessage.class, CommandContext.class);
 
     /**
-     * Registered methods annotated with {@link ResponseMethod}.
+     * Signature of {@link InvokeCommandMethod#run}.
      */
-    private Map<GameType, Map<MessageDataType, MessageCommandMethod>> responseMethods;
-
-    /**
-     * Registered methods annotated with {@link InvokeMethod}.
-     */
-    private Map<GameType, Map<MessageDataType, InvokeCommandMethod>> invokeMethods;
+    private static final MethodType INVOKE_METHOD_TYPE = MethodType.methodType(void.class, MessageHandler.class, InvokeContext.class);
 
     /**
      * List of all instantiated command objects.
@@ -68,27 +69,21 @@ public class ClasspathCommandLoader implements CommandLoader {
      * Constructs an empty CommandLoader.
      */
     public ClasspathCommandLoader() {
-        parseMethods = new HashMap<>();
-        commandMethods = new HashMap<>();
-        responseMethods = new HashMap<>();
-        invokeMethods = new HashMap<>();
         instantiatedCommands = new ArrayList<>();
-
-        for (GameType type : GameType.values()) {
-            parseMethods.put(type, new HashMap<>());
-            commandMethods.put(type, new HashMap<>());
-            responseMethods.put(type, new HashMap<>());
-            invokeMethods.put(type, new HashMap<>());
-        }
     }
     
     /**
      * Scans the classpath (starting at a particular package) for classes with a particular annotation.
+     * <p>
+     * Each annotated method is bound to its command instance through {@link LambdaMetafactory}, so
+     *  dispatching a message calls it directly instead of going through reflection.
      * @param packageName Package where commands may be located
      * @throws IOException Failed to read files
      * @throws ClassNotFoundException Failed to load class
+     * @throws IllegalAccessException Command class or method isn't accessible
+     * @throws LambdaConversionException Annotated method doesn't have the signature its annotation needs
      */
-    public void load(final String packageName) throws IOException, ClassNotFoundException, NoSuchMethodException, InstantiationException, IllegalAccessException, InvocationTargetException {
+    public void load(final String packageName) throws IOException, ClassNotFoundException, NoSuchMethodException, InstantiationException, IllegalAccessException, InvocationTargetException, LambdaConversionException {
         try (ScanResult scanResult = 
             new ClassGraph()
                 .enableAllInfo()
@@ -108,76 +103,36 @@ public class ClasspathCommandLoader implements CommandLoader {
                         Method method = methodInfo.loadClassAndGetMethod();
                         ParseMethod parseAnnotation = method.getAnnotation(ParseMethod.class);
                         debugBuilder.append(" parse=" + parseAnnotation.type());
-                        
-                        forGameType(commandAnnotation, (gameType) -> {
-                            if (parseMethods.get(gameType).containsKey(parseAnnotation.type())) {
-                                throw new RuntimeException("Duplicate parse method: game=" + gameType + ", type=" + parseAnnotation.type());
-                            }
-                            parseMethods.get(gameType).put(parseAnnotation.type(), (node) -> {
-                                try {
-                                    return (MessageData) method.invoke(instantiatedCommand, node);
-                                } catch (final IllegalAccessException | InvocationTargetException e) {
-                                    throw new RuntimeException(e);
-                                }
-                            });
-                        });
+
+                        final MessageDataParseMethod parseMethod = bind(MessageDataParseMethod.class, "parse", PARSE_METHOD_TYPE, instantiatedCommand, method);
+                        forGameType(commandAnnotation, (gameType) -> registerParseMethod(gameType, parseAnnotation.type(), parseMethod));
                     }
 
                     else if (methodInfo.hasAnnotation(CommandMethod.class)) {
                         Method method = methodInfo.loadClassAndGetMethod();
                         CommandMethod commandMethodAnnotation = method.getAnnotation(CommandMethod.class);
                         debugBuilder.append(" cmd=" + commandMethodAnnotation.type());
-                        
-                        forGameType(commandAnnotation, (gameType) -> {
-                            if (commandMethods.get(gameType).containsKey(commandMethodAnnotation.type())) {
-                                throw new RuntimeException("Duplicate command method: game=" + gameType + ", type=" + commandMethodAnnotation.type());
-                            }
-                            commandMethods.get(gameType).put(commandMethodAnnotation.type(), (handler, message, context) -> {
-                                try {
-                                    method.invoke(instantiatedCommand, handler, message, context);
-                                } catch (final IllegalAccessException | InvocationTargetException e) {
-                                    throw new RuntimeException(e);
-                                }
-                            });
-                        });
+
+                        final MessageCommandMethod commandMethod = bind(MessageCommandMethod.class, "run", COMMAND_METHOD_TYPE, instantiatedCommand, method);
+                        forGameType(commandAnnotation, (gameType) -> registerCommandMethod(gameType, commandMethodAnnotation.type(), commandMethod));
                     }
 
                     else if (methodInfo.hasAnnotation(ResponseMethod.class)) {
                         Method method = methodInfo.loadClassAndGetMethod();
                         ResponseMethod responseAnnotation = method.getAnnotation(ResponseMethod.class);
                         debugBuilder.append(" resp=" + responseAnnotation.type());
-                        
-                        forGameType(commandAnnotation, (gameType) -> {
-                            if (responseMethods.get(gameType).containsKey(responseAnnotation.type())) {
-                                throw new RuntimeException("Duplicate response method: game=" + gameType + ", type=" + responseAnnotation.type());
-                            }
-                            responseMethods.get(gameType).put(responseAnnotation.type(), (handler, message, context) -> {
-                                try {
-                                    method.invoke(instantiatedCommand, handler, message, context);
-                                } catch (final IllegalAccessException | InvocationTargetException e) {
-                                    throw new RuntimeException(e);
-                                }
-                            });
-                        });
+
+                        final MessageCommandMethod responseMethod = bind(MessageCommandMethod.class, "run", COMMAND_METHOD_TYPE, instantiatedCommand, method);
+                        forGameType(commandAnnotation, (gameType) -> registerResponseMethod(gameType, responseAnnotation.type(), responseMethod));
                     }
 
                     else if (methodInfo.hasAnnotation(InvokeMethod.class)) {
                         Method method = methodInfo.loadClassAndGetMethod();
                         InvokeMethod invokeAnnotation = method.getAnnotation(InvokeMethod.class);
                         debugBuilder.append(" invoke=" + invokeAnnotation.type());
-                        
-                        forGameType(commandAnnotation, (gameType) -> {
-                            if (invokeMethods.get(gameType).containsKey(invokeAnnotation.type())) {
-                                throw new RuntimeException("Duplicate invoke method: game=" + gameType + ", type=" + invokeAnnotation.type());
-                            }
-                            invokeMethods.get(gameType).put(invokeAnnotation.type(), (handler, context) -> {
-                                try {
-                                    method.invoke(instantiatedCommand, handler, context);
-                                } catch (final IllegalAccessException | InvocationTargetException e) {
-                                    throw new RuntimeException(e);
-                                }
-                            });
-                        });
+
+                        final InvokeCommandMethod invokeMethod = bind(InvokeCommandMethod.class, "run", INVOKE_METHOD_TYPE, instantiatedCommand, method);
+                        forGameType(commandAnnotation, (gameType) -> registerInvokeMethod(gameType, invokeAnnotation.type(), invokeMethod));
                     }
                 }
 
@@ -187,32 +142,35 @@ public class ClasspathCommandLoader implements CommandLoader {
         }
     }
 
-    @Override
-    public MessageDataParseMethod parseMethodFor(final GameType gameType, final MessageDataType dataType) throws IllegalArgumentException {
-        return parseMethods.get(gameType).get(dataType);
-    }
-
-    @Override
-    public MessageCommandMethod commandMethodFor(final GameType gameType, final MessageDataType dataType) throws IllegalArgumentException {
-        return commandMethods.get(gameType).get(dataType);
-    }
-
-    @Override
-    public MessageCommandMethod responseMethodFor(final GameType gameType, final MessageDataType dataType) throws IllegalArgumentException {
-        return responseMethods.get(gameType).get(dataType);
-    }
-
-    @Override
-    public InvokeCommandMethod invokeMethodFor(final GameType gameType, final MessageDataType dataType) throws IllegalArgumentException {
-        return invokeMethods.get(gameType).get(dataType);
-    }
-    
-    @Override
-    public void forGameType(final Command commandAnnotation, final GameTypeIteratorMethod action) {
-        if (commandAnnotation.gameTypes().length == 0) {
-            for (GameType gameType : GameType.values()) action.run(gameType);
-        } else {
-            for (GameType gameType : commandAnnotation.gameTypes()) action.run(gameType);
+    /**
+     * Generates an implementation of a functional interface that calls a command method on its instance.
+     * @param <T> Functional interface type
+     * @param type Functional interface
+     * @param name Name of the interface's single abstract method
+     * @param signature Signature of the interface's single abstract method
+     * @param command Command instance to call the method on
+     * @param method Annotated method
+     * @return Bound implementation
+     * @throws IllegalAccessException Command class or method isn't accessible
+     * @throws LambdaConversionException Method can't implement the interface
+     */
+    private static <T> T bind(final Class<T> type, final String name, final MethodType signature, final Object command, final Method method) throws IllegalAccessException, LambdaConversionException {
+        // Define the implementation alongside the command class, so it can see it whatever its class loader
+        final MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(command.getClass(), MethodHandles.lookup());
+        final CallSite site = LambdaMetafactory.metafactory(
+            lookup,
+            name,
+            MethodType.methodType(type, command.getClass()),
+            signature,
+            lookup.unreflect(method),
+            signature
+        );
+
+        try {
+            return type.cast(site.getTarget().invoke(command));
+        } catch (final Throwable t) {
+            // The factory only captures the instance
+            throw new IllegalStateException("Unable to bind " + method + " to " + type.getSimpleName() + ".", t);
         }
     }
 }
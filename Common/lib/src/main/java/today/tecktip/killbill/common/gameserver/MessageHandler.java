@@ -2,15 +2,22 @@ package today.tecktip.killbill.common.gameserver;
 
 
 import java.time.Instant;
-import java.util.HashMap;
 import java.util.Objects;
-import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 
 import today.tecktip.killbill.common.exceptions.MessageFailure;
+import today.tecktip.killbill.common.gameserver.codec.DatagramBundle;
+import today.tecktip.killbill.common.gameserver.codec.WireFormat;
 import today.tecktip.killbill.common.gameserver.messages.IncomingMessage;
 import today.tecktip.killbill.common.gameserver.messages.OutgoingMessage;
+import today.tecktip.killbill.common.gameserver.ratelimit.RateLimiter;
+import today.tecktip.killbill.common.gameserver.reliability.DuplicateWindow;
+import today.tecktip.killbill.common.gameserver.reliability.RetransmitQueue;
+import today.tecktip.killbill.common.gameserver.reliability.SelectiveAck;
+import today.tecktip.killbill.common.gameserver.reliability.SequenceNumbers;
+import today.tecktip.killbill.common.gameserver.reliability.SequenceRing;
 
 public interface MessageHandler {
     /**
@@ -24,14 +31,27 @@ public interface MessageHandler {
     public static final int RETRY_DELAY_INCREMENT_MS = 100;
 
     /**
-     * Time after which outgoing messages will be discarded from the retry queue.
+     * Viability sent with outgoing messages that don't set their own. How long they're actually kept
+     *  in the retry queue follows from the connection's round trip time.
      */
     public static final int DEFAULT_OUTGOING_MESSAGE_VIABILITY = 4000;
 
     /**
-     * Time increment between re-asks for un-acked outgoing messages with a messageId.
+     * Delay before resending un-acked outgoing messages with a messageId, until the round trip time is measured.
      */
-    public static final int UNACKED_RETRY_DELAY_INCREMENT_MS = 500;
+    public static final int INITIAL_RETRANSMIT_TIMEOUT_MS = 500;
+
+    /**
+     * Number of recent world snapshots a client keeps to decode deltas against. The server never
+     *  encodes against a snapshot older than this.
+     */
+    public static final int SNAPSHOT_BASELINES = 64;
+
+    /**
+     * Number of consecutive message IDs each end of a connection keeps track of, for commands waiting
+     *  to be acked, responses that may need resending, and commands already received.
+     */
+    public static final int SEQUENCE_WINDOW = 1024;
 
     /**
      * Sends a message to a UDP client. Prefer {@link UdpClient#send(OutgoingMessage)} where possible.
@@ -55,6 +75,21 @@ public interface MessageHandler {
      */
     public void send(final UdpClient client, final OutgoingMessage message, final int maxRetries) throws JsonProcessingException;
 
+    /**
+     * Sends the same message to several UDP clients.
+     * <p>
+     * If the message needs a message ID, each client's copy is numbered from its own connection so
+     *  they can be acked separately. Implementations may serialize the data once and share it between clients.
+     * @param clients Clients to send the message to
+     * @param message Message to send
+     * @throws JsonProcessingException Unable to serialize as JSON
+     */
+    public default void broadcast(final Iterable<UdpClient> clients, final OutgoingMessage message) throws JsonProcessingException {
+        for (final UdpClient client : clients) {
+            send(client, message);
+        }
+    }
+
     /**
      * Gets the command loader associated with this message handler.
      * @return Pre-loaded command loader
@@ -72,10 +107,12 @@ public interface MessageHandler {
      * @param ip Client's IP address
      * @param port Client's port
      * @param handler Message handler creating the client
-     * @param respQueue Response message queue
-     * @param cmdQueue Command queue
+     * @param respQueue Responses that may need resending, by the message ID they ack
+     * @param cmdQueue Commands waiting to be acked
+     * @param connection Per-connection state negotiated with the client
+     * @param limiter Rate limits for traffic from the client
      */
-    public record UdpClient(String ip, int port, MessageHandler handler, HashMap<UUID, OutgoingResponse> respQueue, HashMap<UUID, OutgoingCommand> cmdQueue) {
+    public record UdpClient(String ip, int port, MessageHandler handler, SequenceRing<OutgoingResponse> respQueue, RetransmitQueue cmdQueue, ConnectionState connection, RateLimiter limiter) {
         /**
          * Sends a message to this client. Retries up to {@link #MAX_RETRIES} times.
          * @param message Outgoing message to send
@@ -99,6 +136,193 @@ public interface MessageHandler {
         }
     }
 
+    /**
+     * Mutable state associated with a single connection, such as the negotiated wire format.
+     */
+    public class ConnectionState {
+        /**
+         * Format used for outgoing messages
+         */
+        private volatile WireFormat wireFormat;
+
+        /**
+         * Messages waiting to be sent together in one datagram
+         */
+        private final DatagramBundle outbound;
+
+        /**
+         * Last message ID given to an outgoing message
+         */
+        private final AtomicInteger lastMessageId;
+
+        /**
+         * Message IDs of commands already received
+         */
+        private final DuplicateWindow received;
+
+        /**
+         * Message IDs of received commands acked through the selective ack header
+         */
+        private final DuplicateWindow acked;
+
+        /**
+         * True if both ends agreed during connect to start datagrams with a selective ack header
+         */
+        private volatile boolean ackHeaders;
+
+        /**
+         * Selective ack header for {@link #acked}, kept up to date so any thread can send it
+         */
+        private volatile long ackHeader;
+
+        /**
+         * True if the ack header has changed, or was asked for again, since it was last sent
+         */
+        private volatile boolean ackPending;
+
+        /**
+         * Constructs a new connection state using the default {@link WireFormat#JSON} format, without
+         *  ack headers.
+         */
+        public ConnectionState() {
+            wireFormat = WireFormat.JSON;
+            ackHeaders = false;
+            outbound = new DatagramBundle(DatagramBundle.DEFAULT_CAPACITY);
+            lastMessageId = new AtomicInteger(SequenceNumbers.NONE);
+            received = new DuplicateWindow(SEQUENCE_WINDOW);
+            acked = new DuplicateWindow(SEQUENCE_WINDOW);
+            ackHeader = SelectiveAck.NONE;
+            ackPending = false;
+        }
+
+        /**
+         * Gets the next message ID for an outgoing message on this connection.
+         * @return Message ID
+         */
+        public int nextMessageId() {
+            return lastMessageId.updateAndGet(SequenceNumbers::next);
+        }
+
+        /**
+         * Gets the message IDs of commands already received on this connection. Only touch this
+         *  from the thread that processes the connection's messages.
+         * @return Received commands
+         */
+        public DuplicateWindow getReceived() {
+            return received;
+        }
+
+        /**
+         * Acks a received command through the selective ack header of the next datagram, in place of
+         *  a bare ack response (see {@link OutgoingMessage#isBareAck()}). Only call this from the thread
+         *  that processes the connection's messages.
+         * @param messageId Message ID of the command
+         * @return True if the header carries the ack. If not, the connection has no ack headers or the
+         *  command is too far behind the newest one acked, and the bare ack response has to be sent as a message.
+         */
+        public boolean ack(final int messageId) {
+            if (!ackHeaders) return false;
+            acked.mark(messageId);
+            ackHeader = acked.ackHeader();
+            if (!inHeader(messageId)) return false;
+            ackPending = true;
+            return true;
+        }
+
+        /**
+         * Sends the selective ack header again with the next datagram if it acks a command, because the
+         *  other end has resent it. Only call this from the thread that processes the connection's messages.
+         * @param messageId Message ID of the resent command
+         * @return True if the command was acked through the header. If not, send a bare ack response.
+         */
+        public boolean resendAck(final int messageId) {
+            if (!ackHeaders || !acked.contains(messageId) || !inHeader(messageId)) return false;
+            ackPending = true;
+            return true;
+        }
+
+        /**
+         * Checks if a message ID is close enough to the newest one acked to be carried by the header.
+         *  The header only covers the newest ID and the {@link SelectiveAck#BITS} before it.
+         * @param messageId Message ID
+         * @return True if the header can carry it
+         */
+        private boolean inHeader(final int messageId) {
+            final int behind = SelectiveAck.newest(ackHeader) - messageId;
+            return behind >= 0 && behind <= SelectiveAck.BITS;
+        }
+
+        /**
+         * Checks if the selective ack header should be sent even if there are no messages to go with it.
+         * @return True if an ack is waiting to be sent
+         */
+        public boolean isAckPending() {
+            return ackPending;
+        }
+
+        /**
+         * Gets the selective ack header to send with the next datagram. Safe to call from any thread.
+         * @return Packed header
+         */
+        public long takeAckHeader() {
+            ackPending = false;
+            return ackHeader;
+        }
+
+        /**
+         * Forgets every command received and acked, for a client starting over with a new connection.
+         *  Only call this from the thread that processes the connection's messages.
+         */
+        public void resetReceived() {
+            received.clear();
+            acked.clear();
+            ackHeader = SelectiveAck.NONE;
+            ackPending = false;
+        }
+
+        /**
+         * Gets the format outgoing messages are encoded with.
+         * @return Wire format
+         */
+        public WireFormat getWireFormat() {
+            return wireFormat;
+        }
+
+        /**
+         * Sets the format outgoing messages are encoded with.
+         * @param wireFormat Wire format
+         */
+        public void setWireFormat(final WireFormat wireFormat) {
+            this.wireFormat = wireFormat;
+        }
+
+        /**
+         * Checks if datagrams on this connection start with a selective ack header. Until they do, bare
+         *  ack responses are sent as messages. See {@link DatagramBundle}.
+         * @return True if ack headers were negotiated
+         */
+        public boolean usesAckHeaders() {
+            return ackHeaders;
+        }
+
+        /**
+         * Sets whether datagrams on this connection start with a selective ack header. Only call this
+         *  once both ends have agreed to it during connect.
+         * @param ackHeaders True to send ack headers
+         */
+        public void setAckHeaders(final boolean ackHeaders) {
+            this.ackHeaders = ackHeaders;
+        }
+
+        /**
+         * Gets the messages waiting to be sent to this connection. Synchronize on it before use.
+         * @return Outbound bundle
+         */
+        public DatagramBundle getOutbound() {
+            return outbound;
+        }
+    }
+
     /**
      * Basic interface representing commands that can be called by the command handler.
      */
@@ -140,22 +364,6 @@ public interface MessageHandler {
         }
     }
 
-    /**
-     * Stores an outgoing command-type message, along with its UDP client, so that it can be re-sent in case the client does not ack it in time.
-     * @param client UDP client the packet was sent to
-     * @param message The outoing message
-     * @param sends The number of times the message has been sent so far
-     * @param lastSent The last time the message was sent
-     * @param viabilityDeadline After this time with no response, the message will be auto-cleared
-     */
-    public record OutgoingCommand(UdpClient client, OutgoingMessage message, int sendCount, Instant lastSent, Instant viabilityDeadline) {
-        public OutgoingCommand {
-            Objects.requireNonNull(message, "'message' cannot be null");
-            Objects.requireNonNull(lastSent, "'lastSent' cannot be null");
-            Objects.requireNonNull(viabilityDeadline, "'viabilityDeadline' cannot be null");
-        }
-    }
-
     /**
      * Contains extra data (like game or user states) to be sent along to command callbacks.
      * Empty by default, designed to be extended with any necessary data.
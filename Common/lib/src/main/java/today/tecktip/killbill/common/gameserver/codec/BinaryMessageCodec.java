@@ -0,0 +1,368 @@
+package today.tecktip.killbill.common.gameserver.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileParser;
+
+import today.tecktip.killbill.common.gameserver.messages.MessageData;
+import today.tecktip.killbill.common.gameserver.messages.MessageEnvelope;
+import today.tecktip.killbill.common.gameserver.messages.RawMessageData;
+import today.tecktip.killbill.common.gameserver.messages.OutgoingMessage;
+
+/**
+ * Compact binary wire format.
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ * 'K' 'B' version flags
+ * createdAt           8 bytes, epoch millis
+ * [messageId]         4 bytes, if FLAG_MESSAGE_ID
+ * [ackMessageId]      4 bytes, if FLAG_ACK_MESSAGE_ID
+ * [viability]         4 bytes, if FLAG_VIABILITY
+ * [key]               2 byte length + UTF-8, if FLAG_KEY
+ * data                Smile-encoded object (no Smile header), remainder of the payload
+ * </pre>
+ * Message data is encoded as Smile since each endpoint defines its own {@link today.tecktip.killbill.common.gameserver.messages.MessageData}
+ *  classes, so the same Jackson annotations drive both formats.
+ * @author cs
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    /**
+     * First magic byte of every binary message.
+     */
+    public static final byte MAGIC_0 = 'K';
+
+    /**
+     * Second magic byte of every binary message.
+     */
+    public static final byte MAGIC_1 = 'B';
+
+    /**
+     * Current binary format version.
+     */
+    public static final byte VERSION = 2;
+
+    /**
+     * Set if the success field is present.
+     */
+    private static final int FLAG_HAS_SUCCESS = 0x01;
+
+    /**
+     * Value of the success field, if present.
+     */
+    private static final int FLAG_SUCCESS = 0x02;
+
+    /**
+     * Set if a message ID follows the timestamp.
+     */
+    private static final int FLAG_MESSAGE_ID = 0x04;
+
+    /**
+     * Set if an ack message ID follows.
+     */
+    private static final int FLAG_ACK_MESSAGE_ID = 0x08;
+
+    /**
+     * Set if a viability follows.
+     */
+    private static final int FLAG_VIABILITY = 0x10;
+
+    /**
+     * Set if a key follows.
+     */
+    private static final int FLAG_KEY = 0x20;
+
+    /**
+     * Size of the fixed header (magic, version, flags, createdAt).
+     */
+    private static final int FIXED_HEADER_SIZE = 12;
+
+    /**
+     * Object mapper for Smile serialization and deserialization
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper(
+        SmileFactory.builder()
+            .disable(SmileGenerator.Feature.WRITE_HEADER)
+            .disable(SmileParser.Feature.REQUIRE_HEADER)
+            .build()
+    );
+
+    /**
+     * Stream for each thread writing Smile data into buffers
+     */
+    private static final ThreadLocal<BufferOutputStream> STREAM = ThreadLocal.withInitial(BufferOutputStream::new);
+
+    /**
+     * Checks if a payload starts with the binary magic bytes.
+     * @param payload Buffer containing the payload
+     * @param offset Offset of the first payload byte
+     * @param length Length of the payload
+     * @return True if this is a binary message
+     */
+    public static boolean matches(final byte[] payload, final int offset, final int length) {
+        return length >= 2 && payload[offset] == MAGIC_0 && payload[offset + 1] == MAGIC_1;
+    }
+
+    @Override
+    public byte[] encodeData(final MessageData data) throws JsonProcessingException {
+        return MAPPER.writeValueAsBytes(data);
+    }
+
+    @Override
+    public byte[] encode(final OutgoingMessage message, final byte[] data) {
+        final ByteBuffer buf = ByteBuffer.allocate(headerSize(message) + data.length);
+        putHeader(message, buf);
+        buf.put(data);
+        return buf.array();
+    }
+
+    @Override
+    public void encode(final OutgoingMessage message, final byte[] data, final ByteBuffer out) throws BufferOverflowException {
+        putHeader(message, out);
+        out.put(data);
+    }
+
+    @Override
+    public void encode(final OutgoingMessage message, final ByteBuffer out) throws JsonProcessingException, BufferOverflowException {
+        putHeader(message, out);
+
+        final BufferOutputStream stream = STREAM.get();
+        stream.target = out;
+        try {
+            MAPPER.writeValue(stream, message.data());
+        } catch (final JsonProcessingException e) {
+            throw e;
+        } catch (final IOException e) {
+            // Buffers are written in memory, so this doesn't happen
+            throw new IllegalStateException("Unable to write message data to buffer.", e);
+        } finally {
+            stream.target = null;
+        }
+    }
+
+    /**
+     * Gets the size of a message's header once encoded.
+     * @param message Message to measure
+     * @return Header size in bytes
+     * @throws IllegalArgumentException The key is too long to encode
+     */
+    private static int headerSize(final OutgoingMessage message) throws IllegalArgumentException {
+        int size = FIXED_HEADER_SIZE;
+        if (message.messageId() != null) size += 4;
+        if (message.ackMessageId() != null) size += 4;
+        if (message.viability() != null) size += 4;
+        if (message.key() != null) size += 2 + keyLength(message.key());
+        return size;
+    }
+
+    /**
+     * Writes a message's header into a buffer.
+     * @param message Message to take the header fields from
+     * @param out Buffer to write to
+     * @throws IllegalArgumentException The key is too long to encode
+     * @throws BufferOverflowException The header doesn't fit in the buffer
+     */
+    private static void putHeader(final OutgoingMessage message, final ByteBuffer out) throws IllegalArgumentException, BufferOverflowException {
+        int flags = 0;
+        if (message.success() != null) {
+            flags |= FLAG_HAS_SUCCESS;
+            if (message.success()) flags |= FLAG_SUCCESS;
+        }
+        if (message.messageId() != null) flags |= FLAG_MESSAGE_ID;
+        if (message.ackMessageId() != null) flags |= FLAG_ACK_MESSAGE_ID;
+        if (message.viability() != null) flags |= FLAG_VIABILITY;
+        if (message.key() != null) flags |= FLAG_KEY;
+
+        out.put(MAGIC_0).put(MAGIC_1).put(VERSION).put((byte) flags);
+        out.putLong(message.createdAt());
+        if (message.messageId() != null) out.putInt(message.messageId());
+        if (message.ackMessageId() != null) out.putInt(message.ackMessageId());
+        if (message.viability() != null) out.putInt(message.viability());
+        if (message.key() != null) {
+            out.putShort((short) keyLength(message.key()));
+            putUtf8(message.key(), out);
+        }
+    }
+
+    /**
+     * Gets the encoded length of a key, refusing keys too long for their length header.
+     * @param key Key to measure
+     * @return Length in bytes
+     * @throws IllegalArgumentException The key is too long to encode
+     */
+    private static int keyLength(final String key) throws IllegalArgumentException {
+        final int length = utf8Length(key);
+        if (length > 0xFFFF) throw new IllegalArgumentException("Key is too long to encode.");
+        return length;
+    }
+
+    /**
+     * Gets the length of a string in UTF-8, without encoding it. Unpaired surrogates count as one byte,
+     *  since they're replaced with '?' just like {@link String#getBytes}.
+     * @param text Text to measure
+     * @return Length in bytes
+     */
+    private static int utf8Length(final String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c < 0x80) length += 1;
+            else if (c < 0x800) length += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            }
+            else if (Character.isSurrogate(c)) length += 1;
+            else length += 3;
+        }
+        return length;
+    }
+
+    /**
+     * Writes a string into a buffer as UTF-8, without allocating an intermediate array. Produces the same
+     *  bytes as {@link String#getBytes} with {@link StandardCharsets#UTF_8}.
+     * @param text Text to write
+     * @param out Buffer to write to
+     * @throws BufferOverflowException The text doesn't fit in the buffer
+     */
+    private static void putUtf8(final String text, final ByteBuffer out) throws BufferOverflowException {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                out.put((byte) (0xF0 | (codePoint >> 18)));
+                out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    @Override
+    public MessageEnvelope decode(final byte[] payload, final int offset, final int length) throws IllegalArgumentException {
+        if (!matches(payload, offset, length)) {
+            throw new IllegalArgumentException("Not a binary message.");
+        }
+
+        final ByteBuffer buf = ByteBuffer.wrap(payload, offset, length);
+        final Integer messageId;
+        final Integer ackMessageId;
+        final String key;
+        final Instant createdAt;
+        try {
+            buf.position(buf.position() + 2);
+            final byte version = buf.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported binary message version: " + version);
+            }
+            final int flags = buf.get();
+
+            createdAt = Instant.ofEpochMilli(buf.getLong());
+            messageId = (flags & FLAG_MESSAGE_ID) != 0 ? buf.getInt() : null;
+            ackMessageId = (flags & FLAG_ACK_MESSAGE_ID) != 0 ? buf.getInt() : null;
+            if ((flags & FLAG_VIABILITY) != 0) buf.getInt();
+            if ((flags & FLAG_KEY) != 0) {
+                final int keyLength = buf.getShort() & 0xFFFF;
+                if (keyLength > buf.remaining()) throw new BufferUnderflowException();
+                key = new String(payload, buf.position(), keyLength, StandardCharsets.UTF_8);
+                buf.position(buf.position() + keyLength);
+            } else {
+                key = null;
+            }
+        } catch (final BufferUnderflowException e) {
+            throw new IllegalArgumentException("Binary message header is truncated.");
+        }
+
+        if (key == null) {
+            throw new IllegalArgumentException("Incoming messages must contain a game key field.");
+        }
+
+        RawMessageData data = null;
+        if (buf.hasRemaining()) {
+            try (JsonParser parser = MAPPER.getFactory().createParser(payload, buf.position(), buf.remaining())) {
+                if (parser.nextToken() != null) data = RawMessageData.read(parser);
+            } catch (final IOException e) {
+                throw new IllegalArgumentException("Unable to parse binary message data.");
+            }
+        }
+
+        // Binary messages carry both IDs when present, but commands take priority (matching JSON parsing)
+        return new MessageEnvelope(createdAt, messageId, messageId == null ? ackMessageId : null, data, key);
+    }
+
+    @Override
+    public String peekType(final byte[] payload, final int offset, final int length) throws IllegalArgumentException {
+        if (!matches(payload, offset, length)) {
+            throw new IllegalArgumentException("Not a binary message.");
+        }
+
+        // Skips the header without reading any of it but the flags
+        final int flags;
+        int position = offset + FIXED_HEADER_SIZE;
+        try {
+            if (payload[offset + 2] != VERSION) {
+                throw new IllegalArgumentException("Unsupported binary message version: " + payload[offset + 2]);
+            }
+            flags = payload[offset + 3];
+            if ((flags & FLAG_MESSAGE_ID) != 0) position += 4;
+            if ((flags & FLAG_ACK_MESSAGE_ID) != 0) position += 4;
+            if ((flags & FLAG_VIABILITY) != 0) position += 4;
+            if ((flags & FLAG_KEY) != 0) position += 2 + (((payload[position] & 0xFF) << 8) | (payload[position + 1] & 0xFF));
+        } catch (final ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Binary message header is truncated.");
+        }
+
+        final int end = offset + length;
+        if (position > end) throw new IllegalArgumentException("Binary message header is truncated.");
+        if (position == end) return null;
+
+        try (JsonParser parser = MAPPER.getFactory().createParser(payload, position, end - position)) {
+            return parser.nextToken() == null ? null : RawMessageData.peekType(parser);
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("Unable to parse binary message data.");
+        }
+    }
+
+    /**
+     * Output stream writing into whichever buffer is being encoded into, so Smile data goes straight
+     *  into it. Kept per thread rather than made per message.
+     */
+    private static class BufferOutputStream extends OutputStream {
+        /**
+         * Buffer being written to, or null between messages
+         */
+        private ByteBuffer target;
+
+        @Override
+        public void write(final int b) throws BufferOverflowException {
+            target.put((byte) b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws BufferOverflowException {
+            target.put(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package today.tecktip.killbill.common.gameserver.codec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of same-sized direct buffers for building and sending datagrams.
+ * <p>
+ * Direct buffers are written to the socket without the copy into native memory a heap buffer needs, but
+ *  they're expensive to allocate and are only freed when collected. Pooling them means the buffers themselves
+ *  are never allocated once the pool is warm, though encoding each message still is. Buffers are handed out
+ *  most-recently-released first, so the ones in use stay in cache.
+ * <p>
+ * Free buffers sit in an array sized up front, so acquiring and releasing allocate nothing themselves.
+ * <p>
+ * Thread safe.
+ * @author cs
+ */
+public class BufferPool {
+    /**
+     * Buffers waiting to be acquired. Never holds more than {@link #maxPooled}, so it never grows.
+     */
+    private final ArrayDeque<ByteBuffer> free;
+
+    /**
+     * Capacity of every buffer in the pool
+     */
+    private final int bufferSize;
+
+    /**
+     * Most buffers kept once released
+     */
+    private final int maxPooled;
+
+    /**
+     * Constructs a new, empty pool. Buffers are allocated as they're first needed.
+     * @param bufferSize Capacity of every buffer in the pool, in bytes
+     * @param maxPooled Most buffers kept once released. Any more are left to be collected.
+     */
+    public BufferPool(final int bufferSize, final int maxPooled) {
+        if (bufferSize <= 0) throw new IllegalArgumentException("Buffer size must be positive.");
+        if (maxPooled <= 0) throw new IllegalArgumentException("Pool must keep at least one buffer.");
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        free = new ArrayDeque<>(maxPooled);
+    }
+
+    /**
+     * Takes a buffer from the pool, allocating one if it's empty. It must be given back with {@link #release}.
+     * @return Cleared direct buffer
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer;
+        synchronized (free) {
+            buffer = free.pollFirst();
+        }
+        if (buffer == null) buffer = ByteBuffer.allocateDirect(bufferSize);
+        return buffer.clear();
+    }
+
+    /**
+     * Gives a buffer back to the pool. It must not be used again by the caller.
+     * @param buffer Buffer from {@link #acquire}
+     * @throws IllegalArgumentException The buffer didn't come from a pool of this size
+     */
+    public void release(final ByteBuffer buffer) throws IllegalArgumentException {
+        if (!buffer.isDirect() || buffer.capacity() != bufferSize) {
+            throw new IllegalArgumentException("Buffer does not belong to this pool.");
+        }
+
+        synchronized (free) {
+            if (free.size() < maxPooled) free.addFirst(buffer);
+        }
+    }
+
+    /**
+     * Gets the capacity of every buffer in the pool.
+     * @return Buffer size in bytes
+     */
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Gets the number of buffers waiting to be acquired.
+     * @return Free buffer count
+     */
+    public int available() {
+        synchronized (free) {
+            return free.size();
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package today.tecktip.killbill.common.gameserver.codec;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import today.tecktip.killbill.common.gameserver.messages.OutgoingMessage;
+import today.tecktip.killbill.common.gameserver.reliability.SelectiveAck;
+
+/**
+ * Packs several encoded messages into one datagram.
+ * <p>
+ * Every message is preceded by a 4-byte big-endian length header, and a datagram is any number of
+ *  these frames back to back.
+ * <p>
+ * Connections that negotiated ack headers during connect also start each datagram with a selective
+ *  ack header (see {@link SelectiveAck}), filled in when it's sent: a marker byte, then the 8-byte
+ *  header. Such a datagram may hold no frames at all if it only carries acks. Length headers always
+ *  start with a zero byte, so the marker tells the two framings apart and receivers don't need to know
+ *  what was negotiated. Receivers should read every frame with {@link #unpack}.
+ * <p>
+ * Not thread safe. Callers sharing a bundle between threads should synchronize on it.
+ * @author cs
+ */
+public class DatagramBundle {
+    /**
+     * Size of the length header preceding each message.
+     */
+    public static final int LENGTH_HEADER_SIZE = 4;
+
+    /**
+     * First byte of a datagram starting with a selective ack header.
+     */
+    public static final byte ACK_HEADER_MARKER = (byte) 0xAC;
+
+    /**
+     * Size of the selective ack header at the start of each datagram, including its marker byte.
+     */
+    public static final int ACK_HEADER_SIZE = 9;
+
+    /**
+     * Largest datagram a bundle will fill. Stays under a typical internet MTU once IP and UDP headers
+     *  are added, so bundles are never fragmented.
+     */
+    public static final int DEFAULT_CAPACITY = 1200;
+
+    /**
+     * Framed messages waiting to be sent
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Number of messages in the buffer
+     */
+    private int count;
+
+    /**
+     * Constructs a new, empty bundle.
+     * @param capacity Largest datagram this bundle will fill, in bytes
+     */
+    public DatagramBundle(final int capacity) {
+        buffer = ByteBuffer.allocate(capacity);
+        buffer.position(ACK_HEADER_SIZE);
+        count = 0;
+    }
+
+    /**
+     * Gets the size a message will take up once framed.
+     * @param payloadLength Encoded message length
+     * @return Framed length
+     */
+    public static int frameSize(final int payloadLength) {
+        return LENGTH_HEADER_SIZE + payloadLength;
+    }
+
+    /**
+     * Frames a single message as its own datagram.
+     * @param ackHeader Selective ack header to send with it
+     * @param payload Encoded message
+     * @return Datagram bytes
+     */
+    public static byte[] single(final long ackHeader, final byte[] payload) {
+        return ByteBuffer.allocate(ACK_HEADER_SIZE + frameSize(payload.length))
+            .put(ACK_HEADER_MARKER)
+            .putLong(ackHeader)
+            .putInt(payload.length)
+            .put(payload)
+            .array();
+    }
+
+    /**
+     * Frames a single message as its own datagram, without an ack header.
+     * @param payload Encoded message
+     * @return Datagram bytes
+     */
+    public static byte[] single(final byte[] payload) {
+        return ByteBuffer.allocate(frameSize(payload.length))
+            .putInt(payload.length)
+            .put(payload)
+            .array();
+    }
+
+    /**
+     * Creates a datagram that only carries acks.
+     * @param ackHeader Selective ack header to send
+     * @return Datagram bytes
+     */
+    public static byte[] ackOnly(final long ackHeader) {
+        return ByteBuffer.allocate(ACK_HEADER_SIZE)
+            .put(ACK_HEADER_MARKER)
+            .putLong(ackHeader)
+            .array();
+    }
+
+    /**
+     * Frames a single message as its own datagram, encoding it straight into a buffer. The buffer is
+     *  flipped afterwards, ready to send once its ack header is filled in with {@link #putAckHeader}.
+     *  The header is left until then so acks aren't taken for a message that fails to encode.
+     * @param out Cleared buffer to write the datagram into
+     * @param codec Codec to encode the message with
+     * @param message Message to encode
+     * @throws JsonProcessingException Unable to serialize the message data
+     * @throws BufferOverflowException The datagram doesn't fit in the buffer
+     */
+    public static void writeSingle(final ByteBuffer out, final MessageCodec codec, final OutgoingMessage message) throws JsonProcessingException, BufferOverflowException {
+        final int lengthAt = out.position() + ACK_HEADER_SIZE;
+        out.position(lengthAt + LENGTH_HEADER_SIZE);
+        codec.encode(message, out);
+        out.putInt(lengthAt, out.position() - lengthAt - LENGTH_HEADER_SIZE);
+        out.flip();
+    }
+
+    /**
+     * Frames a single message around data that has already been encoded, straight into a buffer. See
+     *  {@link #writeSingle(ByteBuffer, MessageCodec, OutgoingMessage)}.
+     * @param out Cleared buffer to write the datagram into
+     * @param codec Codec the data was encoded with
+     * @param message Message to take the header fields from
+     * @param data Data encoded by {@link MessageCodec#encodeData} of the codec
+     * @throws BufferOverflowException The datagram doesn't fit in the buffer
+     */
+    public static void writeSingle(final ByteBuffer out, final MessageCodec codec, final OutgoingMessage message, final byte[] data) throws BufferOverflowException {
+        final int lengthAt = out.position() + ACK_HEADER_SIZE;
+        out.position(lengthAt + LENGTH_HEADER_SIZE);
+        codec.encode(message, data, out);
+        out.putInt(lengthAt, out.position() - lengthAt - LENGTH_HEADER_SIZE);
+        out.flip();
+    }
+
+    /**
+     * Writes a datagram that only carries acks into a buffer. The buffer is flipped afterwards, ready to send.
+     * @param out Cleared buffer to write the datagram into
+     * @param ackHeader Selective ack header to send
+     */
+    public static void writeAckOnly(final ByteBuffer out, final long ackHeader) {
+        out.put(ACK_HEADER_MARKER);
+        out.putLong(ackHeader);
+        out.flip();
+    }
+
+    /**
+     * Fills in the ack header of a datagram written by {@link #writeSingle}.
+     * @param datagram Flipped buffer holding the datagram
+     * @param ackHeader Selective ack header to send with it
+     */
+    public static void putAckHeader(final ByteBuffer datagram, final long ackHeader) {
+        datagram.put(datagram.position(), ACK_HEADER_MARKER);
+        datagram.putLong(datagram.position() + 1, ackHeader);
+    }
+
+    /**
+     * Leaves the ack header out of a datagram written by {@link #writeSingle}, for connections that
+     *  didn't negotiate one.
+     * @param datagram Flipped buffer holding the datagram
+     */
+    public static void omitAckHeader(final ByteBuffer datagram) {
+        datagram.position(datagram.position() + ACK_HEADER_SIZE);
+    }
+
+    /**
+     * Gets the largest datagram this bundle will fill.
+     * @return Capacity in bytes
+     */
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Checks if a message fits in the space left in this bundle.
+     * @param payloadLength Encoded message length
+     * @return True if it fits
+     */
+    public boolean fits(final int payloadLength) {
+        return frameSize(payloadLength) <= buffer.remaining();
+    }
+
+    /**
+     * Checks if this bundle has no messages.
+     * @return True if empty
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Gets the number of messages in this bundle.
+     * @return Message count
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Adds a message to this bundle.
+     * @param payload Encoded message
+     * @throws IllegalStateException The message doesn't fit
+     */
+    public void add(final byte[] payload) throws IllegalStateException {
+        if (!fits(payload.length)) throw new IllegalStateException("Message of " + payload.length + " bytes does not fit in bundle.");
+        buffer.putInt(payload.length);
+        buffer.put(payload);
+        count++;
+    }
+
+    /**
+     * Removes every message from this bundle.
+     * @param ackHeader Selective ack header to send with the messages
+     * @return Datagram holding the removed messages, or null if the bundle was empty
+     */
+    public byte[] drain(final long ackHeader) {
+        if (count == 0) return null;
+
+        buffer.put(0, ACK_HEADER_MARKER);
+        buffer.putLong(1, ackHeader);
+        return drainFrom(0);
+    }
+
+    /**
+     * Removes every message from this bundle, without an ack header.
+     * @return Datagram holding the removed messages, or null if the bundle was empty
+     */
+    public byte[] drain() {
+        if (count == 0) return null;
+        return drainFrom(ACK_HEADER_SIZE);
+    }
+
+    /**
+     * Copies out this bundle's datagram and empties it.
+     * @param start Offset the datagram starts at: 0 to include the ack header, or {@link #ACK_HEADER_SIZE} to leave it out
+     * @return Datagram bytes
+     */
+    private byte[] drainFrom(final int start) {
+        final byte[] datagram = Arrays.copyOfRange(buffer.array(), start, buffer.position());
+        buffer.clear();
+        buffer.position(ACK_HEADER_SIZE);
+        count = 0;
+        return datagram;
+    }
+
+    /**
+     * Checks if a received datagram starts with a selective ack header.
+     * @param datagram Buffer containing the datagram
+     * @param offset Offset of the first datagram byte
+     * @param length Length of the datagram
+     * @return True if it has one
+     */
+    public static boolean hasAckHeader(final byte[] datagram, final int offset, final int length) {
+        return length > 0 && datagram[offset] == ACK_HEADER_MARKER;
+    }
+
+    /**
+     * Reads the selective ack header of a received datagram.
+     * @param datagram Buffer containing the datagram
+     * @param offset Offset of the first datagram byte
+     * @param length Length of the datagram
+     * @return Packed header, or {@link SelectiveAck#NONE} if the datagram has none
+     * @throws IllegalArgumentException The datagram is too short for the header it starts with
+     */
+    public static long ackHeaderOf(final byte[] datagram, final int offset, final int length) throws IllegalArgumentException {
+        if (!hasAckHeader(datagram, offset, length)) return SelectiveAck.NONE;
+        if (length < ACK_HEADER_SIZE) throw new IllegalArgumentException("Datagram of " + length + " bytes is too short for an ack header.");
+        return readLong(datagram, offset + 1);
+    }
+
+    /**
+     * Reads every message in a received datagram, skipping the ack header if it has one.
+     * @param datagram Buffer containing the datagram
+     * @param offset Offset of the first datagram byte
+     * @param length Length of the datagram
+     * @param handler Handler to run on each message
+     * @return Number of messages read
+     * @throws IllegalArgumentException The datagram is too short for the ack header it starts with, or a
+     *  length header runs past the end of the datagram
+     */
+    public static int unpack(final byte[] datagram, final int offset, final int length, final FrameHandler handler) throws IllegalArgumentException {
+        final boolean ackHeader = hasAckHeader(datagram, offset, length);
+        if (ackHeader && length < ACK_HEADER_SIZE) throw new IllegalArgumentException("Datagram of " + length + " bytes is too short for an ack header.");
+        final int end = offset + length;
+        int position = offset + (ackHeader ? ACK_HEADER_SIZE : 0);
+        int frames = 0;
+        while (end - position >= LENGTH_HEADER_SIZE) {
+            final int frameLength = readInt(datagram, position);
+            position += LENGTH_HEADER_SIZE;
+            if (frameLength < 0 || frameLength > end - position) {
+                throw new IllegalArgumentException("Length header " + frameLength + " exceeds remaining datagram size " + (end - position) + ".");
+            }
+
+            handler.handle(datagram, position, frameLength);
+            position += frameLength;
+            frames++;
+        }
+        return frames;
+    }
+
+    /**
+     * Reads a big-endian int from an array. Receiving is on the client's steady-state path, so this
+     *  avoids wrapping the array in a buffer for every datagram.
+     * @param bytes Array to read from
+     * @param offset Offset of the first byte
+     * @return Value read
+     */
+    private static int readInt(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xFF) << 24
+            | (bytes[offset + 1] & 0xFF) << 16
+            | (bytes[offset + 2] & 0xFF) << 8
+            | (bytes[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Reads a big-endian long from an array. See {@link #readInt}.
+     * @param bytes Array to read from
+     * @param offset Offset of the first byte
+     * @return Value read
+     */
+    private static long readLong(final byte[] bytes, final int offset) {
+        return (readInt(bytes, offset) & 0xFFFFFFFFL) << 32 | (readInt(bytes, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Receives the messages read from a datagram.
+     */
+    public static interface FrameHandler {
+        /**
+         * Handles one message.
+         * @param payload Buffer containing the message
+         * @param offset Offset of the first message byte
+         * @param length Length of the message
+         */
+        public void handle(final byte[] payload, final int offset, final int length);
+    }
+}
@@ -0,0 +1,119 @@
+package today.tecktip.killbill.common.gameserver.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import today.tecktip.killbill.common.gameserver.messages.MessageData;
+import today.tecktip.killbill.common.gameserver.messages.MessageEnvelope;
+import today.tecktip.killbill.common.gameserver.messages.OutgoingMessage;
+import today.tecktip.killbill.common.gameserver.messages.RawMessageData;
+
+/**
+ * The original wire format: the message serialized as JSON text, encoded as UTF-16.
+ * <p>
+ * Kept for clients which do not negotiate a format during connect.
+ * @author cs
+ */
+public class JsonMessageCodec implements MessageCodec {
+    /**
+     * The charset JSON messages are encoded with.
+     */
+    public static final Charset CHARSET = Charset.forName("UTF-16");
+
+    /**
+     * Object mapper for JSON serialization and deserialization
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Charset for the parts of a message after the start. {@link #CHARSET} adds a byte order mark to
+     *  the front of everything it encodes, which only belongs at the very start of the payload.
+     */
+    private static final Charset CONTINUATION_CHARSET = StandardCharsets.UTF_16BE;
+
+    @Override
+    public byte[] encodeData(final MessageData data) throws JsonProcessingException {
+        return MAPPER.writeValueAsString(data).getBytes(CONTINUATION_CHARSET);
+    }
+
+    @Override
+    public byte[] encode(final OutgoingMessage message, final byte[] data) {
+        // Same fields and order as serializing the whole message
+        final StringBuilder header = new StringBuilder(160)
+            .append("{\"createdAt\":").append(message.createdAt())
+            .append(",\"success\":").append(message.success())
+            .append(",\"messageId\":").append(message.messageId())
+            .append(",\"ackMessageId\":").append(message.ackMessageId())
+            .append(",\"viability\":").append(message.viability())
+            .append(",\"data\":");
+
+        final StringBuilder trailer = new StringBuilder(64).append(",\"key\":");
+        appendString(trailer, message.key());
+        trailer.append('}');
+
+        final byte[] start = header.toString().getBytes(CHARSET);
+        final byte[] end = trailer.toString().getBytes(CONTINUATION_CHARSET);
+        return ByteBuffer.allocate(start.length + data.length + end.length)
+            .put(start)
+            .put(data)
+            .put(end)
+            .array();
+    }
+
+    /**
+     * Appends a JSON string value, or null.
+     * @param out Builder to append to
+     * @param value Value to append
+     */
+    private static void appendString(final StringBuilder out, final String value) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        JsonStringEncoder.getInstance().quoteAsString(value, out);
+        out.append('"');
+    }
+
+    @Override
+    public MessageEnvelope decode(final byte[] payload, final int offset, final int length) throws IllegalArgumentException {
+        // Jackson detects UTF-16 from the leading byte order mark (or the zero byte before '{'), so
+        //  the payload is read straight from the buffer in a single pass
+        try (JsonParser parser = MAPPER.getFactory().createParser(payload, offset, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                // Still has to be valid JSON to get this far
+                parser.skipChildren();
+                throw new IllegalArgumentException("Message payload must be a JSON object.");
+            }
+            return MessageEnvelope.fromJson(parser);
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("Unable to parse message payload as JSON.");
+        }
+    }
+
+    @Override
+    public String peekType(final byte[] payload, final int offset, final int length) throws IllegalArgumentException {
+        try (JsonParser parser = MAPPER.getFactory().createParser(payload, offset, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Message payload must be a JSON object.");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                parser.nextToken();
+                if ("data".equals(name)) return RawMessageData.peekType(parser);
+                parser.skipChildren();
+            }
+            return null;
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("Unable to parse message payload as JSON.");
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package today.tecktip.killbill.common.gameserver.codec;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import today.tecktip.killbill.common.gameserver.messages.MessageData;
+import today.tecktip.killbill.common.gameserver.messages.MessageEnvelope;
+import today.tecktip.killbill.common.gameserver.messages.OutgoingMessage;
+
+/**
+ * Converts messages to and from the bytes sent over the wire (excluding the 4-byte length header).
+ * @author cs
+ */
+public interface MessageCodec {
+    /**
+     * Encodes an outgoing message into a datagram payload.
+     * @param message Message to encode
+     * @return Encoded payload
+     * @throws JsonProcessingException Unable to serialize the message data
+     */
+    public default byte[] encode(final OutgoingMessage message) throws JsonProcessingException {
+        return encode(message, encodeData(message.data()));
+    }
+
+    /**
+     * Encodes just the data payload of a message. The result can be passed to {@link #encode(OutgoingMessage, byte[])}
+     *  any number of times, so a message going to many clients is only serialized once.
+     * @param data Message data
+     * @return Encoded data, only meaningful to this codec
+     * @throws JsonProcessingException Unable to serialize the message data
+     */
+    public byte[] encodeData(final MessageData data) throws JsonProcessingException;
+
+    /**
+     * Encodes an outgoing message around data that has already been encoded. The message's own data
+     *  is ignored.
+     * @param message Message to take the header fields from
+     * @param data Data encoded by {@link #encodeData} of this codec
+     * @return Encoded payload
+     */
+    public byte[] encode(final OutgoingMessage message, final byte[] data);
+
+    /**
+     * Encodes an outgoing message straight into a buffer, starting at its position. Afterwards, the buffer's
+     *  position is just past the payload.
+     * <p>
+     * The default implementation encodes to an array first and copies it. Codecs used on the client's
+     *  steady-state send path override it to skip the intermediate arrays.
+     * @param message Message to encode
+     * @param out Buffer to write the payload into
+     * @throws JsonProcessingException Unable to serialize the message data
+     * @throws BufferOverflowException The payload doesn't fit in the buffer
+     */
+    public default void encode(final OutgoingMessage message, final ByteBuffer out) throws JsonProcessingException, BufferOverflowException {
+        out.put(encode(message));
+    }
+
+    /**
+     * Encodes an outgoing message around data that has already been encoded, straight into a buffer.
+     *  See {@link #encode(OutgoingMessage, byte[])}.
+     * @param message Message to take the header fields from
+     * @param data Data encoded by {@link #encodeData} of this codec
+     * @param out Buffer to write the payload into
+     * @throws BufferOverflowException The payload doesn't fit in the buffer
+     */
+    public default void encode(final OutgoingMessage message, final byte[] data, final ByteBuffer out) throws BufferOverflowException {
+        out.put(encode(message, data));
+    }
+
+    /**
+     * Decodes a datagram payload into a message envelope. The data payload is left unparsed.
+     * @param payload Buffer containing the payload
+     * @param offset Offset of the first payload byte
+     * @param length Length of the payload
+     * @return Decoded envelope
+     * @throws IllegalArgumentException Malformed payload
+     */
+    public MessageEnvelope decode(final byte[] payload, final int offset, final int length) throws IllegalArgumentException;
+
+    /**
+     * Reads just the data type of a datagram payload, so it can be classified before it's decoded.
+     *  Stops as soon as the type is found, and buffers nothing.
+     * @param payload Buffer containing the payload
+     * @param offset Offset of the first payload byte
+     * @param length Length of the payload
+     * @return Text of the data's type field, as {@link today.tecktip.killbill.common.gameserver.messages.RawMessageData#type()}
+     *  would give it after decoding, or null if the message has no data type
+     * @throws IllegalArgumentException Malformed payload
+     */
+    public String peekType(final byte[] payload, final int offset, final int length) throws IllegalArgumentException;
+}
@@ -0,0 +1,67 @@
+package today.tecktip.killbill.common.gameserver.codec;
+
+/**
+ * The formats messages can be encoded with on the wire. Chosen by the client during COMMAND_CONNECT.
+ * <p>
+ * Incoming messages are always sniffed with {@link #detect}, so either end may switch formats
+ *  without dropping messages already in flight.
+ * @author cs
+ */
+public enum WireFormat {
+    /**
+     * JSON text encoded as UTF-16. The default until a format is negotiated.
+     */
+    JSON(new JsonMessageCodec()),
+
+    /**
+     * Compact binary header with a Smile data payload. See {@link BinaryMessageCodec}.
+     */
+    BINARY(new BinaryMessageCodec());
+
+    /**
+     * Codec which reads and writes this format.
+     */
+    private final MessageCodec codec;
+
+    /**
+     * Constructs a new wire format.
+     * @param codec Codec which reads and writes this format
+     */
+    private WireFormat(final MessageCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Gets the codec for this format.
+     * @return Message codec
+     */
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Determines the format of an incoming payload.
+     * @param payload Buffer containing the payload
+     * @param offset Offset of the first payload byte
+     * @param length Length of the payload
+     * @return Detected format
+     */
+    public static WireFormat detect(final byte[] payload, final int offset, final int length) {
+        if (BinaryMessageCodec.matches(payload, offset, length)) return BINARY;
+        return JSON;
+    }
+
+    /**
+     * Parses a requested format, falling back to {@link #JSON} if it is missing or unknown.
+     * @param name Format name
+     * @return Wire format
+     */
+    public static WireFormat fromName(final String name) {
+        if (name == null) return JSON;
+        try {
+            return WireFormat.valueOf(name);
+        } catch (final IllegalArgumentException e) {
+            return JSON;
+        }
+    }
+}
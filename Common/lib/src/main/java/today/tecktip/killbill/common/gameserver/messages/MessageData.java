@@ -1,7 +1,11 @@
 package today.tecktip.killbill.common.gameserver.messages;
 
+import java.io.IOException;
+
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import today.tecktip.killbill.common.gameserver.CommandLoader;
 import today.tecktip.killbill.common.gameserver.games.GameType;
@@ -12,6 +16,11 @@ import today.tecktip.killbill.common.gameserver.games.GameType;
  * @author cs
  */
 public abstract class MessageData {
+    /**
+     * Object mapper for reading data classes off a parser
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     /**
      * The type of this message data.
      */
@@ -35,22 +44,21 @@ public abstract class MessageData {
     }
 
     /**
-     * Parses out the MessageData of this JSON object depending on the supplied type.
+     * Parses out the MessageData of a message's data object depending on the supplied type.
      * @param gameType Type of game being played
      * @param commandLoader Command loader (should be already loaded)
-     * @param json The "data" field of the message received
+     * @param data The "data" field of the message received
      * @return A parsed data object
      */
-    public static MessageData from(final GameType gameType, final CommandLoader commandLoader, final JsonNode json) {
+    public static MessageData from(final GameType gameType, final CommandLoader commandLoader, final RawMessageData data) {
         // Convert type to a type enum
-        if (!json.has("type")) {
+        if (data.type() == null) {
             throw new IllegalArgumentException("Message data must include a 'type' field.");
         }
 
-        final String typeStr = json.get("type").asText();
         final MessageDataType type;
         try {
-            type = MessageDataType.valueOf(typeStr);
+            type = MessageDataType.valueOf(data.type());
         } catch (final Exception e) {
             throw new IllegalArgumentException("Invalid message data type.");
         }
@@ -60,19 +68,88 @@ public abstract class MessageData {
         if (method == null) {
             throw new UnsupportedOperationException("This data type is not currently accepted.");
         }
-        return method.parse(json);
+        return method.parse(data.parser());
+    }
+
+    /**
+     * Reads a value straight off a parser with Jackson, failing the same way converting a JSON node would.
+     * @param <T> Value type
+     * @param parser Parser whose current token is the value's first token
+     * @param type Value class
+     * @return Read value
+     * @throws IllegalArgumentException Value doesn't match the class
+     */
+    public static <T> T read(final JsonParser parser, final Class<T> type) throws IllegalArgumentException {
+        try {
+            return MAPPER.readValue(parser, type);
+        } catch (final IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
     }
 
     /**
-     * A method used to parse incoming message data JSON into {@link MessageData}.
+     * Walks the fields of the object a parser is on, for data classes parsed by hand.
+     * <p>
+     * Values the reader doesn't consume are skipped.
+     * @param parser Parser whose current token is the object's {@link JsonToken#START_OBJECT}
+     * @param reader Called with the parser on each field's value
+     * @throws IllegalArgumentException The parser isn't on an object, or the reader failed
+     */
+    public static void readFields(final JsonParser parser, final FieldReader reader) throws IllegalArgumentException {
+        try {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Expected an object.");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                parser.nextToken();
+                reader.read(name, parser);
+                if (parser.currentToken().isStructStart()) parser.skipChildren();
+            }
+        } catch (final IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads a single string field of the object a parser is on, skipping the rest.
+     * @param parser Parser whose current token is the object's {@link JsonToken#START_OBJECT}
+     * @param field Field name
+     * @return Field's text, or null if it's missing or not a string
+     * @throws IllegalArgumentException The parser isn't on an object
+     */
+    public static String readText(final JsonParser parser, final String field) throws IllegalArgumentException {
+        final String[] text = { null };
+        readFields(parser, (name, value) -> {
+            if (name.equals(field)) text[0] = value.currentToken() == JsonToken.VALUE_STRING ? value.getText() : null;
+        });
+        return text[0];
+    }
+
+    /**
+     * A method used to parse incoming message data into {@link MessageData}.
      */
     public static interface MessageDataParseMethod {
         /**
-         * Parses a JSON payload into {@link MessageData}.
-         * @param node JSON payload
+         * Parses a data payload into {@link MessageData}.
+         * @param parser Parser whose current token is the payload's {@link JsonToken#START_OBJECT}
          * @return Resulting message data instance
          * @throws IllegalArgumentException Invalid data. Message is sent back to user.
          */
-        public MessageData parse(final JsonNode node) throws IllegalArgumentException;
+        public MessageData parse(final JsonParser parser) throws IllegalArgumentException;
+    }
+
+    /**
+     * Reads one field of an object for {@link MessageData#readFields}.
+     */
+    public static interface FieldReader {
+        /**
+         * Reads a field's value.
+         * @param name Field name
+         * @param parser Parser whose current token is the value's first token
+         * @throws IOException Unable to read the value
+         */
+        public void read(final String name, final JsonParser parser) throws IOException;
     }
 }
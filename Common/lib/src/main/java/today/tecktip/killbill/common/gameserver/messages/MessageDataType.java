@@ -193,6 +193,17 @@ public enum MessageDataType {
          */
         COMMAND_RECV_BOMB,
 
+        /**
+         * Receives every entity, player and dropped item change from one game tick, encoded
+         *  against snapshots the client has already acknowledged.
+         */
+        COMMAND_RECV_SNAPSHOT,
+
+        /**
+         * Acknowledges a world snapshot so later ones can be encoded against it.
+         */
+        COMMAND_ACK_SNAPSHOT,
+
     /* UNIVERSAL */
 
     /**
@@ -0,0 +1,129 @@
+package today.tecktip.killbill.common.gameserver.messages;
+
+import java.io.IOException;
+import java.time.Instant;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import today.tecktip.killbill.common.gameserver.CommandLoader;
+import today.tecktip.killbill.common.gameserver.games.GameType;
+
+/**
+ * Represents a decoded incoming message whose data payload has not been parsed yet.
+ * <p>
+ * Wire codecs produce envelopes so that the key can be authenticated before the game type
+ *  (and therefore the data parser) is known.
+ * @param createdAt When the message was generated.
+ * @param messageId Message id to be acknowledged in the response
+ * @param ackMessageId Message ID this message is acknowledging
+ * @param data Unparsed message payload
+ * @param key Game API key
+ *
+ * @author cs
+ */
+public record MessageEnvelope(
+    Instant createdAt,
+    Integer messageId,
+    Integer ackMessageId,
+    RawMessageData data,
+    String key
+) {
+    /**
+     * Reads a JSON message off a parser in one pass, validating its header fields and buffering its data.
+     * <p>
+     * The whole object is read before anything is validated, so malformed JSON is always reported as such.
+     *  Repeated fields take their last value.
+     * @param parser Parser whose current token is the message's {@link JsonToken#START_OBJECT}
+     * @return Message envelope
+     * @throws IOException Malformed JSON
+     * @throws IllegalArgumentException Invalid or missing header fields
+     */
+    public static MessageEnvelope fromJson(final JsonParser parser) throws IOException, IllegalArgumentException {
+        Instant createdAt = null;
+        Integer messageId = null;
+        Integer ackMessageId = null;
+        boolean messageIdValid = true;
+        boolean ackMessageIdValid = true;
+        String key = null;
+        RawMessageData data = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            switch (name) {
+                case "createdAt":
+                    // Millis since epoch are too large for an int
+                    createdAt = value == JsonToken.VALUE_NUMBER_INT && parser.getNumberType() == JsonParser.NumberType.LONG
+                        ? Instant.ofEpochMilli(parser.getLongValue())
+                        : null;
+                    break;
+                case "messageId":
+                    messageIdValid = value == JsonToken.VALUE_NULL || isInt(parser, value);
+                    messageId = isInt(parser, value) ? parser.getIntValue() : null;
+                    break;
+                case "ackMessageId":
+                    ackMessageIdValid = value == JsonToken.VALUE_NULL || isInt(parser, value);
+                    ackMessageId = isInt(parser, value) ? parser.getIntValue() : null;
+                    break;
+                case "key":
+                    key = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    break;
+                case "data":
+                    data = RawMessageData.read(parser);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        if (createdAt == null) {
+            throw new IllegalArgumentException("'createdAt' must be supplied as milliseconds since epoch.");
+        }
+
+        // A command's ID takes priority over the ID it acks
+        if (!messageIdValid) {
+            throw new IllegalArgumentException("Could not parse message ID as a 32-bit sequence number.");
+        }
+        if (messageId != null) {
+            ackMessageId = null;
+        } else if (!ackMessageIdValid) {
+            throw new IllegalArgumentException("Could not parse ack message ID as a 32-bit sequence number.");
+        }
+
+        if (key == null) {
+            throw new IllegalArgumentException("Incoming messages must contain a game key field.");
+        }
+
+        return new MessageEnvelope(createdAt, messageId, ackMessageId, data, key);
+    }
+
+    /**
+     * Checks if the parser is on a number that fits in an int.
+     * @param parser Parser
+     * @param value Current token
+     * @return True if the value is an int
+     * @throws IOException Unable to read the number
+     */
+    private static boolean isInt(final JsonParser parser, final JsonToken value) throws IOException {
+        return value == JsonToken.VALUE_NUMBER_INT && parser.getNumberType() == JsonParser.NumberType.INT;
+    }
+
+    /**
+     * Parses the data payload and converts this envelope into an {@link IncomingMessage}.
+     * @param gameType Type of game being played. Leave as null for no data parsing.
+     * @param commandLoader Command loader (should be already loaded). Leave as null for no data parsing.
+     * @return Parsed message
+     * @throws IllegalArgumentException Invalid or missing data payload
+     */
+    public IncomingMessage open(final GameType gameType, final CommandLoader commandLoader) throws IllegalArgumentException {
+        if (data == null) throw new IllegalArgumentException("Missing 'data' field (Object, required).");
+        if (!data.isObject()) throw new IllegalArgumentException("'data' field must be an Object.");
+
+        MessageData parsed = null;
+        if (gameType != null && commandLoader != null) {
+            parsed = MessageData.from(gameType, commandLoader, data);
+        }
+        return new IncomingMessage(createdAt, messageId, ackMessageId, parsed, key);
+    }
+}
@@ -2,17 +2,18 @@ package today.tecktip.killbill.common.gameserver.messages;
 
 import java.time.Instant;
 import java.util.Objects;
-import java.util.UUID;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import today.tecktip.killbill.common.gameserver.MessageHandler;
+import today.tecktip.killbill.common.gameserver.reliability.SequenceNumbers;
 
 /**
  * Represents a base outgoing message.
  * @param success True if the command was successful, false if an error occurred
- * @param messageId Outgoing message ID to be acked, if applicable
+ * @param messageId Outgoing message ID to be acked, if applicable. A sequence number from the sender's
+ *  connection, or {@link SequenceNumbers#NONE} until the message handler numbers it.
  * @param ackMessageId Message ID acknowledged, if applicable
  * @param viability Time after which the message will be dropped from any retries
  * @param data Message's data payload
@@ -30,8 +31,8 @@ import today.tecktip.killbill.common.gameserver.MessageHandler;
 public record OutgoingMessage(
     @JsonProperty("createdAt") long createdAt,
     @JsonProperty("success") Boolean success,
-    @JsonProperty("messageId") UUID messageId,
-    @JsonProperty("ackMessageId") UUID ackMessageId,
+    @JsonProperty("messageId") Integer messageId,
+    @JsonProperty("ackMessageId") Integer ackMessageId,
     @JsonProperty("viability") Integer viability,
     @JsonProperty("data") MessageData data,
     @JsonProperty("key") String key
@@ -47,6 +48,41 @@ public record OutgoingMessage(
         Objects.requireNonNull(data, "'data' cannot be null. Use EmptyMessage for no data.");
     }
 
+    /**
+     * Copies this message with a different message ID.
+     * @param messageId New message ID
+     * @return Copied message
+     */
+    public OutgoingMessage withMessageId(final int messageId) {
+        return new OutgoingMessage(createdAt, success, messageId, ackMessageId, viability, data, key);
+    }
+
+    /**
+     * Checks if this message needs to be acked but hasn't been given a message ID yet.
+     * @return True if the message handler should number it before sending
+     */
+    public boolean needsMessageId() {
+        return messageId != null && messageId == SequenceNumbers.NONE;
+    }
+
+    /**
+     * Checks if this message is a successful response with no data, which only acks a command.
+     *  Message handlers carry these in the selective ack header of their next datagram instead of sending them.
+     * @return True if this message only acks a command
+     */
+    public boolean isBareAck() {
+        return ackMessageId != null && messageId == null && Boolean.TRUE.equals(success) && MessageDataType.EMPTY.equals(data.getType());
+    }
+
+    /**
+     * Checks if this message is unreliable: it has neither a message ID nor an ack message ID, so it's
+     *  sent once and never acked or resent.
+     * @return True if this message is unreliable
+     */
+    public boolean isUnreliable() {
+        return messageId == null && ackMessageId == null;
+    }
+
     /**
      * Creates a new builder for an empty OutgoingMessage.
      * @return Outgoing message builder
@@ -61,8 +97,8 @@ public record OutgoingMessage(
     public static class Builder {
         private long createdAt = -1;
         private Boolean success;
-        private UUID messageId;
-        private UUID ackMessageId;
+        private Integer messageId;
+        private Integer ackMessageId;
         private MessageData data;
         private Integer viability;
         private String key;
@@ -97,17 +133,18 @@ public record OutgoingMessage(
          * @param messageId Message ID to apply to builder
          * @return Builder for chaining
          */
-        public Builder messageId(final UUID messageId) {
+        public Builder messageId(final Integer messageId) {
             this.messageId = messageId;
             return this;
         }
 
         /**
-         * Generates and attaches a random message ID for clients to ack.
+         * Marks the message as one the other end must ack. The message handler gives it the
+         *  connection's next message ID when it's sent.
          * @return Builder for chaining
          */
-        public Builder randomMessageId() {
-            this.messageId = UUID.randomUUID();
+        public Builder reliable() {
+            this.messageId = SequenceNumbers.NONE;
             return this;
         }
 
@@ -116,7 +153,7 @@ public record OutgoingMessage(
          * @param ackMessageId Ack Message ID to apply to builder
          * @return Builder for chaining
          */
-        public Builder ackMessageId(final UUID ackMessageId) {
+        public Builder ackMessageId(final Integer ackMessageId) {
             this.ackMessageId = ackMessageId;
             return this;
         }
@@ -0,0 +1,130 @@
+package today.tecktip.killbill.common.gameserver.messages;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+/**
+ * The data payload of an incoming message, read off the wire but not yet parsed into {@link MessageData}.
+ * <p>
+ * The payload can't be parsed until its sender is authenticated and their game type is known, so the
+ *  codecs copy its tokens into a {@link TokenBuffer} as they read the rest of the message. The buffer is
+ *  a flat list of tokens, not a tree, so parse methods later read it with a {@link JsonParser} exactly as
+ *  if it were coming from the wire. The data's type is picked out while copying, so choosing the parse
+ *  method doesn't need another look at it either.
+ * @author cs
+ */
+public class RawMessageData {
+    /**
+     * Payload which was present but not an object
+     */
+    private static final RawMessageData NOT_OBJECT = new RawMessageData(null, null);
+
+    /**
+     * Text of the data's type field, or null if it has none
+     */
+    private final String type;
+
+    /**
+     * Buffered tokens of the data object, or null if the payload wasn't an object
+     */
+    private final TokenBuffer tokens;
+
+    /**
+     * Constructs new raw message data.
+     * @param type Text of the data's type field, or null if it has none
+     * @param tokens Buffered tokens of the data object, or null if the payload wasn't an object
+     */
+    private RawMessageData(final String type, final TokenBuffer tokens) {
+        this.type = type;
+        this.tokens = tokens;
+    }
+
+    /**
+     * Reads the data payload the parser is on into a buffer. Afterwards, the parser is on the payload's last token.
+     * @param parser Parser whose current token is the first token of the payload
+     * @return Raw message data
+     * @throws IOException Malformed payload
+     */
+    public static RawMessageData read(final JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return NOT_OBJECT;
+        }
+
+        final TokenBuffer tokens = new TokenBuffer(parser);
+        String type = null;
+
+        tokens.writeStartObject();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            tokens.writeFieldName(name);
+
+            final JsonToken value = parser.nextToken();
+            if ("type".equals(name)) {
+                // Same text as JsonNode.asText(): containers have none
+                type = value.isStructStart() ? "" : parser.getText();
+            }
+            tokens.copyCurrentStructure(parser);
+        }
+        tokens.writeEndObject();
+
+        return new RawMessageData(type, tokens);
+    }
+
+    /**
+     * Reads just the type of the data payload the parser is on, without buffering anything. Gives the
+     *  same text as {@link #type()} would after {@link #read}. Afterwards, the parser is somewhere inside
+     *  the payload and shouldn't be used further.
+     * @param parser Parser whose current token is the first token of the payload
+     * @return Type text, or null if the payload isn't an object or has no type
+     * @throws IOException Malformed payload
+     */
+    public static String peekType(final JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) return null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            if ("type".equals(name)) return value.isStructStart() ? "" : parser.getText();
+            parser.skipChildren();
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the payload was a JSON object.
+     * @return True if it was an object
+     */
+    public boolean isObject() {
+        return tokens != null;
+    }
+
+    /**
+     * Gets the text of the data's type field.
+     * @return Type text, or null if the field is missing
+     */
+    public String type() {
+        return type;
+    }
+
+    /**
+     * Opens a parser over the buffered data. Each call returns a new parser, starting from the beginning.
+     * @return Parser whose current token is the data object's {@link JsonToken#START_OBJECT}
+     * @throws IllegalStateException The payload was not an object
+     */
+    public JsonParser parser() throws IllegalStateException {
+        if (tokens == null) throw new IllegalStateException("Message data is not an object.");
+
+        final JsonParser parser = tokens.asParser();
+        try {
+            parser.nextToken();
+        } catch (final IOException e) {
+            // Buffers are read from memory, so this doesn't happen
+            throw new IllegalStateException("Unable to read buffered message data.", e);
+        }
+        return parser;
+    }
+}
@@ -1,6 +1,6 @@
 package today.tecktip.killbill.common.gameserver.messages.generic;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.common.gameserver.messages.MessageData;
 import today.tecktip.killbill.common.gameserver.messages.MessageDataType;
@@ -18,11 +18,11 @@ public class EmptyData extends MessageData {
     }
 
     /**
-     * Parses a JSON node into empty command data.
-     * @param node JSON node
+     * Parses a data payload into empty command data.
+     * @param parser Parser on the payload
      * @return Parsed data
      */
-    public static EmptyData parse(final JsonNode node) throws IllegalArgumentException {
+    public static EmptyData parse(final JsonParser parser) throws IllegalArgumentException {
         return new EmptyData();
     }
 }
\ No newline at end of file
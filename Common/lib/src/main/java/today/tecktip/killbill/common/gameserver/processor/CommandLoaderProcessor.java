@@ -0,0 +1,324 @@
+package today.tecktip.killbill.common.gameserver.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import today.tecktip.killbill.common.exceptions.MessageFailure;
+import today.tecktip.killbill.common.gameserver.AbstractCommandLoader;
+import today.tecktip.killbill.common.gameserver.annotations.Command;
+import today.tecktip.killbill.common.gameserver.annotations.CommandMethod;
+import today.tecktip.killbill.common.gameserver.annotations.InvokeMethod;
+import today.tecktip.killbill.common.gameserver.annotations.ParseMethod;
+import today.tecktip.killbill.common.gameserver.annotations.ResponseMethod;
+import today.tecktip.killbill.common.gameserver.games.GameType;
+import today.tecktip.killbill.common.gameserver.messages.MessageDataType;
+
+/**
+ * Generates a {@link today.tecktip.killbill.common.gameserver.CommandLoader} for every {@link Command} in a module
+ *  at build time, so nothing has to scan the classpath when the module starts.
+ * <p>
+ * The generated loader is a final class extending {@link AbstractCommandLoader}. Its constructor creates each
+ *  command once and registers its annotated methods as method references (or lambdas, where a method declares
+ *  extra checked exceptions), so they're called directly with no reflection. Being final, no subclass can see
+ *  the loader before its constructor finishes.
+ *  Registering two methods of the same kind for the same game type and data type is a compile error.
+ * <p>
+ * Nothing is generated unless the {@value #OPTION} option names the class to generate, for example
+ *  <code>-Akillbill.commandLoader=today.tecktip.killbill.backend.gameserver.GeneratedCommandLoader</code>.
+ * @author cs
+ */
+@SupportedAnnotationTypes("today.tecktip.killbill.common.gameserver.annotations.Command")
+@SupportedOptions(CommandLoaderProcessor.OPTION)
+public class CommandLoaderProcessor extends AbstractProcessor {
+    /**
+     * Option naming the fully qualified class to generate.
+     */
+    public static final String OPTION = "killbill.commandLoader";
+
+    /**
+     * Whether the loader has been generated. Commands are all found in the first round.
+     */
+    private boolean generated = false;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+        final String loaderName = processingEnv.getOptions().get(OPTION);
+        if (generated || loaderName == null || roundEnv.processingOver()) return false;
+        generated = true;
+
+        final List<String> commands = new ArrayList<>();
+        final List<String> registrations = new ArrayList<>();
+        final Map<Kind, Map<GameType, Set<MessageDataType>>> registered = new EnumMap<>(Kind.class);
+        for (final Kind kind : Kind.values()) {
+            registered.put(kind, new EnumMap<>(GameType.class));
+            for (final GameType gameType : GameType.values()) registered.get(kind).put(gameType, EnumSet.noneOf(MessageDataType.class));
+        }
+
+        // Sorted so the generated source is the same from build to build
+        final List<Element> elements = new ArrayList<>(roundEnv.getElementsAnnotatedWith(Command.class));
+        elements.sort(Comparator.comparing(element -> element.toString()));
+
+        for (final Element element : elements) {
+            if (!isInstantiable(element)) continue;
+            final TypeElement commandClass = (TypeElement) element;
+            final Command command = commandClass.getAnnotation(Command.class);
+            final GameType[] gameTypes = command.gameTypes().length == 0 ? GameType.values() : command.gameTypes();
+
+            final String instance = "command" + commands.size();
+            commands.add("        final " + commandClass.getQualifiedName() + " " + instance + " = new " + commandClass.getQualifiedName() + "();");
+
+            for (final ExecutableElement method : ElementFilter.methodsIn(commandClass.getEnclosedElements())) {
+                for (final Kind kind : Kind.values()) {
+                    final MessageDataType dataType = kind.typeOf(method);
+                    if (dataType == null || !isCallable(method, kind)) continue;
+
+                    for (final GameType gameType : gameTypes) {
+                        if (!registered.get(kind).get(gameType).add(dataType)) {
+                            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Duplicate " + kind.label + " method: game=" + gameType + ", type=" + dataType, method);
+                            continue;
+                        }
+                        registrations.add(
+                            "        " + kind.register + "(GameType." + gameType + ", MessageDataType." + dataType + ", "
+                                + reference(instance, method, kind) + ");"
+                        );
+                    }
+                }
+            }
+        }
+
+        try {
+            write(loaderName, commands, registrations);
+        } catch (final IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to write " + loaderName + ": " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Checks that a command class can be created by the generated loader, reporting an error if not.
+     * @param element Class annotated with {@link Command}
+     * @return True if it's a public, concrete class with a public no-argument constructor
+     */
+    private boolean isInstantiable(final Element element) {
+        if (element.getKind() != ElementKind.CLASS
+            || !element.getModifiers().contains(Modifier.PUBLIC)
+            || element.getModifiers().contains(Modifier.ABSTRACT)
+            || ((TypeElement) element).getNestingKind() == NestingKind.LOCAL
+            || ((TypeElement) element).getNestingKind() == NestingKind.ANONYMOUS
+            || (((TypeElement) element).getNestingKind() == NestingKind.MEMBER && !element.getModifiers().contains(Modifier.STATIC))) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Commands must be public, concrete, top-level or static classes.", element);
+            return false;
+        }
+
+        final List<ExecutableElement> constructors = ElementFilter.constructorsIn(element.getEnclosedElements());
+        for (final ExecutableElement constructor : constructors) {
+            if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC)) return true;
+        }
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Commands must have a public no-argument constructor.", element);
+        return false;
+    }
+
+    /**
+     * Checks that an annotated method can be referenced by the generated loader, reporting an error if not.
+     *  Parameter and return types are left to the compiler, which checks them against the method reference.
+     * @param method Annotated method
+     * @param kind Kind of method its annotation registers it as
+     * @return True if it's a public instance method taking the right number of parameters
+     */
+    private boolean isCallable(final ExecutableElement method, final Kind kind) {
+        if (!method.getModifiers().contains(Modifier.PUBLIC) || method.getModifiers().contains(Modifier.STATIC)) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Command methods must be public instance methods.", method);
+            return false;
+        }
+        if (method.getParameters().size() != kind.parameterNames.length) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "A " + kind.label + " method must take " + kind.parameterNames.length + " parameter(s).", method);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the expression that implements a method's functional interface. This is a plain method reference,
+     *  unless the method declares checked exceptions the interface doesn't. Those are rethrown unchanged from a
+     *  lambda, the same as {@link today.tecktip.killbill.common.gameserver.ClasspathCommandLoader} does.
+     * @param instance Variable holding the command
+     * @param method Annotated method
+     * @param kind Kind of method its annotation registers it as
+     * @return Java expression
+     */
+    private String reference(final String instance, final ExecutableElement method, final Kind kind) {
+        final Types types = processingEnv.getTypeUtils();
+        final Elements elements = processingEnv.getElementUtils();
+        final TypeMirror runtimeException = elements.getTypeElement(RuntimeException.class.getName()).asType();
+        final TypeMirror error = elements.getTypeElement(Error.class.getName()).asType();
+        final TypeMirror messageFailure = elements.getTypeElement(MessageFailure.class.getName()).asType();
+
+        boolean wrap = false;
+        for (final TypeMirror thrown : method.getThrownTypes()) {
+            if (types.isSubtype(thrown, runtimeException) || types.isSubtype(thrown, error)) continue;
+            if (kind.throwsFailure && types.isSubtype(thrown, messageFailure)) continue;
+            wrap = true;
+        }
+        if (!wrap) return instance + "::" + method.getSimpleName();
+
+        final String parameters = String.join(", ", kind.parameterNames);
+        return "(" + parameters + ") -> { try { " + (kind == Kind.PARSE ? "return " : "") + instance + "." + method.getSimpleName()
+            + "(" + parameters + "); } catch (final Exception e) { throw rethrow(e); } }";
+    }
+
+    /**
+     * Writes the generated loader.
+     * @param loaderName Fully qualified name of the class to generate
+     * @param commands Statements creating each command
+     * @param registrations Statements registering each method
+     * @throws IOException Unable to write the source file
+     */
+    private void write(final String loaderName, final List<String> commands, final List<String> registrations) throws IOException {
+        final int dot = loaderName.lastIndexOf('.');
+        final String packageName = dot == -1 ? null : loaderName.substring(0, dot);
+        final String simpleName = loaderName.substring(dot + 1);
+
+        final JavaFileObject file = processingEnv.getFiler().createSourceFile(loaderName);
+        try (final PrintWriter out = new PrintWriter(file.openWriter())) {
+            if (packageName != null) {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+            out.println("import javax.annotation.processing.Generated;");
+            out.println();
+            out.println("import " + AbstractCommandLoader.class.getName() + ";");
+            out.println("import " + GameType.class.getName() + ";");
+            out.println("import " + MessageDataType.class.getName() + ";");
+            out.println();
+            out.println("/**");
+            out.println(" * Registers every command in this module. Generated by {@code " + CommandLoaderProcessor.class.getSimpleName() + "}, do not edit.");
+            out.println(" */");
+            out.println("@Generated(\"" + CommandLoaderProcessor.class.getName() + "\")");
+            out.println("public final class " + simpleName + " extends AbstractCommandLoader {");
+            out.println("    /**");
+            out.println("     * Creates every command and registers its methods.");
+            out.println("     */");
+            out.println("    public " + simpleName + "() {");
+            for (final String line : commands) out.println(line);
+            out.println();
+            for (final String line : registrations) out.println(line);
+            out.println("    }");
+            out.println("}");
+        }
+    }
+
+    /**
+     * The kinds of method a command can register.
+     */
+    private enum Kind {
+        /**
+         * {@link ParseMethod}
+         */
+        PARSE("parse", "registerParseMethod", false, "parser"),
+
+        /**
+         * {@link CommandMethod}
+         */
+        COMMAND("command", "registerCommandMethod", true, "handler", "message", "context"),
+
+        /**
+         * {@link ResponseMethod}
+         */
+        RESPONSE("response", "registerResponseMethod", true, "handler", "message", "context"),
+
+        /**
+         * {@link InvokeMethod}
+         */
+        INVOKE("invoke", "registerInvokeMethod", true, "handler", "context");
+
+        /**
+         * Name used in errors
+         */
+        private final String label;
+
+        /**
+         * {@link AbstractCommandLoader} method that registers this kind
+         */
+        private final String register;
+
+        /**
+         * True if the functional interface for this kind declares {@link MessageFailure}
+         */
+        private final boolean throwsFailure;
+
+        /**
+         * Names for the method's parameters in generated lambdas
+         */
+        private final String[] parameterNames;
+
+        /**
+         * Constructs a kind of method.
+         * @param label Name used in errors
+         * @param register Registration method
+         * @param throwsFailure True if the functional interface declares {@link MessageFailure}
+         * @param parameterNames Names for the method's parameters
+         */
+        Kind(final String label, final String register, final boolean throwsFailure, final String... parameterNames) {
+            this.label = label;
+            this.register = register;
+            this.throwsFailure = throwsFailure;
+            this.parameterNames = parameterNames;
+        }
+
+        /**
+         * Gets the data type a method is registered for as this kind.
+         * @param method Method to check
+         * @return Data type, or null if the method doesn't have this kind's annotation
+         */
+        private MessageDataType typeOf(final ExecutableElement method) {
+            switch (this) {
+                case PARSE: {
+                    final ParseMethod annotation = method.getAnnotation(ParseMethod.class);
+                    return annotation == null ? null : annotation.type();
+                }
+                case COMMAND: {
+                    final CommandMethod annotation = method.getAnnotation(CommandMethod.class);
+                    return annotation == null ? null : annotation.type();
+                }
+                case RESPONSE: {
+                    final ResponseMethod annotation = method.getAnnotation(ResponseMethod.class);
+                    return annotation == null ? null : annotation.type();
+                }
+                default: {
+                    final InvokeMethod annotation = method.getAnnotation(InvokeMethod.class);
+                    return annotation == null ? null : annotation.type();
+                }
+            }
+        }
+    }
+}
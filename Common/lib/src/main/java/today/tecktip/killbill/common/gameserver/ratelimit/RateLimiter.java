@@ -0,0 +1,77 @@
+package today.tecktip.killbill.common.gameserver.ratelimit;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Rate limits for one client.
+ * <p>
+ * Every datagram takes a token from one bucket, checked before anything is decoded, which sheds
+ *  floods as cheaply as possible. Each message then takes a token from the bucket of its
+ *  {@link TrafficClass}, so chat spam can't crowd out movement and the other way around. Classes
+ *  without a budget are only limited by the datagram bucket.
+ * <p>
+ * Thread safe.
+ * @author cs
+ */
+public class RateLimiter {
+    /**
+     * Bucket every datagram takes from
+     */
+    private final TokenBucket datagrams;
+
+    /**
+     * Buckets for each traffic class with a budget
+     */
+    private final Map<TrafficClass, TokenBucket> classes;
+
+    /**
+     * Constructs a new rate limiter with full buckets.
+     * @param datagramBudget Budget for all datagrams
+     * @param classBudgets Budgets for each traffic class. Classes left out are unlimited.
+     * @param nowNanos Current time from {@link System#nanoTime()}
+     */
+    public RateLimiter(final Budget datagramBudget, final Map<TrafficClass, Budget> classBudgets, final long nowNanos) {
+        datagrams = datagramBudget.bucket(nowNanos);
+        classes = new EnumMap<>(TrafficClass.class);
+        for (final Map.Entry<TrafficClass, Budget> kv : classBudgets.entrySet()) {
+            classes.put(kv.getKey(), kv.getValue().bucket(nowNanos));
+        }
+    }
+
+    /**
+     * Takes a token for a received datagram.
+     * @param nowNanos Current time from {@link System#nanoTime()}
+     * @return True if the datagram should be accepted
+     */
+    public boolean tryAcceptDatagram(final long nowNanos) {
+        return datagrams.tryTake(nowNanos);
+    }
+
+    /**
+     * Takes a token for a received message.
+     * @param trafficClass Class of the message
+     * @param nowNanos Current time from {@link System#nanoTime()}
+     * @return True if the message should be accepted
+     */
+    public boolean tryAccept(final TrafficClass trafficClass, final long nowNanos) {
+        final TokenBucket bucket = classes.get(trafficClass);
+        return bucket == null || bucket.tryTake(nowNanos);
+    }
+
+    /**
+     * A rate limit budget.
+     * @param perSecond Events allowed per second, on average
+     * @param burst Events allowed at once
+     */
+    public record Budget(double perSecond, int burst) {
+        /**
+         * Creates a full bucket with this budget.
+         * @param nowNanos Current time from {@link System#nanoTime()}
+         * @return New bucket
+         */
+        public TokenBucket bucket(final long nowNanos) {
+            return new TokenBucket(perSecond, burst, nowNanos);
+        }
+    }
+}
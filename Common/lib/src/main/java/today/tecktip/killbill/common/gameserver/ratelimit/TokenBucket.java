@@ -0,0 +1,76 @@
+package today.tecktip.killbill.common.gameserver.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket: allows bursts up to its capacity, then a steady rate after that.
+ * <p>
+ * Tokens refill continuously at the bucket's rate, up to its capacity. Each accepted event takes one.
+ *  Time is passed in rather than read, so callers can share one clock reading across several buckets.
+ * <p>
+ * Thread safe.
+ * @author cs
+ */
+public class TokenBucket {
+    /**
+     * Most tokens the bucket holds
+     */
+    private final double capacity;
+
+    /**
+     * Tokens added per nanosecond
+     */
+    private final double tokensPerNano;
+
+    /**
+     * Tokens currently in the bucket
+     */
+    private double tokens;
+
+    /**
+     * Time the bucket was last refilled, in nanos
+     */
+    private long lastRefillNanos;
+
+    /**
+     * Constructs a new, full token bucket.
+     * @param perSecond Tokens added per second
+     * @param burst Most tokens the bucket holds, which is the most events accepted at once
+     * @param nowNanos Current time from {@link System#nanoTime()}
+     */
+    public TokenBucket(final double perSecond, final int burst, final long nowNanos) {
+        if (perSecond <= 0) throw new IllegalArgumentException("Rate must be positive.");
+        if (burst < 1) throw new IllegalArgumentException("Burst must be at least 1.");
+        capacity = burst;
+        tokensPerNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+        tokens = burst;
+        lastRefillNanos = nowNanos;
+    }
+
+    /**
+     * Takes a token if one is available.
+     * @param nowNanos Current time from {@link System#nanoTime()}
+     * @return True if a token was taken and the event should be accepted
+     */
+    public synchronized boolean tryTake(final long nowNanos) {
+        final long elapsed = nowNanos - lastRefillNanos;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + elapsed * tokensPerNano);
+            lastRefillNanos = nowNanos;
+        }
+
+        if (tokens < 1) return false;
+        tokens--;
+        return true;
+    }
+
+    /**
+     * Checks if the bucket has refilled to its capacity, meaning it hasn't been taken from recently.
+     *  A full bucket can be thrown away and recreated later without changing what it accepts.
+     * @param nowNanos Current time from {@link System#nanoTime()}
+     * @return True if the bucket is full
+     */
+    public synchronized boolean isFull(final long nowNanos) {
+        return tokens + Math.max(0, nowNanos - lastRefillNanos) * tokensPerNano >= capacity;
+    }
+}
@@ -0,0 +1,89 @@
+package today.tecktip.killbill.common.gameserver.ratelimit;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import today.tecktip.killbill.common.gameserver.messages.MessageDataType;
+
+/**
+ * Groups message data types that share a rate limit budget.
+ * @author cs
+ */
+public enum TrafficClass {
+    /**
+     * Player and entity state updates, sent every frame something moves.
+     */
+    MOVEMENT,
+
+    /**
+     * Chat messages.
+     */
+    CHAT,
+
+    /**
+     * Everything else a player does: interacting, attacking, dropping items and so on.
+     *  Unknown types are counted here too.
+     */
+    ACTION,
+
+    /**
+     * Connection upkeep and replies to the other end's commands. Not given a budget of its own,
+     *  since shedding it only makes the other end resend.
+     */
+    CONTROL;
+
+    /**
+     * Classes by data type name, so raw type text can be classified without parsing it
+     */
+    private static final Map<String, TrafficClass> BY_NAME = new HashMap<>();
+
+    static {
+        for (final MessageDataType type : MessageDataType.values()) {
+            BY_NAME.put(type.name(), of(type));
+        }
+    }
+
+    /**
+     * Gets the class a data type belongs to.
+     * @param type Data type
+     * @return Traffic class
+     */
+    public static TrafficClass of(final MessageDataType type) {
+        return switch (type) {
+            case COMMAND_CHANGE_PLAYER_STATE,
+                COMMAND_CHANGE_OTHER_PLAYER_STATE,
+                COMMAND_CHANGE_ENTITY_STATE -> MOVEMENT;
+
+            case COMMAND_SEND_CHAT -> CHAT;
+
+            case COMMAND_PING,
+                RESP_PING,
+                COMMAND_CONNECT,
+                RESP_CONNECT,
+                COMMAND_DISCONNECT,
+                COMMAND_HEARTBEAT,
+                COMMAND_ACK_SNAPSHOT,
+                RESP_GAME_STATE_CHANGED,
+                RESP_GET_GAME_STATE,
+                RESP_GET_PLAYER_STATE,
+                RESP_GET_ENTITY_STATE,
+                AUTHENTICATION_FAILURE,
+                INTERNAL_SERVER_ERROR,
+                INVALID_ARGUMENT_EXCEPTION,
+                ILLEGAL_STATE_EXCEPTION,
+                EMPTY -> CONTROL;
+
+            default -> ACTION;
+        };
+    }
+
+    /**
+     * Gets the class of a message from the raw text of its data type, as read off the wire.
+     * @param typeName Type text, or null if the message has no data type
+     * @return Traffic class. Messages without a type are {@link #CONTROL}, and unknown types are {@link #ACTION}.
+     */
+    public static TrafficClass ofTypeName(final String typeName) {
+        if (typeName == null) return CONTROL;
+        return BY_NAME.getOrDefault(typeName, ACTION);
+    }
+}
@@ -0,0 +1,130 @@
+package today.tecktip.killbill.common.gameserver.reliability;
+
+import java.util.Arrays;
+
+/**
+ * Remembers which recent message sequence numbers have been received, so resent commands are only
+ *  run once.
+ * <p>
+ * Holds one bit per sequence number in a sliding window ending at the newest number seen. Anything
+ *  older than the window is reported as already received. The sender gives up on a command well
+ *  before a window's worth of newer ones could be sent, so a number that old can only be a late duplicate.
+ * <p>
+ * Not thread safe.
+ * @author cs
+ */
+public class DuplicateWindow {
+    /**
+     * One bit per sequence number in the window, indexed by sequence number modulo the window size
+     */
+    private final long[] bits;
+
+    /**
+     * Number of sequence numbers covered
+     */
+    private final int size;
+
+    /**
+     * Newest sequence number received
+     */
+    private int newest;
+
+    /**
+     * True until the first sequence number is received
+     */
+    private boolean empty;
+
+    /**
+     * Constructs a new, empty window.
+     * @param size Number of sequence numbers to remember. Must be a power of two, at least 64.
+     */
+    public DuplicateWindow(final int size) {
+        if (size < Long.SIZE || Integer.bitCount(size) != 1) throw new IllegalArgumentException("Size must be a power of two, at least 64.");
+
+        this.size = size;
+        bits = new long[size / Long.SIZE];
+        empty = true;
+    }
+
+    /**
+     * Checks if a sequence number was already received.
+     * @param sequence Sequence number
+     * @return True if it was received, or is too old to tell
+     */
+    public boolean contains(final int sequence) {
+        if (empty) return false;
+
+        final int age = newest - sequence;
+        if (age < 0) return false;
+        if (age >= size) return true;
+        return (bits[word(sequence)] & bit(sequence)) != 0;
+    }
+
+    /**
+     * Records a sequence number as received, sliding the window forward if it's the newest yet.
+     * @param sequence Sequence number
+     */
+    public void mark(final int sequence) {
+        if (empty) {
+            newest = sequence;
+            empty = false;
+        } else if (SequenceNumbers.isNewer(sequence, newest)) {
+            // Forget the numbers that the window slides over
+            final int advance = sequence - newest;
+            if (advance >= size) {
+                Arrays.fill(bits, 0);
+            } else {
+                for (int i = 1; i <= advance; i++) {
+                    bits[word(newest + i)] &= ~bit(newest + i);
+                }
+            }
+            newest = sequence;
+        } else if (newest - sequence >= size) {
+            return;
+        }
+
+        bits[word(sequence)] |= bit(sequence);
+    }
+
+    /**
+     * Gets a selective ack header for the newest sequence number in this window and the
+     *  {@link SelectiveAck#BITS} before it.
+     * @return Packed header, or {@link SelectiveAck#NONE} if the window is empty
+     */
+    public long ackHeader() {
+        if (empty) return SelectiveAck.NONE;
+
+        int ackBits = 0;
+        for (int i = 0; i < SelectiveAck.BITS; i++) {
+            final int sequence = newest - 1 - i;
+            if ((bits[word(sequence)] & bit(sequence)) != 0) ackBits |= 1 << i;
+        }
+        return SelectiveAck.pack(newest, ackBits);
+    }
+
+    /**
+     * Forgets every sequence number.
+     */
+    public void clear() {
+        Arrays.fill(bits, 0);
+        empty = true;
+    }
+
+    /**
+     * Gets the index of the word holding a sequence number's bit.
+     * @param sequence Sequence number
+     * @return Word index
+     */
+    private int word(final int sequence) {
+        return (sequence & (size - 1)) >>> 6;
+    }
+
+    /**
+     * Gets the mask for a sequence number's bit within its word.
+     * @param sequence Sequence number
+     * @return Bit mask
+     */
+    private static long bit(final int sequence) {
+        return 1L << (sequence & (Long.SIZE - 1));
+    }
+}
@@ -0,0 +1,258 @@
+package today.tecktip.killbill.common.gameserver.reliability;
+
+import today.tecktip.killbill.common.gameserver.MessageHandler;
+import today.tecktip.killbill.common.gameserver.messages.OutgoingMessage;
+import today.tecktip.killbill.common.gameserver.reliability.TimingWheel.Timeout;
+
+/**
+ * Outgoing commands waiting to be acknowledged, ordered by when they next need to be resent.
+ * <p>
+ * Each command is held once, in a {@link TimingWheel}, and is only touched again when its resend
+ *  or viability deadline comes up. Acks cancel by message ID in O(1).
+ * <p>
+ * Commands are indexed by sequence number in a {@link SequenceRing}, so only a ring's worth can be
+ *  pending at once. Sending a command a full ring after one that is still pending drops the old one.
+ * <p>
+ * Resend timing comes from an {@link RttEstimator}, fed by acks for commands that were only sent
+ *  once. Each resend doubles the delay before the next.
+ * <p>
+ * Times are in milliseconds from any monotonic clock, as long as the same one is used throughout.
+ *  Not thread safe.
+ * @author cs
+ */
+public class RetransmitQueue {
+    /**
+     * Resolution of the timing wheel.
+     */
+    private static final long WHEEL_TICK_MILLIS = 25;
+
+    /**
+     * Buckets in the timing wheel. Covers a few seconds before entries have to wrap around.
+     */
+    private static final int WHEEL_BUCKETS = 256;
+
+    /**
+     * Pending commands by message ID
+     */
+    private final SequenceRing<Timeout<PendingCommand>> pending;
+
+    /**
+     * Pending commands by deadline
+     */
+    private final TimingWheel<PendingCommand> wheel;
+
+    /**
+     * Round trip time of the connection
+     */
+    private final RttEstimator rtt;
+
+    /**
+     * Constructs a new retransmit queue holding up to {@link MessageHandler#SEQUENCE_WINDOW} commands.
+     * @param initialRtoMillis Delay before the first resend until the round trip time is measured
+     * @param nowMillis Current time
+     */
+    public RetransmitQueue(final long initialRtoMillis, final long nowMillis) {
+        this(initialRtoMillis, nowMillis, MessageHandler.SEQUENCE_WINDOW);
+    }
+
+    /**
+     * Constructs a new retransmit queue.
+     * @param initialRtoMillis Delay before the first resend until the round trip time is measured
+     * @param nowMillis Current time
+     * @param capacity Number of consecutive message IDs that can be pending at once
+     */
+    public RetransmitQueue(final long initialRtoMillis, final long nowMillis, final int capacity) {
+        rtt = new RttEstimator(initialRtoMillis);
+        pending = new SequenceRing<>(capacity);
+        wheel = new TimingWheel<>(WHEEL_TICK_MILLIS, WHEEL_BUCKETS, nowMillis);
+    }
+
+    /**
+     * Adds a command that was just sent, replacing any pending command with the same ID. It's dropped
+     *  once the connection's {@link RttEstimator#getViabilityMillis() viability} passes.
+     * @param message Sent message. Must have a message ID.
+     * @param nowMillis Current time
+     */
+    public void add(final OutgoingMessage message, final long nowMillis) {
+        add(message, nowMillis, rtt.getViabilityMillis());
+    }
+
+    /**
+     * Adds a command that was just sent, replacing any pending command with the same ID.
+     * @param message Sent message. Must have a message ID.
+     * @param nowMillis Current time
+     * @param viabilityMillis Time after which the command is dropped instead of resent
+     */
+    public void add(final OutgoingMessage message, final long nowMillis, final long viabilityMillis) {
+        remove(message.messageId());
+
+        final PendingCommand command = new PendingCommand(message, nowMillis + viabilityMillis);
+        command.sent(nowMillis);
+        final Timeout<PendingCommand> timeout = wheel.schedule(command, command.nextDeadline(rtt));
+        final Timeout<PendingCommand> evicted = pending.put(message.messageId(), timeout);
+        // Still pending a full ring later. Give up on it.
+        if (evicted != null) wheel.cancel(evicted);
+    }
+
+    /**
+     * Checks if a command is waiting for an ack.
+     * @param messageId Message ID
+     * @return True if pending
+     */
+    public boolean contains(final int messageId) {
+        return pending.get(messageId) != null;
+    }
+
+    /**
+     * Gets a pending command.
+     * @param messageId Message ID
+     * @return Pending message, or null if not found
+     */
+    public OutgoingMessage get(final int messageId) {
+        final Timeout<PendingCommand> timeout = pending.get(messageId);
+        return timeout == null ? null : timeout.getValue().message;
+    }
+
+    /**
+     * Removes a command because it was acked. If it was only sent once, the time since is measured
+     *  as a round trip.
+     * @param messageId Message ID
+     * @param nowMillis Current time
+     * @return Acked message, or null if not found
+     */
+    public OutgoingMessage ack(final int messageId, final long nowMillis) {
+        final Timeout<PendingCommand> timeout = pending.remove(messageId);
+        if (timeout == null) return null;
+
+        wheel.cancel(timeout);
+        final PendingCommand command = timeout.getValue();
+        // Karn's algorithm: a resent command's ack could be answering any of its sends
+        if (command.sendCount == 1) rtt.sample(nowMillis - command.lastSent);
+        return command.message;
+    }
+
+    /**
+     * Removes a command without treating it as acked.
+     * @param messageId Message ID
+     * @return Removed message, or null if not found
+     */
+    public OutgoingMessage remove(final int messageId) {
+        final Timeout<PendingCommand> timeout = pending.remove(messageId);
+        if (timeout == null) return null;
+
+        wheel.cancel(timeout);
+        return timeout.getValue().message;
+    }
+
+    /**
+     * Drops every pending command.
+     */
+    public void clear() {
+        pending.forEach(wheel::cancel);
+        pending.clear();
+    }
+
+    /**
+     * Gets the round trip time estimate resends are timed by.
+     * @return RTT estimator
+     */
+    public RttEstimator getRtt() {
+        return rtt;
+    }
+
+    /**
+     * Gets the number of commands waiting for an ack.
+     * @return Pending command count
+     */
+    public int size() {
+        return pending.size();
+    }
+
+    /**
+     * Resends every command that is due and drops every command past its viability deadline.
+     * @param nowMillis Current time
+     * @param method Called with each command to resend
+     * @return Number of commands resent or dropped
+     */
+    public int advance(final long nowMillis, final ResendMethod method) {
+        return wheel.advance(
+            nowMillis,
+            timeout -> {
+                final PendingCommand command = timeout.getValue();
+                if (command.viabilityDeadline <= nowMillis || !method.resend(command.message)) {
+                    pending.remove(command.message.messageId());
+                    return;
+                }
+
+                command.sent(nowMillis);
+                wheel.reschedule(timeout, command.nextDeadline(rtt));
+            }
+        );
+    }
+
+    /**
+     * Resends a pending command.
+     */
+    public interface ResendMethod {
+        /**
+         * Sends a command again.
+         * @param message Message to resend
+         * @return False to drop the command instead of waiting for an ack
+         */
+        public boolean resend(final OutgoingMessage message);
+    }
+
+    /**
+     * Send state of a single pending command.
+     */
+    private static class PendingCommand {
+        /**
+         * Sent message
+         */
+        private final OutgoingMessage message;
+
+        /**
+         * Time after which the command is dropped
+         */
+        private final long viabilityDeadline;
+
+        /**
+         * Number of times the message has been sent
+         */
+        private int sendCount;
+
+        /**
+         * Time of the last send
+         */
+        private long lastSent;
+
+        /**
+         * Constructs a new pending command.
+         * @param message Sent message
+         * @param viabilityDeadline Time after which the command is dropped
+         */
+        private PendingCommand(final OutgoingMessage message, final long viabilityDeadline) {
+            this.message = message;
+            this.viabilityDeadline = viabilityDeadline;
+            sendCount = 0;
+        }
+
+        /**
+         * Records a send.
+         * @param nowMillis Current time
+         */
+        private void sent(final long nowMillis) {
+            sendCount++;
+            lastSent = nowMillis;
+        }
+
+        /**
+         * Gets the next time this command needs attention: its next resend, or its viability deadline if sooner.
+         * @param rtt Round trip time estimate
+         * @return Deadline
+         */
+        private long nextDeadline(final RttEstimator rtt) {
+            return Math.min(lastSent + rtt.getBackoffMillis(sendCount), viabilityDeadline);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package today.tecktip.killbill.common.gameserver.reliability;
+
+/**
+ * Estimates the round trip time of a connection and derives retransmit timeouts from it.
+ * <p>
+ * Follows RFC 6298: a smoothed RTT and RTT variance are kept, each sample moves them by 1/8 and 1/4,
+ *  and the retransmit timeout is the smoothed RTT plus four variances. The timeout is clamped so a
+ *  LAN connection still leaves time for the other end to ack, and a slow one still gets resends.
+ *  Until the first sample, the initial timeout is used.
+ * <p>
+ * Not thread safe.
+ * @author cs
+ */
+public class RttEstimator {
+    /**
+     * Smallest retransmit timeout. A few ticks of the retransmit timing wheel.
+     */
+    public static final long MIN_RTO_MILLIS = 50;
+
+    /**
+     * Largest retransmit timeout, including backoff.
+     */
+    public static final long MAX_RTO_MILLIS = 3000;
+
+    /**
+     * Smallest time a command is kept before being given up on.
+     */
+    public static final long MIN_VIABILITY_MILLIS = 1000;
+
+    /**
+     * Largest time a command is kept before being given up on.
+     */
+    public static final long MAX_VIABILITY_MILLIS = 8000;
+
+    /**
+     * Viability as a multiple of the retransmit timeout. Leaves room for a few backed off resends.
+     */
+    private static final int VIABILITY_RTOS = 16;
+
+    /**
+     * Weight of each sample in the smoothed RTT (alpha)
+     */
+    private static final double RTT_GAIN = 1.0 / 8;
+
+    /**
+     * Weight of each sample in the RTT variance (beta)
+     */
+    private static final double VARIANCE_GAIN = 1.0 / 4;
+
+    /**
+     * Variances added to the smoothed RTT to get the timeout (K)
+     */
+    private static final int VARIANCE_MULTIPLIER = 4;
+
+    /**
+     * Smallest variance allowance (G). Matches the resolution acks are noticed at.
+     */
+    private static final long GRANULARITY_MILLIS = 25;
+
+    /**
+     * Smoothed round trip time
+     */
+    private double smoothedRtt;
+
+    /**
+     * Round trip time variance
+     */
+    private double rttVariance;
+
+    /**
+     * True once a sample has been taken
+     */
+    private boolean sampled;
+
+    /**
+     * Current retransmit timeout
+     */
+    private long rtoMillis;
+
+    /**
+     * Constructs a new estimator with no samples.
+     * @param initialRtoMillis Retransmit timeout to use until the first sample
+     */
+    public RttEstimator(final long initialRtoMillis) {
+        rtoMillis = clamp(initialRtoMillis, MIN_RTO_MILLIS, MAX_RTO_MILLIS);
+        sampled = false;
+    }
+
+    /**
+     * Adds a round trip time measurement. Only measure commands that were sent once, since an ack
+     *  for a resent command can't be matched to the send it answers.
+     * @param rttMillis Time from sending a command to receiving its ack
+     */
+    public void sample(final long rttMillis) {
+        final double rtt = Math.max(0, rttMillis);
+        if (!sampled) {
+            smoothedRtt = rtt;
+            rttVariance = rtt / 2;
+            sampled = true;
+        } else {
+            rttVariance += VARIANCE_GAIN * (Math.abs(smoothedRtt - rtt) - rttVariance);
+            smoothedRtt += RTT_GAIN * (rtt - smoothedRtt);
+        }
+
+        final long allowance = Math.max(GRANULARITY_MILLIS, (long) Math.ceil(VARIANCE_MULTIPLIER * rttVariance));
+        rtoMillis = clamp((long) Math.ceil(smoothedRtt) + allowance, MIN_RTO_MILLIS, MAX_RTO_MILLIS);
+    }
+
+    /**
+     * Gets the retransmit timeout: the delay before a command is first resent.
+     * @return Timeout in milliseconds
+     */
+    public long getRtoMillis() {
+        return rtoMillis;
+    }
+
+    /**
+     * Gets the delay before a command is resent, doubling the timeout for every send so far.
+     * @param sendCount Number of times the command has been sent
+     * @return Delay in milliseconds, capped at {@link #MAX_RTO_MILLIS}
+     */
+    public long getBackoffMillis(final int sendCount) {
+        final int doublings = Math.min(Math.max(sendCount - 1, 0), 16);
+        return Math.min(rtoMillis << doublings, MAX_RTO_MILLIS);
+    }
+
+    /**
+     * Gets how long a command should be kept before it's given up on.
+     * @return Viability in milliseconds
+     */
+    public long getViabilityMillis() {
+        return clamp(VIABILITY_RTOS * rtoMillis, MIN_VIABILITY_MILLIS, MAX_VIABILITY_MILLIS);
+    }
+
+    /**
+     * Gets the smoothed round trip time.
+     * @return RTT in milliseconds, or -1 if nothing has been measured yet
+     */
+    public double getSmoothedRttMillis() {
+        return sampled ? smoothedRtt : -1;
+    }
+
+    /**
+     * Gets the round trip time variance.
+     * @return Variance in milliseconds, or -1 if nothing has been measured yet
+     */
+    public double getRttVarianceMillis() {
+        return sampled ? rttVariance : -1;
+    }
+
+    /**
+     * Clamps a value to a range.
+     * @param value Value
+     * @param min Smallest result
+     * @param max Largest result
+     * @return Clamped value
+     */
+    private static long clamp(final long value, final long min, final long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
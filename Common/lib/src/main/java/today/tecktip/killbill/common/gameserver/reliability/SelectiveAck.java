@@ -0,0 +1,79 @@
+package today.tecktip.killbill.common.gameserver.reliability;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Packs the selective ack header carried by every datagram.
+ * <p>
+ * The header is the newest message ID acked, followed by a 32-bit field with one bit for each of the
+ *  32 message IDs before it (bit 0 for the one just before). Every datagram repeats the header, so an ack
+ *  that's lost gets through with the next datagram instead of the command being resent.
+ * <p>
+ * Headers are passed around packed into a long, with the newest ID in the high 32 bits, which is
+ *  also their big-endian layout on the wire.
+ * @author cs
+ */
+public final class SelectiveAck {
+    /**
+     * Header that acks nothing
+     */
+    public static final long NONE = pack(SequenceNumbers.NONE, 0);
+
+    /**
+     * Number of message IDs before the newest one covered by the header
+     */
+    public static final int BITS = Integer.SIZE;
+
+    /**
+     * Packs a header.
+     * @param newest Newest message ID acked, or {@link SequenceNumbers#NONE} if there are none
+     * @param bits Acks for the {@link #BITS} message IDs before the newest
+     * @return Header
+     */
+    public static long pack(final int newest, final int bits) {
+        return ((long) newest << Integer.SIZE) | (bits & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Gets the newest message ID a header acks.
+     * @param header Header
+     * @return Message ID, or {@link SequenceNumbers#NONE} if the header acks nothing
+     */
+    public static int newest(final long header) {
+        return (int) (header >>> Integer.SIZE);
+    }
+
+    /**
+     * Gets the acks for the message IDs before the newest one.
+     * @param header Header
+     * @return Bit field
+     */
+    public static int bits(final long header) {
+        return (int) header;
+    }
+
+    /**
+     * Runs something on each message ID a header acks, newest first.
+     * @param header Header
+     * @param acked Called with each acked message ID
+     */
+    public static void forEach(final long header, final IntConsumer acked) {
+        final int newest = newest(header);
+        if (newest == SequenceNumbers.NONE) return;
+
+        acked.accept(newest);
+        int bits = bits(header);
+        while (bits != 0) {
+            final int i = Integer.numberOfTrailingZeros(bits);
+            final int messageId = newest - 1 - i;
+            // Wrapped around past the unused ID
+            if (messageId != SequenceNumbers.NONE) acked.accept(messageId);
+            bits &= bits - 1;
+        }
+    }
+
+    /**
+     * This class should not be instantiated.
+     */
+    private SelectiveAck() { }
+}
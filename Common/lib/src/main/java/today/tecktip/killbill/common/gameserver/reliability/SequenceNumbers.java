@@ -0,0 +1,41 @@
+package today.tecktip.killbill.common.gameserver.reliability;
+
+/**
+ * Arithmetic for 32-bit message sequence numbers, which wrap around.
+ * <p>
+ * Two sequence numbers are compared by their signed distance, so any number is newer than the
+ *  2<sup>31</sup> - 1 numbers before it and older than the ones after. Each end only keeps a small
+ *  window of recent numbers, so this never becomes ambiguous in practice.
+ * @author cs
+ */
+public final class SequenceNumbers {
+    /**
+     * Never used as a sequence number. Marks a message that is waiting to be numbered.
+     */
+    public static final int NONE = 0;
+
+    /**
+     * Gets the sequence number after another, skipping {@link #NONE} on wrap-around.
+     * @param sequence Sequence number
+     * @return Next sequence number
+     */
+    public static int next(final int sequence) {
+        final int next = sequence + 1;
+        return next == NONE ? next + 1 : next;
+    }
+
+    /**
+     * Checks if a sequence number comes after another.
+     * @param a Sequence number to check
+     * @param b Sequence number to compare against
+     * @return True if a is newer than b
+     */
+    public static boolean isNewer(final int a, final int b) {
+        return a - b > 0;
+    }
+
+    /**
+     * This class should not be instantiated.
+     */
+    private SequenceNumbers() { }
+}
@@ -0,0 +1,119 @@
+package today.tecktip.killbill.common.gameserver.reliability;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A fixed-size ring of values keyed by sequence number, holding only the most recent ones.
+ * <p>
+ * Each sequence number maps to a single slot, so storing a value overwrites whatever was stored
+ *  one full ring earlier. Lookups for overwritten or never-stored sequence numbers return null.
+ * <p>
+ * Not thread safe.
+ * @param <T> Stored value type
+ * @author cs
+ */
+public class SequenceRing<T> {
+    /**
+     * Sequence number held in each slot
+     */
+    private final int[] sequences;
+
+    /**
+     * Value held in each slot, or null if empty
+     */
+    private final Object[] values;
+
+    /**
+     * Number of values held
+     */
+    private int size;
+
+    /**
+     * Constructs a new, empty ring.
+     * @param capacity Number of sequence numbers to hold
+     */
+    public SequenceRing(final int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive.");
+
+        sequences = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    /**
+     * Stores a value, replacing the one stored a full ring earlier.
+     * @param sequence Sequence number
+     * @param value Value to store. Must not be null.
+     * @return Value stored under a different sequence number that was overwritten, or null
+     */
+    @SuppressWarnings("unchecked")
+    public T put(final int sequence, final T value) {
+        final int slot = Math.floorMod(sequence, values.length);
+        final T evicted = sequences[slot] != sequence ? (T) values[slot] : null;
+        if (values[slot] == null) size++;
+        sequences[slot] = sequence;
+        values[slot] = value;
+        return evicted;
+    }
+
+    /**
+     * Gets a stored value.
+     * @param sequence Sequence number
+     * @return Value, or null if it was never stored or has been overwritten
+     */
+    @SuppressWarnings("unchecked")
+    public T get(final int sequence) {
+        final int slot = Math.floorMod(sequence, values.length);
+        if (values[slot] == null || sequences[slot] != sequence) return null;
+        return (T) values[slot];
+    }
+
+    /**
+     * Removes a stored value.
+     * @param sequence Sequence number
+     * @return Removed value, or null if it was never stored or has been overwritten
+     */
+    public T remove(final int sequence) {
+        final T value = get(sequence);
+        if (value != null) {
+            values[Math.floorMod(sequence, values.length)] = null;
+            size--;
+        }
+        return value;
+    }
+
+    /**
+     * Gets the number of values held.
+     * @return Value count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of sequence numbers this ring can hold.
+     * @return Capacity
+     */
+    public int capacity() {
+        return values.length;
+    }
+
+    /**
+     * Runs an action on every stored value, in slot order.
+     * @param action Action to run
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(final Consumer<T> action) {
+        for (final Object value : values) {
+            if (value != null) action.accept((T) value);
+        }
+    }
+
+    /**
+     * Removes every value.
+     */
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+}
@@ -0,0 +1,233 @@
+package today.tecktip.killbill.common.gameserver.reliability;
+
+/**
+ * A hashed timing wheel.
+ * <p>
+ * Timeouts are hashed into a ring of buckets by their deadline tick. Advancing the wheel only
+ *  visits the buckets that have come due since the last advance, so the cost of a sweep depends on
+ *  elapsed time and expired entries rather than on how many timeouts are pending. Scheduling and
+ *  cancelling are both O(1).
+ * <p>
+ * Not thread safe. Use it from a single thread (or a serial executor).
+ * @param <T> Type of value attached to each timeout
+ * @author cs
+ */
+public class TimingWheel<T> {
+    /**
+     * Milliseconds covered by each bucket
+     */
+    private final long tickMillis;
+
+    /**
+     * Bucket count minus one (bucket count is a power of two)
+     */
+    private final int mask;
+
+    /**
+     * Sentinel head of each bucket's circular list
+     */
+    private final Timeout<T>[] buckets;
+
+    /**
+     * Last tick that has been processed
+     */
+    private long currentTick;
+
+    /**
+     * Number of scheduled timeouts
+     */
+    private int size;
+
+    /**
+     * Constructs a new timing wheel.
+     * @param tickMillis Milliseconds covered by each bucket
+     * @param bucketCount Number of buckets. Rounded up to a power of two.
+     * @param startMillis Current time, in the same clock later passed to {@link #advance}
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(final long tickMillis, final int bucketCount, final long startMillis) {
+        if (tickMillis <= 0) throw new IllegalArgumentException("Tick length must be positive.");
+        if (bucketCount <= 0 || bucketCount > (1 << 30)) throw new IllegalArgumentException("Invalid bucket count: " + bucketCount);
+
+        this.tickMillis = tickMillis;
+        int count = 1;
+        while (count < bucketCount) count <<= 1;
+        mask = count - 1;
+        buckets = new Timeout[count];
+        for (int i = 0; i < count; i++) {
+            final Timeout<T> head = new Timeout<>(null);
+            head.prev = head;
+            head.next = head;
+            buckets[i] = head;
+        }
+        currentTick = Math.floorDiv(startMillis, tickMillis);
+        size = 0;
+    }
+
+    /**
+     * Schedules a new timeout.
+     * @param value Value to attach
+     * @param deadlineMillis Time to expire at. Deadlines that already passed expire on the next tick.
+     * @return Handle used to cancel or reschedule the timeout
+     */
+    public Timeout<T> schedule(final T value, final long deadlineMillis) {
+        final Timeout<T> timeout = new Timeout<>(value);
+        link(timeout, deadlineMillis);
+        return timeout;
+    }
+
+    /**
+     * Moves a timeout to a new deadline, scheduling it again if it already expired or was cancelled.
+     * @param timeout Timeout handle from {@link #schedule}
+     * @param deadlineMillis New time to expire at
+     */
+    public void reschedule(final Timeout<T> timeout, final long deadlineMillis) {
+        if (timeout.isScheduled()) unlink(timeout);
+        link(timeout, deadlineMillis);
+    }
+
+    /**
+     * Cancels a timeout so it never expires.
+     * @param timeout Timeout handle from {@link #schedule}
+     * @return True if the timeout was scheduled
+     */
+    public boolean cancel(final Timeout<T> timeout) {
+        if (!timeout.isScheduled()) return false;
+        unlink(timeout);
+        return true;
+    }
+
+    /**
+     * Expires every timeout whose deadline has passed.
+     * <p>
+     * The handler may schedule, reschedule or cancel timeouts (including the one it was given).
+     * @param nowMillis Current time
+     * @param handler Called for each expired timeout, in no particular order
+     * @return Number of timeouts expired
+     */
+    public int advance(final long nowMillis, final TimeoutHandler<T> handler) {
+        final long targetTick = Math.floorDiv(nowMillis, tickMillis);
+        if (targetTick <= currentTick) return 0;
+
+        // Past one full turn, every bucket only needs to be visited once
+        if (targetTick - currentTick > buckets.length) currentTick = targetTick - buckets.length;
+
+        int expired = 0;
+        while (currentTick < targetTick) {
+            currentTick++;
+            final Timeout<T> head = buckets[(int) (currentTick & mask)];
+
+            Timeout<T> timeout = head.next;
+            while (timeout != head) {
+                final Timeout<T> next = timeout.next;
+                if (timeout.deadlineTick <= currentTick) {
+                    unlink(timeout);
+                    expired++;
+                    handler.expired(timeout);
+                }
+                timeout = next;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Gets the number of scheduled timeouts.
+     * @return Pending timeout count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds a timeout to the bucket for its deadline.
+     * @param timeout Unscheduled timeout
+     * @param deadlineMillis Time to expire at
+     */
+    private void link(final Timeout<T> timeout, final long deadlineMillis) {
+        // Never schedule into a tick that has already been processed
+        final long tick = Math.max(Math.floorDiv(deadlineMillis, tickMillis), currentTick + 1);
+        timeout.deadlineTick = tick;
+
+        final Timeout<T> head = buckets[(int) (tick & mask)];
+        timeout.prev = head.prev;
+        timeout.next = head;
+        head.prev.next = timeout;
+        head.prev = timeout;
+        size++;
+    }
+
+    /**
+     * Removes a timeout from its bucket.
+     * @param timeout Scheduled timeout
+     */
+    private void unlink(final Timeout<T> timeout) {
+        timeout.prev.next = timeout.next;
+        timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+        size--;
+    }
+
+    /**
+     * A handle to a scheduled value.
+     * @param <T> Type of attached value
+     */
+    public static class Timeout<T> {
+        /**
+         * Attached value
+         */
+        private final T value;
+
+        /**
+         * Tick this timeout expires on
+         */
+        private long deadlineTick;
+
+        /**
+         * Previous timeout in the bucket, or null if not scheduled
+         */
+        private Timeout<T> prev;
+
+        /**
+         * Next timeout in the bucket, or null if not scheduled
+         */
+        private Timeout<T> next;
+
+        /**
+         * Constructs a new, unscheduled timeout.
+         * @param value Attached value
+         */
+        private Timeout(final T value) {
+            this.value = value;
+        }
+
+        /**
+         * Gets the value attached to this timeout.
+         * @return Attached value
+         */
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * Checks if this timeout is waiting to expire.
+         * @return True if scheduled
+         */
+        public boolean isScheduled() {
+            return next != null;
+        }
+    }
+
+    /**
+     * Called for each timeout as it expires.
+     * @param <T> Type of attached value
+     */
+    public interface TimeoutHandler<T> {
+        /**
+         * Handles an expired timeout.
+         * @param timeout Timeout that expired. No longer scheduled.
+         */
+        public void expired(final Timeout<T> timeout);
+    }
+}
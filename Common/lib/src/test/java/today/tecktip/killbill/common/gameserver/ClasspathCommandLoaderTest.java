@@ -0,0 +1,86 @@
+package today.tecktip.killbill.common.gameserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+import today.tecktip.killbill.common.gameserver.MessageHandler.CommandContext;
+import today.tecktip.killbill.common.gameserver.MessageHandler.InvokeContext;
+import today.tecktip.killbill.common.gameserver.annotations.Command;
+import today.tecktip.killbill.common.gameserver.annotations.CommandMethod;
+import today.tecktip.killbill.common.gameserver.annotations.InvokeMethod;
+import today.tecktip.killbill.common.gameserver.annotations.ParseMethod;
+import today.tecktip.killbill.common.gameserver.games.GameType;
+import today.tecktip.killbill.common.gameserver.messages.IncomingMessage;
+import today.tecktip.killbill.common.gameserver.messages.MessageData;
+import today.tecktip.killbill.common.gameserver.messages.MessageDataType;
+import today.tecktip.killbill.common.gameserver.messages.exceptions.InvalidArgumentExceptionData;
+import today.tecktip.killbill.common.gameserver.messages.generic.EmptyData;
+
+/**
+ * Tests for the classpath command loader.
+ * @author cs
+ */
+public class ClasspathCommandLoaderTest {
+
+    @Command(gameTypes = { GameType.BASIC })
+    public static class TestCommand {
+        private static int runs = 0;
+
+        @ParseMethod(type = MessageDataType.EMPTY)
+        public EmptyData parse(final JsonParser parser) {
+            MessageData.readFields(parser, (name, value) -> {
+                if (name.equals("bad")) throw new IllegalArgumentException("Bad data.");
+            });
+            return new EmptyData();
+        }
+
+        @CommandMethod(type = MessageDataType.EMPTY)
+        public void run(final MessageHandler handler, final IncomingMessage message, final CommandContext context) {
+            runs++;
+        }
+
+        @InvokeMethod(type = MessageDataType.EMPTY)
+        public void invoke(final MessageHandler handler, final InvokeContext context) {
+            runs += 10;
+        }
+    }
+
+    @Test
+    public void testLoadedMethodsDispatch() throws Exception {
+        final ClasspathCommandLoader loader = new ClasspathCommandLoader();
+        loader.load(ClasspathCommandLoaderTest.class.getPackageName());
+
+        assertNull(loader.commandMethodFor(GameType.BASIC, MessageDataType.INVALID_ARGUMENT_EXCEPTION));
+        assertNull(loader.responseMethodFor(GameType.BASIC, MessageDataType.EMPTY));
+
+        assertInstanceOf(EmptyData.class, loader.parseMethodFor(GameType.BASIC, MessageDataType.EMPTY).parse(parserFor("{}")));
+
+        // Exceptions come through as they were thrown, not wrapped by reflection
+        final JsonParser bad = parserFor("{\"bad\":true}");
+        assertThrows(IllegalArgumentException.class, () -> loader.parseMethodFor(GameType.BASIC, MessageDataType.EMPTY).parse(bad));
+
+        final IncomingMessage message = new IncomingMessage(Instant.now(), 1, null, new InvalidArgumentExceptionData("unused"), "key");
+        loader.commandMethodFor(GameType.BASIC, MessageDataType.EMPTY).run(null, message, new CommandContext());
+        loader.invokeMethodFor(GameType.BASIC, MessageDataType.EMPTY).run(null, new InvokeContext());
+        assertEquals(11, TestCommand.runs);
+    }
+
+    /**
+     * Opens a parser on the start of some JSON.
+     * @param json JSON text
+     * @return Parser on the first token
+     * @throws IOException Malformed JSON
+     */
+    private static JsonParser parserFor(final String json) throws IOException {
+        final JsonParser parser = new JsonFactory().createParser(json);
+        parser.nextToken();
+        return parser;
+    }
+}
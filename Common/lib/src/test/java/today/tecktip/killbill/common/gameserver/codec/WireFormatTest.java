@@ -0,0 +1,224 @@
+package today.tecktip.killbill.common.gameserver.codec;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import today.tecktip.killbill.common.gameserver.messages.MessageData;
+import today.tecktip.killbill.common.gameserver.messages.MessageEnvelope;
+import today.tecktip.killbill.common.gameserver.messages.OutgoingMessage;
+import today.tecktip.killbill.common.gameserver.messages.exceptions.InvalidArgumentExceptionData;
+import today.tecktip.killbill.common.gameserver.messages.generic.EmptyData;
+import today.tecktip.killbill.common.gameserver.reliability.SelectiveAck;
+
+/**
+ * Tests for the wire formats.
+ * @author cs
+ */
+public class WireFormatTest {
+
+    @Test
+    public void testRoundTrip() throws JsonProcessingException {
+        final OutgoingMessage message = OutgoingMessage.newBuilder()
+            .setKey("some-key")
+            .failure()
+            .messageId(Integer.MIN_VALUE + 5)
+            .data(new InvalidArgumentExceptionData("Bad things happened."))
+            .build();
+
+        for (final WireFormat format : WireFormat.values()) {
+            final byte[] payload = format.getCodec().encode(message);
+            assertEquals(format, WireFormat.detect(payload, 0, payload.length));
+
+            final MessageEnvelope envelope = format.getCodec().decode(payload, 0, payload.length);
+            assertEquals(envelope.data().type(), format.getCodec().peekType(payload, 0, payload.length));
+            assertAll(
+                () -> { assertEquals(message.createdAt(), envelope.createdAt().toEpochMilli()); },
+                () -> { assertEquals(message.messageId(), envelope.messageId()); },
+                () -> { assertNull(envelope.ackMessageId()); },
+                () -> { assertEquals("some-key", envelope.key()); },
+                () -> { assertEquals("INVALID_ARGUMENT_EXCEPTION", envelope.data().type()); },
+                () -> { assertEquals("Bad things happened.", reasonOf(envelope)); }
+            );
+        }
+    }
+
+    @Test
+    public void testBinaryIsSmaller() throws JsonProcessingException {
+        final OutgoingMessage message = OutgoingMessage.newBuilder()
+            .setKey("some-key")
+            .ackMessageId(17)
+            .data(new InvalidArgumentExceptionData("Bad things happened."))
+            .build();
+
+        final int json = WireFormat.JSON.getCodec().encode(message).length;
+        final int binary = WireFormat.BINARY.getCodec().encode(message).length;
+        assertTrue(binary * 3 < json, "binary=" + binary + ", json=" + json);
+    }
+
+    @Test
+    public void testMalformedBinary() {
+        final byte[] payload = new byte[] { 'K', 'B', BinaryMessageCodec.VERSION, 0, 0, 0 };
+        assertThrows(IllegalArgumentException.class, () -> WireFormat.BINARY.getCodec().decode(payload, 0, payload.length));
+    }
+
+    @Test
+    public void testBundleRoundTrip() throws JsonProcessingException {
+        final OutgoingMessage message = OutgoingMessage.newBuilder()
+            .setKey("some-key")
+            .ackMessageId(17)
+            .data(new InvalidArgumentExceptionData("Bad things happened."))
+            .build();
+        final byte[] json = WireFormat.JSON.getCodec().encode(message);
+        final byte[] binary = WireFormat.BINARY.getCodec().encode(message);
+
+        final DatagramBundle bundle = new DatagramBundle(DatagramBundle.DEFAULT_CAPACITY);
+        assertNull(bundle.drain(SelectiveAck.NONE));
+        bundle.add(binary);
+        bundle.add(json);
+        bundle.add(binary);
+        assertEquals(3, bundle.size());
+
+        final long ackHeader = SelectiveAck.pack(12, 0b101);
+        final byte[] datagram = bundle.drain(ackHeader);
+        assertTrue(bundle.isEmpty());
+        assertEquals(DatagramBundle.ACK_HEADER_SIZE + 3 * DatagramBundle.LENGTH_HEADER_SIZE + 2 * binary.length + json.length, datagram.length);
+        assertEquals(ackHeader, DatagramBundle.ackHeaderOf(datagram, 0, datagram.length));
+
+        final List<WireFormat> formats = new ArrayList<>();
+        assertEquals(3, DatagramBundle.unpack(datagram, 0, datagram.length, (payload, offset, length) -> {
+            final WireFormat format = WireFormat.detect(payload, offset, length);
+            formats.add(format);
+            assertEquals(message.ackMessageId(), format.getCodec().decode(payload, offset, length).ackMessageId());
+        }));
+        assertEquals(List.of(WireFormat.BINARY, WireFormat.JSON, WireFormat.BINARY), formats);
+
+        // A lone message is a bundle of one
+        final byte[] single = DatagramBundle.single(SelectiveAck.NONE, binary);
+        assertEquals(1, DatagramBundle.unpack(single, 0, single.length, (payload, offset, length) -> {}));
+
+        // Connections without ack headers send plain length-prefixed frames, which read the same way
+        bundle.add(json);
+        bundle.add(binary);
+        final byte[] plain = bundle.drain();
+        assertEquals(2 * DatagramBundle.LENGTH_HEADER_SIZE + binary.length + json.length, plain.length);
+        assertFalse(DatagramBundle.hasAckHeader(plain, 0, plain.length));
+        assertEquals(SelectiveAck.NONE, DatagramBundle.ackHeaderOf(plain, 0, plain.length));
+        assertEquals(2, DatagramBundle.unpack(plain, 0, plain.length, (payload, offset, length) -> {}));
+        final byte[] plainSingle = DatagramBundle.single(json);
+        assertEquals(json.length, plainSingle.length - DatagramBundle.LENGTH_HEADER_SIZE);
+        assertEquals(1, DatagramBundle.unpack(plainSingle, 0, plainSingle.length, (payload, offset, length) -> {}));
+
+        // And an ack on its own is a bundle of none
+        final byte[] ack = DatagramBundle.ackOnly(ackHeader);
+        assertEquals(0, DatagramBundle.unpack(ack, 0, ack.length, (payload, offset, length) -> {}));
+        assertEquals(ackHeader, DatagramBundle.ackHeaderOf(ack, 0, ack.length));
+    }
+
+    @Test
+    public void testBundleOverflow() {
+        final DatagramBundle bundle = new DatagramBundle(25);
+        bundle.add(new byte[12]);
+        assertFalse(bundle.fits(1));
+        assertThrows(IllegalStateException.class, () -> bundle.add(new byte[1]));
+
+        final byte[] truncated = new byte[] { DatagramBundle.ACK_HEADER_MARKER, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 10, 1, 2, 3 };
+        assertThrows(IllegalArgumentException.class, () -> DatagramBundle.unpack(truncated, 0, truncated.length, (payload, offset, length) -> {}));
+        assertThrows(IllegalArgumentException.class, () -> DatagramBundle.unpack(truncated, 0, 4, (payload, offset, length) -> {}));
+    }
+
+    @Test
+    public void testSharedData() throws JsonProcessingException {
+        final OutgoingMessage message = OutgoingMessage.newBuilder()
+            .setKey("some-\"key\"")
+            .success()
+            .reliable()
+            .viability(1000)
+            .data(new InvalidArgumentExceptionData("Bad things happened."))
+            .build();
+
+        // Splicing matches serializing the whole message
+        final ObjectMapper mapper = new ObjectMapper();
+        final byte[] json = WireFormat.JSON.getCodec().encode(message);
+        assertEquals(mapper.valueToTree(message), mapper.readTree(new String(json, JsonMessageCodec.CHARSET)));
+
+        for (final WireFormat format : WireFormat.values()) {
+            final byte[] data = format.getCodec().encodeData(message.data());
+            for (int i = 0; i < 3; i++) {
+                final OutgoingMessage copy = message.withMessageId(i + 1);
+                final byte[] payload = format.getCodec().encode(copy, data);
+
+                final MessageEnvelope envelope = format.getCodec().decode(payload, 0, payload.length);
+                assertEquals(copy.messageId(), envelope.messageId());
+                assertEquals("some-\"key\"", envelope.key());
+                assertEquals("Bad things happened.", reasonOf(envelope));
+            }
+        }
+    }
+
+    @Test
+    public void testJsonValidation() {
+        final String data = ",\"data\":{\"type\":\"EMPTY\"}";
+        assertAll(
+            () -> { assertEquals("Unable to parse message payload as JSON.", decodeError("{\"createdAt\":")); },
+            () -> { assertEquals("Message payload must be a JSON object.", decodeError("[1]")); },
+            () -> { assertEquals("'createdAt' must be supplied as milliseconds since epoch.", decodeError("{\"createdAt\":5,\"key\":\"k\"}")); },
+            () -> { assertEquals("Could not parse message ID as a 32-bit sequence number.", decodeError("{\"createdAt\":1700000000000,\"messageId\":\"1\",\"key\":\"k\"}")); },
+            () -> { assertEquals("Could not parse ack message ID as a 32-bit sequence number.", decodeError("{\"createdAt\":1700000000000,\"ackMessageId\":1.5,\"key\":\"k\"}")); },
+            () -> { assertEquals("Incoming messages must contain a game key field.", decodeError("{\"createdAt\":1700000000000" + data + "}")); }
+        );
+
+        // A command's ID wins over a bad ack ID, and unknown fields are skipped
+        final String json = "{\"extra\":[{\"a\":1}],\"createdAt\":1700000000000,\"messageId\":3,\"ackMessageId\":\"x\",\"key\":\"k\"" + data + "}";
+        final byte[] payload = json.getBytes(JsonMessageCodec.CHARSET);
+        final MessageEnvelope envelope = WireFormat.JSON.getCodec().decode(payload, 0, payload.length);
+        assertEquals(3, envelope.messageId());
+        assertNull(envelope.ackMessageId());
+        assertEquals("EMPTY", envelope.data().type());
+    }
+
+    @Test
+    public void testPeekType() throws JsonProcessingException {
+        // Nested objects and fields before the type are skipped
+        final String json = "{\"createdAt\":1700000000000,\"data\":{\"pos\":{\"type\":\"x\"},\"type\":\"COMMAND_SEND_CHAT\"},\"key\":\"k\"}";
+        final byte[] payload = json.getBytes(JsonMessageCodec.CHARSET);
+        assertEquals("COMMAND_SEND_CHAT", WireFormat.JSON.getCodec().peekType(payload, 0, payload.length));
+
+        final byte[] noData = "{\"createdAt\":1700000000000,\"key\":\"k\"}".getBytes(JsonMessageCodec.CHARSET);
+        assertNull(WireFormat.JSON.getCodec().peekType(noData, 0, noData.length));
+
+        final byte[] truncated = "{\"createdAt\":".getBytes(JsonMessageCodec.CHARSET);
+        assertThrows(IllegalArgumentException.class, () -> WireFormat.JSON.getCodec().peekType(truncated, 0, truncated.length));
+
+        // Binary messages without data carry no type
+        final byte[] binary = WireFormat.BINARY.getCodec().encode(
+            OutgoingMessage.newBuilder().setKey("some-key").success().ackMessageId(4).data(new EmptyData()).build(), new byte[0]);
+        assertNull(WireFormat.BINARY.getCodec().peekType(binary, 0, binary.length));
+        assertThrows(IllegalArgumentException.class, () -> WireFormat.BINARY.getCodec().peekType(binary, 0, 14));
+    }
+
+    /**
+     * Reads the reason out of a decoded invalid argument message.
+     * @param envelope Decoded message
+     * @return Reason
+     */
+    private static String reasonOf(final MessageEnvelope envelope) {
+        return MessageData.read(envelope.data().parser(), InvalidArgumentExceptionData.class).getReason();
+    }
+
+    /**
+     * Decodes a JSON message that should be rejected.
+     * @param json Message JSON
+     * @return Error message
+     */
+    private static String decodeError(final String json) {
+        final byte[] payload = json.getBytes(JsonMessageCodec.CHARSET);
+        return assertThrows(IllegalArgumentException.class, () -> WireFormat.JSON.getCodec().decode(payload, 0, payload.length)).getMessage();
+    }
+}
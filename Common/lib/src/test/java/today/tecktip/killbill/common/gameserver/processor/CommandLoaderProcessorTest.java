@@ -0,0 +1,134 @@
+package today.tecktip.killbill.common.gameserver.processor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+import today.tecktip.killbill.common.gameserver.CommandLoader;
+import today.tecktip.killbill.common.gameserver.MessageHandler.CommandContext;
+import today.tecktip.killbill.common.gameserver.MessageHandler.InvokeContext;
+import today.tecktip.killbill.common.gameserver.games.GameType;
+import today.tecktip.killbill.common.gameserver.messages.MessageDataType;
+import today.tecktip.killbill.common.gameserver.messages.generic.EmptyData;
+
+/**
+ * Tests for the command loader annotation processor.
+ * @author cs
+ */
+public class CommandLoaderProcessorTest {
+    /**
+     * A command with a method declaring a checked exception its interface doesn't.
+     */
+    private static final String COMMAND = String.join("\n",
+        "package test;",
+        "import com.fasterxml.jackson.core.JsonParser;",
+        "import today.tecktip.killbill.common.gameserver.MessageHandler;",
+        "import today.tecktip.killbill.common.gameserver.MessageHandler.CommandContext;",
+        "import today.tecktip.killbill.common.gameserver.MessageHandler.InvokeContext;",
+        "import today.tecktip.killbill.common.gameserver.annotations.*;",
+        "import today.tecktip.killbill.common.gameserver.games.GameType;",
+        "import today.tecktip.killbill.common.gameserver.messages.IncomingMessage;",
+        "import today.tecktip.killbill.common.gameserver.messages.MessageDataType;",
+        "import today.tecktip.killbill.common.gameserver.messages.generic.EmptyData;",
+        "@Command(gameTypes = { GameType.BASIC })",
+        "public class TestCommand {",
+        "    @ParseMethod(type = MessageDataType.EMPTY)",
+        "    public EmptyData parse(final JsonParser parser) { return new EmptyData(); }",
+        "    @CommandMethod(type = MessageDataType.EMPTY)",
+        "    public void run(final MessageHandler handler, final IncomingMessage message, final CommandContext context) throws java.io.IOException {",
+        "        throw new java.io.IOException(\"Checked\");",
+        "    }",
+        "    @InvokeMethod(type = MessageDataType.EMPTY)",
+        "    public void invoke(final MessageHandler handler, final InvokeContext context) { }",
+        "}"
+    );
+
+    /**
+     * A second command registering the same parse method as {@link #COMMAND}.
+     */
+    private static final String DUPLICATE = String.join("\n",
+        "package test;",
+        "import com.fasterxml.jackson.core.JsonParser;",
+        "import today.tecktip.killbill.common.gameserver.annotations.*;",
+        "import today.tecktip.killbill.common.gameserver.messages.MessageDataType;",
+        "import today.tecktip.killbill.common.gameserver.messages.generic.EmptyData;",
+        "@Command",
+        "public class DuplicateCommand {",
+        "    @ParseMethod(type = MessageDataType.EMPTY)",
+        "    public EmptyData parse(final JsonParser parser) { return new EmptyData(); }",
+        "}"
+    );
+
+    @Test
+    public void testGeneratedLoader(@TempDir final Path dir) throws Exception {
+        final Path source = dir.resolve("TestCommand.java");
+        Files.writeString(source, COMMAND);
+        assertTrue(compile(dir, source), "Generated loader should compile.");
+
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[] { dir.toUri().toURL() }, getClass().getClassLoader())) {
+            final Class<?> loaderClass = classLoader.loadClass("test.GeneratedLoader");
+            // Registers from its constructor, so nothing may subclass it
+            assertTrue(Modifier.isFinal(loaderClass.getModifiers()));
+            final CommandLoader loader = (CommandLoader) loaderClass.getConstructor().newInstance();
+
+            final JsonParser parser = new JsonFactory().createParser("{}");
+            parser.nextToken();
+            assertInstanceOf(EmptyData.class, loader.parseMethodFor(GameType.BASIC, MessageDataType.EMPTY).parse(parser));
+            assertNotNull(loader.invokeMethodFor(GameType.BASIC, MessageDataType.EMPTY));
+            assertNull(loader.responseMethodFor(GameType.BASIC, MessageDataType.EMPTY));
+
+            // Checked exceptions come through unchanged
+            assertThrows(IOException.class, () -> loader.commandMethodFor(GameType.BASIC, MessageDataType.EMPTY).run(null, null, new CommandContext()));
+            loader.invokeMethodFor(GameType.BASIC, MessageDataType.EMPTY).run(null, new InvokeContext());
+        }
+    }
+
+    @Test
+    public void testDuplicateMethodFailsBuild(@TempDir final Path dir) throws Exception {
+        final Path source = dir.resolve("TestCommand.java");
+        final Path duplicate = dir.resolve("DuplicateCommand.java");
+        Files.writeString(source, COMMAND);
+        Files.writeString(duplicate, DUPLICATE);
+
+        assertFalse(compile(dir, source, duplicate));
+    }
+
+    /**
+     * Compiles sources with the processor, generating <code>test.GeneratedLoader</code>.
+     * @param dir Output directory
+     * @param sources Sources to compile
+     * @return True if compilation succeeded
+     * @throws IOException Unable to close the file manager
+     */
+    private static boolean compile(final Path dir, final Path... sources) throws IOException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager files = compiler.getStandardFileManager(null, null, null)) {
+            final List<String> options = List.of(
+                "-classpath", System.getProperty("java.class.path"),
+                "-d", dir.toString(),
+                "-s", dir.toString(),
+                "-A" + CommandLoaderProcessor.OPTION + "=test.GeneratedLoader"
+            );
+            final JavaCompiler.CompilationTask task = compiler.getTask(new StringWriter(), files, null, options, null, files.getJavaFileObjects(sources));
+            task.setProcessors(List.of(new CommandLoaderProcessor()));
+            return task.call();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package today.tecktip.killbill.common.gameserver.ratelimit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import today.tecktip.killbill.common.gameserver.messages.MessageDataType;
+import today.tecktip.killbill.common.gameserver.ratelimit.RateLimiter.Budget;
+
+/**
+ * Tests for per-client rate limiting.
+ * @author cs
+ */
+public class RateLimiterTest {
+    /**
+     * One second in nanos
+     */
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBucketBurstAndRefill() {
+        final TokenBucket bucket = new TokenBucket(10, 3, 0);
+
+        // A full burst, then nothing
+        for (int i = 0; i < 3; i++) assertTrue(bucket.tryTake(0));
+        assertFalse(bucket.tryTake(0));
+
+        // One token every 100ms
+        assertFalse(bucket.tryTake(SECOND / 20));
+        assertTrue(bucket.tryTake(SECOND / 10));
+        assertFalse(bucket.tryTake(SECOND / 10));
+
+        // Refills stop at the burst size
+        final long later = 10 * SECOND;
+        for (int i = 0; i < 3; i++) assertTrue(bucket.tryTake(later));
+        assertFalse(bucket.tryTake(later));
+    }
+
+    @Test
+    public void testBucketIsFullOnceIdle() {
+        final TokenBucket bucket = new TokenBucket(10, 3, 0);
+        assertTrue(bucket.isFull(0));
+
+        assertTrue(bucket.tryTake(0));
+        assertFalse(bucket.isFull(0));
+        assertFalse(bucket.isFull(SECOND / 20));
+        assertTrue(bucket.isFull(SECOND / 10));
+    }
+
+    @Test
+    public void testBudgetsAreSeparate() {
+        final RateLimiter limiter = new RateLimiter(
+            new Budget(100, 100),
+            Map.of(TrafficClass.CHAT, new Budget(1, 2), TrafficClass.MOVEMENT, new Budget(100, 100)),
+            0
+        );
+
+        assertTrue(limiter.tryAccept(TrafficClass.CHAT, 0));
+        assertTrue(limiter.tryAccept(TrafficClass.CHAT, 0));
+        assertFalse(limiter.tryAccept(TrafficClass.CHAT, 0));
+
+        // Chat spam leaves movement alone, and classes without a budget are never limited
+        assertTrue(limiter.tryAccept(TrafficClass.MOVEMENT, 0));
+        for (int i = 0; i < 1000; i++) assertTrue(limiter.tryAccept(TrafficClass.CONTROL, 0));
+
+        for (int i = 0; i < 100; i++) assertTrue(limiter.tryAcceptDatagram(0));
+        assertFalse(limiter.tryAcceptDatagram(0));
+    }
+
+    @Test
+    public void testClassification() {
+        assertEquals(TrafficClass.MOVEMENT, TrafficClass.of(MessageDataType.COMMAND_CHANGE_PLAYER_STATE));
+        assertEquals(TrafficClass.CHAT, TrafficClass.of(MessageDataType.COMMAND_SEND_CHAT));
+        assertEquals(TrafficClass.ACTION, TrafficClass.of(MessageDataType.COMMAND_CREATE_BOMB));
+        assertEquals(TrafficClass.CONTROL, TrafficClass.of(MessageDataType.COMMAND_HEARTBEAT));
+
+        assertEquals(TrafficClass.CHAT, TrafficClass.ofTypeName("COMMAND_SEND_CHAT"));
+        assertEquals(TrafficClass.CONTROL, TrafficClass.ofTypeName(null));
+        assertEquals(TrafficClass.ACTION, TrafficClass.ofTypeName("NOT_A_TYPE"));
+    }
+}
@@ -0,0 +1,231 @@
+package today.tecktip.killbill.common.gameserver.reliability;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import today.tecktip.killbill.common.gameserver.MessageHandler.ConnectionState;
+import today.tecktip.killbill.common.gameserver.messages.OutgoingMessage;
+import today.tecktip.killbill.common.gameserver.messages.exceptions.InvalidArgumentExceptionData;
+import today.tecktip.killbill.common.gameserver.reliability.TimingWheel.Timeout;
+
+/**
+ * Tests for the timing wheel, retransmit queue and selective acks.
+ * @author cs
+ */
+public class RetransmitQueueTest {
+
+    private static OutgoingMessage command(final int messageId) {
+        return OutgoingMessage.newBuilder()
+            .setKey("some-key")
+            .messageId(messageId)
+            .viability(1000)
+            .data(new InvalidArgumentExceptionData("Bad things happened."))
+            .build();
+    }
+
+    @Test
+    public void testAcksOutsideHeaderAreSentAsMessages() {
+        final ConnectionState connection = new ConnectionState();
+
+        // Nothing rides in a header until one is negotiated
+        assertFalse(connection.ack(1));
+        connection.setAckHeaders(true);
+
+        assertTrue(connection.ack(1));
+        assertTrue(connection.ack(2));
+        assertTrue(connection.ack(1 + SelectiveAck.BITS + 1));
+
+        // The newest ID and the 32 before it ride in the header
+        assertTrue(connection.resendAck(1 + SelectiveAck.BITS + 1));
+        assertTrue(connection.resendAck(2));
+        assertFalse(connection.resendAck(1));
+        assertFalse(connection.resendAck(5));
+
+        // Late acks for old commands don't fit either
+        assertTrue(connection.ack(100));
+        assertFalse(connection.ack(50));
+    }
+
+    @Test
+    public void testWheelExpiresOnlyDueTimeouts() {
+        final TimingWheel<String> wheel = new TimingWheel<>(10, 8, 0);
+        wheel.schedule("soon", 25);
+        final Timeout<String> cancelled = wheel.schedule("cancelled", 25);
+        wheel.schedule("later", 500);
+        assertTrue(wheel.cancel(cancelled));
+        assertFalse(wheel.cancel(cancelled));
+
+        final List<String> expired = new ArrayList<>();
+        assertEquals(0, wheel.advance(19, timeout -> expired.add(timeout.getValue())));
+        assertEquals(1, wheel.advance(30, timeout -> expired.add(timeout.getValue())));
+        assertEquals(List.of("soon"), expired);
+
+        // 'later' wraps around the wheel several times before it is due
+        assertEquals(0, wheel.advance(490, timeout -> expired.add(timeout.getValue())));
+        assertEquals(1, wheel.advance(10000, timeout -> expired.add(timeout.getValue())));
+        assertEquals(List.of("soon", "later"), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testResendBackoff() {
+        final RetransmitQueue queue = new RetransmitQueue(100, 0);
+        final OutgoingMessage message = command(1);
+        queue.add(message, 0, 1000);
+
+        final List<Long> resends = new ArrayList<>();
+        for (long now = 0; now <= 2000; now += 25) {
+            final long time = now;
+            queue.advance(now, m -> { resends.add(time); return true; });
+        }
+
+        // Resent after 100, 200, 400 ms (cumulative), then dropped at the viability deadline
+        assertEquals(List.of(100L, 300L, 700L), resends);
+        assertFalse(queue.contains(message.messageId()));
+    }
+
+    @Test
+    public void testRttEstimate() {
+        final RttEstimator rtt = new RttEstimator(500);
+        assertEquals(500, rtt.getRtoMillis());
+        assertEquals(-1, rtt.getSmoothedRttMillis());
+
+        // First sample: SRTT = R, RTTVAR = R/2, RTO = SRTT + 4 * RTTVAR
+        rtt.sample(100);
+        assertEquals(100, rtt.getSmoothedRttMillis());
+        assertEquals(50, rtt.getRttVarianceMillis());
+        assertEquals(300, rtt.getRtoMillis());
+        assertEquals(4800, rtt.getViabilityMillis());
+
+        // A steady LAN connection settles near the floor
+        for (int i = 0; i < 100; i++) rtt.sample(2);
+        assertEquals(RttEstimator.MIN_RTO_MILLIS, rtt.getRtoMillis());
+        assertEquals(RttEstimator.MIN_VIABILITY_MILLIS, rtt.getViabilityMillis());
+
+        // A jittery mobile connection backs off, but never past the cap
+        for (int i = 0; i < 100; i++) rtt.sample(i % 2 == 0 ? 200 : 900);
+        assertTrue(rtt.getRtoMillis() > 900);
+        assertEquals(rtt.getRtoMillis(), rtt.getBackoffMillis(1));
+        assertEquals(RttEstimator.MAX_RTO_MILLIS, rtt.getBackoffMillis(10));
+        assertEquals(RttEstimator.MAX_VIABILITY_MILLIS, rtt.getViabilityMillis());
+    }
+
+    @Test
+    public void testAckSamplesOnlyFirstSends() {
+        final RetransmitQueue queue = new RetransmitQueue(100, 0);
+        queue.add(command(1), 0);
+        queue.add(command(2), 0);
+
+        // 2 is resent, so its ack can't be timed
+        queue.advance(100, m -> m.messageId() == 2);
+        assertTrue(queue.contains(2));
+        assertNotNull(queue.ack(2, 150));
+        assertEquals(-1, queue.getRtt().getSmoothedRttMillis());
+
+        // 1 was dropped by the resend method, so there's nothing to ack
+        assertNull(queue.ack(1, 150));
+
+        queue.add(command(3), 200);
+        assertNotNull(queue.ack(3, 240));
+        assertEquals(40, queue.getRtt().getSmoothedRttMillis());
+        assertEquals(120, queue.getRtt().getRtoMillis());
+    }
+
+    @Test
+    public void testAckCancels() {
+        final RetransmitQueue queue = new RetransmitQueue(100, 0);
+        final OutgoingMessage message = command(1);
+        queue.add(message, 0, 1000);
+
+        assertSame(message, queue.get(message.messageId()));
+        assertSame(message, queue.remove(message.messageId()));
+        assertNull(queue.remove(2));
+        assertEquals(0, queue.advance(5000, m -> fail("Cancelled message was resent.")));
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testRingEvictsStaleCommands() {
+        final RetransmitQueue queue = new RetransmitQueue(100, 0, 4);
+        for (int messageId = 1; messageId <= 5; messageId++) {
+            queue.add(command(messageId), 0, 1000);
+        }
+
+        // 5 reuses 1's slot, so 1 is given up on
+        assertEquals(4, queue.size());
+        assertFalse(queue.contains(1));
+        assertTrue(queue.contains(5));
+
+        final List<Integer> resent = new ArrayList<>();
+        queue.advance(100, m -> resent.add(m.messageId()));
+        assertEquals(List.of(2, 3, 4, 5), resent.stream().sorted().toList());
+
+        queue.clear();
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.advance(5000, m -> fail("Cleared message was resent.")));
+    }
+
+    @Test
+    public void testSequenceWrap() {
+        assertEquals(1, SequenceNumbers.next(-1));
+        assertEquals(Integer.MIN_VALUE, SequenceNumbers.next(Integer.MAX_VALUE));
+        assertTrue(SequenceNumbers.isNewer(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertTrue(SequenceNumbers.isNewer(1, -1));
+        assertFalse(SequenceNumbers.isNewer(-1, 1));
+    }
+
+    @Test
+    public void testDuplicateWindow() {
+        final DuplicateWindow window = new DuplicateWindow(64);
+        assertFalse(window.contains(Integer.MAX_VALUE));
+
+        // Received out of order across the wrap
+        window.mark(Integer.MAX_VALUE);
+        window.mark(Integer.MIN_VALUE + 1);
+        assertTrue(window.contains(Integer.MAX_VALUE));
+        assertFalse(window.contains(Integer.MIN_VALUE));
+        assertTrue(window.contains(Integer.MIN_VALUE + 1));
+
+        window.mark(Integer.MIN_VALUE);
+        assertTrue(window.contains(Integer.MIN_VALUE));
+
+        // Sliding forward forgets reused slots, and anything older than the window counts as received
+        window.mark(Integer.MIN_VALUE + 64);
+        assertTrue(window.contains(Integer.MIN_VALUE + 64));
+        assertTrue(window.contains(Integer.MIN_VALUE + 1));
+        assertFalse(window.contains(Integer.MIN_VALUE + 2));
+        assertTrue(window.contains(Integer.MIN_VALUE));
+
+        window.clear();
+        assertFalse(window.contains(Integer.MIN_VALUE + 64));
+    }
+
+    @Test
+    public void testSelectiveAck() {
+        final DuplicateWindow window = new DuplicateWindow(64);
+        assertEquals(SelectiveAck.NONE, window.ackHeader());
+
+        window.mark(5);
+        window.mark(6);
+        window.mark(38);
+        final long header = window.ackHeader();
+        assertEquals(38, SelectiveAck.newest(header));
+
+        // 6 is 32 before 38, so it's covered. 5 is too old to fit.
+        final List<Integer> acked = new ArrayList<>();
+        SelectiveAck.forEach(header, acked::add);
+        assertEquals(List.of(38, 6), acked);
+
+        // Acks carried over from a header clear pending commands, and skip the unused ID on wrap-around
+        final RetransmitQueue queue = new RetransmitQueue(100, 0);
+        queue.add(command(-1), 0, 1000);
+        queue.add(command(1), 0, 1000);
+        queue.add(command(2), 0, 1000);
+        SelectiveAck.forEach(SelectiveAck.pack(2, 0b111), queue::remove);
+        assertEquals(0, queue.size());
+    }
+}
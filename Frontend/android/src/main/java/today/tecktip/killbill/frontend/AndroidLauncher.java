@@ -7,7 +7,7 @@ import com.badlogic.gdx.backends.android.AndroidApplication;
 import com.badlogic.gdx.backends.android.AndroidApplicationConfiguration;
 
 import today.tecktip.killbill.frontend.http.NativeHttpClient;
-import today.tecktip.killbill.frontend.gameserver.HardcodedCommandLoader;
+import today.tecktip.killbill.frontend.gameserver.GeneratedCommandLoader;
 import today.tecktip.killbill.frontend.natives.AndroidNativeHttpClient;
 
 /**
@@ -39,10 +39,7 @@ public class AndroidLauncher extends AndroidApplication {
 		// Create natives
 		NativeHttpClient httpClient = new AndroidNativeHttpClient("http://207.244.252.28:31218", getApplicationContext());
 
-		HardcodedCommandLoader commandLoader = new HardcodedCommandLoader();
-		commandLoader.populate();
-
-		gameInstance = new KillBillGame(KillBillGame.Platform.ANDROID, KillBillGame.InputType.TOUCH, httpClient, commandLoader);
+		gameInstance = new KillBillGame(KillBillGame.Platform.ANDROID, KillBillGame.InputType.TOUCH, httpClient, new GeneratedCommandLoader());
 		initialize(gameInstance, config);
 	}
 }
@@ -3,32 +3,44 @@ package today.tecktip.killbill.frontend.gameserver;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.DatagramChannel;
-import java.nio.charset.Charset;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.badlogic.gdx.Gdx;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.lang.InterruptedException;
 
 import today.tecktip.killbill.common.exceptions.MessageFailure;
 import today.tecktip.killbill.common.gameserver.CommandLoader;
 import today.tecktip.killbill.common.gameserver.MessageHandler;
+import today.tecktip.killbill.common.gameserver.codec.BufferPool;
+import today.tecktip.killbill.common.gameserver.codec.DatagramBundle;
+import today.tecktip.killbill.common.gameserver.codec.WireFormat;
 import today.tecktip.killbill.common.gameserver.messages.IncomingMessage;
+import today.tecktip.killbill.common.gameserver.messages.MessageEnvelope;
 import today.tecktip.killbill.common.gameserver.messages.MessageDataType;
 import today.tecktip.killbill.common.gameserver.messages.OutgoingMessage;
+import today.tecktip.killbill.common.gameserver.messages.generic.EmptyData;
+import today.tecktip.killbill.common.gameserver.reliability.RetransmitQueue;
+import today.tecktip.killbill.common.gameserver.reliability.SelectiveAck;
+import today.tecktip.killbill.common.gameserver.reliability.SequenceNumbers;
+import today.tecktip.killbill.common.gameserver.reliability.SequenceRing;
 import today.tecktip.killbill.frontend.config.GlobalGameConfig;
 import today.tecktip.killbill.frontend.exceptions.CatastrophicException;
 import today.tecktip.killbill.frontend.gameserver.game.LocalGameState;
@@ -47,14 +59,14 @@ public class ClientMessageHandler implements MessageHandler {
     public static final int MAX_DATA_SIZE_BYTES = 10240; // 10KB
 
     /**
-     * The charset the server will communicate with.
+     * The wire format requested from the server while connecting.
      */
-    public static final Charset SERVER_CHARSET = Charset.forName("UTF-16");
+    public static final WireFormat PREFERRED_WIRE_FORMAT = WireFormat.BINARY;
 
     /**
-     * The delay to use between each execution of the listen/send thread loops.
+     * The delay between each housekeeping run, in milliseconds.
      */
-    public static final int THREAD_MICROS_DELAY = 200;
+    public static final long HOUSEKEEPING_INTERVAL_MS = 10;
 
     /**
      * The maximum size of the outgoing queue before messages are rejected.
@@ -62,9 +74,9 @@ public class ClientMessageHandler implements MessageHandler {
     public static final int MAX_QUEUE_SIZE = 500;
 
     /**
-     * Jackson JSON serializer.
+     * The most outgoing buffers kept pooled. Sends happen one at a time, so a few is plenty.
      */
-    private static final ObjectMapper MAPPER = new ObjectMapper();
+    public static final int SEND_BUFFER_POOL_SIZE = 4;
 
     /**
      * Last instantiated object of this type.
@@ -87,9 +99,14 @@ public class ClientMessageHandler implements MessageHandler {
     private Thread senderThread;
 
     /**
-     * UDP channel housekeeping thread
+     * Wakes the listener thread when a datagram arrives
      */
-    private Thread housekeepingThread;
+    private Selector selector;
+
+    /**
+     * Runs housekeeping on its own thread every {@link #HOUSEKEEPING_INTERVAL_MS}
+     */
+    private ScheduledExecutorService housekeepingExecutor;
 
     /**
      * Whether the client is connected.
@@ -112,9 +129,9 @@ public class ClientMessageHandler implements MessageHandler {
     private LocalGameState gameState;
 
     /**
-     * Outgoing message queue.
+     * Outgoing message queue. The sender thread blocks on it until something is added.
      */
-    private ConcurrentLinkedQueue<OutgoingMessage> sendQueue;
+    private BlockingQueue<OutgoingMessage> sendQueue;
 
     /**
      * The address (host and port) to the UDP game server.
@@ -132,16 +149,21 @@ public class ClientMessageHandler implements MessageHandler {
     private ListenErrorHandler listenErrorHandler;
 
     /**
-     * A map of outgoing responses, kept for the {@link #DEFAULT_OUTGOING_MESSAGE_VIABILITY} in case
-     *  the server asks for them again.
+     * Outgoing responses by the message ID they ack, kept for the connection's viability
+     *  in case the server asks for them again.
      */
-    private Map<UUID, OutgoingResponse> outgoingResponses;
+    private SequenceRing<OutgoingResponse> outgoingResponses;
 
     /**
-     * A map of outgoing commands, kept for the {@link #DEFAULT_OUTGOING_MESSAGE_VIABILITY} in case
-     *  we do not receive a response.
+     * Outgoing commands, kept for the connection's viability in case
+     *  we do not receive a response. Also measures the round trip time to the server.
      */
-    private Map<UUID, OutgoingCommand> outgoingCommands;
+    private RetransmitQueue outgoingCommands;
+
+    /**
+     * Message numbering and acks for the connection to the server.
+     */
+    private ConnectionState connection;
 
     /**
      * Command loader
@@ -159,21 +181,41 @@ public class ClientMessageHandler implements MessageHandler {
     private final String key;
 
     /**
-     * Last time a message was delivered to the server.
+     * Last time a message was delivered to the server, in epoch millis, or 0 if none has been.
+     *  Kept as a primitive so sending doesn't allocate.
      */
-    private Instant lastSend;
+    private volatile long lastSend;
 
     /**
-     * Last time a message was received from the server.
+     * Last time a message was received from the server, in monotonic millis, or 0 if none has been.
      */
-    private Instant lastRecv;
+    private volatile long lastRecv;
 
     /**
      * The optional callbacks to run when data gets sent
      */
     private Map<MessageDataType, MessageCallbackMethod> callbacks;
 
-    private AtomicBoolean threadLock;
+    /**
+     * Guards the sent responses, the retransmit queue and the connection state shared by the listener,
+     *  sender and housekeeping threads
+     */
+    private final ReentrantLock stateLock;
+
+    /**
+     * The format outgoing messages are encoded with. JSON until the server accepts another format.
+     */
+    private volatile WireFormat wireFormat;
+
+    /**
+     * Direct buffers outgoing datagrams are encoded into
+     */
+    private final BufferPool sendBuffers;
+
+    /**
+     * Handles each message unpacked by the listener. Kept so a new method reference isn't made for every datagram.
+     */
+    private final DatagramBundle.FrameHandler frameHandler;
     
     /**
      * Constructs a new ClientMessageHandler.
@@ -201,14 +243,19 @@ public class ClientMessageHandler implements MessageHandler {
         connected = false;
         listenerThread = null;
         senderThread = null;
-        lastRecv = null;
+        lastSend = 0;
+        lastRecv = 0;
         ready = false;
         callbacks = new HashMap<>();
-        threadLock = new AtomicBoolean(false);
+        stateLock = new ReentrantLock();
+        wireFormat = WireFormat.JSON;
+        sendBuffers = new BufferPool(MAX_DATA_SIZE_BYTES, SEND_BUFFER_POOL_SIZE);
+        frameHandler = this::recvFrame;
 
-        sendQueue = new ConcurrentLinkedQueue<>();
-        outgoingResponses = new HashMap<>();
-        outgoingCommands = new HashMap<>();
+        sendQueue = new ArrayBlockingQueue<>(MAX_QUEUE_SIZE);
+        outgoingResponses = new SequenceRing<>(SEQUENCE_WINDOW);
+        outgoingCommands = new RetransmitQueue(INITIAL_RETRANSMIT_TIMEOUT_MS, monotonicMillis());
+        connection = new ConnectionState();
 
         scheduledTasks.add(new HeartbeatSender()::run);
 
@@ -232,20 +279,25 @@ public class ClientMessageHandler implements MessageHandler {
         }
         this.game = game;
         connected = true;
-        lastRecv = null;
+        lastRecv = 0;
+        wireFormat = WireFormat.JSON;
+        connection.setAckHeaders(false);
         try {
             channel.connect(serverAddress);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
 
-            listenerThread = new Thread(this::listen);
+            listenerThread = new Thread(this::listen, "udp-listener");
             listenerThread.start();
 
-            senderThread = new Thread(this::sendQueue);
+            senderThread = new Thread(this::sendQueue, "udp-sender");
             senderThread.start();
 
-            housekeepingThread = new Thread(this::housekeeping);
-            housekeepingThread.start();
+            housekeepingExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "udp-housekeeping"));
+            housekeepingExecutor.scheduleWithFixedDelay(this::housekeeping, HOUSEKEEPING_INTERVAL_MS, HOUSEKEEPING_INTERVAL_MS, TimeUnit.MILLISECONDS);
         } catch (final Throwable t) {
             connected = false;
+            stopThreads();
             throw t;
         }
 
@@ -275,9 +327,20 @@ public class ClientMessageHandler implements MessageHandler {
             Gdx.app.error(ClientMessageHandler.class.getSimpleName(), "Failure in sending disconnect to server. Will close channel anyway.", e);
         }
 
+        stopThreads();
         channel.close();
     }
 
+    /**
+     * Wakes the network threads so they see the connection is closed, and stops housekeeping.
+     *  Call after clearing {@link #connected}.
+     */
+    private void stopThreads() {
+        if (housekeepingExecutor != null) housekeepingExecutor.shutdownNow();
+        if (senderThread != null) senderThread.interrupt();
+        if (selector != null) selector.wakeup();
+    }
+
     /**
      * Notes that the client is ready for use. Don't run this -- execute the connect command instead
      *  or bad things will happen.
@@ -303,164 +366,183 @@ public class ClientMessageHandler implements MessageHandler {
 
     /**
      * Internal listener loop, designed to be run as a thread, which reads incoming messages.
+     * <p>
+     * The server packs several messages into each datagram when it can. See {@link DatagramBundle}.
+     *  The acks in each datagram's header are applied after its messages.
+     * <p>
+     * One buffer is read into for the whole connection. It's kept on the heap, since the codecs parse
+     *  straight from its array. The channel is connected, so datagrams are read without making an
+     *  address object for each one.
+     * <p>
+     * The thread sleeps on the selector between datagrams, and is woken by it to stop.
      */
     private void listen() {
-        ByteBuffer listenBuf = ByteBuffer.allocate(MAX_DATA_SIZE_BYTES);
-        String content;
-        while (connected) {
-            try {
-                if (channel.receive(listenBuf) != null) {
-                    lastRecv = Instant.now();
-                    listenBuf.flip();
-                    // Clear off the first 4 bytes as the message length
-                    int length = listenBuf.getInt();
-                    content = new String(listenBuf.array(), 4, length, SERVER_CHARSET);
-
-                    if (GlobalGameConfig.DEBUG) {
-                        Gdx.app.log(ClientMessageHandler.class.getSimpleName(), "-> " + content);
+        final ByteBuffer listenBuf = ByteBuffer.allocate(MAX_DATA_SIZE_BYTES);
+        try {
+            while (connected) {
+                // Sleeps until a datagram arrives or the connection is closed
+                selector.select();
+                selector.selectedKeys().clear();
+
+                // Several datagrams may have arrived since the last wakeup
+                while (connected) {
+                    try {
+                        if (channel.read(listenBuf) <= 0) break;
+
+                        lastRecv = monotonicMillis();
+                        listenBuf.flip();
+                        final long ackHeader = DatagramBundle.ackHeaderOf(listenBuf.array(), 0, listenBuf.limit());
+                        DatagramBundle.unpack(listenBuf.array(), 0, listenBuf.limit(), frameHandler);
+                        recvAcks(ackHeader);
+                    } catch (final ClosedChannelException e) {
+                        return;
+                    } catch (final Throwable t) {
+                        listenErrorHandler.handle(t);
+                    } finally {
+                        listenBuf.clear();
                     }
-                    recv(content);
-                    listenBuf.clear();
                 }
-            } catch (final Throwable t) {
-                listenErrorHandler.handle(t);
-                listenBuf.clear();
             }
-            
+        } catch (final ClosedSelectorException e) {
+            // Closed while waiting
+        } catch (final IOException e) {
+            if (connected) listenErrorHandler.handle(e);
+        } finally {
             try {
-                TimeUnit.MICROSECONDS.sleep(THREAD_MICROS_DELAY);
-            } catch (final Throwable t) { }
+                selector.close();
+            } catch (final IOException e) {
+                listenErrorHandler.handle(e);
+            }
+        }
+    }
+
+    /**
+     * Decodes and handles one message from a received datagram. A bad message is reported without
+     *  dropping the rest of the datagram.
+     * @param payload Buffer containing the message
+     * @param offset Offset of the first message byte
+     * @param length Length of the message
+     */
+    private void recvFrame(final byte[] payload, final int offset, final int length) {
+        try {
+            final MessageEnvelope envelope = WireFormat.detect(payload, offset, length).getCodec().decode(payload, offset, length);
+
+            if (GlobalGameConfig.DEBUG) {
+                Gdx.app.log(ClientMessageHandler.class.getSimpleName(), "-> " + envelope);
+            }
+            recv(envelope);
+        } catch (final Throwable t) {
+            listenErrorHandler.handle(t);
+        }
+    }
+
+    /**
+     * Removes the commands acked by a selective ack header from the retransmit queue.
+     * @param ackHeader Header received from the server
+     */
+    private void recvAcks(final long ackHeader) {
+        if (SelectiveAck.newest(ackHeader) == SequenceNumbers.NONE) return;
+
+        final long now = monotonicMillis();
+        stateLock.lock();
+        try {
+            SelectiveAck.forEach(ackHeader, messageId -> outgoingCommands.ack(messageId, now));
+        } finally {
+            stateLock.unlock();
         }
     }
 
     /**
      * Internal queue processor loop, designed to be run as a thread, which sends outgoing messages.
+     *  Blocks until a message is queued, and is interrupted to stop.
      */
     private void sendQueue() {
-        OutgoingMessage msg = null;
         while (connected) {
-            msg = sendQueue.poll();
-
-            if (msg == null) continue;
+            final OutgoingMessage msg;
+            try {
+                msg = sendQueue.take();
+            } catch (final InterruptedException e) {
+                continue;
+            }
 
             try {
                 sendImmediately(msg);
             } catch (final Throwable t) {
                 sendErrorHandler.handle(t, msg);
             }
-            
-            try {
-                TimeUnit.MICROSECONDS.sleep(THREAD_MICROS_DELAY);
-            } catch (final Throwable t) {
-                sendErrorHandler.handle(t, null);
-            }
         }
     }
 
     /**
-     * Thread loop which purges messages, schedules resends, ...
+     * Runs once every {@link #HOUSEKEEPING_INTERVAL_MS} on the housekeeping executor. Checks for a timed out
+     *  connection, schedules resends and sends any acks that haven't gone out with a command, then runs the
+     *  scheduled tasks.
      */
     public void housekeeping() {
-        int i = 0;
-        List<Map.Entry<UUID, OutgoingCommand>> toResend = null;
-        List<UUID> toPurge = null;
-        Instant now;
-        while (connected) {
-            now = Instant.now();
-            if (lastRecv != null && now.isAfter(lastRecv.plusSeconds(15))) {
-                // timed out :(
-                connected = false;
-                Gdx.app.error(getClass().getSimpleName(), "UDP connection timed out.");
-                break;
-            }
-
-            // LOCK THE LOCKS
-            while (!threadLock.compareAndSet(false, true)) {
-                try {
-                    TimeUnit.MICROSECONDS.sleep(500);
-                } catch (final Throwable t) {
-                    sendErrorHandler.handle(t, null);
-                }
-            }
-            try {
-                // Check 
-                if (i == 0) {
-                    // Only every 500ms for this one
-                    // Purge any sent responses (presumed server got them)
-                    for (final Map.Entry<UUID, OutgoingResponse> entry : outgoingResponses.entrySet()) {
-                        if (entry.getValue().ackDeadline().isBefore(now)) {
-                            if (toPurge == null) toPurge = new ArrayList<>();
-                            toPurge.add(entry.getKey());
-                        }
-                    }
-
-                    if (toPurge != null) {
-                        for (final UUID messageId : toPurge) {
-                            outgoingResponses.remove(messageId);
-                        }
-
-                        toPurge = null;
-                    }
-                }
-
-                // Every 50ms for this one
-                // Resend any un-acked commands.
-                for (final Map.Entry<UUID, OutgoingCommand> entry : outgoingCommands.entrySet()) {
-                    if (entry.getValue().viabilityDeadline().isBefore(now)) {
-                        if (toPurge == null) toPurge = new LinkedList<>();
-                        toPurge.add(entry.getKey());
-                        continue;
-                    }
-
-                    else if (entry.getValue().lastSent().plusMillis(entry.getValue().sendCount() * MessageHandler.UNACKED_RETRY_DELAY_INCREMENT_MS).isBefore(now)) {
-                        if (toResend == null) toResend = new LinkedList<>();
-                        toResend.add(entry);
-                    }
-                }
-            } finally {
-                threadLock.set(false);
-            }
+        if (!connected) return;
 
-            // Resend any resends
-            if (toResend != null) {
-                for (final Map.Entry<UUID, OutgoingCommand> entry : toResend) {
-                    send(entry.getValue().message());
-                }
-                toResend = null;
-            }
+        if (lastRecv != 0 && monotonicMillis() - lastRecv > TimeUnit.SECONDS.toMillis(15)) {
+            // timed out :(
+            connected = false;
+            Gdx.app.error(getClass().getSimpleName(), "UDP connection timed out.");
+            stopThreads();
+            return;
+        }
 
-            if (toPurge != null) {
-                for (final UUID messageId : toPurge) {
-                    outgoingCommands.remove(messageId);
+        stateLock.lock();
+        try {
+            // Resend any un-acked commands that are due, and drop the ones past their viability.
+            // Sent responses expire on their own: they're checked against their deadline when asked for.
+            outgoingCommands.advance(
+                monotonicMillis(),
+                message -> {
+                    // Already numbered and accepted, so skip the checks in send().
+                    // If the queue is full, this resend just waits for the next deadline.
+                    sendQueue.offer(message);
+                    return true;
                 }
-                toPurge = null;
-            }
+            );
 
-            // Run extra housekeeping tasks
-            for (final ScheduledTaskMethod task : scheduledTasks) {
+            // Acks that haven't gone out with a command by now get a datagram of their own
+            if (connection.isAckPending()) {
+                final ByteBuffer ackBuf = sendBuffers.acquire();
                 try {
-                    task.run(this);
-                } catch (final Throwable t) {
-                    throw new CatastrophicException("Failure in scheduled housekeeping task:", t);
+                    DatagramBundle.writeAckOnly(ackBuf, connection.takeAckHeader());
+                    channel.write(ackBuf);
+                } finally {
+                    sendBuffers.release(ackBuf);
                 }
             }
+        } catch (final IOException e) {
+            sendErrorHandler.handle(e, null);
+        } finally {
+            stateLock.unlock();
+        }
 
+        // Run extra housekeeping tasks
+        for (final ScheduledTaskMethod task : scheduledTasks) {
             try {
-                TimeUnit.MICROSECONDS.sleep(50 * THREAD_MICROS_DELAY);
+                task.run(this);
             } catch (final Throwable t) {
-                sendErrorHandler.handle(t, null);
+                // The executor would swallow this and quietly stop running housekeeping, so report it here
+                final CatastrophicException e = new CatastrophicException("Failure in scheduled housekeeping task:", t);
+                Gdx.app.error(ClientMessageHandler.class.getSimpleName(), "Housekeeping stopped.", e);
+                throw e;
             }
-
-            i++;
-            if (i == 10) i = 0;
         }
     }
 
     /**
      * Queues a message for delivery.
+     * <p>
+     * Bare acks (see {@link OutgoingMessage#isBareAck()}) aren't queued. They're carried by the selective ack
+     *  header of the next datagram sent, which goes out within one housekeeping run, unless they're too old
+     *  for the header. Must be called from the listener thread, which runs every command.
      * @param msg Message to be sent
      */
     public void send(final OutgoingMessage msg) {
+        if (msg.isBareAck() && connection.ack(msg.ackMessageId())) return;
+
         if (sendQueue.size() > MAX_QUEUE_SIZE) {
             throw new IllegalStateException("Too many queued messages!");
         }
@@ -469,83 +551,87 @@ public class ClientMessageHandler implements MessageHandler {
             throw new IllegalStateException("Client is not ready.");
         }
 
-        sendQueue.add(msg);
+        sendQueue.add(numbered(msg));
     }
 
     /**
-     * Sends a message, bypassing the queue.
+     * Gives a message the next message ID on this connection, if it needs one.
      * @param msg Message to send
+     * @return Message ready to encode
      */
-    public void sendImmediately(final OutgoingMessage msg) throws JsonProcessingException, IOException, MessageFailure {
-        // Obtain the lock
-        while (!threadLock.compareAndSet(false, true)) {
-            try {
-                TimeUnit.MICROSECONDS.sleep(500);
-            } catch (final Throwable t) {
-                sendErrorHandler.handle(t, null);
-            }
-        }
-        try {
+    private OutgoingMessage numbered(final OutgoingMessage msg) {
+        return msg.needsMessageId() ? msg.withMessageId(connection.nextMessageId()) : msg;
+    }
 
-            final Instant now = Instant.now();
+    /**
+     * Gets the current time in milliseconds from a monotonic clock, for retransmit deadlines.
+     * @return Monotonic milliseconds
+     */
+    private static long monotonicMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * Sends a message, bypassing the queue. Commands are kept until acked and responses until their
+     *  deadline, in case they're needed again. Unreliable messages are written once and forgotten.
+     * @param msg Message to send
+     */
+    public void sendImmediately(final OutgoingMessage outgoing) throws JsonProcessingException, IOException, MessageFailure {
+        final OutgoingMessage msg = numbered(outgoing);
+        stateLock.lock();
+        try {
             // If this message acks something, store it in the outgoing response queue
             if (msg.ackMessageId() != null) {
-                if (!outgoingResponses.containsKey(msg.ackMessageId())) {
-                    if (outgoingResponses.size() >= MAX_QUEUE_SIZE) {
-                        throw new CatastrophicException("Outgoing responses exceeded max queue size!");
-                    }
+                if (outgoingResponses.get(msg.ackMessageId()) == null) {
                     outgoingResponses.put(
                         msg.ackMessageId(),
                         new OutgoingResponse(
                             null,
                             msg,
-                            now.plusMillis(DEFAULT_OUTGOING_MESSAGE_VIABILITY)
+                            Instant.now().plusMillis(outgoingCommands.getRtt().getViabilityMillis())
                         )
                     );
                 }
             }
             else if (msg.messageId() != null && msg.viability() != null) {
-                if (!outgoingCommands.containsKey(msg.messageId())) {
+                // Resends are already queued
+                if (!outgoingCommands.contains(msg.messageId())) {
                     if (outgoingCommands.size() >= MAX_QUEUE_SIZE) {
                         throw new CatastrophicException("Outgoing commands exceeded max queue size!");
                     }
 
-                    outgoingCommands.put(
-                        msg.messageId(),
-                        new OutgoingCommand(
-                            null,
-                            msg,
-                            1,
-                            now,
-                            now.plusMillis(DEFAULT_OUTGOING_MESSAGE_VIABILITY)
-                        )
-                    );
+                    outgoingCommands.add(msg, monotonicMillis());
                 }
             }
-            else {
+            else if (!msg.isUnreliable()) {
                 throw new IllegalArgumentException("Either a messageId or ackMessageId must be specified to send.");
             }
+            // Unreliable messages (like snapshot acks) are only written: nothing is stored or resent
             
-            String dataStr = MAPPER.writeValueAsString(msg);
-            byte[] data = dataStr.getBytes(SERVER_CHARSET);
             // According to Spring docs, we have to prepend the data with a 4-byte message length value
-            // to confirm the entire message was transmitted.
-            final ByteBuffer sendBuf = ByteBuffer.allocate(4 + data.length);
-            sendBuf.putInt(data.length);
-            sendBuf.put(data);
-            sendBuf.flip();
-
-            int bytesSent = channel.send(sendBuf, serverAddress);
-            if (GlobalGameConfig.DEBUG) {
-                Gdx.app.log(ClientMessageHandler.class.getSimpleName(), "<- " + dataStr);
-            }
-            if (bytesSent != sendBuf.array().length) {
-                throw new MessageFailure("Bytes-sent discrepancy: sent=" + bytesSent + ", exp=" + sendBuf.array().length);
+            // to confirm the entire message was transmitted. Any acks we owe the server go in front of that.
+            // The message is encoded straight into a pooled direct buffer, so steady-state sends don't allocate.
+            final ByteBuffer sendBuf = sendBuffers.acquire();
+            try {
+                DatagramBundle.writeSingle(sendBuf, wireFormat.getCodec(), msg);
+                if (connection.usesAckHeaders()) DatagramBundle.putAckHeader(sendBuf, connection.takeAckHeader());
+                else DatagramBundle.omitAckHeader(sendBuf);
+
+                final int expected = sendBuf.remaining();
+                final int bytesSent = channel.write(sendBuf);
+                if (GlobalGameConfig.DEBUG) {
+                    Gdx.app.log(ClientMessageHandler.class.getSimpleName(), "<- " + msg);
+                }
+                if (bytesSent != expected) {
+                    throw new MessageFailure("Bytes-sent discrepancy: sent=" + bytesSent + ", exp=" + expected);
+                }
+            } finally {
+                sendBuffers.release(sendBuf);
             }
 
-            lastSend = Instant.now();
+            lastSend = System.currentTimeMillis();
         } finally {
-            threadLock.set(false);
+            stateLock.unlock();
         }
     }
 
@@ -561,28 +647,22 @@ public class ClientMessageHandler implements MessageHandler {
 
     /**
      * Handles incoming data.
-     * @param content JSON body
+     * @param envelope Decoded message, with its data not yet parsed
      */
-    private void recv(final String content) {
-        // Obtain the lock
-        while (!threadLock.compareAndSet(false, true)) {
+    private void recv(final MessageEnvelope envelope) {
+        // Obtain the game lock before the state lock. The render thread sends while holding the game lock,
+        //  so waiting for it here while holding the state lock could deadlock
+        final Lock gameLock = gameState != null ? gameState.getLock() : null;
+        if (gameLock != null) {
             try {
-                TimeUnit.MICROSECONDS.sleep(50);
-            } catch (final Throwable t) {
-                sendErrorHandler.handle(t, null);
-            }
-        }
-
-        // Obtain the game lock
-        if (gameState != null) {
-            while (!gameState.acquireLock()) {
-                try {
-                    TimeUnit.MICROSECONDS.sleep(10);
-                } catch (final Throwable t) {
-                    sendErrorHandler.handle(t, null);
-                }
+                gameLock.lockInterruptibly();
+            } catch (final InterruptedException e) {
+                // Stopping. The server resends anything that still matters
+                Thread.currentThread().interrupt();
+                return;
             }
         }
+        stateLock.lock();
 
         // Parse the message
         MessageCommandMethod method = null;
@@ -590,29 +670,40 @@ public class ClientMessageHandler implements MessageHandler {
         boolean success = false;
         try {
             try {
-                final JsonNode node = MAPPER.readTree(content);
-
-                msg = IncomingMessage.from(game.config().getGameType(), commandLoader, node);
+                msg = envelope.open(game.config().getGameType(), commandLoader);
             } catch (final Throwable t) {
-                throw new IllegalArgumentException("Unable to parse message payload as JSON.", t);
+                throw new IllegalArgumentException("Unable to parse message payload.", t);
             }
 
             // This is a command we're supposed to respond to
             if (msg.messageId() != null) {
                 // Check if it's something we've already seen (meaning the response was dropped)
-                final OutgoingResponse outgoingResp = outgoingResponses.get(msg.messageId());
-                if (outgoingResp != null) {
-                    // Send it instead
-                    sendQueue.add(outgoingResp.message());
+                if (connection.getReceived().contains(msg.messageId())) {
+                    // Send the response again instead, if it's still around. Bare acks go out with the next datagram's header.
+                    final OutgoingResponse outgoingResp = outgoingResponses.get(msg.messageId());
+                    if (outgoingResp != null && !outgoingResp.ackDeadline().isBefore(Instant.now())) {
+                        // If the queue is full, the server asks again
+                        sendQueue.offer(outgoingResp.message());
+                    } else if (!connection.resendAck(msg.messageId())) {
+                        // Too old for the header to carry
+                        send(
+                            OutgoingMessage.newBuilder()
+                                .setKey(this)
+                                .success()
+                                .ackMessageId(msg.messageId())
+                                .data(new EmptyData())
+                                .build());
+                    }
                     return;
                 }
+                connection.getReceived().mark(msg.messageId());
 
                 // A new command. Run it normally
                 method = commandLoader.commandMethodFor(game.config().getGameType(), msg.data().getType());
             } else if (msg.ackMessageId() != null) {
                 // This is an acknowledgement.
                 // Ack the command first
-                if (outgoingCommands.remove(msg.ackMessageId()) == null) {
+                if (outgoingCommands.ack(msg.ackMessageId(), monotonicMillis()) == null) {
                     Gdx.app.error(ClientMessageHandler.class.getSimpleName(), "Server acked a message that doesn't exist: " + msg.ackMessageId() + "\n" + msg);
                     return;
                 }
@@ -635,10 +726,8 @@ public class ClientMessageHandler implements MessageHandler {
             }
             success = true;
         } finally {
-            try {
-                threadLock.set(false);
-            } catch (final Throwable t) {}
-            if (!success && gameState != null) gameState.releaseLock();
+            stateLock.unlock();
+            if (!success && gameLock != null) gameLock.unlock();
         }
 
         try {
@@ -656,7 +745,7 @@ public class ClientMessageHandler implements MessageHandler {
                 callbackMethod.run(msg);
             }
         } finally {
-            if (gameState != null) gameState.releaseLock();
+            if (gameLock != null) gameLock.unlock();
         }
     }
     
@@ -687,13 +776,51 @@ public class ClientMessageHandler implements MessageHandler {
         return gameState;
     }
 
+    /**
+     * Gets the format outgoing messages are encoded with.
+     * @return Wire format
+     */
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    /**
+     * Sets the format outgoing messages are encoded with. Only call this once the server has accepted the format.
+     * @param wireFormat Wire format
+     */
+    public void setWireFormat(final WireFormat wireFormat) {
+        this.wireFormat = wireFormat;
+    }
+
+    /**
+     * Sets whether datagrams to the server start with a selective ack header. Only call this once the
+     *  server has accepted them.
+     * @param ackHeaders True to send ack headers
+     */
+    public void setAckHeaders(final boolean ackHeaders) {
+        connection.setAckHeaders(ackHeaders);
+    }
+
     /**
      * Gets the time the last message was sent to the server.
      * @return Last send time (or null if not ready)
      */
     public Instant getLastSend() {
-        if (!ready) return null;
-        return lastSend;
+        if (!ready || lastSend == 0) return null;
+        return Instant.ofEpochMilli(lastSend);
+    }
+
+    /**
+     * Gets the smoothed round trip time to the server, measured from acks.
+     * @return RTT in milliseconds, or -1 if nothing has been measured yet
+     */
+    public double getSmoothedRttMillis() {
+        stateLock.lock();
+        try {
+            return outgoingCommands.getRtt().getSmoothedRttMillis();
+        } finally {
+            stateLock.unlock();
+        }
     }
 
     /**
@@ -726,11 +853,13 @@ public class ClientMessageHandler implements MessageHandler {
      */
     public String getDebugString() {
         return String.format(
-            "Queue: (s%d c%d r%d)/%d",
+            "Queue: (s%d c%d r%d)/%d, RTT: %.0fms, RTO: %dms",
             sendQueue.size(),
             outgoingCommands.size(),
             outgoingResponses.size(),
-            MAX_QUEUE_SIZE
+            MAX_QUEUE_SIZE,
+            outgoingCommands.getRtt().getSmoothedRttMillis(),
+            outgoingCommands.getRtt().getRtoMillis()
         );
     }
 
@@ -3,8 +3,10 @@ package today.tecktip.killbill.frontend.gameserver.commands;
 import java.io.IOException;
 
 import com.badlogic.gdx.Gdx;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 import today.tecktip.killbill.common.exceptions.MessageFailure;
@@ -15,6 +17,7 @@ import today.tecktip.killbill.common.gameserver.annotations.Command;
 import today.tecktip.killbill.common.gameserver.annotations.InvokeMethod;
 import today.tecktip.killbill.common.gameserver.annotations.ParseMethod;
 import today.tecktip.killbill.common.gameserver.annotations.ResponseMethod;
+import today.tecktip.killbill.common.gameserver.codec.WireFormat;
 import today.tecktip.killbill.common.gameserver.messages.IncomingMessage;
 import today.tecktip.killbill.common.gameserver.messages.MessageData;
 import today.tecktip.killbill.common.gameserver.messages.MessageDataType;
@@ -33,15 +36,40 @@ import today.tecktip.killbill.frontend.http.requests.data.Game;
 public class ConnectCommand {
 
     /**
-     * Outgoing connect command data. Empty at this time.
+     * Outgoing connect command data.
      */
     @JsonSerialize
     public class ConnectCommandData extends MessageData {
+        /**
+         * Wire format we would like the server to use
+         */
+        private final WireFormat wireFormat;
+
         /**
          * Constructs data for the connect command.
+         * @param wireFormat Wire format we would like the server to use
          */
-        public ConnectCommandData() {
+        public ConnectCommandData(final WireFormat wireFormat) {
             super(MessageDataType.COMMAND_CONNECT);
+            this.wireFormat = wireFormat;
+        }
+
+        /**
+         * Gets the wire format we would like the server to use.
+         * @return Requested wire format
+         */
+        @JsonProperty("wireFormat")
+        public WireFormat getWireFormat() {
+            return wireFormat;
+        }
+
+        /**
+         * Asks the server to start datagrams with selective ack headers. Always true for this client.
+         * @return True
+         */
+        @JsonProperty("ackHeaders")
+        public boolean usesAckHeaders() {
+            return true;
         }
     }
 
@@ -49,31 +77,74 @@ public class ConnectCommand {
      * Incoming connect response data.
      */
     public static class ConnectResponseData extends MessageData {
+        /**
+         * Wire format the server accepted
+         */
+        private final WireFormat wireFormat;
+
+        /**
+         * True if the server accepted selective ack headers
+         */
+        private final boolean ackHeaders;
+
         /**
          * Constructs a new incoming connect response message.
+         * @param wireFormat Wire format the server accepted
+         * @param ackHeaders True if the server accepted selective ack headers
          */
-        public ConnectResponseData() {
+        public ConnectResponseData(final WireFormat wireFormat, final boolean ackHeaders) {
             super(MessageDataType.RESP_CONNECT);
+            this.wireFormat = wireFormat;
+            this.ackHeaders = ackHeaders;
         }
 
         /**
-         * Parses a JSON node into connect response data.
-         * @param node JSON node
+         * Gets the wire format the server accepted.
+         * @return Accepted wire format
+         */
+        public WireFormat getWireFormat() {
+            return wireFormat;
+        }
+
+        /**
+         * Checks if the server accepted selective ack headers.
+         * @return True if accepted
+         */
+        public boolean usesAckHeaders() {
+            return ackHeaders;
+        }
+
+        /**
+         * Parses JSON data into connect response data. Servers which don't send a format only speak JSON,
+         *  and servers which don't accept ack headers don't send them.
+         * @param parser Parser on the JSON data
          * @return Parsed data
          */
-        public static ConnectResponseData parse(final JsonNode node) {
-            return new ConnectResponseData();
+        public static ConnectResponseData parse(final JsonParser parser) {
+            final String[] wireFormat = { null };
+            final boolean[] ackHeaders = { false };
+            MessageData.readFields(parser, (name, value) -> {
+                switch (name) {
+                    case "wireFormat":
+                        wireFormat[0] = value.currentToken() == JsonToken.VALUE_STRING ? value.getText() : null;
+                        break;
+                    case "ackHeaders":
+                        ackHeaders[0] = value.currentToken() == JsonToken.VALUE_TRUE;
+                        break;
+                }
+            });
+            return new ConnectResponseData(WireFormat.fromName(wireFormat[0]), ackHeaders[0]);
         }
     }
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.RESP_CONNECT)
-    public ConnectResponseData parse(final JsonNode node) {
-        return new ConnectResponseData();
+    public ConnectResponseData parse(final JsonParser parser) {
+        return ConnectResponseData.parse(parser);
     }
 
     /**
@@ -89,8 +160,8 @@ public class ConnectCommand {
             ((ClientMessageHandler) handler).sendImmediately(
                 OutgoingMessage.newBuilder()
                     .setKey(handler)
-                    .randomMessageId()
-                    .data(new ConnectCommandData())
+                    .reliable()
+                    .data(new ConnectCommandData(ClientMessageHandler.PREFERRED_WIRE_FORMAT))
                     .build()
             );
         } catch (IOException e) {
@@ -109,6 +180,11 @@ public class ConnectCommand {
         // Mark the client as ready
         Gdx.app.log(ConnectCommand.class.getSimpleName(), "Ready response received from server!");
 
+        // Start speaking whatever format and framing the server accepted
+        final ConnectResponseData data = (ConnectResponseData) message.data();
+        ((ClientMessageHandler) handler).setWireFormat(data.getWireFormat());
+        ((ClientMessageHandler) handler).setAckHeaders(data.usesAckHeaders());
+
         // Build up our game state
         final Game game = ((ClientMessageHandler) handler).getGame();
         final LocalGameState gameState;
@@ -48,7 +48,7 @@ public class DisconnectCommand {
             ((ClientMessageHandler) handler).sendImmediately(
                 OutgoingMessage.newBuilder()
                     .setKey(handler)
-                    .randomMessageId()
+                    .reliable()
                     .data(new DisconnectCommandData())
                     .build()
             );
@@ -43,7 +43,7 @@ public class HeartbeatCommand {
                 null,
                 OutgoingMessage.newBuilder()
                     .setKey(handler)
-                    .randomMessageId()
+                    .reliable()
                     .data(new HeartbeatCommandData())
                     .build()
             );
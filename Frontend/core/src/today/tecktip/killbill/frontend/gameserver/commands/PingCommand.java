@@ -4,7 +4,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 import today.tecktip.killbill.common.exceptions.MessageFailure;
@@ -19,6 +19,7 @@ import today.tecktip.killbill.common.gameserver.messages.IncomingMessage;
 import today.tecktip.killbill.common.gameserver.messages.MessageData;
 import today.tecktip.killbill.common.gameserver.messages.MessageDataType;
 import today.tecktip.killbill.common.gameserver.messages.OutgoingMessage;
+import today.tecktip.killbill.frontend.gameserver.ClientMessageHandler;
 
 /**
  * Pings the server.
@@ -71,23 +72,23 @@ public class PingCommand {
         }
 
         /**
-         * Parses a JSON node into connect response data.
-         * @param node JSON node
+         * Parses JSON data into connect response data.
+         * @param parser Parser on the JSON data
          * @return Parsed data
          */
-        public static PingResponseData parse(final JsonNode node) {
-            return new PingResponseData(node.get("message").textValue());
+        public static PingResponseData parse(final JsonParser parser) {
+            return new PingResponseData(MessageData.readText(parser, "message"));
         }
     }
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.RESP_PING)
-    public PingResponseData parse(final JsonNode node) {
-        return PingResponseData.parse(node);
+    public PingResponseData parse(final JsonParser parser) {
+        return PingResponseData.parse(parser);
     }
 
     /**
@@ -103,7 +104,7 @@ public class PingCommand {
                 null,
                 OutgoingMessage.newBuilder()
                     .setKey(handler)
-                    .randomMessageId()
+                    .reliable()
                     .data(new PingCommandData())
                     .build()
             );
@@ -120,6 +121,11 @@ public class PingCommand {
      */
     @ResponseMethod(type = MessageDataType.RESP_PING)
     public void handleResponse(final MessageHandler handler, final IncomingMessage message, final CommandContext context) {
-        LOGGER.info("Ping! The server says: ", ((PingResponseData) message.data()).getMessage());
+        // The ack that carried this response has already been timed
+        LOGGER.info(
+            "Ping! The server says: {} (RTT {}ms)",
+            ((PingResponseData) message.data()).getMessage(),
+            Math.round(((ClientMessageHandler) handler).getSmoothedRttMillis())
+        );
     }
 }
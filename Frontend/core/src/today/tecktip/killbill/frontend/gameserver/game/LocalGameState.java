@@ -4,7 +4,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 import today.tecktip.killbill.frontend.http.requests.data.Game;
@@ -25,7 +26,11 @@ public abstract class LocalGameState {
      */
     protected final HashMap<UUID, LocalGameUserState> users = new HashMap<>();
 
-    private AtomicBoolean lock;
+    /**
+     * Held while the game state is read or changed, by the render thread each frame and by the
+     *  listener thread while it runs a command
+     */
+    private final Lock lock;
 
     /**
      * Constructs a new GameState.
@@ -34,15 +39,15 @@ public abstract class LocalGameState {
     public LocalGameState(final Game game) {
         this.game = game;
         GAME = this;
-        lock = new AtomicBoolean(false);
-    }
-
-    public boolean acquireLock() {
-        return lock.compareAndSet(false, true);
+        lock = new ReentrantLock();
     }
 
-    public void releaseLock() {
-        lock.set(false);
+    /**
+     * Gets the lock guarding this game state. Must be released by the thread that acquired it.
+     * @return Game state lock
+     */
+    public Lock getLock() {
+        return lock;
     }
 
     /**
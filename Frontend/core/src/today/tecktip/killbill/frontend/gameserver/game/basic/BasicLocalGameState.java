@@ -39,6 +39,11 @@ public class BasicLocalGameState extends LocalGameState {
 
     private BasicPlayerType winningTeam;
 
+    /**
+     * Recent world snapshots, used to decode new ones.
+     */
+    private final BasicSnapshotBaselines snapshotBaselines;
+
     /**
      * Constructs a new {@link BasicGameState}.
      * @param game Parent game this is representing
@@ -51,6 +56,7 @@ public class BasicLocalGameState extends LocalGameState {
         recentItem = null;
         entities = new HashMap<>();
         winningTeam = null;
+        snapshotBaselines = new BasicSnapshotBaselines();
     }
     public BasicGameRunState getState() {
         return runState;
@@ -218,6 +224,14 @@ public class BasicLocalGameState extends LocalGameState {
         this.winningTeam = winningTeam;
     }
 
+    /**
+     * Gets the recent world snapshots used to decode new ones.
+     * @return Snapshot baselines
+     */
+    public BasicSnapshotBaselines getSnapshotBaselines() {
+        return snapshotBaselines;
+    }
+
     /**
      * The possible states a game can be in.
      */
@@ -59,6 +59,11 @@ public class BasicLocalGameUserState extends LocalGameUserState {
 
     private boolean isReady;
 
+    /**
+     * False while the player is too far away for the server to send us their state.
+     */
+    private boolean inRange;
+
     private User user;
 
     private boolean userRequestSent;
@@ -90,6 +95,7 @@ public class BasicLocalGameUserState extends LocalGameUserState {
         health = new TimestampedValue<>(-1);
         maxHealth = new TimestampedValue<>(-1);
         isReady = false;
+        inRange = true;
         user = null;
         userRequestSent = false;
         updatedFields = new ArrayList<>(PlayerStateFieldFilter.values().length);
@@ -116,6 +122,22 @@ public class BasicLocalGameUserState extends LocalGameUserState {
         isReady = true;
     }
 
+    /**
+     * Checks if this player is close enough for the server to keep us updated on them.
+     * @return True if in range
+     */
+    public boolean isInRange() {
+        return inRange;
+    }
+
+    /**
+     * Sets if this player is close enough for the server to keep us updated on them.
+     * @param inRange True if in range
+     */
+    public void setInRange(final boolean inRange) {
+        this.inRange = inRange;
+    }
+
     /**
      * Gets the user's current coordinates.
      * @return Coordinates
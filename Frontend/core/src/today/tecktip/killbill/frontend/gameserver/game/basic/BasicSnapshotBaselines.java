@@ -0,0 +1,80 @@
+package today.tecktip.killbill.frontend.gameserver.game.basic;
+
+import java.util.Map;
+import java.util.UUID;
+
+import today.tecktip.killbill.common.gameserver.MessageHandler;
+import today.tecktip.killbill.common.gameserver.reliability.SequenceRing;
+import today.tecktip.killbill.frontend.gameserver.game.basic.commands.BasicRecvEntityStateCommand.BasicRecvEntityStateCommandData;
+import today.tecktip.killbill.frontend.gameserver.game.basic.commands.BasicRecvPlayerStateCommand.BasicRecvPlayerStateData;
+
+/**
+ * The most recent world snapshots received from the server, used to decode the deltas in later ones.
+ * <p>
+ * Each snapshot holds the full state of every entity and player it mentioned. A delta names the
+ *  snapshot it was encoded against, and any field it leaves out is taken from there.
+ * @author cs
+ */
+public class BasicSnapshotBaselines {
+    /**
+     * Recently received snapshots by sequence number
+     */
+    private final SequenceRing<Baseline> baselines;
+
+    /**
+     * Constructs a new, empty set of baselines.
+     */
+    public BasicSnapshotBaselines() {
+        baselines = new SequenceRing<>(MessageHandler.SNAPSHOT_BASELINES);
+    }
+
+    /**
+     * Decodes an entity delta.
+     * @param delta Entity delta
+     * @return Full entity state, or null if the baseline it was encoded against is unknown
+     */
+    public BasicRecvEntityStateCommandData decode(final BasicRecvEntityStateCommandData delta) {
+        if (delta.getBaseline() == null) return delta;
+
+        final Baseline baseline = baselines.get(delta.getBaseline());
+        if (baseline == null) return null;
+        final BasicRecvEntityStateCommandData base = baseline.entities().get(delta.getEntityId());
+        if (base == null) return null;
+        return delta.withBaseline(base);
+    }
+
+    /**
+     * Decodes a player delta.
+     * @param delta Player delta
+     * @return Full player state, or null if the baseline it was encoded against is unknown
+     */
+    public BasicRecvPlayerStateData decode(final BasicRecvPlayerStateData delta) {
+        if (delta.getBaseline() == null) return delta;
+
+        final Baseline baseline = baselines.get(delta.getBaseline());
+        if (baseline == null) return null;
+        final BasicRecvPlayerStateData base = baseline.players().get(delta.getUserId());
+        if (base == null) return null;
+        return delta.withBaseline(base);
+    }
+
+    /**
+     * Keeps a fully decoded snapshot so later deltas can be encoded against it.
+     * @param sequence Snapshot sequence number
+     * @param entities Full state of each entity in the snapshot
+     * @param players Full state of each player in the snapshot
+     */
+    public void store(final int sequence, final Map<Integer, BasicRecvEntityStateCommandData> entities, final Map<UUID, BasicRecvPlayerStateData> players) {
+        baselines.put(sequence, new Baseline(entities, players));
+    }
+
+    /**
+     * The decoded contents of one snapshot.
+     * @param entities Full entity states by ID
+     * @param players Full player states by user ID
+     */
+    private static record Baseline(
+        Map<Integer, BasicRecvEntityStateCommandData> entities,
+        Map<UUID, BasicRecvPlayerStateData> players
+    ) {}
+}
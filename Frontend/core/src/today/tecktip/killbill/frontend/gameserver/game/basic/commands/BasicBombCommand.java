@@ -9,8 +9,7 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.common.exceptions.MessageFailure;
 import today.tecktip.killbill.common.gameserver.MessageHandler;
@@ -39,11 +38,6 @@ public class BasicBombCommand {
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(BasicBombCommand.class);
     
-    /**
-     * Jackson thingy
-     */
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     /**
      * Incoming bomb command data.
      */
@@ -127,12 +121,12 @@ public class BasicBombCommand {
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.COMMAND_RECV_BOMB)
-    public BasicBombCommandData parse(final JsonNode node) {
-        return MAPPER.convertValue(node, BasicBombCommandData.class);
+    public BasicBombCommandData parse(final JsonParser parser) {
+        return MessageData.read(parser, BasicBombCommandData.class);
     }
 
     /**
@@ -182,7 +176,7 @@ public class BasicBombCommand {
                 OutgoingMessage.newBuilder()
                     .setKey(handler)
                     .success()
-                    .randomMessageId()
+                    .reliable()
                     .data(newData)
                     .build());
         } catch (final Throwable t) {
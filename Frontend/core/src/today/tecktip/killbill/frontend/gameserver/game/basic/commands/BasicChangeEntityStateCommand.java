@@ -148,7 +148,7 @@ public class BasicChangeEntityStateCommand {
                 OutgoingMessage.newBuilder()
                     .setKey(handler)
                     .success()
-                    .randomMessageId()
+                    .reliable()
                     .data(data)
                     .build());
         } catch (final JsonProcessingException e) {
@@ -217,7 +217,7 @@ public class BasicChangeEntityStateCommand {
                 OutgoingMessage.newBuilder()
                     .setKey(handler)
                     .success()
-                    .randomMessageId()
+                    .reliable()
                     .data(data)
                     .build());
         } catch (final JsonProcessingException e) {
@@ -41,7 +41,7 @@ public class BasicChangeGameStateCommand {
                 OutgoingMessage.newBuilder()
                     .setKey(handler)
                     .success()
-                    .randomMessageId()
+                    .reliable()
                     .data(data)
                     .build());
         } catch (final JsonProcessingException e) {
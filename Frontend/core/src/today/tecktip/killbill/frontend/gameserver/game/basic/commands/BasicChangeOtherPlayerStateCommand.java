@@ -102,7 +102,7 @@ public class BasicChangeOtherPlayerStateCommand {
                 OutgoingMessage.newBuilder()
                     .setKey(handler)
                     .success()
-                    .randomMessageId()
+                    .reliable()
                     .data(data)
                     .build());
         } catch (final JsonProcessingException e) {
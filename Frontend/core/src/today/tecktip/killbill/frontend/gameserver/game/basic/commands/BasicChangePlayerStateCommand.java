@@ -39,6 +39,7 @@ public class BasicChangePlayerStateCommand {
             ctx.getFieldFilter().contains(PlayerStateFieldFilter.HEALTH) ? ctx.getUserState().getHealth() : null,
             null,
             ctx.getFieldFilter().contains(PlayerStateFieldFilter.HELD_ITEM_TEXTURE) ? ctx.getUserState().getHeldItemTexture() : null,
+            null,
             null
         );
 
@@ -50,7 +51,7 @@ public class BasicChangePlayerStateCommand {
                 OutgoingMessage.newBuilder()
                     .setKey(handler)
                     .success()
-                    .randomMessageId()
+                    .reliable()
                     .data(data)
                     .build());
         } catch (final JsonProcessingException e) {
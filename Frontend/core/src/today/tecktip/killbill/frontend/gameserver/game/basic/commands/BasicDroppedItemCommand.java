@@ -6,8 +6,7 @@ import java.util.UUID;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.common.exceptions.MessageFailure;
 import today.tecktip.killbill.common.gameserver.MessageHandler;
@@ -38,11 +37,6 @@ import today.tecktip.killbill.frontend.gameserver.game.basic.BasicLocalGameState
 @Command(gameTypes = {GameType.BASIC})
 public class BasicDroppedItemCommand {
 
-    /**
-     * Jackson thingy
-     */
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     /**
      * Incoming create dropped item command data.
      */
@@ -177,22 +171,22 @@ public class BasicDroppedItemCommand {
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.COMMAND_RECV_NEW_DROPPED_ITEM)
-    public BasicCreateDroppedItemCommandData parse(final JsonNode node) {
-        return MAPPER.convertValue(node, BasicCreateDroppedItemCommandData.class);
+    public BasicCreateDroppedItemCommandData parse(final JsonParser parser) {
+        return MessageData.read(parser, BasicCreateDroppedItemCommandData.class);
     }
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.COMMAND_RECV_REMOVE_DROPPED_ITEM)
-    public BasicRemoveDroppedItemCommandData parseRemove(final JsonNode node) {
-        return MAPPER.convertValue(node, BasicRemoveDroppedItemCommandData.class);
+    public BasicRemoveDroppedItemCommandData parseRemove(final JsonParser parser) {
+        return MessageData.read(parser, BasicRemoveDroppedItemCommandData.class);
     }
 
     /**
@@ -280,7 +274,7 @@ public class BasicDroppedItemCommand {
                 OutgoingMessage.newBuilder()
                     .setKey(handler)
                     .success()
-                    .randomMessageId()
+                    .reliable()
                     .data(new BasicCreateDroppedItemCommandData(
                         MessageDataType.COMMAND_CREATE_DROPPED_ITEM, 
                         itemState.getLocation(), 
@@ -310,7 +304,7 @@ public class BasicDroppedItemCommand {
                 OutgoingMessage.newBuilder()
                     .setKey(handler)
                     .success()
-                    .randomMessageId()
+                    .reliable()
                     .data(new BasicRemoveDroppedItemCommandData(id))
                     .build()); 
         } catch (final JsonProcessingException e) {
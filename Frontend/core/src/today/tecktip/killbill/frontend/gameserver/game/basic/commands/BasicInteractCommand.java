@@ -2,8 +2,7 @@ package today.tecktip.killbill.frontend.gameserver.game.basic.commands;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.common.exceptions.MessageFailure;
 import today.tecktip.killbill.common.gameserver.MessageHandler;
@@ -27,11 +26,6 @@ import today.tecktip.killbill.common.maploader.MapDirective.DirectiveType;
  */
 @Command(gameTypes = {GameType.BASIC})
 public class BasicInteractCommand {
-    /**
-     * Jackson thingy
-     */
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     /**
      * Incoming interact command data.
      */
@@ -106,12 +100,12 @@ public class BasicInteractCommand {
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.COMMAND_RECV_INTERACTION)
-    public BasicInteractCommandData parse(final JsonNode node) {
-        return MAPPER.convertValue(node, BasicInteractCommandData.class);
+    public BasicInteractCommandData parse(final JsonParser parser) {
+        return MessageData.read(parser, BasicInteractCommandData.class);
     }
 
     /**
@@ -161,7 +155,7 @@ public class BasicInteractCommand {
                 OutgoingMessage.newBuilder()
                     .setKey(handler)
                     .success()
-                    .randomMessageId()
+                    .reliable()
                     .data(data)
                     .build());
         }
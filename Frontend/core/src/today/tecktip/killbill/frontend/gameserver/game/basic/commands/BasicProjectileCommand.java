@@ -9,8 +9,7 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.common.exceptions.MessageFailure;
 import today.tecktip.killbill.common.gameserver.MessageHandler;
@@ -39,11 +38,6 @@ public class BasicProjectileCommand {
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(BasicProjectileCommand.class);
     
-    /**
-     * Jackson thingy
-     */
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     /**
      * Incoming projectile command data.
      */
@@ -139,12 +133,12 @@ public class BasicProjectileCommand {
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.COMMAND_RECV_PROJECTILE)
-    public BasicProjectileCommandData parse(final JsonNode node) {
-        return MAPPER.convertValue(node, BasicProjectileCommandData.class);
+    public BasicProjectileCommandData parse(final JsonParser parser) {
+        return MessageData.read(parser, BasicProjectileCommandData.class);
     }
 
     /**
@@ -194,7 +188,7 @@ public class BasicProjectileCommand {
                 OutgoingMessage.newBuilder()
                     .setKey(handler)
                     .success()
-                    .randomMessageId()
+                    .reliable()
                     .data(newData)
                     .build());
         } catch (final Throwable t) {
@@ -1,11 +1,17 @@
 package today.tecktip.killbill.frontend.gameserver.game.basic.commands;
 
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.common.exceptions.MessageFailure;
 import today.tecktip.killbill.common.gameserver.MessageHandler;
@@ -24,9 +30,15 @@ import today.tecktip.killbill.common.gameserver.messages.MessageDataType;
 import today.tecktip.killbill.common.gameserver.messages.OutgoingMessage;
 import today.tecktip.killbill.common.gameserver.messages.generic.EmptyData;
 import today.tecktip.killbill.common.maploader.directives.EntityDirective.EntityType;
+import today.tecktip.killbill.frontend.KillBillGame;
 import today.tecktip.killbill.frontend.gameserver.ClientMessageHandler;
+import today.tecktip.killbill.frontend.gameserver.game.LocalGameUserState;
 import today.tecktip.killbill.frontend.gameserver.game.basic.BasicLocalEntityState;
 import today.tecktip.killbill.frontend.gameserver.game.basic.BasicLocalGameState;
+import today.tecktip.killbill.frontend.gameserver.game.basic.BasicLocalGameUserState;
+import today.tecktip.killbill.frontend.gameserver.game.basic.BasicSnapshotBaselines;
+import today.tecktip.killbill.frontend.gameserver.game.basic.commands.BasicDroppedItemCommand.BasicCreateDroppedItemCommandData;
+import today.tecktip.killbill.frontend.gameserver.game.basic.commands.BasicRecvPlayerStateCommand.BasicRecvPlayerStateData;
 
 /**
  * Sends an entity's state to connected clients.
@@ -34,11 +46,6 @@ import today.tecktip.killbill.frontend.gameserver.game.basic.BasicLocalGameState
  */
 @Command(gameTypes = {GameType.BASIC})
 public class BasicRecvEntityStateCommand {
-    /**
-     * JSON deserializer
-     */
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     /**
      * Data attached to refresh entity state commands or get entity state responses.
      */
@@ -83,6 +90,11 @@ public class BasicRecvEntityStateCommand {
          */
         private final String texturePrefix;
 
+        /**
+         * Snapshot this state is a delta against, if it's part of a snapshot.
+         */
+        private final Integer baseline;
+
         /**
          * Constructs a new basic refresh entity state client command response.
          */
@@ -94,7 +106,8 @@ public class BasicRecvEntityStateCommand {
             @JsonProperty(value = "health", required = false) Integer health,
             @JsonProperty(value = "state", required = false) Integer state,
             @JsonProperty(value = "heldItemTexture", required = false) String heldItemTexture,
-            @JsonProperty(value = "texturePrefix", required = false) String texturePrefix
+            @JsonProperty(value = "texturePrefix", required = false) String texturePrefix,
+            @JsonProperty(value = "baseline", required = false) Integer baseline
         ) {
             super(MessageDataType.COMMAND_RECV_ENTITY_STATE);
             this.entityId = entityId;
@@ -111,6 +124,7 @@ public class BasicRecvEntityStateCommand {
             this.state = state;
             this.heldItemTexture = heldItemTexture;
             this.texturePrefix = texturePrefix;
+            this.baseline = baseline;
         }
 
         /**
@@ -185,6 +199,35 @@ public class BasicRecvEntityStateCommand {
         public String getTexturePrefix() {
             return texturePrefix;
         }
+
+        /**
+         * Gets the snapshot this state is a delta against.
+         * @return Baseline sequence number, or null if this is a full state
+         */
+        public Integer getBaseline() {
+            return baseline;
+        }
+
+        /**
+         * Fills in the fields this delta didn't change from its baseline.
+         * @param base Full state at the baseline
+         * @return Full state
+         */
+        public BasicRecvEntityStateCommandData withBaseline(final BasicRecvEntityStateCommandData base) {
+            final Coordinates mergedCoordinates = coordinates != null ? coordinates : base.getCoordinates();
+            final EntityType mergedType = entityType != null ? entityType : base.getEntityType();
+            return new BasicRecvEntityStateCommandData(
+                entityId,
+                mergedCoordinates == null ? null : mergedCoordinates.toList(),
+                rotation != null ? rotation : base.getRotation(),
+                mergedType == null ? null : mergedType.toString(),
+                health != null ? health : base.getHealth(),
+                state != null ? state : base.getState(),
+                heldItemTexture != null ? heldItemTexture : base.getHeldItemTexture(),
+                texturePrefix != null ? texturePrefix : base.getTexturePrefix(),
+                null
+            );
+        }
     }
 
     /**
@@ -218,13 +261,13 @@ public class BasicRecvEntityStateCommand {
     }
 
     @ParseMethod(type = MessageDataType.COMMAND_RECV_ENTITY_STATE)
-    public BasicRecvEntityStateCommandData parse(final JsonNode node) {
-        return MAPPER.convertValue(node, BasicRecvEntityStateCommandData.class);
+    public BasicRecvEntityStateCommandData parse(final JsonParser parser) {
+        return MessageData.read(parser, BasicRecvEntityStateCommandData.class);
     }
 
     @ParseMethod(type = MessageDataType.RESP_GET_ENTITY_STATE)
-    public BasicRecvEntityStateCommandData parseGet(final JsonNode node) {
-        final BasicRecvEntityStateCommandData data = MAPPER.convertValue(node, BasicRecvEntityStateCommandData.class);
+    public BasicRecvEntityStateCommandData parseGet(final JsonParser parser) {
+        final BasicRecvEntityStateCommandData data = MessageData.read(parser, BasicRecvEntityStateCommandData.class);
         data.setType(MessageDataType.RESP_GET_ENTITY_STATE);
         return data;
     }
@@ -271,8 +314,169 @@ public class BasicRecvEntityStateCommand {
     }
 
     @ParseMethod(type = MessageDataType.COMMAND_RECV_REMOVE_ENTITY)
-    public BasicRecvRemoveEntityStateCommandData parseRemove(final JsonNode node) {
-        return MAPPER.convertValue(node, BasicRecvRemoveEntityStateCommandData.class);
+    public BasicRecvRemoveEntityStateCommandData parseRemove(final JsonParser parser) {
+        return MessageData.read(parser, BasicRecvRemoveEntityStateCommandData.class);
+    }
+
+    /**
+     * Incoming snapshot command data: one server tick's changes, encoded against earlier snapshots.
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class BasicRecvSnapshotCommandData extends MessageData {
+        /**
+         * Sequence number of this snapshot.
+         */
+        private final int sequence;
+
+        /**
+         * Changed entities.
+         */
+        private final List<BasicRecvEntityStateCommandData> entities;
+
+        /**
+         * IDs of removed entities.
+         */
+        private final List<Integer> removedEntities;
+
+        /**
+         * Changed players.
+         */
+        private final List<BasicRecvPlayerStateData> players;
+
+        /**
+         * IDs of players that moved out of range.
+         */
+        private final List<UUID> hiddenPlayers;
+
+        /**
+         * New dropped items.
+         */
+        private final List<BasicCreateDroppedItemCommandData> newDroppedItems;
+
+        /**
+         * IDs of removed dropped items.
+         */
+        private final List<String> removedDroppedItems;
+
+        /**
+         * Constructs snapshot command data.
+         * @param sequence Sequence number of this snapshot
+         * @param entities Changed entities
+         * @param removedEntities IDs of removed entities
+         * @param players Changed players
+         * @param hiddenPlayers IDs of players that moved out of range
+         * @param newDroppedItems New dropped items
+         * @param removedDroppedItems IDs of removed dropped items
+         */
+        @JsonCreator
+        public BasicRecvSnapshotCommandData(
+            @JsonProperty(value = "sequence", required = true) final int sequence,
+            @JsonProperty("entities") final List<BasicRecvEntityStateCommandData> entities,
+            @JsonProperty("removedEntities") final List<Integer> removedEntities,
+            @JsonProperty("players") final List<BasicRecvPlayerStateData> players,
+            @JsonProperty("hiddenPlayers") final List<UUID> hiddenPlayers,
+            @JsonProperty("newDroppedItems") final List<BasicCreateDroppedItemCommandData> newDroppedItems,
+            @JsonProperty("removedDroppedItems") final List<String> removedDroppedItems
+        ) {
+            super(MessageDataType.COMMAND_RECV_SNAPSHOT);
+            // Lists the server had nothing for may be left out
+            this.sequence = sequence;
+            this.entities = entities == null ? Collections.emptyList() : entities;
+            this.removedEntities = removedEntities == null ? Collections.emptyList() : removedEntities;
+            this.players = players == null ? Collections.emptyList() : players;
+            this.hiddenPlayers = hiddenPlayers == null ? Collections.emptyList() : hiddenPlayers;
+            this.newDroppedItems = newDroppedItems == null ? Collections.emptyList() : newDroppedItems;
+            this.removedDroppedItems = removedDroppedItems == null ? Collections.emptyList() : removedDroppedItems;
+        }
+
+        /**
+         * Gets the sequence number of this snapshot.
+         * @return Sequence number
+         */
+        public int getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Gets the changed entities.
+         * @return Entity deltas
+         */
+        public List<BasicRecvEntityStateCommandData> getEntities() {
+            return entities;
+        }
+
+        /**
+         * Gets the IDs of removed entities.
+         * @return Entity IDs
+         */
+        public List<Integer> getRemovedEntities() {
+            return removedEntities;
+        }
+
+        /**
+         * Gets the changed players.
+         * @return Player deltas
+         */
+        public List<BasicRecvPlayerStateData> getPlayers() {
+            return players;
+        }
+
+        /**
+         * Gets the IDs of players that moved out of range.
+         * @return User IDs
+         */
+        public List<UUID> getHiddenPlayers() {
+            return hiddenPlayers;
+        }
+
+        /**
+         * Gets the new dropped items.
+         * @return Dropped items
+         */
+        public List<BasicCreateDroppedItemCommandData> getNewDroppedItems() {
+            return newDroppedItems;
+        }
+
+        /**
+         * Gets the IDs of removed dropped items.
+         * @return Dropped item IDs
+         */
+        public List<String> getRemovedDroppedItems() {
+            return removedDroppedItems;
+        }
+    }
+
+    /**
+     * Outgoing snapshot acknowledgement data.
+     */
+    public static class BasicAckSnapshotCommandData extends MessageData {
+        /**
+         * Sequence number of the received snapshot.
+         */
+        private final int sequence;
+
+        /**
+         * Constructs snapshot acknowledgement data.
+         * @param sequence Sequence number of the received snapshot
+         */
+        public BasicAckSnapshotCommandData(final int sequence) {
+            super(MessageDataType.COMMAND_ACK_SNAPSHOT);
+            this.sequence = sequence;
+        }
+
+        /**
+         * Gets the sequence number of the received snapshot.
+         * @return Sequence number
+         */
+        @JsonProperty("sequence")
+        public int getSequence() {
+            return sequence;
+        }
+    }
+
+    @ParseMethod(type = MessageDataType.COMMAND_RECV_SNAPSHOT)
+    public BasicRecvSnapshotCommandData parseSnapshot(final JsonParser parser) {
+        return MessageData.read(parser, BasicRecvSnapshotCommandData.class);
     }
 
     /**
@@ -293,7 +497,7 @@ public class BasicRecvEntityStateCommand {
                 OutgoingMessage.newBuilder()
                     .setKey(handler)
                     .success()
-                    .randomMessageId()
+                    .reliable()
                     .data(new BasicGetEntityStateCommandData(ctx.getEntityId()))
                     .build());
         } catch (final JsonProcessingException e) {
@@ -312,8 +516,33 @@ public class BasicRecvEntityStateCommand {
     @CommandMethod(type = MessageDataType.COMMAND_RECV_ENTITY_STATE)
     public void run(final MessageHandler handler, final IncomingMessage message, final CommandContext context) throws MessageFailure {
         final BasicLocalGameState game = (BasicLocalGameState) ClientMessageHandler.get().getGameState();
-        final BasicRecvEntityStateCommandData data = (BasicRecvEntityStateCommandData) message.data();
+        apply(handler, game, (BasicRecvEntityStateCommandData) message.data(), message.createdAt());
 
+        if (message.messageId() != null) {
+            try {
+                handler.send(
+                    null,
+                    OutgoingMessage.newBuilder()
+                        .setKey(handler)
+                        .success()
+                        .ackMessageId(message.messageId())
+                        .data(new EmptyData())
+                        .build());
+            } catch (final JsonProcessingException e) {
+                throw new MessageFailure("JSON error", e);
+            }
+        }
+    }
+
+    /**
+     * Applies a received entity state, creating the entity if it's new.
+     * @param handler Message handler, used to request the full state of unknown entities
+     * @param game Local game state
+     * @param data Received entity state
+     * @param createdAt Time the state was sent
+     * @throws MessageFailure Unable to request full state
+     */
+    public void apply(final MessageHandler handler, final BasicLocalGameState game, final BasicRecvEntityStateCommandData data, final Instant createdAt) throws MessageFailure {
         // Find the specified entity
         BasicLocalEntityState targetEntity = game.getEntity(data.getEntityId());
         if (targetEntity == null) {
@@ -341,23 +570,7 @@ public class BasicRecvEntityStateCommand {
 
         if (targetEntity != null) {
             // Run a state update on the entity.
-            updateState(targetEntity, data, message);
-        }
-
-        
-        if (message.messageId() != null) {
-            try {
-                handler.send(
-                    null,
-                    OutgoingMessage.newBuilder()
-                        .setKey(handler)
-                        .success()
-                        .ackMessageId(message.messageId())
-                        .data(new EmptyData())
-                        .build());
-            } catch (final JsonProcessingException e) {
-                throw new MessageFailure("JSON error", e);
-            }
+            updateState(targetEntity, data, createdAt);
         }
     }
 
@@ -393,32 +606,113 @@ public class BasicRecvEntityStateCommand {
             targetEntity.setRotation(data.getRotation());
         }
         // Run a state update on the entity.
-        updateState(targetEntity, data, message);
+        updateState(targetEntity, data, message.createdAt());
     }
 
-    private void updateState(final BasicLocalEntityState entity, final BasicRecvEntityStateCommandData data, final IncomingMessage message) {
+    private void updateState(final BasicLocalEntityState entity, final BasicRecvEntityStateCommandData data, final Instant createdAt) {
         if (data.getRotation() != null) {
-            entity.setRotation(message.createdAt(), data.getRotation());
+            entity.setRotation(createdAt, data.getRotation());
         }
 
         if (data.getCoordinates() != null) {
-            entity.setCoordinates(message.createdAt(), data.getCoordinates());
+            entity.setCoordinates(createdAt, data.getCoordinates());
         }
 
         if (data.getHealth() != null) {
-            entity.setHealth(message.createdAt(), data.getHealth());
+            entity.setHealth(createdAt, data.getHealth());
         }
 
         if (data.getHeldItemTexture() != null) {
-            entity.setHeldItemTexture(message.createdAt(), data.getHeldItemTexture());
+            entity.setHeldItemTexture(createdAt, data.getHeldItemTexture());
         }
 
         if (data.getTexturePrefix() != null) {
-            entity.setTexturePrefix(message.createdAt(), data.getTexturePrefix());
+            entity.setTexturePrefix(createdAt, data.getTexturePrefix());
         }
 
         if (data.getState() != null) {
-            entity.setState(message.createdAt(), data.getState());
+            entity.setState(createdAt, data.getState());
+        }
+    }
+
+    /**
+     * Runs the Recv Snapshot command, decoding it against earlier snapshots and applying it.
+     * <p>
+     * Snapshots are acked so the server can encode later ones against them. One that can't be fully
+     *  decoded isn't acked or kept; the server keeps encoding against older snapshots until one gets through.
+     * @param handler Message handler which received the command
+     * @param message Message data
+     * @param context Command context
+     * @throws MessageFailure Unable to acknowledge the snapshot
+     */
+    @CommandMethod(type = MessageDataType.COMMAND_RECV_SNAPSHOT)
+    public void runSnapshot(final MessageHandler handler, final IncomingMessage message, final CommandContext context) throws MessageFailure {
+        final BasicLocalGameState game = (BasicLocalGameState) ClientMessageHandler.get().getGameState();
+        final BasicSnapshotBaselines baselines = game.getSnapshotBaselines();
+        final BasicRecvSnapshotCommandData data = (BasicRecvSnapshotCommandData) message.data();
+        final Instant createdAt = message.createdAt();
+        boolean decoded = true;
+
+        final Map<Integer, BasicRecvEntityStateCommandData> entities = new HashMap<>();
+        for (final BasicRecvEntityStateCommandData delta : data.getEntities()) {
+            final BasicRecvEntityStateCommandData entity = baselines.decode(delta);
+            if (entity == null) {
+                decoded = false;
+                continue;
+            }
+            entities.put(entity.getEntityId(), entity);
+            apply(handler, game, entity, createdAt);
+        }
+
+        for (final int entityId : data.getRemovedEntities()) {
+            game.removeEntity(entityId);
+        }
+
+        final Map<UUID, BasicRecvPlayerStateData> players = new HashMap<>();
+        if (!data.getPlayers().isEmpty()) {
+            final BasicRecvPlayerStateCommand playerCommand = new BasicRecvPlayerStateCommand();
+            final UUID self = KillBillGame.get().getUser().id();
+            for (final BasicRecvPlayerStateData delta : data.getPlayers()) {
+                final BasicRecvPlayerStateData player = baselines.decode(delta);
+                if (player == null) {
+                    decoded = false;
+                    continue;
+                }
+                players.put(player.getUserId(), player);
+
+                // We're in charge of our own movement, so only take what the server actually changed
+                playerCommand.apply(game, self.equals(player.getUserId()) ? delta : player, createdAt);
+            }
+        }
+
+        for (final UUID userId : data.getHiddenPlayers()) {
+            final LocalGameUserState user = game.getConnectedUsers().get(userId);
+            if (user != null) ((BasicLocalGameUserState) user).setInRange(false);
+        }
+
+        for (final BasicCreateDroppedItemCommandData item : data.getNewDroppedItems()) {
+            if (game.getDroppedItem(item.getId()) == null)
+                game.addDroppedItem(item.getId(), item.getLocation(), item.getItemType(), item.getQuantity());
+        }
+
+        for (final String itemId : data.getRemovedDroppedItems()) {
+            game.removeDroppedItem(itemId);
+        }
+
+        if (!decoded) return;
+        baselines.store(data.getSequence(), entities, players);
+
+        // Unreliable: a lost ack just means the next snapshot is encoded against an older baseline
+        try {
+            handler.send(
+                null,
+                OutgoingMessage.newBuilder()
+                    .setKey(handler)
+                    .success()
+                    .data(new BasicAckSnapshotCommandData(data.getSequence()))
+                    .build());
+        } catch (final JsonProcessingException e) {
+            throw new MessageFailure("JSON error", e);
         }
     }
 
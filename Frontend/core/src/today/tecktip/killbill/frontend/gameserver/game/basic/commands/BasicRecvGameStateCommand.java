@@ -6,8 +6,7 @@ import java.util.UUID;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.common.exceptions.MessageFailure;
 import today.tecktip.killbill.common.gameserver.MessageHandler;
@@ -35,11 +34,6 @@ import today.tecktip.killbill.frontend.gameserver.game.basic.BasicLocalGameState
  */
 @Command(gameTypes = {GameType.BASIC})
 public class BasicRecvGameStateCommand {
-    /**
-     * JSON deserializer
-     */
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     /**
      * Outgoing recv state command + response data.
      */
@@ -142,15 +136,15 @@ public class BasicRecvGameStateCommand {
     }
 
     @ParseMethod(type = MessageDataType.COMMAND_RECV_GAME_STATE)
-    public BasicRecvGameStateData parse(final JsonNode node) {
-        return MAPPER.convertValue(node, BasicRecvGameStateData.class);
+    public BasicRecvGameStateData parse(final JsonParser parser) {
+        return MessageData.read(parser, BasicRecvGameStateData.class);
     }
 
     @ParseMethod(type = MessageDataType.RESP_GET_GAME_STATE)
-    public BasicRecvGameStateData parseResp(final JsonNode node) {
+    public BasicRecvGameStateData parseResp(final JsonParser parser) {
         // No problem to duplicate these, since the data is identical. We just need the type to be
         // the same.
-        BasicRecvGameStateData data = MAPPER.convertValue(node, BasicRecvGameStateData.class);
+        BasicRecvGameStateData data = MessageData.read(parser, BasicRecvGameStateData.class);
         data.setType(MessageDataType.RESP_GET_GAME_STATE);
         return data;
     }
@@ -240,7 +234,7 @@ public class BasicRecvGameStateCommand {
                 OutgoingMessage.newBuilder()
                     .setKey(handler)
                     .success()
-                    .randomMessageId()
+                    .reliable()
                     .data(new BasicGetGameStateCommandData())
                     .build());
         } catch (final JsonProcessingException e) {
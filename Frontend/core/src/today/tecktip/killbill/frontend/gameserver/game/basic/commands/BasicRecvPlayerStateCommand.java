@@ -1,12 +1,14 @@
 package today.tecktip.killbill.frontend.gameserver.game.basic.commands;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.UUID;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.common.exceptions.MessageFailure;
 import today.tecktip.killbill.common.gameserver.MessageHandler;
@@ -37,11 +39,6 @@ import today.tecktip.killbill.frontend.gameserver.game.basic.BasicLocalGameUserS
  */
 @Command(gameTypes = {GameType.BASIC})
 public class BasicRecvPlayerStateCommand {
-    /**
-     * JSON deserializer
-     */
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     /**
      * Data attached to refresh player state commands or get player state responses.
      */
@@ -86,6 +83,11 @@ public class BasicRecvPlayerStateCommand {
          */
         private final String texturePrefix;
 
+        /**
+         * Snapshot this state is a delta against, if it's part of a snapshot.
+         */
+        private final Integer baseline;
+
         /**
          * Constructs a new basic refresh user state client command response.
          * @param userId User ID with changed coordinates
@@ -99,7 +101,8 @@ public class BasicRecvPlayerStateCommand {
             @JsonProperty(value = "health", required = false) Integer health,
             @JsonProperty(value = "maxHealth", required = false) Integer maxHealth,
             @JsonProperty(value = "heldItemTexture", required = false) String heldItemTexture,
-            @JsonProperty(value = "texturePrefix", required = false) String texturePrefix
+            @JsonProperty(value = "texturePrefix", required = false) String texturePrefix,
+            @JsonProperty(value = "baseline", required = false) Integer baseline
         ) {
             super(MessageDataType.COMMAND_RECV_PLAYER_STATE);
             if (coordinates != null) {
@@ -118,6 +121,7 @@ public class BasicRecvPlayerStateCommand {
             this.maxHealth = maxHealth;
             this.heldItemTexture = heldItemTexture;
             this.texturePrefix = texturePrefix;
+            this.baseline = baseline;
         }
 
         /**
@@ -227,6 +231,37 @@ public class BasicRecvPlayerStateCommand {
         public String getTexturePrefix() {
             return texturePrefix;
         }
+
+        /**
+         * Gets the snapshot this state is a delta against.
+         * @return Baseline sequence number, or null if this is a full state
+         */
+        @JsonProperty("baseline")
+        @JsonInclude(Include.NON_NULL)
+        public Integer getBaseline() {
+            return baseline;
+        }
+
+        /**
+         * Fills in the fields this delta didn't change from its baseline.
+         * @param base Full state at the baseline
+         * @return Full state
+         */
+        public BasicRecvPlayerStateData withBaseline(final BasicRecvPlayerStateData base) {
+            final Coordinates mergedCoordinates = coordinates != null ? coordinates : base.getCoordinates();
+            final BasicPlayerType mergedPlayerType = playerType != null ? playerType : base.getPlayerType();
+            return new BasicRecvPlayerStateData(
+                userId,
+                mergedCoordinates == null ? null : mergedCoordinates.toList(),
+                rotation != null ? rotation : base.getRotation(),
+                mergedPlayerType == null ? null : mergedPlayerType.toString(),
+                health != null ? health : base.getHealth(),
+                maxHealth != null ? maxHealth : base.getMaxHealth(),
+                heldItemTexture != null ? heldItemTexture : base.getHeldItemTexture(),
+                texturePrefix != null ? texturePrefix : base.getTexturePrefix(),
+                null
+            );
+        }
     }
 
     /**
@@ -268,15 +303,15 @@ public class BasicRecvPlayerStateCommand {
     }
 
     @ParseMethod(type = MessageDataType.COMMAND_RECV_PLAYER_STATE)
-    public BasicRecvPlayerStateData parse(final JsonNode node) {
-        return MAPPER.convertValue(node, BasicRecvPlayerStateData.class);
+    public BasicRecvPlayerStateData parse(final JsonParser parser) {
+        return MessageData.read(parser, BasicRecvPlayerStateData.class);
     }
 
     @ParseMethod(type = MessageDataType.RESP_GET_PLAYER_STATE)
-    public BasicRecvPlayerStateData parseResp(final JsonNode node) {
+    public BasicRecvPlayerStateData parseResp(final JsonParser parser) {
         // No problem to duplicate these, since the data is identical. We just need the type to be
         // the same.
-        BasicRecvPlayerStateData data = MAPPER.convertValue(node, BasicRecvPlayerStateData.class);
+        BasicRecvPlayerStateData data = MessageData.read(parser, BasicRecvPlayerStateData.class);
         data.setType(MessageDataType.RESP_GET_PLAYER_STATE);
         return data;
     }
@@ -292,9 +327,31 @@ public class BasicRecvPlayerStateCommand {
     @CommandMethod(type = MessageDataType.COMMAND_RECV_PLAYER_STATE)
     public void run(final MessageHandler handler, final IncomingMessage message, final CommandContext context) throws MessageFailure {
         final BasicLocalGameState game = (BasicLocalGameState) ClientMessageHandler.get().getGameState();
+        apply(game, (BasicRecvPlayerStateData) message.data(), message.createdAt());
 
-        final BasicRecvPlayerStateData data = (BasicRecvPlayerStateData) message.data();
+        if (message.messageId() != null) {
+            try {
+                handler.send(
+                    null,
+                    OutgoingMessage.newBuilder()
+                        .setKey(handler)
+                        .success()
+                        .ackMessageId(message.messageId())
+                        .data(new EmptyData())
+                        .build());
+            } catch (final JsonProcessingException e) {
+                throw new MessageFailure("JSON error", e);
+            }
+        }
+    }
 
+    /**
+     * Applies a received player state, adding the player if they're new.
+     * @param game Local game state
+     * @param data Received player state
+     * @param createdAt Time the state was sent
+     */
+    public void apply(final BasicLocalGameState game, final BasicRecvPlayerStateData data, final Instant createdAt) {
         // Find the specified user
         LocalGameUserState targetUser = game.getConnectedUsers().get(data.getUserId());
         if (targetUser == null) {
@@ -308,26 +365,12 @@ public class BasicRecvPlayerStateCommand {
         }
         BasicLocalGameUserState targetUserState = (BasicLocalGameUserState) targetUser;
         // The player is available. Update state.
-        updateState(targetUserState, data, message);
+        updateState(targetUserState, data, createdAt);
 
         // We will not update the player state.
 
         targetUserState.setReady();
-
-        if (message.messageId() != null) {
-            try {
-                handler.send(
-                    null,
-                    OutgoingMessage.newBuilder()
-                        .setKey(handler)
-                        .success()
-                        .ackMessageId(message.messageId())
-                        .data(new EmptyData())
-                        .build());
-            } catch (final JsonProcessingException e) {
-                throw new MessageFailure("JSON error", e);
-            }
-        }
+        targetUserState.setInRange(true);
     }
 
     /**
@@ -354,41 +397,41 @@ public class BasicRecvPlayerStateCommand {
         } 
         BasicLocalGameUserState targetUserState = (BasicLocalGameUserState) targetUser;
         // The player is available. Update state.
-        updateState(targetUserState, data, message);
+        updateState(targetUserState, data, message.createdAt());
 
         targetUserState.setReady();
     }
 
-    private void updateState(final BasicLocalGameUserState targetUserState, final BasicRecvPlayerStateData data, final IncomingMessage message) {
+    private void updateState(final BasicLocalGameUserState targetUserState, final BasicRecvPlayerStateData data, final Instant createdAt) {
         if (data.getRotation() != null) {
-            targetUserState.setRotation(message.createdAt(), data.getRotation());
+            targetUserState.setRotation(createdAt, data.getRotation());
         }
 
         if (data.getCoordinates() != null) {
-            targetUserState.setCoordinates(message.createdAt(), data.getCoordinates());
+            targetUserState.setCoordinates(createdAt, data.getCoordinates());
         }
 
         if (data.getPlayerType() != null) {
-            targetUserState.setPlayerType(message.createdAt(), data.getPlayerType());
+            targetUserState.setPlayerType(createdAt, data.getPlayerType());
         }
 
         if (data.getHealth() != null) {
             if (targetUserState.getUserId().equals(KillBillGame.get().getUser().id())) {
                 System.err.println("Updated own health to " + data.getHealth());
             }
-            targetUserState.setHealth(message.createdAt(), data.getHealth());
+            targetUserState.setHealth(createdAt, data.getHealth());
         }
 
         if (data.getMaxHealth() != null) {
-            targetUserState.setMaxHealth(message.createdAt(), data.getMaxHealth());
+            targetUserState.setMaxHealth(createdAt, data.getMaxHealth());
         }
 
         if (data.getHeldItemTexture() != null) {
-            targetUserState.setHeldItemTexture(message.createdAt(), data.getHeldItemTexture());
+            targetUserState.setHeldItemTexture(createdAt, data.getHeldItemTexture());
         }
 
         if (data.getTexturePrefix() != null) {
-            targetUserState.setTexturePrefix(message.createdAt(), data.getTexturePrefix());
+            targetUserState.setTexturePrefix(createdAt, data.getTexturePrefix());
         }
     }
 
@@ -407,7 +450,7 @@ public class BasicRecvPlayerStateCommand {
                 OutgoingMessage.newBuilder()
                     .setKey(handler)
                     .success()
-                    .randomMessageId()
+                    .reliable()
                     .data(new BasicGetPlayerStateCommandData(userId))
                     .build());
         } catch (final JsonProcessingException e) {
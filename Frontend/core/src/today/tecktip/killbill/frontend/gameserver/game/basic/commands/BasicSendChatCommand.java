@@ -4,8 +4,7 @@ import java.util.UUID;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
 
 import today.tecktip.killbill.common.gameserver.games.GameType;
 import today.tecktip.killbill.common.exceptions.MessageFailure;
@@ -28,8 +27,6 @@ import today.tecktip.killbill.common.gameserver.messages.generic.EmptyData;
  */
 @Command(gameTypes = {GameType.BASIC})
 public class BasicSendChatCommand {
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     /**
      * Incoming chat command data.
      */
@@ -132,22 +129,22 @@ public class BasicSendChatCommand {
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.COMMAND_RECV_CHAT)
-    public BasicRecvChatCommandData parse(final JsonNode node) {
-        return MAPPER.convertValue(node, BasicRecvChatCommandData.class);
+    public BasicRecvChatCommandData parse(final JsonParser parser) {
+        return MessageData.read(parser, BasicRecvChatCommandData.class);
     }
 
     /**
      * Parse method shortcut for this command's incoming data.
-     * @param node JSON data
+     * @param parser Parser on the JSON data
      * @return Parsed incoming data
      */
     @ParseMethod(type = MessageDataType.COMMAND_RECV_SYSTEM_MESSAGE)
-    public BasicRecvSystemMessageCommandData parseSystem(final JsonNode node) {
-        return MAPPER.convertValue(node, BasicRecvSystemMessageCommandData.class);
+    public BasicRecvSystemMessageCommandData parseSystem(final JsonParser parser) {
+        return MessageData.read(parser, BasicRecvSystemMessageCommandData.class);
     }
 
     /**
@@ -214,7 +211,7 @@ public class BasicSendChatCommand {
             handler.send(
                 null,
                 OutgoingMessage.newBuilder()
-                    .randomMessageId()
+                    .reliable()
                     .setKey(handler)
                     .success()
                     .data(new BasicSendChatCommandData(message))
@@ -48,7 +48,7 @@ public class BasicSendStateCommand {
                 OutgoingMessage.newBuilder()
                     .setKey(handler)
                     .success()
-                    .randomMessageId()
+                    .reliable()
                     .data(new BasicSendStateCommandData())
                     .build());
         } catch (final JsonProcessingException e) {
@@ -452,6 +452,7 @@ public class UdpGameScreen extends GameScreen {
         KillBillGame.get().getUdpClient().setCallback(MessageDataType.COMMAND_RECV_ENTITY_STATE, msg -> { updateEntities(); });
         KillBillGame.get().getUdpClient().setCallback(MessageDataType.RESP_GET_ENTITY_STATE, msg -> { updateEntities(); });
         KillBillGame.get().getUdpClient().setCallback(MessageDataType.COMMAND_RECV_REMOVE_ENTITY, msg -> { updateEntities(); });
+        KillBillGame.get().getUdpClient().setCallback(MessageDataType.COMMAND_RECV_SNAPSHOT, msg -> { updateGameState(); updateEntities(); refreshItems(); });
         KillBillGame.get().getUdpClient().setCallback(MessageDataType.COMMAND_RECV_CHAT, this::recvPlayerChat);
         KillBillGame.get().getUdpClient().setCallback(MessageDataType.COMMAND_RECV_INTERACTION, this::recvInteraction);
         KillBillGame.get().getUdpClient().setCallback(MessageDataType.COMMAND_RECV_SYSTEM_MESSAGE, this::recvSystemChat);
@@ -525,6 +526,9 @@ public class UdpGameScreen extends GameScreen {
             // Check if this is the active player
             if (u.equals(player.getUserState())) continue;
 
+            // Too far away to get updates for, so their location is stale
+            if (!u.isInRange()) continue;
+
             boolean exists = false;
             for (final DummyPlayer dPlayer : players) {
                 if (dPlayer.getUserState().equals(u)) {
@@ -549,7 +553,7 @@ public class UdpGameScreen extends GameScreen {
 
         List<DummyPlayer> toRemove = null;
         for (final DummyPlayer dPlayer : players) {
-            if (!gameState.getConnectedUsers().containsKey(dPlayer.getUserState().getUserId())) {
+            if (!gameState.getConnectedUsers().containsKey(dPlayer.getUserState().getUserId()) || !dPlayer.getUserState().isInRange()) {
                 if (toRemove == null) {
                     toRemove = new ArrayList<>();
                 }
@@ -848,8 +852,8 @@ public class UdpGameScreen extends GameScreen {
             return;
         }
 
-        // Steal the game lock
-        if (!gameState.acquireLock()) return;
+        // Skip the frame if the listener is busy with the game state
+        if (!gameState.getLock().tryLock()) return;
 
         try {
             if (dead) {
@@ -907,7 +911,7 @@ public class UdpGameScreen extends GameScreen {
                 }
             }
         } finally {
-            gameState.releaseLock();
+            gameState.getLock().unlock();
         }
     }
     
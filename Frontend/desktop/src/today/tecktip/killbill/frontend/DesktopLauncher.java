@@ -3,10 +3,9 @@ package today.tecktip.killbill.frontend;
 import com.badlogic.gdx.backends.lwjgl3.Lwjgl3Application;
 import com.badlogic.gdx.backends.lwjgl3.Lwjgl3ApplicationConfiguration;
 
-import today.tecktip.killbill.common.gameserver.ClasspathCommandLoader;
 import today.tecktip.killbill.frontend.KillBillGame.InputType;
 import today.tecktip.killbill.frontend.KillBillGame.Platform;
-import today.tecktip.killbill.frontend.exceptions.CatastrophicException;
+import today.tecktip.killbill.frontend.gameserver.GeneratedCommandLoader;
 import today.tecktip.killbill.frontend.http.NativeHttpClient;
 import today.tecktip.killbill.frontend.natives.DesktopNativeHttpClient;
 import today.tecktip.killbill.frontend.natives.DiscordPresence;
@@ -38,13 +37,7 @@ public class DesktopLauncher {
 			System.err.println("Unable to start Discord presence. Skipping.");
 		}
 
-		final ClasspathCommandLoader loader = new ClasspathCommandLoader();
-		try {
-			loader.load("today.tecktip.killbill.frontend");
-		} catch (final Throwable t) {
-			throw new CatastrophicException("Unable to scan classpath for UDP commands: ", t);
-		}
-		final KillBillGame game = new KillBillGame(Platform.DESKTOP, InputType.KEYBOARD_MOUSE, httpClient, loader);
+		final KillBillGame game = new KillBillGame(Platform.DESKTOP, InputType.KEYBOARD_MOUSE, httpClient, new GeneratedCommandLoader());
 		if (presence != null)
 			game.addRenderMethod(presence::runCallbacks);
 